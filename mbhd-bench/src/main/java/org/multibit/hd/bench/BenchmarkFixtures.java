@@ -0,0 +1,164 @@
+package org.multibit.hd.bench;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.testing.FakeTxBuilder;
+import com.google.bitcoin.wallet.WalletTransaction;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.multibit.hd.core.dto.Contact;
+import org.multibit.hd.core.dto.FiatPayment;
+import org.multibit.hd.core.dto.HistoryEntry;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.store.Payments;
+import org.multibit.hd.core.store.TransactionInfo;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>Factory to provide the following to benchmarks:</p>
+ * <ul>
+ * <li>Synthetic wallets, payments, contacts and history of a given size</li>
+ * </ul>
+ * <p>A fixed random seed is used so that every run benchmarks the same data.</p>
+ *
+ * @since 0.0.1
+ */
+public class BenchmarkFixtures {
+
+  private static final long RANDOM_SEED = 20140901L;
+
+  /**
+   * Utilities have private constructor
+   */
+  private BenchmarkFixtures() {
+  }
+
+  /**
+   * @param networkParameters The network parameters
+   * @param count             The number of transactions to add
+   *
+   * @return A wallet with the given number of confirmed receives, every fourth of which is marked as sent by self
+   */
+  public static Wallet newWallet(NetworkParameters networkParameters, int count) {
+
+    Random random = new Random(RANDOM_SEED);
+    Wallet wallet = new Wallet(networkParameters);
+
+    for (int i = 0; i < count; i++) {
+
+      Address toAddress = wallet.freshReceiveKey().toAddress(networkParameters);
+      Transaction tx = FakeTxBuilder.createFakeTx(networkParameters, Coin.valueOf(10000 + random.nextInt(1000000)), toAddress);
+
+      TransactionConfidence confidence = tx.getConfidence();
+      confidence.setAppearedAtChainHeight(i + 1);
+      confidence.setDepthInBlocks(count - i);
+      if (i % 4 == 0) {
+        confidence.setSource(TransactionConfidence.Source.SELF);
+      }
+      tx.setUpdateTime(new DateTime(2014, 1, 1, 0, 0).plusMinutes(i).toDate());
+
+      // Adding directly avoids the event listener overhead of receiving each transaction
+      wallet.addWalletTransaction(new WalletTransaction(WalletTransaction.Pool.UNSPENT, tx));
+    }
+
+    return wallet;
+  }
+
+  /**
+   * @param wallet The wallet providing the transaction hashes
+   *
+   * @return Payments with a transaction info for every transaction and a payment request for every tenth
+   */
+  public static Payments newPayments(Wallet wallet) {
+
+    Collection<TransactionInfo> transactionInfos = Lists.newArrayList();
+    Collection<PaymentRequestData> paymentRequestDatas = Lists.newArrayList();
+
+    int i = 0;
+    for (Transaction transaction : wallet.getTransactions(true)) {
+
+      TransactionInfo transactionInfo = new TransactionInfo();
+      transactionInfo.setHash(transaction.getHashAsString());
+      transactionInfo.setNote("Note " + i);
+      transactionInfo.setAmountFiat(newFiatPayment(i));
+      transactionInfo.setMinerFee(Optional.of(Coin.valueOf(10000)));
+      transactionInfo.setClientFee(Optional.<Coin>absent());
+      transactionInfos.add(transactionInfo);
+
+      if (i % 10 == 0) {
+        PaymentRequestData paymentRequestData = new PaymentRequestData();
+        paymentRequestData.setAddress(transaction.getOutput(0).getScriptPubKey().getToAddress(wallet.getParams()).toString());
+        paymentRequestData.setAmountCoin(transaction.getValue(wallet));
+        paymentRequestData.setDate(new DateTime(transaction.getUpdateTime()));
+        paymentRequestData.setLabel("Label " + i);
+        paymentRequestData.setNote("Request note " + i);
+        paymentRequestData.setAmountFiat(newFiatPayment(i));
+        paymentRequestDatas.add(paymentRequestData);
+      }
+
+      i++;
+    }
+
+    Payments payments = new Payments();
+    payments.setTransactionInfos(transactionInfos);
+    payments.setPaymentRequestDatas(paymentRequestDatas);
+
+    return payments;
+  }
+
+  /**
+   * @param count The number of contacts
+   *
+   * @return Contacts with names, emails and notes
+   */
+  public static Set<Contact> newContacts(int count) {
+
+    Random random = new Random(RANDOM_SEED);
+    Set<Contact> contacts = Sets.newHashSet();
+
+    for (int i = 0; i < count; i++) {
+      Contact contact = new Contact(new UUID(random.nextLong(), random.nextLong()), "Contact " + i);
+      contact.setEmail("contact" + i + "@example.org");
+      contact.setNotes("Notes for contact " + i);
+      contact.setTags(Lists.newArrayList("tag" + (i % 10), "tag" + (i % 7)));
+      contacts.add(contact);
+    }
+
+    return contacts;
+  }
+
+  /**
+   * @param count The number of history entries
+   *
+   * @return History entries with descriptions
+   */
+  public static Set<HistoryEntry> newHistoryEntries(int count) {
+
+    Random random = new Random(RANDOM_SEED);
+    Set<HistoryEntry> historyEntries = Sets.newHashSet();
+
+    for (int i = 0; i < count; i++) {
+      historyEntries.add(new HistoryEntry(new UUID(random.nextLong(), random.nextLong()), "History entry " + i, new DateTime(2014, 1, 1, 0, 0).plusMinutes(i)));
+    }
+
+    return historyEntries;
+  }
+
+  private static FiatPayment newFiatPayment(int i) {
+
+    FiatPayment fiatPayment = new FiatPayment();
+    fiatPayment.setAmount(Optional.of(new BigDecimal(i).movePointLeft(2)));
+    fiatPayment.setCurrency(Optional.of(Currency.getInstance("USD")));
+    fiatPayment.setRate(Optional.of("500.0"));
+    fiatPayment.setExchangeName(Optional.of("Bitstamp"));
+
+    return fiatPayment;
+  }
+}
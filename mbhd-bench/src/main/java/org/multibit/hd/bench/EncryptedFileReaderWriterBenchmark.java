@@ -0,0 +1,77 @@
+package org.multibit.hd.bench;
+
+import org.multibit.hd.brit.utils.FileUtils;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.managers.WalletManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>Cost of AES encrypting and writing a file</li>
+ * <li>Cost of reading and AES decrypting a file</li>
+ * <li>Cost of the scrypt key derivation when the key is not cached</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EncryptedFileReaderWriterBenchmark {
+
+  private static final String PASSWORD = "benchmarkPassword";
+
+  @Param({"65536", "1048576", "8388608"})
+  public int fileSize;
+
+  private byte[] unencryptedBytes;
+
+  private File encryptedFile;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+
+    unencryptedBytes = new byte[fileSize];
+    new Random(fileSize).nextBytes(unencryptedBytes);
+
+    encryptedFile = new File(FileUtils.makeRandomTemporaryDirectory(), "benchmark.aes");
+    EncryptedFileReaderWriter.encryptAndWrite(unencryptedBytes, PASSWORD, encryptedFile);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    DerivedKeyCache.INSTANCE.clear();
+  }
+
+  @Benchmark
+  public void encryptAndWrite() {
+    EncryptedFileReaderWriter.encryptAndWrite(unencryptedBytes, PASSWORD, encryptedFile);
+  }
+
+  @Benchmark
+  public ByteArrayInputStream readAndDecrypt() {
+    return EncryptedFileReaderWriter.readAndDecrypt(encryptedFile, PASSWORD, WalletManager.SCRYPT_SALT, WalletManager.AES_INITIALISATION_VECTOR);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public ByteArrayInputStream readAndDecrypt_ColdKey() {
+
+    // Measure the full cost including the scrypt derivation
+    DerivedKeyCache.INSTANCE.clear();
+
+    return EncryptedFileReaderWriter.readAndDecrypt(encryptedFile, PASSWORD, WalletManager.SCRYPT_SALT, WalletManager.AES_INITIALISATION_VECTOR);
+  }
+
+}
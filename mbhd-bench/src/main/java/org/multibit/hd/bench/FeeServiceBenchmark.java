@@ -0,0 +1,51 @@
+package org.multibit.hd.bench;
+
+import com.google.bitcoin.core.Wallet;
+import org.multibit.hd.brit.dto.FeeState;
+import org.multibit.hd.brit.services.FeeService;
+import org.multibit.hd.core.config.BitcoinNetwork;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.services.CoreServices;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>Cost of calculating the BRIT fee state as the wallet grows</li>
+ * </ul>
+ * <p>No exchange with the Matcher is performed so the hardwired fee addresses are used.</p>
+ *
+ * @since 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class FeeServiceBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int transactionCount;
+
+  private Wallet wallet;
+
+  private FeeService feeService;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+    wallet = BenchmarkFixtures.newWallet(BitcoinNetwork.current().get(), transactionCount);
+    feeService = CoreServices.createFeeService();
+  }
+
+  @Benchmark
+  public FeeState calculateFeeState() {
+    return feeService.calculateFeeState(wallet, false);
+  }
+
+}
@@ -0,0 +1,104 @@
+package org.multibit.hd.bench;
+
+import com.google.bitcoin.core.Wallet;
+import org.multibit.hd.core.config.BitcoinNetwork;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.Contact;
+import org.multibit.hd.core.dto.HistoryEntry;
+import org.multibit.hd.core.store.ContactsProtobufSerializer;
+import org.multibit.hd.core.store.HistoryProtobufSerializer;
+import org.multibit.hd.core.store.Payments;
+import org.multibit.hd.core.store.PaymentsProtobufSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>Cost of reading and writing the payments, contacts and history protobuf stores</li>
+ * </ul>
+ * <p>Streams are in memory so only the serialization is measured.</p>
+ *
+ * @since 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProtobufSerializerBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int entryCount;
+
+  private final PaymentsProtobufSerializer paymentsSerializer = new PaymentsProtobufSerializer();
+  private final ContactsProtobufSerializer contactsSerializer = new ContactsProtobufSerializer();
+  private final HistoryProtobufSerializer historySerializer = new HistoryProtobufSerializer();
+
+  private Payments payments;
+  private Set<Contact> contacts;
+  private Set<HistoryEntry> historyEntries;
+
+  private byte[] paymentsBytes;
+  private byte[] contactsBytes;
+  private byte[] historyBytes;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+    Wallet wallet = BenchmarkFixtures.newWallet(BitcoinNetwork.current().get(), entryCount);
+
+    payments = BenchmarkFixtures.newPayments(wallet);
+    contacts = BenchmarkFixtures.newContacts(entryCount);
+    historyEntries = BenchmarkFixtures.newHistoryEntries(entryCount);
+
+    paymentsBytes = writePayments();
+    contactsBytes = writeContacts();
+    historyBytes = writeHistory();
+  }
+
+  @Benchmark
+  public byte[] writePayments() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    paymentsSerializer.writePayments(payments, output);
+    return output.toByteArray();
+  }
+
+  @Benchmark
+  public Payments readPayments() throws Exception {
+    return paymentsSerializer.readPayments(new ByteArrayInputStream(paymentsBytes));
+  }
+
+  @Benchmark
+  public byte[] writeContacts() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    contactsSerializer.writeContacts(contacts, output);
+    return output.toByteArray();
+  }
+
+  @Benchmark
+  public Set<Contact> readContacts() throws Exception {
+    return contactsSerializer.readContacts(new ByteArrayInputStream(contactsBytes));
+  }
+
+  @Benchmark
+  public byte[] writeHistory() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    historySerializer.writeHistoryEntries(historyEntries, output);
+    return output.toByteArray();
+  }
+
+  @Benchmark
+  public Set<HistoryEntry> readHistory() {
+    return historySerializer.readHistoryEntries(new ByteArrayInputStream(historyBytes));
+  }
+
+}
@@ -0,0 +1,90 @@
+package org.multibit.hd.bench;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.Wallet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.multibit.hd.core.config.BitcoinNetwork;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.TransactionData;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.services.WalletService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmark to provide the following to developers:</p>
+ * <ul>
+ * <li>Cost of adapting a single transaction for display</li>
+ * <li>Cost of building the full payment list, both from cold and when nothing has changed</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WalletServiceBenchmark {
+
+  @Param({"1000", "10000", "100000"})
+  public int transactionCount;
+
+  private Wallet wallet;
+
+  private List<Transaction> transactions;
+
+  private WalletService walletService;
+
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+
+    NetworkParameters networkParameters = BitcoinNetwork.current().get();
+
+    wallet = BenchmarkFixtures.newWallet(networkParameters, transactionCount);
+    transactions = Lists.newArrayList(wallet.getTransactions(true));
+
+    byte[] seed = new byte[64];
+    WalletSummary walletSummary = new WalletSummary(new WalletId(seed), wallet);
+    WalletManager.INSTANCE.setCurrentWalletSummary(walletSummary);
+
+    walletService = new WalletService(networkParameters);
+    walletService.initialise(Files.createTempDir(), walletSummary);
+  }
+
+  @Benchmark
+  public TransactionData adaptTransaction() {
+
+    Transaction transaction = transactions.get(next);
+    next = (next + 1) % transactions.size();
+
+    return walletService.adaptTransaction(wallet, transaction);
+  }
+
+  @Benchmark
+  public List<PaymentData> getPaymentDataList_Rebuild() {
+
+    // Force every transaction to be adapted again
+    walletService.invalidatePaymentDataList();
+
+    return walletService.getPaymentDataList();
+  }
+
+  @Benchmark
+  public List<PaymentData> getPaymentDataList_Unchanged() {
+    return walletService.getPaymentDataList();
+  }
+
+}
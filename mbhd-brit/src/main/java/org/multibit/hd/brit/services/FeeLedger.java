@@ -0,0 +1,327 @@
+package org.multibit.hd.brit.services;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.wallet.WalletTransaction;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <p>Ledger to provide the following to FeeService:</p>
+ * <ul>
+ * <li>Running count of the sends made by a wallet and the fees they paid</li>
+ * <li>The last fee paying send and its position in the send order</li>
+ * <li>Incremental maintenance driven by wallet transaction events</li>
+ * </ul>
+ * <p>The wallet derived part of each classification (whether it spends from the wallet and any fee outputs) is worked
+ * out once and only again after an event that could change it. The events only mark transactions as changed, the work
+ * is done on the next {@link #update(Wallet, Set, TransactionSentBySelfProvider)} so the ledger is always read on the
+ * caller's thread.</p>
+ * <p>The sent by self test can depend on state outside the wallet (e.g. transaction info recorded later) so a
+ * transaction that spends from the wallet but is not yet known to be sent by self is also marked as changed whenever
+ * its confidence changes (a send is broadcast, seen by peers and confirmed after it is recorded). Nothing else is asked
+ * again, so an update only costs as much as the transactions that actually changed.</p>
+ * <p>The ledger is rebuilt from the whole wallet if the fee addresses or the sent by self provider change, after a
+ * reorganisation, or if the number of transactions in the wallet no longer matches (e.g. after a reset).</p>
+ *
+ * @since 0.0.1
+ */
+public class FeeLedger {
+
+  private static final Logger log = LoggerFactory.getLogger(FeeLedger.class);
+
+  /**
+   * Sends in the order used to count them: update time, then hash so that the order is total
+   */
+  private static final Comparator<Entry> SEND_ORDER = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry o1, Entry o2) {
+      int result = o1.updateTime.compareTo(o2.updateTime);
+      return result != 0 ? result : o1.hash.toString().compareTo(o2.hash.toString());
+    }
+  };
+
+  private final NetworkParameters networkParameters;
+
+  /**
+   * The classification of every live transaction in the wallet by hash (also read from the wallet event thread)
+   */
+  private final Map<Sha256Hash, Entry> entries = Maps.newConcurrentMap();
+
+  /**
+   * The transactions sent by self in send order
+   */
+  private final TreeSet<Entry> sends = new TreeSet<>(SEND_ORDER);
+
+  /**
+   * The sends that paid a fee in send order
+   */
+  private final TreeSet<Entry> feePayingSends = new TreeSet<>(SEND_ORDER);
+
+  /**
+   * The transactions changed since the last update (written from the wallet event thread)
+   */
+  private final Set<Sha256Hash> changedHashes = Sets.newConcurrentHashSet();
+
+  private volatile boolean rebuildRequired = true;
+
+  private Set<Address> feeAddresses = ImmutableSet.of();
+
+  private TransactionSentBySelfProvider transactionSentBySelfProvider;
+
+  private Coin feePaid = Coin.ZERO;
+
+  /**
+   * @param networkParameters The network parameters for fee output addresses
+   */
+  public FeeLedger(NetworkParameters networkParameters) {
+
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+
+    this.networkParameters = networkParameters;
+  }
+
+  /**
+   * @return A listener to add to the wallet so that the ledger learns of changed transactions
+   */
+  public WalletEventListener newWalletEventListener() {
+
+    return new AbstractWalletEventListener() {
+
+      @Override
+      public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        changedHashes.add(tx.getHash());
+      }
+
+      @Override
+      public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        changedHashes.add(tx.getHash());
+      }
+
+      @Override
+      public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+        // A new block changes the depth of every transaction but the classification only depends on the source,
+        // the inputs from this wallet and whether the transaction is still live. The first block a transaction
+        // appears in can move its update time earlier which changes the send order.
+        // A spend not yet known to be sent by self is asked again in case the provider has learned of it since.
+        Entry entry = entries.get(tx.getHash());
+        if (entry == null
+          || !entry.updateTime.equals(tx.getUpdateTime())
+          || (entry.spendsFromWallet && !entry.sentBySelf)
+          || tx.getConfidence().getConfidenceType() == TransactionConfidence.ConfidenceType.DEAD) {
+          changedHashes.add(tx.getHash());
+        }
+      }
+
+      @Override
+      public void onReorganize(Wallet wallet) {
+        rebuildRequired = true;
+      }
+    };
+  }
+
+  /**
+   * <p>Bring the ledger up to date with the wallet</p>
+   *
+   * @param wallet                        The wallet the listener was added to
+   * @param feeAddresses                  All the addresses that count as fee payments
+   * @param transactionSentBySelfProvider The provider of the sent by self test
+   */
+  public synchronized void update(Wallet wallet, Set<Address> feeAddresses, TransactionSentBySelfProvider transactionSentBySelfProvider) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+    Preconditions.checkNotNull(feeAddresses, "'feeAddresses' must be present");
+    Preconditions.checkNotNull(transactionSentBySelfProvider, "'transactionSentBySelfProvider' must be present");
+
+    if (rebuildRequired
+      || !this.feeAddresses.equals(feeAddresses)
+      || this.transactionSentBySelfProvider != transactionSentBySelfProvider) {
+      rebuild(wallet, feeAddresses, transactionSentBySelfProvider);
+      return;
+    }
+
+    // Classify the changed transactions again
+    int changedCount = 0;
+    for (Sha256Hash hash : Sets.newHashSet(changedHashes)) {
+      changedHashes.remove(hash);
+      remove(hash);
+      Transaction transaction = wallet.getTransaction(hash);
+      if (isLive(transaction)) {
+        add(wallet, transaction);
+      }
+      changedCount++;
+    }
+
+    // Catch any change that was not reported (e.g. transactions cleared for a replay)
+    if (entries.size() != liveTransactionCount(wallet)) {
+      log.debug("Fee ledger is out of step with the wallet");
+      rebuild(wallet, feeAddresses, transactionSentBySelfProvider);
+      return;
+    }
+
+    log.trace("Fee ledger classified {} changed transaction(s)", changedCount);
+  }
+
+  /**
+   * @return The number of sends made by this wallet
+   */
+  public synchronized int getSendCount() {
+    return sends.size();
+  }
+
+  /**
+   * @return The total value of the outputs of sends that paid a fee address
+   */
+  public synchronized Coin getFeePaid() {
+    return feePaid;
+  }
+
+  /**
+   * @return The zero based position of the last fee paying send in the send order if any
+   */
+  public synchronized Optional<Integer> getLastFeePayingSendCount() {
+
+    if (feePayingSends.isEmpty()) {
+      return Optional.absent();
+    }
+
+    return Optional.of(sends.headSet(feePayingSends.last()).size());
+  }
+
+  /**
+   * @return The fee address paid by the last fee paying send if any
+   */
+  public synchronized Optional<String> getLastFeePayingSendAddress() {
+
+    if (feePayingSends.isEmpty()) {
+      return Optional.absent();
+    }
+
+    return feePayingSends.last().feeAddress;
+  }
+
+  private void rebuild(Wallet wallet, Set<Address> feeAddresses, TransactionSentBySelfProvider transactionSentBySelfProvider) {
+
+    // Events after this point will be seen on the next update
+    rebuildRequired = false;
+    changedHashes.clear();
+
+    this.feeAddresses = ImmutableSet.copyOf(feeAddresses);
+    this.transactionSentBySelfProvider = transactionSentBySelfProvider;
+
+    entries.clear();
+    sends.clear();
+    feePayingSends.clear();
+    feePaid = Coin.ZERO;
+
+    for (Transaction transaction : wallet.getTransactions(false)) {
+      add(wallet, transaction);
+    }
+
+    log.debug("Fee ledger rebuilt from {} transaction(s) with {} send(s)", entries.size(), sends.size());
+  }
+
+  private void add(Wallet wallet, Transaction transaction) {
+
+    Entry entry = new Entry(transaction.getHash(), transaction.getUpdateTime());
+    boolean sentBySelf = transactionSentBySelfProvider.isSentBySelf(wallet, transaction);
+
+    if (sentBySelf || transaction.getValueSentFromMe(wallet).signum() > 0) {
+      entry.spendsFromWallet = true;
+
+      // Work out if the transaction pays any fee in case it is (or becomes) a send
+      for (TransactionOutput transactionOutput : transaction.getOutputs()) {
+        try {
+          Address toAddress = transactionOutput.getScriptPubKey().getToAddress(networkParameters);
+          if (feeAddresses.contains(toAddress)) {
+            entry.feePaid = entry.feePaid.add(transactionOutput.getValue());
+            entry.feeAddress = Optional.of(toAddress.toString());
+          }
+        } catch (ScriptException se) {
+          log.debug("Cannot cast script to Address for transaction: {}", transaction.getHash().toString());
+        }
+      }
+    }
+
+    if (sentBySelf) {
+      addSend(entry);
+    }
+
+    entries.put(entry.hash, entry);
+  }
+
+  private void remove(Sha256Hash hash) {
+
+    Entry entry = entries.remove(hash);
+    if (entry != null && entry.sentBySelf) {
+      removeSend(entry);
+    }
+  }
+
+  private void addSend(Entry entry) {
+
+    entry.sentBySelf = true;
+    sends.add(entry);
+    if (entry.feeAddress.isPresent()) {
+      feePayingSends.add(entry);
+      feePaid = feePaid.add(entry.feePaid);
+    }
+  }
+
+  private void removeSend(Entry entry) {
+
+    entry.sentBySelf = false;
+    sends.remove(entry);
+    if (feePayingSends.remove(entry)) {
+      feePaid = feePaid.subtract(entry.feePaid);
+    }
+  }
+
+  /**
+   * @return True if the transaction is one returned by <code>wallet.getTransactions(false)</code>
+   */
+  private static boolean isLive(Transaction transaction) {
+
+    return transaction != null
+      && transaction.getConfidence().getConfidenceType() != TransactionConfidence.ConfidenceType.DEAD;
+  }
+
+  private static int liveTransactionCount(Wallet wallet) {
+
+    return wallet.getPoolSize(WalletTransaction.Pool.UNSPENT)
+      + wallet.getPoolSize(WalletTransaction.Pool.SPENT)
+      + wallet.getPoolSize(WalletTransaction.Pool.PENDING);
+  }
+
+  /**
+   * The classification of a single transaction
+   */
+  private static class Entry {
+
+    private final Sha256Hash hash;
+    private final Date updateTime;
+
+    // Also read from the wallet event thread
+    private volatile boolean spendsFromWallet = false;
+    private volatile boolean sentBySelf = false;
+    private Coin feePaid = Coin.ZERO;
+    private Optional<String> feeAddress = Optional.absent();
+
+    private Entry(Sha256Hash hash, Date updateTime) {
+      this.hash = hash;
+      // The transaction may replace or adjust its own copy
+      this.updateTime = new Date(updateTime.getTime());
+    }
+  }
+
+}
@@ -2,9 +2,9 @@ package org.multibit.hd.brit.services;
 
 import com.google.bitcoin.core.*;
 import com.google.bitcoin.params.MainNetParams;
+import com.google.bitcoin.utils.Threading;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import org.bouncycastle.openpgp.PGPPublicKey;
 import org.multibit.hd.brit.crypto.AESUtils;
@@ -72,6 +72,10 @@ public class FeeService {
 
   private TransactionSentBySelfProvider transactionSentBySelfProvider;
 
+  /**
+   * The fee ledgers of the wallets seen so far (a closed wallet and its ledger can be collected)
+   */
+  private final Map<Wallet, FeeLedger> feeLedgers = new WeakHashMap<>();
 
   private SecureRandom secureRandom;
 
@@ -157,14 +161,6 @@ public class FeeService {
 
     //log.debug("Wallet at beginning of calculateFeeState = {}", wallet.toString(false, true, true, null));
 
-    // Get all the send transactions sent by me, ordered by date
-    List<Transaction> sendTransactions = getSentBySelfTransactionList(wallet);
-    int currentNumberOfSends = sendTransactions.size();
-    log.debug("The wallet send count is {}", currentNumberOfSends);
-
-    // Work out the total amount that should be paid by the Payer for this wallet
-    Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
-
     // Get the previous persisted MatcherResponse from the wallet, if available
     MatcherResponse matcherResponseFromWallet = getMatcherResponseFromWallet(wallet);
 
@@ -174,32 +170,24 @@ public class FeeService {
       feeAddressesUniverse.addAll(matcherResponseFromWallet.getBitcoinAddresses());
     }
 
-    // Work out which of the sends actually send money to a fee address.
-    // Keep track of the amount sent as fees and the count of the last send to fees made
-    int lastFeePayingSendCount = 0;
-    Optional<String> lastFeePayingSendAddressOptional = Optional.absent();
-    Optional<Integer> lastFeePayingSendingCountOptional = Optional.absent();
-    Coin feePaid = Coin.ZERO;
-
-    for (Transaction sendTransaction : sendTransactions) {
-      List<TransactionOutput> sendTransactionOutputList = sendTransaction.getOutputs();
-      if (sendTransactionOutputList != null) {
-        for (TransactionOutput sendTransactionOutput : sendTransactionOutputList) {
-          try {
-            Address toAddress = sendTransactionOutput.getScriptPubKey().getToAddress(networkParameters);
-            if (feeAddressesUniverse.contains(toAddress)) {
-              // It pays some fee
-              feePaid = feePaid.add(sendTransactionOutput.getValue());
-              lastFeePayingSendAddressOptional = Optional.of(toAddress.toString());
-              lastFeePayingSendingCountOptional = Optional.of(lastFeePayingSendCount);
-            }
-          } catch (ScriptException se) {
-            log.debug("Cannot cast script to Address for transaction: {}", sendTransaction.getHash().toString());
-          }
-        }
-      }
-      lastFeePayingSendCount++;
+    // Bring the ledger of sends by me up to date rather than scanning all the transactions again
+    FeeLedger feeLedger = getOrCreateFeeLedger(wallet);
+    feeLedger.update(wallet, feeAddressesUniverse, transactionSentBySelfProvider);
+
+    int currentNumberOfSends;
+    Optional<String> lastFeePayingSendAddressOptional;
+    Optional<Integer> lastFeePayingSendingCountOptional;
+    Coin feePaid;
+    synchronized (feeLedger) {
+      currentNumberOfSends = feeLedger.getSendCount();
+      lastFeePayingSendAddressOptional = feeLedger.getLastFeePayingSendAddress();
+      lastFeePayingSendingCountOptional = feeLedger.getLastFeePayingSendCount();
+      feePaid = feeLedger.getFeePaid();
     }
+    log.debug("The wallet send count is {}", currentNumberOfSends);
+
+    // Work out the total amount that should be paid by the Payer for this wallet
+    Coin grossFeeToBePaid = FEE_PER_SEND.multiply(currentNumberOfSends);
 
     // The net amount fee still to be paid is the gross amount minus the amount paid so far
     // This could be negative if the user has overpaid
@@ -216,7 +204,7 @@ public class FeeService {
     // If the persisted next fee send count is in the future and the last send is NOT a fee payment then reuse the persisted info
     boolean usePersistedData = false;
     if (sendFeeDto != null && sendFeeDto.getSendFeeCount().isPresent()) {
-      if ((sendFeeDto.getSendFeeCount().get() >= lastFeePayingSendCount) &&
+      if ((sendFeeDto.getSendFeeCount().get() >= currentNumberOfSends) &&
         !((lastFeePayingSendingCountOptional.isPresent()) && (lastFeePayingSendingCountOptional.get().equals(sendFeeDto.getSendFeeCount().get())))) {
         usePersistedData = true;
       }
@@ -320,36 +308,22 @@ public class FeeService {
   }
 
   /**
-   * Get all the send transactions in the wallet that are sent by self
-   * (Sends that originate from another copy of this HD have no client fee attached)
+   * @param wallet The wallet
    *
-   * @param wallet the wallet to look for sends for
-   *
-   * @return List of the transactions in this wallet sent by self
+   * @return The fee ledger for the wallet, listening to the wallet from its creation
    */
-  private List<Transaction> getSentBySelfTransactionList(Wallet wallet) {
-
-    // Get all the wallets transactions and sort by date
-    ArrayList<Transaction> transactions = new ArrayList<>(wallet.getTransactions(false));
-    Collections.sort(transactions, new Comparator<Transaction>() {
-      public int compare(Transaction t1, Transaction t2) {
-        return t1.getUpdateTime().compareTo(t2.getUpdateTime());
-      }
-    });
-
-    // Iterate over all transactions sorted by date, looking for transaction outputs that are sends
-    List<Transaction> sendTransactions = Lists.newArrayList();
-
-    for (Transaction transaction : transactions) {
-      boolean sentBySelf = transactionSentBySelfProvider.isSentBySelf(wallet, transaction);
-
-      if (sentBySelf) {
-        // This transaction sends from self - this will exclude unconfirmed tx
-        sendTransactions.add(transaction);
+  private FeeLedger getOrCreateFeeLedger(Wallet wallet) {
+
+    synchronized (feeLedgers) {
+      FeeLedger feeLedger = feeLedgers.get(wallet);
+      if (feeLedger == null) {
+        feeLedger = new FeeLedger(networkParameters);
+        // Only records the changed transaction so it can run while the wallet is locked
+        wallet.addEventListener(feeLedger.newWalletEventListener(), Threading.SAME_THREAD);
+        feeLedgers.put(wallet, feeLedger);
       }
+      return feeLedger;
     }
-
-    return sendTransactions;
   }
 
   public static MatcherResponse getMatcherResponseFromWallet(Wallet wallet) {
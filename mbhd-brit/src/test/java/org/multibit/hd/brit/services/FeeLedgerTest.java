@@ -0,0 +1,202 @@
+package org.multibit.hd.brit.services;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.bitcoin.testing.FakeTxBuilder;
+import com.google.bitcoin.utils.Threading;
+import com.google.bitcoin.wallet.DeterministicSeed;
+import com.google.bitcoin.wallet.KeyChainGroup;
+import com.google.common.collect.Sets;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.BRITWalletIdTest;
+import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
+
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.bitcoin.core.Coin.parseCoin;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FeeLedgerTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private Wallet wallet;
+
+  private Address feeAddress;
+
+  private Address nonFeeAddress;
+
+  private FeeLedger testObject;
+
+  private TransactionSentBySelfProvider transactionSentBySelfProvider;
+
+  @Before
+  public void setUp() throws Exception {
+
+    DeterministicSeed deterministicSeed = new DeterministicSeed(
+      Bip39SeedPhraseGenerator.split(BRITWalletIdTest.SEED_PHRASE_1),
+      "",
+      DateTime.now().getMillis() / 1000
+    );
+    wallet = new Wallet(NETWORK_PARAMETERS, new KeyChainGroup(NETWORK_PARAMETERS, deterministicSeed));
+
+    feeAddress = new Address(NETWORK_PARAMETERS, "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty");
+    nonFeeAddress = new Address(NETWORK_PARAMETERS, "1CQH7Hp9nNQVDcKtFVwbA8tqPMNWDBvqE3");
+
+    transactionSentBySelfProvider = new TransactionConfidenceSentBySelfProvider();
+
+    testObject = new FeeLedger(NETWORK_PARAMETERS);
+    wallet.addEventListener(testObject.newWalletEventListener(), Threading.SAME_THREAD);
+
+    // Fund the wallet with a pending transaction that can be spent straight away
+    Transaction tx = FakeTxBuilder.createFakeTx(NETWORK_PARAMETERS, parseCoin("1.0"), wallet.freshReceiveKey().toAddress(NETWORK_PARAMETERS));
+    tx.getConfidence().setSource(TransactionConfidence.Source.SELF);
+    tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{1, 2, 3, 4})));
+    tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{10, 2, 3, 4})));
+    wallet.receivePending(tx, null);
+  }
+
+  @Test
+  public void testIncrementalUpdate() throws Exception {
+
+    Set<Address> feeAddresses = Sets.newHashSet(feeAddress);
+
+    testObject.update(wallet, feeAddresses, transactionSentBySelfProvider);
+
+    // The received transaction is not a send
+    assertThat(testObject.getSendCount()).isEqualTo(0);
+    assertThat(testObject.getFeePaid()).isEqualTo(Coin.ZERO);
+    assertThat(testObject.getLastFeePayingSendCount().isPresent()).isFalse();
+
+    send(parseCoin("0.01"), nonFeeAddress);
+    send(parseCoin("0.0002"), feeAddress);
+    send(parseCoin("0.01"), nonFeeAddress);
+
+    testObject.update(wallet, feeAddresses, transactionSentBySelfProvider);
+
+    assertThat(testObject.getSendCount()).isEqualTo(3);
+    assertThat(testObject.getFeePaid()).isEqualTo(parseCoin("0.0002"));
+    assertThat(testObject.getLastFeePayingSendCount().get()).isEqualTo(1);
+    assertThat(testObject.getLastFeePayingSendAddress().get()).isEqualTo(feeAddress.toString());
+
+  }
+
+  @Test
+  public void testRebuildOnChange() throws Exception {
+
+    testObject.update(wallet, Sets.newHashSet(feeAddress), transactionSentBySelfProvider);
+
+    send(parseCoin("0.0002"), feeAddress);
+    send(parseCoin("0.0003"), nonFeeAddress);
+
+    testObject.update(wallet, Sets.newHashSet(feeAddress), transactionSentBySelfProvider);
+    assertThat(testObject.getFeePaid()).isEqualTo(parseCoin("0.0002"));
+
+    // A new fee address classifies the existing sends again
+    testObject.update(wallet, Sets.newHashSet(feeAddress, nonFeeAddress), transactionSentBySelfProvider);
+    assertThat(testObject.getSendCount()).isEqualTo(2);
+    assertThat(testObject.getFeePaid()).isEqualTo(parseCoin("0.0005"));
+    assertThat(testObject.getLastFeePayingSendCount().get()).isEqualTo(1);
+
+    // As does a new provider
+    testObject.update(wallet, Sets.newHashSet(feeAddress, nonFeeAddress), new TransactionSentBySelfProvider() {
+      @Override
+      public boolean isSentBySelf(Wallet wallet, Transaction transaction) {
+        return false;
+      }
+    });
+    assertThat(testObject.getSendCount()).isEqualTo(0);
+    assertThat(testObject.getFeePaid()).isEqualTo(Coin.ZERO);
+    assertThat(testObject.getLastFeePayingSendAddress().isPresent()).isFalse();
+
+  }
+
+  @Test
+  public void testSentBySelfLearnedOnConfidenceChange() throws Exception {
+
+    // The provider learns of sends from outside the wallet (e.g. transaction info written later)
+    final Set<Sha256Hash> sentBySelfHashes = Sets.newHashSet();
+    TransactionSentBySelfProvider laterProvider = new TransactionSentBySelfProvider() {
+      @Override
+      public boolean isSentBySelf(Wallet wallet, Transaction transaction) {
+        return sentBySelfHashes.contains(transaction.getHash());
+      }
+    };
+
+    Set<Address> feeAddresses = Sets.newHashSet(feeAddress);
+    testObject.update(wallet, feeAddresses, laterProvider);
+
+    Transaction feeSend = send(parseCoin("0.0002"), feeAddress);
+    testObject.update(wallet, feeAddresses, laterProvider);
+    assertThat(testObject.getSendCount()).isEqualTo(0);
+
+    // The provider learns of the send but no wallet event reports it
+    sentBySelfHashes.add(feeSend.getHash());
+    testObject.update(wallet, feeAddresses, laterProvider);
+    assertThat(testObject.getSendCount()).isEqualTo(0);
+
+    // The next confidence change (another peer sees the send) asks again
+    feeSend.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{20, 2, 3, 4})));
+    feeSend.getConfidence().queueListeners(TransactionConfidence.Listener.ChangeReason.SEEN_PEERS);
+    testObject.update(wallet, feeAddresses, laterProvider);
+
+    assertThat(testObject.getSendCount()).isEqualTo(1);
+    assertThat(testObject.getFeePaid()).isEqualTo(parseCoin("0.0002"));
+    assertThat(testObject.getLastFeePayingSendAddress().get()).isEqualTo(feeAddress.toString());
+
+  }
+
+  @Test
+  public void testUnchangedTransactionsNotAskedAgain() throws Exception {
+
+    final AtomicInteger askedCount = new AtomicInteger();
+    TransactionSentBySelfProvider countingProvider = new TransactionSentBySelfProvider() {
+      @Override
+      public boolean isSentBySelf(Wallet wallet, Transaction transaction) {
+        askedCount.incrementAndGet();
+        return transactionSentBySelfProvider.isSentBySelf(wallet, transaction);
+      }
+    };
+
+    Set<Address> feeAddresses = Sets.newHashSet(feeAddress);
+    send(parseCoin("0.01"), nonFeeAddress);
+    send(parseCoin("0.0002"), feeAddress);
+    testObject.update(wallet, feeAddresses, countingProvider);
+    assertThat(testObject.getSendCount()).isEqualTo(2);
+
+    // Nothing has changed so the provider is not asked about any transaction
+    askedCount.set(0);
+    testObject.update(wallet, feeAddresses, countingProvider);
+    assertThat(askedCount.get()).isEqualTo(0);
+
+    // A new send is the only transaction asked about
+    send(parseCoin("0.01"), nonFeeAddress);
+    testObject.update(wallet, feeAddresses, countingProvider);
+    assertThat(askedCount.get()).isEqualTo(1);
+    assertThat(testObject.getSendCount()).isEqualTo(3);
+
+  }
+
+  private Transaction send(Coin amount, Address destinationAddress) throws Exception {
+
+    Wallet.SendRequest req = Wallet.SendRequest.to(destinationAddress, amount);
+    req.fee = parseCoin("0.0001");
+    req.ensureMinRequiredFee = false;
+
+    wallet.completeTx(req);
+
+    req.tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{1, 2, 3, 4})));
+    req.tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{10, 2, 3, 4})));
+    wallet.commitTx(req.tx);
+
+    // Keep the send order distinct
+    Thread.sleep(5);
+
+    return req.tx;
+  }
+
+}
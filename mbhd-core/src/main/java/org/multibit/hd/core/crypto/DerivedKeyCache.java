@@ -0,0 +1,289 @@
+package org.multibit.hd.core.crypto;
+
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.crypto.KeyCrypterScrypt;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import org.bitcoinj.wallet.Protos;
+import org.multibit.hd.core.events.ShutdownEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Cache to provide the following to encrypted file readers and writers:</p>
+ * <ul>
+ * <li>Session scoped reuse of scrypt derived AES keys</li>
+ * <li>Zeroing of the cached key material when the session ends</li>
+ * </ul>
+ * <p>Deriving an AES key from a password using scrypt is deliberately expensive so the key for a given
+ * (password, salt, scrypt parameters) combination is derived once per open wallet and then reused.</p>
+ * <p>A derived key is only cached once the caller confirms it has decrypted (or written) the file it was derived
+ * for, so a mistyped password is never held and each attempt with it costs a full derivation.</p>
+ * <p>The cache is cleared when the current wallet changes, when the wallet password is changed and on shutdown.
+ * Callers always receive a copy of the cached key so clearing the cache never affects a key in use.</p>
+ *
+ * @since 0.0.1
+ */
+public enum DerivedKeyCache {
+
+  INSTANCE;
+
+  private static final Logger log = LoggerFactory.getLogger(DerivedKeyCache.class);
+
+  /**
+   * The maximum number of derived keys to hold (a wallet typically uses one or two)
+   */
+  private static final int MAXIMUM_NUMBER_OF_KEYS = 8;
+
+  /**
+   * The random key for the map key HMACs, held only in memory for the life of the process
+   */
+  private final byte[] cacheKeySecret = newCacheKeySecret();
+
+  /**
+   * The derived keys, indexed by an HMAC of the password, salt and scrypt parameters (least recently used first)
+   */
+  private final Map<String, KeyParameter> derivedKeyMap = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * The number of derivations that were served from the cache
+   */
+  private final AtomicLong derivationsAvoided = new AtomicLong();
+
+  /**
+   * The number of derivations that had to be performed
+   */
+  private final AtomicLong derivationsPerformed = new AtomicLong();
+
+  /**
+   * <p>Reuse a confirmed AES key for the password or derive it using scrypt with the given parameters</p>
+   * <p>A newly derived key is not cached until passed to {@link #confirmKey}</p>
+   *
+   * @param password         The password
+   * @param scryptParameters The scrypt parameters (including the salt)
+   *
+   * @return A copy of the derived key
+   */
+  public KeyParameter deriveKey(CharSequence password, Protos.ScryptParameters scryptParameters) {
+
+    String cacheKey = scryptCacheKey(password, scryptParameters);
+
+    synchronized (derivedKeyMap) {
+      KeyParameter cachedKey = derivedKeyMap.get(cacheKey);
+      if (cachedKey != null) {
+        derivationsAvoided.incrementAndGet();
+        return copyOf(cachedKey);
+      }
+    }
+
+    // Perform the expensive derivation outside the lock
+    KeyParameter keyParameter = new KeyCrypterScrypt(scryptParameters).deriveKey(password);
+    derivationsPerformed.incrementAndGet();
+
+    return keyParameter;
+  }
+
+  /**
+   * <p>Cache a key from {@link #deriveKey} once it has decrypted (or written) the file it was derived for</p>
+   *
+   * @param password         The password
+   * @param scryptParameters The scrypt parameters (including the salt)
+   * @param keyParameter     The key derived from the password (a copy is cached)
+   */
+  public void confirmKey(CharSequence password, Protos.ScryptParameters scryptParameters, KeyParameter keyParameter) {
+
+    Preconditions.checkNotNull(keyParameter, "'keyParameter' must be present");
+
+    put(scryptCacheKey(password, scryptParameters), keyParameter);
+  }
+
+  /**
+   * <p>Reuse a confirmed AES key for the seed and salt or create it as per {@link AESUtils#createAESKey(byte[], byte[])}</p>
+   * <p>A newly created key is not cached until passed to {@link #confirmAESKey}</p>
+   *
+   * @param seed The seed, typically a password or wallet seed as bytes
+   * @param salt The salt
+   *
+   * @return A copy of the derived key
+   *
+   * @throws NoSuchAlgorithmException If SHA-256 is not available
+   */
+  public KeyParameter createAESKey(byte[] seed, byte[] salt) throws NoSuchAlgorithmException {
+
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+    Preconditions.checkNotNull(salt, "'salt' must be present");
+
+    String cacheKey = cacheKey("aes", seed, salt, 0, 0, 0);
+
+    synchronized (derivedKeyMap) {
+      KeyParameter cachedKey = derivedKeyMap.get(cacheKey);
+      if (cachedKey != null) {
+        derivationsAvoided.incrementAndGet();
+        return copyOf(cachedKey);
+      }
+    }
+
+    KeyParameter keyParameter = AESUtils.createAESKey(seed, salt);
+    derivationsPerformed.incrementAndGet();
+
+    return keyParameter;
+  }
+
+  /**
+   * <p>Cache a key from {@link #createAESKey} once it has decrypted the data it was created for</p>
+   *
+   * @param seed         The seed
+   * @param salt         The salt
+   * @param keyParameter The key created from the seed (a copy is cached)
+   */
+  public void confirmAESKey(byte[] seed, byte[] salt, KeyParameter keyParameter) {
+
+    Preconditions.checkNotNull(seed, "'seed' must be present");
+    Preconditions.checkNotNull(salt, "'salt' must be present");
+    Preconditions.checkNotNull(keyParameter, "'keyParameter' must be present");
+
+    put(cacheKey("aes", seed, salt, 0, 0, 0), keyParameter);
+  }
+
+  /**
+   * <p>Zero and remove all cached keys</p>
+   */
+  public void clear() {
+
+    synchronized (derivedKeyMap) {
+      if (derivedKeyMap.isEmpty()) {
+        return;
+      }
+      for (KeyParameter keyParameter : derivedKeyMap.values()) {
+        zero(keyParameter);
+      }
+      derivedKeyMap.clear();
+    }
+
+    log.debug("Cleared derived key cache. Derivations performed: {}, avoided: {}", derivationsPerformed.get(), derivationsAvoided.get());
+  }
+
+  /**
+   * @param shutdownEvent The shutdown event
+   */
+  public void onShutdownEvent(ShutdownEvent shutdownEvent) {
+    clear();
+  }
+
+  /**
+   * @return The number of key derivations served from the cache since startup
+   */
+  public long getDerivationsAvoided() {
+    return derivationsAvoided.get();
+  }
+
+  /**
+   * @return The number of key derivations performed since startup
+   */
+  public long getDerivationsPerformed() {
+    return derivationsPerformed.get();
+  }
+
+  /**
+   * @return The number of keys currently held
+   */
+  public int size() {
+    synchronized (derivedKeyMap) {
+      return derivedKeyMap.size();
+    }
+  }
+
+  private void put(String cacheKey, KeyParameter keyParameter) {
+
+    synchronized (derivedKeyMap) {
+
+      if (derivedKeyMap.containsKey(cacheKey)) {
+        // Already confirmed (possibly by another thread deriving the same key concurrently)
+        return;
+      }
+      derivedKeyMap.put(cacheKey, copyOf(keyParameter));
+
+      // Evict the least recently used keys
+      Iterator<KeyParameter> iterator = derivedKeyMap.values().iterator();
+      while (derivedKeyMap.size() > MAXIMUM_NUMBER_OF_KEYS && iterator.hasNext()) {
+        zero(iterator.next());
+        iterator.remove();
+      }
+    }
+  }
+
+  private String scryptCacheKey(CharSequence password, Protos.ScryptParameters scryptParameters) {
+
+    Preconditions.checkNotNull(password, "'password' must be present");
+    Preconditions.checkNotNull(scryptParameters, "'scryptParameters' must be present");
+
+    byte[] passwordBytes = password.toString().getBytes(Charsets.UTF_8);
+    try {
+      return cacheKey(
+        "scrypt",
+        passwordBytes,
+        scryptParameters.getSalt().toByteArray(),
+        scryptParameters.getN(),
+        scryptParameters.getR(),
+        scryptParameters.getP()
+      );
+    } finally {
+      Arrays.fill(passwordBytes, (byte) 0);
+    }
+  }
+
+  /**
+   * @return An HMAC of the inputs under a random per-process key so that the map keys hold no password material and
+   * cannot be used to test password guesses (a plain digest of a password and public salt is a fast offline oracle)
+   */
+  private String cacheKey(String kind, byte[] secret, byte[] salt, long n, int r, int p) {
+
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(cacheKeySecret, "HmacSHA256"));
+      mac.update(kind.getBytes(Charsets.UTF_8));
+      mac.update(ByteBuffer.allocate(4).putInt(secret.length).array());
+      mac.update(secret);
+      mac.update(ByteBuffer.allocate(4).putInt(salt.length).array());
+      mac.update(salt);
+      mac.update(ByteBuffer.allocate(16).putLong(n).putInt(r).putInt(p).array());
+
+      return Utils.HEX.encode(mac.doFinal());
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is not available", e);
+    }
+  }
+
+  /**
+   * @return A new random key for the map key HMACs
+   */
+  private static byte[] newCacheKeySecret() {
+
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    return secret;
+  }
+
+  private static KeyParameter copyOf(KeyParameter keyParameter) {
+    return new KeyParameter(Arrays.copyOf(keyParameter.getKey(), keyParameter.getKey().length));
+  }
+
+  private static void zero(KeyParameter keyParameter) {
+    // KeyParameter exposes its internal array so the key material can be overwritten
+    Arrays.fill(keyParameter.getKey(), (byte) 0);
+  }
+
+}
@@ -1,6 +1,6 @@
 package org.multibit.hd.core.crypto;
 
-import com.google.bitcoin.crypto.KeyCrypterScrypt;
+import com.google.bitcoin.core.Wallet;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.protobuf.ByteString;
@@ -12,11 +12,16 @@ import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.managers.WalletManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.BufferedBlockCipher;
+import org.spongycastle.crypto.engines.AESFastEngine;
+import org.spongycastle.crypto.io.CipherInputStream;
+import org.spongycastle.crypto.io.CipherOutputStream;
+import org.spongycastle.crypto.modes.CBCBlockCipher;
+import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.KeyParameter;
+import org.spongycastle.crypto.params.ParametersWithIV;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.*;
 import java.util.Arrays;
 
 /**
@@ -36,10 +41,24 @@ public class EncryptedFileReaderWriter {
 
   private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
 
+  /**
+   * The size of the buffer between the cipher and the file system
+   */
+  private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
   /**
    * Decrypt an AES encrypted file and return it as an inputStream
    */
   public static ByteArrayInputStream readAndDecrypt(File encryptedProtobufFile, CharSequence password, byte[] salt, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
+
+    return new ByteArrayInputStream(readAndDecryptBytes(encryptedProtobufFile, password, salt, initialisationVector));
+
+  }
+
+  /**
+   * Decrypt an AES encrypted file and return it as a single buffer that can be indexed without copying
+   */
+  public static byte[] readAndDecryptBytes(File encryptedProtobufFile, CharSequence password, byte[] salt, byte[] initialisationVector) throws EncryptedFileReaderWriterException {
     Preconditions.checkNotNull(encryptedProtobufFile);
     Preconditions.checkNotNull(password);
     try {
@@ -47,13 +66,16 @@ public class EncryptedFileReaderWriter {
       byte[] encryptedWalletBytes = org.multibit.hd.brit.utils.FileUtils.readFile(encryptedProtobufFile);
       //log.debug("Encrypted wallet bytes after load:\n" + Utils.HEX.encode(encryptedWalletBytes));
 
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(salt));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+      Protos.ScryptParameters scryptParameters = makeScryptParameters(salt);
+      KeyParameter keyParameter = DerivedKeyCache.INSTANCE.deriveKey(password, scryptParameters);
 
       // Decrypt the wallet bytes
       byte[] decryptedBytes = AESUtils.decrypt(encryptedWalletBytes, keyParameter, initialisationVector);
 
-      return new ByteArrayInputStream(decryptedBytes);
+      // The password is correct so the key can be reused
+      DerivedKeyCache.INSTANCE.confirmKey(password, scryptParameters, keyParameter);
+
+      return decryptedBytes;
     } catch (Exception e) {
       throw new EncryptedFileReaderWriterException("Cannot read and decrypt the file '" + encryptedProtobufFile.getAbsolutePath() + "'", e);
     }
@@ -64,8 +86,7 @@ public class EncryptedFileReaderWriter {
    */
   public static void encryptAndWrite(byte[] unencryptedBytes, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
     try {
-      KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.SCRYPT_SALT));
-      KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+      KeyParameter keyParameter = DerivedKeyCache.INSTANCE.deriveKey(password, makeScryptParameters(WalletManager.SCRYPT_SALT));
 
       // Create an AES encoded version of the unencryptedBytes, using the password
       byte[] encryptedBytes = AESUtils.encrypt(unencryptedBytes, keyParameter, WalletManager.AES_INITIALISATION_VECTOR);
@@ -81,6 +102,8 @@ public class EncryptedFileReaderWriter {
         ByteArrayInputStream encryptedWalletByteArrayInputStream = new ByteArrayInputStream(encryptedBytes);
         File temporaryFile = new File(outputFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
         Files.writeFile(encryptedWalletByteArrayInputStream, temporaryFile, outputFile);
+
+        DerivedKeyCache.INSTANCE.confirmKey(password, makeScryptParameters(WalletManager.SCRYPT_SALT), keyParameter);
       } else {
         throw new EncryptedFileReaderWriterException("The encryption was not reversible so aborting.");
       }
@@ -89,6 +112,122 @@ public class EncryptedFileReaderWriter {
     }
   }
 
+  /**
+   * <p>Serialise a wallet straight through an AES cipher into the output file, using an intermediate temporary file.</p>
+   * <p>No unencrypted copy of the wallet is written to disk and the output is compatible with
+   * {@link #readAndDecrypt(java.io.File, CharSequence, byte[], byte[])}.</p>
+   *
+   * @param wallet     The wallet to save
+   * @param password   The password to derive the AES key from
+   * @param outputFile The encrypted wallet file (replaced atomically)
+   */
+  public static void encryptAndWrite(Wallet wallet, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(wallet);
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(outputFile);
+
+    File temporaryFile = new File(outputFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+    try {
+      KeyParameter keyParameter = DerivedKeyCache.INSTANCE.deriveKey(password, makeScryptParameters(WalletManager.SCRYPT_SALT));
+
+      try (OutputStream encryptingOutputStream = newEncryptingOutputStream(new FileOutputStream(temporaryFile), keyParameter, WalletManager.AES_INITIALISATION_VECTOR)) {
+        // Holds the wallet lock whilst serialising
+        wallet.saveToFileStream(encryptingOutputStream);
+      }
+
+      Files.replaceWithTemporaryFile(temporaryFile, outputFile);
+
+      DerivedKeyCache.INSTANCE.confirmKey(password, makeScryptParameters(WalletManager.SCRYPT_SALT), keyParameter);
+    } catch (Exception e) {
+      if (temporaryFile.exists() && !temporaryFile.delete()) {
+        log.warn("Could not delete temporary file '{}'", temporaryFile.getAbsolutePath());
+      }
+      throw new EncryptedFileReaderWriterException("Cannot encrypt and write wallet to '" + outputFile.getAbsolutePath() + "'", e);
+    }
+  }
+
+  /**
+   * <p>Stream an unencrypted file through an AES cipher into the output file, using an intermediate temporary file.</p>
+   * <p>The unencrypted file is left in place so the caller decides when to securely delete it.</p>
+   *
+   * @param inputFile  The unencrypted file (e.g. a wallet autosaved by Bitcoinj)
+   * @param password   The password to derive the AES key from
+   * @param outputFile The encrypted file (replaced atomically)
+   */
+  public static void encryptAndWrite(File inputFile, CharSequence password, File outputFile) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(inputFile);
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(outputFile);
+
+    File temporaryFile = new File(outputFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+    try {
+      KeyParameter keyParameter = DerivedKeyCache.INSTANCE.deriveKey(password, makeScryptParameters(WalletManager.SCRYPT_SALT));
+
+      try (InputStream inputStream = new FileInputStream(inputFile);
+           OutputStream encryptingOutputStream = newEncryptingOutputStream(new FileOutputStream(temporaryFile), keyParameter, WalletManager.AES_INITIALISATION_VECTOR)) {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+          encryptingOutputStream.write(buffer, 0, length);
+        }
+      }
+
+      Files.replaceWithTemporaryFile(temporaryFile, outputFile);
+
+      DerivedKeyCache.INSTANCE.confirmKey(password, makeScryptParameters(WalletManager.SCRYPT_SALT), keyParameter);
+    } catch (Exception e) {
+      if (temporaryFile.exists() && !temporaryFile.delete()) {
+        log.warn("Could not delete temporary file '{}'", temporaryFile.getAbsolutePath());
+      }
+      throw new EncryptedFileReaderWriterException("Cannot encrypt and write '" + inputFile.getAbsolutePath() + "' to '" + outputFile.getAbsolutePath() + "'", e);
+    }
+  }
+
+  /**
+   * <p>Wrap a file output stream so that everything written to it is AES encrypted on the fly.</p>
+   * <p>Closing the returned stream writes the final padded block and syncs the file to disk.</p>
+   *
+   * @param fileOutputStream     The file output stream to receive the encrypted bytes
+   * @param keyParameter         The AES key
+   * @param initialisationVector The initialisation vector
+   *
+   * @return An output stream accepting unencrypted bytes
+   */
+  public static OutputStream newEncryptingOutputStream(FileOutputStream fileOutputStream, KeyParameter keyParameter, byte[] initialisationVector) {
+    return new CipherOutputStream(
+      new BufferedOutputStream(new SyncOnCloseOutputStream(fileOutputStream), STREAM_BUFFER_SIZE),
+      newAESCipher(true, keyParameter, initialisationVector)
+    );
+  }
+
+  /**
+   * <p>Wrap an input stream of AES encrypted bytes so that they are decrypted on the fly</p>
+   *
+   * @param inputStream          The input stream providing encrypted bytes
+   * @param keyParameter         The AES key
+   * @param initialisationVector The initialisation vector
+   *
+   * @return An input stream providing the decrypted bytes
+   */
+  public static InputStream newDecryptingInputStream(InputStream inputStream, KeyParameter keyParameter, byte[] initialisationVector) {
+    return new CipherInputStream(
+      new BufferedInputStream(inputStream, STREAM_BUFFER_SIZE),
+      newAESCipher(false, keyParameter, initialisationVector)
+    );
+  }
+
+  /**
+   * @return An AES CBC cipher with PKCS7 padding, matching the one used by the byte array methods
+   */
+  private static BufferedBlockCipher newAESCipher(boolean forEncryption, KeyParameter keyParameter, byte[] initialisationVector) {
+    Preconditions.checkNotNull(keyParameter);
+    Preconditions.checkState(initialisationVector.length == AESUtils.BLOCK_LENGTH, "The initialisationVector must be " + AESUtils.BLOCK_LENGTH + " bytes long.");
+
+    BufferedBlockCipher cipher = new PaddedBufferedBlockCipher(new CBCBlockCipher(new AESFastEngine()));
+    cipher.init(forEncryption, new ParametersWithIV(new KeyParameter(keyParameter.getKey()), initialisationVector));
+    return cipher;
+  }
+
   /**
     * Encrypt the file specified using the backup AES key derived from the supplied password
     * @param fileToEncrypt file to encrypt
@@ -100,18 +239,34 @@ public class EncryptedFileReaderWriter {
      Preconditions.checkNotNull(fileToEncrypt);
      Preconditions.checkNotNull(password);
      Preconditions.checkNotNull(encryptedBackupAESKey);
-     try {
-       // Decrypt the backup AES key stored in the wallet summary
-       KeyParameter walletPasswordDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(password.getBytes(Charsets.UTF_8), WalletManager.SCRYPT_SALT);
-       byte[] backupAESKeyBytes = org.multibit.hd.brit.crypto.AESUtils.decrypt(encryptedBackupAESKey, walletPasswordDerivedAESKey, WalletManager.AES_INITIALISATION_VECTOR);
-       KeyParameter backupAESKey = new KeyParameter(backupAESKeyBytes);
-
-       return encryptAndDeleteOriginal(fileToEncrypt, backupAESKey, WalletManager.AES_INITIALISATION_VECTOR);
-     } catch (Exception e) {
-       throw new EncryptedFileReaderWriterException("Could not decrypt backup AES key", e);
-     }
+     KeyParameter backupAESKey = decryptBackupAESKey(password, encryptedBackupAESKey);
+
+     return encryptAndDeleteOriginal(fileToEncrypt, backupAESKey, WalletManager.AES_INITIALISATION_VECTOR);
    }
 
+  /**
+   * Decrypt the backup AES key stored in the wallet summary using a key derived from the supplied password
+   * @param password the wallet password
+   * @param encryptedBackupAESKey the encrypted backup AES key from the wallet summary
+   * @return the backup AES key
+   * @throws EncryptedFileReaderWriterException
+   */
+  public static KeyParameter decryptBackupAESKey(String password, byte[] encryptedBackupAESKey) throws EncryptedFileReaderWriterException {
+    Preconditions.checkNotNull(password);
+    Preconditions.checkNotNull(encryptedBackupAESKey);
+    try {
+      byte[] passwordBytes = password.getBytes(Charsets.UTF_8);
+      KeyParameter walletPasswordDerivedAESKey = DerivedKeyCache.INSTANCE.createAESKey(passwordBytes, WalletManager.SCRYPT_SALT);
+      byte[] backupAESKeyBytes = org.multibit.hd.brit.crypto.AESUtils.decrypt(encryptedBackupAESKey, walletPasswordDerivedAESKey, WalletManager.AES_INITIALISATION_VECTOR);
+
+      DerivedKeyCache.INSTANCE.confirmAESKey(passwordBytes, WalletManager.SCRYPT_SALT, walletPasswordDerivedAESKey);
+
+      return new KeyParameter(backupAESKeyBytes);
+    } catch (Exception e) {
+      throw new EncryptedFileReaderWriterException("Could not decrypt backup AES key", e);
+    }
+  }
+
 
   /**
    * Encrypt the file specified using an AES key derived from the supplied password
@@ -124,8 +279,7 @@ public class EncryptedFileReaderWriter {
     Preconditions.checkNotNull(fileToEncrypt);
     Preconditions.checkNotNull(password);
 
-    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(makeScryptParameters(WalletManager.SCRYPT_SALT));
-    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+    KeyParameter keyParameter = DerivedKeyCache.INSTANCE.deriveKey(password, makeScryptParameters(WalletManager.SCRYPT_SALT));
     return encryptAndDeleteOriginal(fileToEncrypt, keyParameter, WalletManager.AES_INITIALISATION_VECTOR);
   }
 
@@ -170,4 +324,33 @@ public class EncryptedFileReaderWriter {
     Protos.ScryptParameters.Builder scryptParametersBuilder = Protos.ScryptParameters.newBuilder().setSalt(ByteString.copyFrom(salt));
     return scryptParametersBuilder.build();
   }
+
+  /**
+   * Output stream that forces the bytes to hit the disk before the file is closed
+   */
+  private static class SyncOnCloseOutputStream extends FilterOutputStream {
+
+    private final FileOutputStream fileOutputStream;
+
+    private SyncOnCloseOutputStream(FileOutputStream fileOutputStream) {
+      super(fileOutputStream);
+      this.fileOutputStream = fileOutputStream;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      // Avoid the byte at a time default
+      fileOutputStream.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        fileOutputStream.flush();
+        fileOutputStream.getFD().sync();
+      } finally {
+        fileOutputStream.close();
+      }
+    }
+  }
 }
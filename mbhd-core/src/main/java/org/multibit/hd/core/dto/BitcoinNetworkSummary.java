@@ -19,6 +19,9 @@ public class BitcoinNetworkSummary {
   private final int percent;
   private final int blocksLeft;
 
+  private final double blocksPerSecond;
+  private final long secondsRemaining;
+
   private final RAGStatus severity;
 
   private final Optional<CoreMessageKey> messageKey;
@@ -68,6 +71,22 @@ public class BitcoinNetworkSummary {
    */
   public static BitcoinNetworkSummary newChainDownloadProgress(int percent, int blocksLeft) {
 
+    return newChainDownloadProgress(percent, blocksLeft, -1, -1);
+
+  }
+
+  /**
+   * <p>The network has begun to synchronize so show the progress bar with the download rate</p>
+   *
+   * @param percent          The percentage of blocks downloaded
+   * @param blocksLeft       The number of blocks left (useful for verifying the network)
+   * @param blocksPerSecond  The recent download rate (-1 if not known)
+   * @param secondsRemaining The estimated time to completion (-1 if not known)
+   *
+   * @return A new "progress update" summary
+   */
+  public static BitcoinNetworkSummary newChainDownloadProgress(int percent, int blocksLeft, double blocksPerSecond, long secondsRemaining) {
+
     return new BitcoinNetworkSummary(
       BitcoinNetworkStatus.DOWNLOADING_BLOCKCHAIN,
       RAGStatus.AMBER,
@@ -75,7 +94,9 @@ public class BitcoinNetworkSummary {
       Optional.of(new Object[]{percent}),
       0,
       percent,
-      blocksLeft
+      blocksLeft,
+      blocksPerSecond,
+      secondsRemaining
     );
 
   }
@@ -136,6 +157,31 @@ public class BitcoinNetworkSummary {
     int percent,
     int blocksLeft) {
 
+    this(status, severity, messageKey, messageData, peerCount, percent, blocksLeft, -1, -1);
+  }
+
+  /**
+   * @param status           The network status (e.g. NOT_CONNECTED)
+   * @param severity         The severity (Red, Amber, Green)
+   * @param messageKey       The error key to allow localisation
+   * @param messageData      The error data for insertion into the error message
+   * @param peerCount        The current peer count
+   * @param percent          The percentage of blocks downloaded (-1 means "hide", 0-99 "in progress", 100 "success")
+   * @param blocksLeft       The number of blocks left (-1 means "hide", 0+ "show")
+   * @param blocksPerSecond  The recent download rate (-1 if not known)
+   * @param secondsRemaining The estimated time to complete the download (-1 if not known)
+   */
+  public BitcoinNetworkSummary(
+    BitcoinNetworkStatus status,
+    RAGStatus severity,
+    Optional<CoreMessageKey> messageKey,
+    Optional<Object[]> messageData,
+    int peerCount,
+    int percent,
+    int blocksLeft,
+    double blocksPerSecond,
+    long secondsRemaining) {
+
     this.status = status;
     this.severity = severity;
 
@@ -145,6 +191,8 @@ public class BitcoinNetworkSummary {
     this.peerCount = peerCount;
     this.percent = percent;
     this.blocksLeft = blocksLeft;
+    this.blocksPerSecond = blocksPerSecond;
+    this.secondsRemaining = secondsRemaining;
   }
 
   public int getPeerCount() {
@@ -165,6 +213,20 @@ public class BitcoinNetworkSummary {
     return blocksLeft;
   }
 
+  /**
+   * @return The recent block download rate, -1 if not known
+   */
+  public double getBlocksPerSecond() {
+    return blocksPerSecond;
+  }
+
+  /**
+   * @return The estimated number of seconds to complete the block download, -1 if not known
+   */
+  public long getSecondsRemaining() {
+    return secondsRemaining;
+  }
+
   /**
    * @return The severity (e.g. AMBER)
    */
@@ -198,6 +260,8 @@ public class BitcoinNetworkSummary {
       ", peerCount=" + peerCount +
       ", percent=" + percent +
       ", blocksLeft=" + blocksLeft +
+      ", blocksPerSecond=" + blocksPerSecond +
+      ", secondsRemaining=" + secondsRemaining +
       ", severity=" + severity +
       ", errorKey=" + messageKey +
       '}';
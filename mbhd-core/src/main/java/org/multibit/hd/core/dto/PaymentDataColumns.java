@@ -0,0 +1,318 @@
+package org.multibit.hd.core.dto;
+
+import com.google.bitcoin.core.Coin;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.joda.time.DateTime;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Columnar list to provide the following to payment tables:</p>
+ * <ul>
+ * <li>A compact columnar copy of a list of payments</li>
+ * <li>Cell values materialized only when they are asked for</li>
+ * <li>Row insertion, removal and replacement so that a table can be updated incrementally</li>
+ * </ul>
+ * <p>Dates, amounts, types and statuses are held as primitive columns (epoch millis, satoshis and byte codes) so
+ * that sorting and rendering a large wallet does not need a copy of every row as objects. No reference to the
+ * payments is kept. The remaining values (description and fiat) come from the payment, which is looked up by its
+ * ID from the payment data source on demand.</p>
+ *
+ * @since 0.0.1
+ */
+public class PaymentDataColumns {
+
+  /**
+   * <p>Source to provide the current payment for an ID</p>
+   */
+  public interface PaymentDataSource {
+
+    /**
+     * @param paymentId The payment ID (see {@link #getPaymentId(PaymentData)})
+     *
+     * @return The current payment with the ID, absent if there is none
+     */
+    Optional<PaymentData> getPaymentData(String paymentId);
+
+  }
+
+  private static final PaymentType[] PAYMENT_TYPES = PaymentType.values();
+
+  private static final RAGStatus[] RAG_STATUSES = RAGStatus.values();
+
+  private static final CoreMessageKey[] STATUS_KEYS = CoreMessageKey.values();
+
+  /**
+   * Marks a payment without a date
+   */
+  private static final long NO_DATE = Long.MIN_VALUE;
+
+  /**
+   * Marks a payment without a status or a status without a key
+   */
+  private static final byte NO_CODE = -1;
+
+  /**
+   * Set in the flags of a coinbase payment
+   */
+  private static final byte COIN_BASE_FLAG = 1;
+
+  private final PaymentDataSource paymentDataSource;
+
+  private int size = 0;
+
+  private String[] paymentIds;
+
+  private long[] dateMillis;
+
+  private long[] amountSatoshis;
+
+  private byte[] typeCodes;
+
+  private byte[] statusCodes;
+
+  private byte[] statusKeyCodes;
+
+  private int[] depths;
+
+  private byte[] flags;
+
+  /**
+   * @param paymentDataList   The payments in row order
+   * @param paymentDataSource The source of the payments by ID
+   */
+  public PaymentDataColumns(List<PaymentData> paymentDataList, PaymentDataSource paymentDataSource) {
+
+    Preconditions.checkNotNull(paymentDataList, "'paymentDataList' must be present");
+    Preconditions.checkNotNull(paymentDataSource, "'paymentDataSource' must be present");
+    Preconditions.checkState(STATUS_KEYS.length <= Byte.MAX_VALUE, "Status keys no longer fit in a byte");
+
+    this.paymentDataSource = paymentDataSource;
+
+    int capacity = paymentDataList.size();
+    this.paymentIds = new String[capacity];
+    this.dateMillis = new long[capacity];
+    this.amountSatoshis = new long[capacity];
+    this.typeCodes = new byte[capacity];
+    this.statusCodes = new byte[capacity];
+    this.statusKeyCodes = new byte[capacity];
+    this.depths = new int[capacity];
+    this.flags = new byte[capacity];
+
+    for (PaymentData paymentData : paymentDataList) {
+      insert(size, paymentData);
+    }
+  }
+
+  /**
+   * @param paymentData The payment
+   *
+   * @return The ID of the payment (the transaction ID or the payment request address)
+   */
+  public static String getPaymentId(PaymentData paymentData) {
+
+    if (paymentData instanceof TransactionData) {
+      return ((TransactionData) paymentData).getTransactionId();
+    }
+    if (paymentData instanceof PaymentRequestData) {
+      return ((PaymentRequestData) paymentData).getAddress();
+    }
+    throw new IllegalArgumentException("Unknown payment type " + paymentData.getClass().getName());
+  }
+
+  /**
+   * @param row         The row index for the new payment
+   * @param paymentData The payment to insert
+   */
+  public void insert(int row, PaymentData paymentData) {
+
+    Preconditions.checkNotNull(paymentData, "'paymentData' must be present");
+    Preconditions.checkPositionIndex(row, size);
+
+    if (size == dateMillis.length) {
+      int capacity = Math.max(16, size + (size >> 1));
+      paymentIds = Arrays.copyOf(paymentIds, capacity);
+      dateMillis = Arrays.copyOf(dateMillis, capacity);
+      amountSatoshis = Arrays.copyOf(amountSatoshis, capacity);
+      typeCodes = Arrays.copyOf(typeCodes, capacity);
+      statusCodes = Arrays.copyOf(statusCodes, capacity);
+      statusKeyCodes = Arrays.copyOf(statusKeyCodes, capacity);
+      depths = Arrays.copyOf(depths, capacity);
+      flags = Arrays.copyOf(flags, capacity);
+    }
+
+    // Shift the following rows down
+    int following = size - row;
+    System.arraycopy(paymentIds, row, paymentIds, row + 1, following);
+    System.arraycopy(dateMillis, row, dateMillis, row + 1, following);
+    System.arraycopy(amountSatoshis, row, amountSatoshis, row + 1, following);
+    System.arraycopy(typeCodes, row, typeCodes, row + 1, following);
+    System.arraycopy(statusCodes, row, statusCodes, row + 1, following);
+    System.arraycopy(statusKeyCodes, row, statusKeyCodes, row + 1, following);
+    System.arraycopy(depths, row, depths, row + 1, following);
+    System.arraycopy(flags, row, flags, row + 1, following);
+
+    size++;
+    write(row, paymentData);
+  }
+
+  /**
+   * @param row The row index to remove
+   */
+  public void remove(int row) {
+
+    Preconditions.checkElementIndex(row, size);
+
+    int following = size - row - 1;
+    System.arraycopy(paymentIds, row + 1, paymentIds, row, following);
+    System.arraycopy(dateMillis, row + 1, dateMillis, row, following);
+    System.arraycopy(amountSatoshis, row + 1, amountSatoshis, row, following);
+    System.arraycopy(typeCodes, row + 1, typeCodes, row, following);
+    System.arraycopy(statusCodes, row + 1, statusCodes, row, following);
+    System.arraycopy(statusKeyCodes, row + 1, statusKeyCodes, row, following);
+    System.arraycopy(depths, row + 1, depths, row, following);
+    System.arraycopy(flags, row + 1, flags, row, following);
+
+    size--;
+    paymentIds[size] = null;
+  }
+
+  /**
+   * @param row         The row index
+   * @param paymentData The payment that replaces the existing one
+   */
+  public void set(int row, PaymentData paymentData) {
+
+    Preconditions.checkNotNull(paymentData, "'paymentData' must be present");
+    Preconditions.checkElementIndex(row, size);
+
+    write(row, paymentData);
+  }
+
+  /**
+   * <p>Remove all the rows</p>
+   */
+  public void clear() {
+
+    Arrays.fill(paymentIds, 0, size, null);
+    size = 0;
+  }
+
+  /**
+   * @return The number of rows
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return The payment ID (the transaction ID or the payment request address)
+   */
+  public String getPaymentId(int row) {
+
+    Preconditions.checkElementIndex(row, size);
+
+    return paymentIds[row];
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return The payment date in milliseconds since the epoch, Long.MIN_VALUE if not dated
+   */
+  public long getDateMillis(int row) {
+    return dateMillis[row];
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return A new date time for the payment date, null if not dated
+   */
+  public DateTime getDate(int row) {
+    return dateMillis[row] == NO_DATE ? null : new DateTime(dateMillis[row]);
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return The payment amount in satoshis
+   */
+  public long getAmountSatoshis(int row) {
+    return amountSatoshis[row];
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return The payment amount
+   */
+  public Coin getAmountCoin(int row) {
+    return Coin.valueOf(amountSatoshis[row]);
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return The payment type
+   */
+  public PaymentType getType(int row) {
+    return PAYMENT_TYPES[typeCodes[row]];
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return A new payment status with the RAG status, key and depth of the payment (without the status data), null
+   * if the payment has no status
+   */
+  public PaymentStatus getStatus(int row) {
+
+    if (statusCodes[row] == NO_CODE) {
+      return null;
+    }
+
+    CoreMessageKey statusKey = statusKeyCodes[row] == NO_CODE ? null : STATUS_KEYS[statusKeyCodes[row]];
+    PaymentStatus paymentStatus = new PaymentStatus(RAG_STATUSES[statusCodes[row]], statusKey);
+    paymentStatus.setDepth(depths[row]);
+
+    return paymentStatus;
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return True if the payment is a coinbase transaction
+   */
+  public boolean isCoinBase(int row) {
+    return (flags[row] & COIN_BASE_FLAG) != 0;
+  }
+
+  /**
+   * @param row The row index
+   *
+   * @return The current payment for the row from the payment data source, absent if it no longer exists
+   */
+  public Optional<PaymentData> getPaymentData(int row) {
+    return paymentDataSource.getPaymentData(getPaymentId(row));
+  }
+
+  private void write(int row, PaymentData paymentData) {
+
+    PaymentStatus status = paymentData.getStatus();
+
+    paymentIds[row] = getPaymentId(paymentData);
+    dateMillis[row] = paymentData.getDate() == null ? NO_DATE : paymentData.getDate().getMillis();
+    amountSatoshis[row] = paymentData.getAmountCoin() == null ? 0 : paymentData.getAmountCoin().longValue();
+    typeCodes[row] = (byte) paymentData.getType().ordinal();
+    statusCodes[row] = status == null ? NO_CODE : (byte) status.getStatus().ordinal();
+    statusKeyCodes[row] = status == null || status.getStatusKey() == null ? NO_CODE : (byte) status.getStatusKey().ordinal();
+    depths[row] = status == null ? -1 : status.getDepth();
+    flags[row] = paymentData.isCoinBase() ? COIN_BASE_FLAG : 0;
+  }
+
+}
@@ -0,0 +1,54 @@
+package org.multibit.hd.core.dto;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Coin;
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>Value object to provide the following to Bitcoin network service:</p>
+ * <ul>
+ * <li>A single recipient and amount within a send</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class Payout {
+
+  private final Address destinationAddress;
+  private final Coin amount;
+
+  /**
+   * @param destinationAddress The destination address to send to
+   * @param amount             The amount to send (in coins)
+   */
+  public Payout(Address destinationAddress, Coin amount) {
+
+    Preconditions.checkNotNull(destinationAddress, "'destinationAddress' must be present");
+    Preconditions.checkNotNull(amount, "'amount' must be present");
+
+    this.destinationAddress = destinationAddress;
+    this.amount = amount;
+  }
+
+  /**
+   * @return The destination address
+   */
+  public Address getDestinationAddress() {
+    return destinationAddress;
+  }
+
+  /**
+   * @return The amount in coins
+   */
+  public Coin getAmount() {
+    return amount;
+  }
+
+  @Override
+  public String toString() {
+    return "Payout{" +
+      "destinationAddress=" + destinationAddress +
+      ", amount=" + amount +
+      '}';
+  }
+}
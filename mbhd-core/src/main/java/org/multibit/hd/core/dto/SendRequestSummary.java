@@ -4,13 +4,18 @@ import com.google.bitcoin.core.Address;
 import com.google.bitcoin.core.Coin;
 import com.google.bitcoin.core.Wallet;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import org.multibit.hd.brit.dto.FeeState;
 import org.spongycastle.crypto.params.KeyParameter;
 
+import java.util.List;
+
 /**
  * <p>Data object to provide the following to Bitcoin network service:</p>
  * <ul>
  * <li>Contains send bitcoin data</li>
+ * <li>Either a single destination or a batch of payouts sent in one transaction</li>
  * </ul>
  *
  * @since 0.0.1
@@ -19,6 +24,7 @@ public class SendRequestSummary {
 
   private final Address destinationAddress;
   private final Coin amount;
+  private final List<Payout> payouts;
   private final Optional<FiatPayment> fiatPayment;
   private final Address changeAddress;
   private final Coin feePerKB;
@@ -62,6 +68,8 @@ public class SendRequestSummary {
 
     this.destinationAddress = destinationAddress;
     this.amount = amount;
+    // Validation of the single destination is left to the send request
+    this.payouts = destinationAddress == null || amount == null ? ImmutableList.<Payout>of() : ImmutableList.of(new Payout(destinationAddress, amount));
     this.fiatPayment = fiatPayment;
     this.changeAddress = changeAddress;
     this.feePerKB = feePerKB;
@@ -72,14 +80,81 @@ public class SendRequestSummary {
   }
 
   /**
-   * @return The destination address
+   * <p>A batch of payouts sent in a single transaction with one coin selection, one signature pass and one broadcast.
+   * Any client fee is added once for the whole batch.</p>
+   *
+   * @param payouts       The payouts in output order (at least one)
+   * @param fiatPayment   The fiat payment equivalent of the total bitcoin amount (see the single destination constructor)
+   * @param changeAddress The change address
+   * @param feePerKB      The fee per Kb (in coins)
+   * @param password      The wallet password
+   * @param feeState      The BRIT fee state
+   */
+  public SendRequestSummary(
+    List<Payout> payouts,
+    Optional<FiatPayment> fiatPayment,
+    Address changeAddress,
+    Coin feePerKB,
+    String password,
+    Optional<FeeState> feeState) {
+
+    Preconditions.checkNotNull(payouts, "'payouts' must be present");
+    Preconditions.checkArgument(!payouts.isEmpty(), "'payouts' must not be empty");
+
+    Coin total = Coin.ZERO;
+    for (Payout payout : payouts) {
+      total = total.add(payout.getAmount());
+    }
+
+    // A batch has no single destination (see getDestinationAddresses)
+    this.destinationAddress = null;
+    this.amount = total;
+    this.payouts = ImmutableList.copyOf(payouts);
+    this.fiatPayment = fiatPayment;
+    this.changeAddress = changeAddress;
+    this.feePerKB = feePerKB;
+    this.password = password;
+    this.feeState = feeState;
+    this.emptyWallet = false;
+
+  }
+
+  /**
+   * @return The destination address, null for a batch
    */
   public Address getDestinationAddress() {
     return destinationAddress;
   }
 
   /**
-   * @return The amount sent by the user in coins
+   * @return The destination addresses of all the payouts in output order (reported in events for a batch)
+   */
+  public List<Address> getDestinationAddresses() {
+
+    ImmutableList.Builder<Address> destinationAddresses = ImmutableList.builder();
+    for (Payout payout : payouts) {
+      destinationAddresses.add(payout.getDestinationAddress());
+    }
+
+    return destinationAddresses.build();
+  }
+
+  /**
+   * @return The payouts in output order (a single payout unless this is a batch)
+   */
+  public List<Payout> getPayouts() {
+    return payouts;
+  }
+
+  /**
+   * @return True if more than one payout is sent in the transaction
+   */
+  public boolean isBatch() {
+    return payouts.size() > 1;
+  }
+
+  /**
+   * @return The amount sent by the user in coins (the total of all payouts in a batch)
    * This does NOT include any client fee
    */
   public Coin getAmount() {
@@ -151,6 +226,7 @@ public class SendRequestSummary {
   }
 
   public void setEmptyWallet(boolean emptyWallet) {
+    Preconditions.checkState(!emptyWallet || !isBatch(), "A batch cannot empty the wallet");
     this.emptyWallet = emptyWallet;
   }
 
@@ -202,6 +278,7 @@ public class SendRequestSummary {
     return "SendRequestSummary{" +
       "destinationAddress=" + destinationAddress +
       ", amount=" + amount +
+      ", payouts=" + payouts.size() +
       ", fiatPayment=" +fiatPayment +
       ", changeAddress=" + changeAddress +
       ", feePerKB=" + feePerKB +
@@ -4,6 +4,8 @@ import com.google.bitcoin.core.Coin;
 import com.google.bitcoin.core.TransactionConfidence;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import org.joda.time.DateTime;
 
 import java.util.Collection;
@@ -44,14 +46,14 @@ public class TransactionData implements PaymentData {
   private final boolean coinBase;
 
   /**
-   * The transaction in its raw form (toStringed)
+   * The transaction in its raw form (toStringed), built on first use
    */
-  private String rawTransaction;
+  private final Supplier<String> rawTransaction;
 
   /**
-   * The size (in bytes)of the transaction
+   * The size (in bytes) of the transaction, calculated on first use
    */
-  private int size;
+  private final Supplier<Integer> size;
 
   /**
    * The bitcoin addresses in this wallet that the transaction sends bitcoin to
@@ -80,6 +82,32 @@ public class TransactionData implements PaymentData {
                          TransactionConfidence.ConfidenceType confidenceType, PaymentType paymentType, String description,
                          boolean isCoinbase, Collection<String> outputAddresses, String rawTransaction, int size, boolean isMock) {
 
+    this(transactionId, date, statusWithOrdinal, amountBTC, amountFiat, miningFee, clientFee, confidenceType, paymentType,
+      description, isCoinbase, outputAddresses, Suppliers.ofInstance(rawTransaction), Suppliers.ofInstance(size), isMock);
+  }
+
+  /**
+   * @param transactionId     The transaction ID
+   * @param date              The creation date
+   * @param statusWithOrdinal The status with ordinal
+   * @param amountBTC         The amount in coins
+   * @param amountFiat        The amount in fiat
+   * @param miningFee         The mining fee in coins
+   * @param clientFee         The client fee in coins
+   * @param confidenceType    The confidence type
+   * @param paymentType       The payment type
+   * @param description       The description
+   * @param isCoinbase        True if coinbase
+   * @param outputAddresses   The output addresses
+   * @param rawTransaction    Provides the raw transaction on demand (should be memoized)
+   * @param size              Provides the size in bytes on demand (should be memoized)
+   * @param isMock            True if this is a mock (CSV export header)
+   */
+  public TransactionData(String transactionId, DateTime date, PaymentStatus statusWithOrdinal,
+                         Coin amountBTC, FiatPayment amountFiat, Optional<Coin> miningFee, Optional<Coin> clientFee,
+                         TransactionConfidence.ConfidenceType confidenceType, PaymentType paymentType, String description,
+                         boolean isCoinbase, Collection<String> outputAddresses, Supplier<String> rawTransaction, Supplier<Integer> size, boolean isMock) {
+
     // Apply preconditions if being used in a real environment
     if (!isMock) {
       Preconditions.checkNotNull(transactionId, "'transactionId' must be present");
@@ -245,11 +273,17 @@ public class TransactionData implements PaymentData {
     return outputAddresses;
   }
 
+  /**
+   * @return The transaction in its raw form (built on first call)
+   */
   public String getRawTransaction() {
-    return rawTransaction;
+    return rawTransaction.get();
   }
 
+  /**
+   * @return The size of the transaction in bytes (calculated on first call)
+   */
   public int getSize() {
-    return size;
+    return size.get();
   }
 }
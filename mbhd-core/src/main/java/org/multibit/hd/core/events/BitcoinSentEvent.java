@@ -5,6 +5,7 @@ import com.google.bitcoin.core.Coin;
 import com.google.common.base.Optional;
 
 import java.util.Arrays;
+import java.util.List;
 
 /**
  *  <p>Event to provide the following to UIEventbus subscribers
@@ -23,7 +24,10 @@ public class BitcoinSentEvent implements CoreEvent {
 
   private final Optional<Coin> clientFeePaid;
 
-  private final Address destinationAddress;
+  /**
+   * The recipients in output order (more than one for a batch)
+   */
+  private final List<Address> destinationAddresses;
 
   private final Address changeAddress;
 
@@ -32,7 +36,7 @@ public class BitcoinSentEvent implements CoreEvent {
   private final String sendFailureReasonKey;
 
   public BitcoinSentEvent(
-    Address destinationAddress,
+    List<Address> destinationAddresses,
     Coin amount,
     Address changeAddress,
     Optional<Coin> miningFeePaid,
@@ -45,7 +49,7 @@ public class BitcoinSentEvent implements CoreEvent {
     this.amount = amount;
     this.miningFeePaid = miningFeePaid;
     this.clientFeePaid = clientFeePaid;
-    this.destinationAddress = destinationAddress;
+    this.destinationAddresses = destinationAddresses;
     this.changeAddress = changeAddress;
     this.sendWasSuccessful = sendWasSuccessful;
     this.sendFailureReasonKey = sendFailureReasonKey;
@@ -67,8 +71,25 @@ public class BitcoinSentEvent implements CoreEvent {
     return clientFeePaid;
   }
 
+  /**
+   * @return The single recipient, null if there is none or the amount was shared by a batch of recipients
+   */
   public Address getDestinationAddress() {
-    return destinationAddress;
+    return getRecipientCount() == 1 ? destinationAddresses.get(0) : null;
+  }
+
+  /**
+   * @return The recipients in output order (more than one for a batch)
+   */
+  public List<Address> getDestinationAddresses() {
+    return destinationAddresses;
+  }
+
+  /**
+   * @return The number of recipients sharing the amount
+   */
+  public int getRecipientCount() {
+    return destinationAddresses == null ? 0 : destinationAddresses.size();
   }
 
   public boolean isSendWasSuccessful() {
@@ -89,7 +110,7 @@ public class BitcoinSentEvent implements CoreEvent {
             "amount=" + amount +
             ", miningFeePaid=" + miningFeePaid +
             ", clientFeePaid=" + clientFeePaid +
-            ", destinationAddress='" + destinationAddress + '\'' +
+            ", destinationAddresses=" + destinationAddresses +
             ", changeAddress='" + changeAddress + '\'' +
             ", sendWasSuccessful=" + sendWasSuccessful +
             ", sendFailureReasonKey='" + sendFailureReasonKey + '\'' +
@@ -0,0 +1,265 @@
+package org.multibit.hd.core.events;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.services.CoreServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Dispatcher to provide the following to CoreEvents:</p>
+ * <ul>
+ * <li>Delivery of high frequency events away from the Bitcoin network threads</li>
+ * <li>Coalescing of events that supersede each other within a time window</li>
+ * </ul>
+ * <p>Only the latest BitcoinNetworkChangedEvent in a window is delivered. TransactionSeenEvents are batched by
+ * wallet and transaction hash so that only the latest event for each transaction in each wallet is delivered, retaining
+ * its first appearance.</p>
+ * <p>The number of pending transactions is bounded. If the bound is reached the posting thread delivers the pending
+ * events itself so that nothing is lost and the network thread is naturally slowed. Deliveries never overlap, so a
+ * posting thread that overflows waits for any scheduled delivery in progress to finish first.</p>
+ *
+ * @since 0.0.1
+ */
+public class CoalescingEventDispatcher {
+
+  private static final Logger log = LoggerFactory.getLogger(CoalescingEventDispatcher.class);
+
+  /**
+   * The default time to gather events before delivering them
+   */
+  public static final long DEFAULT_WINDOW_MILLIS = 250;
+
+  /**
+   * The default maximum number of distinct transactions held between deliveries
+   */
+  public static final int DEFAULT_MAXIMUM_PENDING_TRANSACTIONS = 1000;
+
+  private final long windowMillis;
+
+  private final int maximumPendingTransactions;
+
+  private final ListeningScheduledExecutorService dispatchExecutor = SafeExecutors.newSingleThreadScheduledExecutor("event-dispatch");
+
+  private final Object lock = new Object();
+
+  /**
+   * Held for the whole of a delivery so that events are posted to the UI event bus by one thread at a time and in order
+   */
+  private final Object deliveryLock = new Object();
+
+  /**
+   * The latest network event since the last delivery (guarded by lock)
+   */
+  private BitcoinNetworkChangedEvent pendingBitcoinNetworkChangedEvent;
+
+  /**
+   * The latest event for each wallet and transaction since the last delivery in order of first arrival (guarded by lock)
+   */
+  private final Map<String, TransactionSeenEvent> pendingTransactionSeenEvents = Maps.newLinkedHashMap();
+
+  /**
+   * True if a delivery has been scheduled (guarded by lock)
+   */
+  private boolean deliveryScheduled = false;
+
+  private final AtomicLong receivedCount = new AtomicLong();
+  private final AtomicLong deliveredCount = new AtomicLong();
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong mergedCount = new AtomicLong();
+  private final AtomicLong overflowCount = new AtomicLong();
+
+  /**
+   * @param windowMillis               The time to gather events before delivering them
+   * @param maximumPendingTransactions The maximum number of distinct transactions held between deliveries
+   */
+  public CoalescingEventDispatcher(long windowMillis, int maximumPendingTransactions) {
+
+    Preconditions.checkArgument(windowMillis >= 0, "'windowMillis' must not be negative");
+    Preconditions.checkArgument(maximumPendingTransactions > 0, "'maximumPendingTransactions' must be positive");
+
+    this.windowMillis = windowMillis;
+    this.maximumPendingTransactions = maximumPendingTransactions;
+  }
+
+  /**
+   * <p>Queue a network event, replacing any undelivered one</p>
+   *
+   * @param event The event
+   */
+  public void post(BitcoinNetworkChangedEvent event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    receivedCount.incrementAndGet();
+
+    synchronized (lock) {
+      if (pendingBitcoinNetworkChangedEvent != null) {
+        // The previous summary is superseded
+        droppedCount.incrementAndGet();
+      }
+      pendingBitcoinNetworkChangedEvent = event;
+      scheduleDelivery();
+    }
+  }
+
+  /**
+   * <p>Queue a transaction seen event, merging it with any undelivered event for the same transaction</p>
+   *
+   * @param event The event
+   */
+  public void post(TransactionSeenEvent event) {
+
+    Preconditions.checkNotNull(event, "'event' must be present");
+
+    receivedCount.incrementAndGet();
+
+    boolean overflow = false;
+    synchronized (lock) {
+      TransactionSeenEvent previousEvent = pendingTransactionSeenEvents.get(pendingKey(event));
+      if (previousEvent != null) {
+        mergedCount.incrementAndGet();
+        if (previousEvent.isFirstAppearanceInWallet()) {
+          // Subscribers (alerts, exchange rates) rely on seeing the first appearance
+          event.setFirstAppearanceInWallet(true);
+        }
+      } else if (pendingTransactionSeenEvents.size() >= maximumPendingTransactions) {
+        overflow = true;
+      }
+      pendingTransactionSeenEvents.put(pendingKey(event), event);
+      scheduleDelivery();
+    }
+
+    if (overflow) {
+      // Apply back pressure to the posting thread rather than dropping transactions
+      overflowCount.incrementAndGet();
+      deliver();
+    }
+  }
+
+  /**
+   * @param event The transaction seen event
+   *
+   * @return The key merging events for the same transaction in the same wallet (two open wallets may share a transaction)
+   */
+  private static String pendingKey(TransactionSeenEvent event) {
+
+    if (event.getWalletId().isPresent()) {
+      return event.getWalletId().get().toFormattedString() + ":" + event.getTransactionId();
+    }
+
+    return event.getTransactionId();
+  }
+
+  /**
+   * <p>Deliver all pending events to the UI event bus on the calling thread</p>
+   * <p>Waits for any other delivery in progress (scheduled, overflow or shutdown) to finish first</p>
+   */
+  public void deliver() {
+
+    synchronized (deliveryLock) {
+
+      BitcoinNetworkChangedEvent bitcoinNetworkChangedEvent;
+      List<TransactionSeenEvent> transactionSeenEvents;
+
+      synchronized (lock) {
+        bitcoinNetworkChangedEvent = pendingBitcoinNetworkChangedEvent;
+        pendingBitcoinNetworkChangedEvent = null;
+
+        transactionSeenEvents = Lists.newArrayList(pendingTransactionSeenEvents.values());
+        pendingTransactionSeenEvents.clear();
+
+        deliveryScheduled = false;
+      }
+
+      // Post outside the pending lock so that subscribers can post further events
+      if (bitcoinNetworkChangedEvent != null) {
+        CoreServices.uiEventBus.post(bitcoinNetworkChangedEvent);
+        deliveredCount.incrementAndGet();
+      }
+
+      for (TransactionSeenEvent transactionSeenEvent : transactionSeenEvents) {
+        CoreServices.uiEventBus.post(transactionSeenEvent);
+        deliveredCount.incrementAndGet();
+      }
+
+      if (!transactionSeenEvents.isEmpty()) {
+        CoreEvents.consolidateTransactionSeenEvents();
+      }
+    }
+  }
+
+  /**
+   * <p>Deliver any pending events and stop the dispatch thread</p>
+   */
+  public void shutdown() {
+
+    dispatchExecutor.shutdownNow();
+    deliver();
+
+    log.debug("Event dispatch stopped. Received: {}, delivered: {}, dropped: {}, merged: {}, overflows: {}",
+      receivedCount.get(), deliveredCount.get(), droppedCount.get(), mergedCount.get(), overflowCount.get());
+  }
+
+  /**
+   * @return The number of events received
+   */
+  public long getReceivedCount() {
+    return receivedCount.get();
+  }
+
+  /**
+   * @return The number of events delivered to the UI event bus
+   */
+  public long getDeliveredCount() {
+    return deliveredCount.get();
+  }
+
+  /**
+   * @return The number of network events dropped because a later one superseded them
+   */
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * @return The number of transaction seen events merged into a later event for the same transaction
+   */
+  public long getMergedCount() {
+    return mergedCount.get();
+  }
+
+  /**
+   * @return The number of times the pending transactions reached the bound and were delivered early
+   */
+  public long getOverflowCount() {
+    return overflowCount.get();
+  }
+
+  /**
+   * Requires the lock to be held
+   */
+  private void scheduleDelivery() {
+
+    if (deliveryScheduled || dispatchExecutor.isShutdown()) {
+      return;
+    }
+    deliveryScheduled = true;
+
+    dispatchExecutor.schedule(new Runnable() {
+      @Override
+      public void run() {
+        deliver();
+      }
+    }, windowMillis, TimeUnit.MILLISECONDS);
+  }
+
+}
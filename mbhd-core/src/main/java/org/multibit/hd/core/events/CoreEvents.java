@@ -34,12 +34,51 @@ public class CoreEvents {
 
   private static ListeningScheduledExecutorService txSeenExecutor = SafeExecutors.newSingleThreadScheduledExecutor("tx-seen");
 
+  /**
+   * The dispatcher for high frequency events if asynchronous dispatch is enabled
+   */
+  private static volatile Optional<CoalescingEventDispatcher> coalescingEventDispatcher = Optional.absent();
+
   /**
    * Utilities have a private constructor
    */
   private CoreEvents() {
   }
 
+  /**
+   * <p>Deliver the high frequency events (transaction seen, Bitcoin network changed) on a separate thread,
+   * coalescing those that supersede each other within the window</p>
+   *
+   * @param windowMillis               The time to gather events before delivering them
+   * @param maximumPendingTransactions The maximum number of distinct transactions held between deliveries
+   */
+  public static synchronized void enableCoalescingDispatch(long windowMillis, int maximumPendingTransactions) {
+
+    disableCoalescingDispatch();
+
+    log.debug("Enabling coalescing event dispatch with a {}ms window", windowMillis);
+    coalescingEventDispatcher = Optional.of(new CoalescingEventDispatcher(windowMillis, maximumPendingTransactions));
+  }
+
+  /**
+   * <p>Deliver any pending events and return to synchronous delivery of all events</p>
+   */
+  public static synchronized void disableCoalescingDispatch() {
+
+    if (coalescingEventDispatcher.isPresent()) {
+      CoalescingEventDispatcher dispatcher = coalescingEventDispatcher.get();
+      coalescingEventDispatcher = Optional.absent();
+      dispatcher.shutdown();
+    }
+  }
+
+  /**
+   * @return The coalescing event dispatcher (providing dispatch statistics) if enabled
+   */
+  public static Optional<CoalescingEventDispatcher> getCoalescingEventDispatcher() {
+    return coalescingEventDispatcher;
+  }
+
   /**
    * <p>Broadcast a new "exchange rate changed" event</p>
    *
@@ -98,6 +137,14 @@ public class CoreEvents {
    * @param transactionSeenEvent containing transaction information
    */
   public static void fireTransactionSeenEvent(TransactionSeenEvent transactionSeenEvent) {
+
+    Optional<CoalescingEventDispatcher> dispatcher = coalescingEventDispatcher;
+    if (dispatcher.isPresent()) {
+      // The dispatcher consolidates once the events are delivered
+      dispatcher.get().post(transactionSeenEvent);
+      return;
+    }
+
     CoreServices.uiEventBus.post(transactionSeenEvent);
     consolidateTransactionSeenEvents();
   }
@@ -105,7 +152,7 @@ public class CoreEvents {
   /**
    * Consolidate many transactionSeenEvents into a single call per (slow)time interval
    */
-  private static void consolidateTransactionSeenEvents() {
+  static void consolidateTransactionSeenEvents() {
 
     synchronized (lockObject) {
       if (!waitingToFireSlowTransactionSeenEvent) {
@@ -138,6 +185,12 @@ public class CoreEvents {
       log.trace("Firing 'Bitcoin network changed' event");
     }
 
+    Optional<CoalescingEventDispatcher> dispatcher = coalescingEventDispatcher;
+    if (dispatcher.isPresent()) {
+      dispatcher.get().post(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
+      return;
+    }
+
     CoreServices.uiEventBus.post(new BitcoinNetworkChangedEvent(bitcoinNetworkSummary));
   }
   /**
@@ -177,6 +230,18 @@ public class CoreEvents {
    */
   public static void fireShutdownEvent(ShutdownEvent.ShutdownType shutdownType) {
     log.info("Firing 'shutdown' event: {}", shutdownType);
+
+    // Ensure subscribers see any pending network events before the shutdown
+    if (ShutdownEvent.ShutdownType.HARD == shutdownType) {
+      disableCoalescingDispatch();
+    } else {
+      // The services restart after a standby or soft shutdown (e.g. switching wallet) so keep coalescing
+      Optional<CoalescingEventDispatcher> dispatcher = coalescingEventDispatcher;
+      if (dispatcher.isPresent()) {
+        dispatcher.get().deliver();
+      }
+    }
+
     CoreServices.uiEventBus.post(new ShutdownEvent(shutdownType));
 
     // Use Core services to handle any finalisation
@@ -6,6 +6,7 @@ import com.google.common.base.Optional;
 import org.multibit.hd.core.dto.FiatPayment;
 
 import java.util.Arrays;
+import java.util.List;
 
 /**
  *  <p>Event to provide the following to UI event subscribers:</p>
@@ -37,7 +38,10 @@ public class TransactionCreationEvent implements CoreEvent {
    */
   private final Optional<Coin> clientFeePaid;
 
-  private final Address destinationAddress;
+  /**
+   * The recipients in output order (more than one for a batch)
+   */
+  private final List<Address> destinationAddresses;
 
   private final Address changeAddress;
 
@@ -57,7 +61,7 @@ public class TransactionCreationEvent implements CoreEvent {
     Optional<FiatPayment> fiatPayment,
     Optional<Coin> miningFeePaid,
     Optional<Coin> clientFeePaid,
-    Address destinationAddress,
+    List<Address> destinationAddresses,
     Address changeAddress,
     boolean transactionCreationWasSuccessful,
     String transactionCreationFailureReasonKey,
@@ -71,7 +75,7 @@ public class TransactionCreationEvent implements CoreEvent {
     this.fiatPayment = fiatPayment;
     this.miningFeePaid = miningFeePaid;
     this.clientFeePaid = clientFeePaid;
-    this.destinationAddress = destinationAddress;
+    this.destinationAddresses = destinationAddresses;
     this.changeAddress = changeAddress;
     this.transactionCreationWasSuccessful = transactionCreationWasSuccessful;
     this.transactionCreationFailureReasonKey = transactionCreationFailureReasonKey;
@@ -98,6 +102,20 @@ public class TransactionCreationEvent implements CoreEvent {
      return clientFeePaid;
    }
 
+  /**
+   * @return The recipients in output order (more than one for a batch)
+   */
+  public List<Address> getDestinationAddresses() {
+    return destinationAddresses;
+  }
+
+  /**
+   * @return The number of recipients sharing the amount
+   */
+  public int getRecipientCount() {
+    return destinationAddresses == null ? 0 : destinationAddresses.size();
+  }
+
   public boolean isTransactionCreationWasSuccessful() {
     return transactionCreationWasSuccessful;
   }
@@ -129,7 +147,7 @@ public class TransactionCreationEvent implements CoreEvent {
       ", fiatPayment=" + fiatPayment +
       ", miningFeePaid=" + miningFeePaid +
       ", clientFeePaid=" + clientFeePaid +
-      ", destinationAddress='" + destinationAddress + '\'' +
+      ", destinationAddresses=" + destinationAddresses +
       ", changeAddress='" + changeAddress + '\'' +
       ", transactionCreationWasSuccessful=" + transactionCreationWasSuccessful +
       ", transactionId='" + transactionId + '\'' +
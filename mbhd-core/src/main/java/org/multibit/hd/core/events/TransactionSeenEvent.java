@@ -3,6 +3,8 @@ package org.multibit.hd.core.events;
 import com.google.bitcoin.core.Coin;
 import com.google.bitcoin.core.Transaction;
 import com.google.bitcoin.core.TransactionConfidence;
+import com.google.common.base.Optional;
+import org.multibit.hd.core.dto.WalletId;
 
 /**
  * <p>Event to provide the following to Core event subscribers</p>
@@ -18,6 +20,11 @@ public class TransactionSeenEvent implements CoreEvent {
 
   private final String transactionId;
 
+  /**
+   * The wallet the amount was calculated from (absent if not known)
+   */
+  private final Optional<WalletId> walletId;
+
   private final TransactionConfidence.ConfidenceType confidenceType;
   private final int depthInBlocks;
 
@@ -42,6 +49,17 @@ public class TransactionSeenEvent implements CoreEvent {
    * @param amount      The amount as calculated from the wallet
    */
   public TransactionSeenEvent(Transaction transaction, Coin amount) {
+    this(transaction, amount, null);
+  }
+
+  /**
+   * @param transaction The Bitcoinj transaction providing the information
+   * @param amount      The amount as calculated from the wallet
+   * @param walletId    The wallet the amount was calculated from (null if not known)
+   */
+  public TransactionSeenEvent(Transaction transaction, Coin amount, WalletId walletId) {
+
+    this.walletId = Optional.fromNullable(walletId);
 
     transactionId = transaction.getHashAsString();
     TransactionConfidence confidence = transaction.getConfidence();
@@ -98,6 +116,13 @@ public class TransactionSeenEvent implements CoreEvent {
     return transactionId;
   }
 
+  /**
+   * @return The wallet the amount was calculated from (absent if not known)
+   */
+  public Optional<WalletId> getWalletId() {
+    return walletId;
+  }
+
   /**
    * @return True if this transaction is from the coinbase
    */
@@ -116,6 +141,7 @@ public class TransactionSeenEvent implements CoreEvent {
   public String toString() {
     return "TransactionSeenEvent{" +
       "transactionId='" + transactionId + '\'' +
+      ", walletId=" + walletId +
       ", confidenceType=" + confidenceType +
       ", depthInBlocks=" + depthInBlocks +
       ", numberOfPeers=" + numberOfPeers +
@@ -0,0 +1,498 @@
+package org.multibit.hd.core.files;
+
+import com.google.bitcoin.core.Utils;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
+import org.multibit.hd.core.managers.BackupManager;
+import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.WalletManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.multibit.hd.core.files.SecureFiles.verifyOrCreateDirectory;
+
+/**
+ * <p>Utilities to provide the following to BackupManager:</p>
+ * <ul>
+ * <li>Incremental, content addressed backups of a wallet directory</li>
+ * <li>Restoring and migrating from zip backups</li>
+ * </ul>
+ * <p>Each file is split into chunks which are AES encrypted and stored once in a chunk directory, named by an
+ * HMAC of their content under a key derived from (rather than equal to) the backup key. A backup is then a small
+ * AES encrypted manifest listing the files and their chunks, so unchanged files cost nothing in subsequent
+ * backups.</p>
+ * <p>A manifest does not record where its chunks are kept. BackupManager keeps them in a directory named after the
+ * wallet with a "-chunks" suffix alongside the manifests, so a backup must be copied or moved together with that
+ * directory to remain restorable.</p>
+ *
+ * @since 0.0.1
+ */
+public class ChunkedBackups {
+
+  private static final Logger log = LoggerFactory.getLogger(ChunkedBackups.class);
+
+  /**
+   * The size of a chunk before encryption
+   */
+  public static final int CHUNK_SIZE = 256 * 1024;
+
+  /**
+   * The first line of every manifest, including the format version
+   */
+  private static final String MANIFEST_HEADER = "mbhd-backup-manifest 2";
+
+  /**
+   * The first line of manifests whose chunk ids were keyed with the backup key itself (still restorable)
+   */
+  private static final String LEGACY_MANIFEST_HEADER = "mbhd-backup-manifest 1";
+
+  /**
+   * The label used to derive the chunk id key from the backup key
+   */
+  private static final byte[] CHUNK_ID_KEY_LABEL = "chunk-id".getBytes(Charsets.UTF_8);
+
+  /**
+   * The separator between fields of a manifest line
+   */
+  private static final char FIELD_SEPARATOR = '\t';
+
+  /**
+   * The separator between chunk ids within a manifest line
+   */
+  private static final char CHUNK_ID_SEPARATOR = ',';
+
+  private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+  /**
+   * Utilities have private constructor
+   */
+  private ChunkedBackups() {
+  }
+
+  /**
+   * <p>Back up the files in the source folder, storing any new chunks and writing an encrypted manifest.</p>
+   * <p>As with zip backups the zip-backups directory and the block store are excluded.</p>
+   *
+   * @param srcFolder      The directory holding the files to back up
+   * @param manifestFile   The manifest file to create
+   * @param chunkDirectory The directory holding the chunks (shared by all the backups of this wallet)
+   * @param backupKey      The backup AES key
+   *
+   * @return The number of new chunks that had to be stored
+   *
+   * @throws IOException If the backup could not be written
+   */
+  public static int writeBackup(File srcFolder, File manifestFile, File chunkDirectory, KeyParameter backupKey) throws IOException {
+
+    Preconditions.checkNotNull(srcFolder, "'srcFolder' must be present");
+    Preconditions.checkNotNull(manifestFile, "'manifestFile' must be present");
+    Preconditions.checkNotNull(chunkDirectory, "'chunkDirectory' must be present");
+    Preconditions.checkNotNull(backupKey, "'backupKey' must be present");
+
+    verifyOrCreateDirectory(chunkDirectory);
+
+    List<String> manifestLines = Lists.newArrayList(MANIFEST_HEADER);
+    int[] newChunkCount = new int[1];
+
+    addFolderToBackup(srcFolder, "", chunkDirectory, backupKey, manifestLines, newChunkCount);
+
+    writeManifest(manifestLines, manifestFile, backupKey);
+
+    log.debug("Created backup manifest '{}' with {} file(s) and {} new chunk(s)", manifestFile.getName(), manifestLines.size() - 1, newChunkCount[0]);
+
+    return newChunkCount[0];
+  }
+
+  /**
+   * <p>Restore all the files described by a manifest, overwriting any that are present</p>
+   *
+   * @param manifestFile         The manifest describing the backup
+   * @param chunkDirectory       The directory holding the chunks (not recorded in the manifest)
+   * @param directoryToExtractTo The directory to restore into
+   * @param backupKey            The backup AES key
+   *
+   * @throws IOException If a chunk is missing or has been tampered with
+   */
+  public static void restoreBackup(File manifestFile, File chunkDirectory, File directoryToExtractTo, KeyParameter backupKey) throws IOException {
+
+    Preconditions.checkNotNull(manifestFile, "'manifestFile' must be present");
+    Preconditions.checkNotNull(chunkDirectory, "'chunkDirectory' must be present");
+    Preconditions.checkNotNull(directoryToExtractTo, "'directoryToExtractTo' must be present");
+    Preconditions.checkNotNull(backupKey, "'backupKey' must be present");
+
+    verifyOrCreateDirectory(directoryToExtractTo);
+
+    for (ManifestEntry entry : readManifest(manifestFile, backupKey)) {
+
+      log.debug("Restoring file: " + entry.path);
+
+      File destination = ZipFiles.resolveEntry(directoryToExtractTo, entry.path.replace('/', File.separatorChar));
+      verifyOrCreateDirectory(destination.getParentFile());
+
+      long written = 0;
+      try (OutputStream out = new BufferedOutputStream(new FileOutputStream(destination))) {
+        for (String chunkId : entry.chunkIds) {
+          byte[] chunk = readChunk(chunkDirectory, chunkId, backupKey, entry.chunkIdKey);
+          out.write(chunk);
+          written += chunk.length;
+        }
+      }
+
+      if (written != entry.length) {
+        throw new IOException("Restored file '" + entry.path + "' has length " + written + " but expected " + entry.length);
+      }
+    }
+  }
+
+  /**
+   * <p>Check that every file described by a manifest can be restored without writing any of them</p>
+   *
+   * @param manifestFile   The manifest describing the backup
+   * @param chunkDirectory The directory holding the chunks
+   * @param backupKey      The backup AES key
+   *
+   * @return The total length of the files in the backup
+   *
+   * @throws IOException If the manifest cannot be read or a chunk is missing, has been tampered with or has the wrong length
+   */
+  public static long verifyBackup(File manifestFile, File chunkDirectory, KeyParameter backupKey) throws IOException {
+
+    Preconditions.checkNotNull(manifestFile, "'manifestFile' must be present");
+    Preconditions.checkNotNull(chunkDirectory, "'chunkDirectory' must be present");
+    Preconditions.checkNotNull(backupKey, "'backupKey' must be present");
+
+    long totalLength = 0;
+    for (ManifestEntry entry : readManifest(manifestFile, backupKey)) {
+
+      long read = 0;
+      for (String chunkId : entry.chunkIds) {
+        byte[] chunk = readChunk(chunkDirectory, chunkId, backupKey, entry.chunkIdKey);
+        read += chunk.length;
+        Arrays.fill(chunk, (byte) 0);
+      }
+
+      if (read != entry.length) {
+        throw new IOException("File '" + entry.path + "' has length " + read + " but expected " + entry.length);
+      }
+      totalLength += read;
+    }
+
+    return totalLength;
+  }
+
+  /**
+   * <p>Convert an existing encrypted zip backup into a manifest with the same name stem.</p>
+   * <p>The zip is decrypted as it is read so no unencrypted copy is written to disk. The whole zip is decrypted
+   * so that a wrong key or a corrupt or truncated zip fails rather than migrating part of it. The original is
+   * not deleted.</p>
+   *
+   * @param encryptedZipFile The ".zip.aes" backup to migrate
+   * @param manifestFile     The manifest file to create
+   * @param chunkDirectory   The directory holding the chunks
+   * @param backupKey        The backup AES key
+   *
+   * @return The total length of the files migrated (to compare with {@link #verifyBackup})
+   *
+   * @throws IOException If the zip could not be read or the chunks could not be written
+   */
+  public static long migrateZipBackup(File encryptedZipFile, File manifestFile, File chunkDirectory, KeyParameter backupKey) throws IOException {
+
+    Preconditions.checkNotNull(encryptedZipFile, "'encryptedZipFile' must be present");
+
+    verifyOrCreateDirectory(chunkDirectory);
+
+    List<String> manifestLines = Lists.newArrayList(MANIFEST_HEADER);
+    int[] newChunkCount = new int[1];
+    long totalLength = 0;
+
+    InputStream decryptingInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(
+      new FileInputStream(encryptedZipFile),
+      backupKey,
+      WalletManager.AES_INITIALISATION_VECTOR
+    );
+    try (ZipInputStream zipInputStream = new ZipInputStream(decryptingInputStream)) {
+      ZipEntry zipEntry;
+      while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+        if (zipEntry.isDirectory() || zipEntry.getName().contains(".DS_Store")) {
+          continue;
+        }
+        String path = zipEntry.getName().replace(File.separatorChar, '/');
+        String manifestLine = addStreamToBackup(path, zipInputStream, chunkDirectory, backupKey, newChunkCount);
+        manifestLines.add(manifestLine);
+        totalLength += Long.parseLong(Splitter.on(FIELD_SEPARATOR).splitToList(manifestLine).get(1));
+      }
+
+      // The zip stops reading at the central directory so read on to the end to check the padding
+      ZipFiles.readToEnd(decryptingInputStream);
+    }
+
+    // A wrong key usually decrypts to something that is not a zip at all
+    if (manifestLines.size() == 1) {
+      throw new IOException("Zip backup '" + encryptedZipFile.getAbsolutePath() + "' contains no files");
+    }
+
+    writeManifest(manifestLines, manifestFile, backupKey);
+
+    log.debug("Migrated '{}' to manifest '{}' with {} new chunk(s)", encryptedZipFile.getName(), manifestFile.getName(), newChunkCount[0]);
+
+    return totalLength;
+  }
+
+  /**
+   * <p>Delete the chunks that are not referenced by any of the given manifests</p>
+   * <p>Nothing is deleted if any of the manifests cannot be read since its chunks cannot be told apart. The caller
+   * must prevent backups and restores using the chunk directory while this runs.</p>
+   *
+   * @param manifestFiles  All the manifests sharing the chunk directory
+   * @param chunkDirectory The directory holding the chunks
+   * @param backupKey      The backup AES key
+   *
+   * @return The number of chunks deleted
+   *
+   * @throws IOException If a chunk could not be deleted
+   */
+  public static int deleteUnreferencedChunks(List<File> manifestFiles, File chunkDirectory, KeyParameter backupKey) throws IOException {
+
+    File[] chunkFiles = chunkDirectory.listFiles();
+    if (chunkFiles == null) {
+      return 0;
+    }
+
+    // Mark
+    Set<String> referencedChunkIds = Sets.newHashSet();
+    for (File manifestFile : manifestFiles) {
+      try {
+        for (ManifestEntry entry : readManifest(manifestFile, backupKey)) {
+          referencedChunkIds.addAll(entry.chunkIds);
+        }
+      } catch (IOException e) {
+        log.warn("Not deleting any chunks from '{}' as manifest '{}' cannot be read. Error = '{}'",
+          chunkDirectory.getAbsolutePath(), manifestFile.getName(), e.getMessage());
+        return 0;
+      }
+    }
+
+    // Sweep
+    int deleted = 0;
+    for (File chunkFile : chunkFiles) {
+      if (chunkFile.isFile() && !referencedChunkIds.contains(chunkFile.getName())) {
+        SecureFiles.secureDelete(chunkFile);
+        deleted++;
+      }
+    }
+
+    if (deleted > 0) {
+      log.debug("Deleted {} unreferenced chunk(s) from '{}'", deleted, chunkDirectory.getAbsolutePath());
+    }
+
+    return deleted;
+  }
+
+  private static void addFolderToBackup(File folder, String relativePath, File chunkDirectory, KeyParameter backupKey, List<String> manifestLines, int[] newChunkCount) throws IOException {
+
+    String[] fileNames = folder.list();
+    if (fileNames == null) {
+      return;
+    }
+
+    // Sort to give a stable manifest order
+    Arrays.sort(fileNames);
+
+    for (String fileName : fileNames) {
+
+      File file = new File(folder, fileName);
+      String path = relativePath.isEmpty() ? fileName : relativePath + "/" + fileName;
+
+      if (file.isDirectory()) {
+        // Don't include the zip-backups folder in the backups
+        if (fileName.equals(BackupManager.LOCAL_ZIP_BACKUP_DIRECTORY_NAME)) {
+          continue;
+        }
+        addFolderToBackup(file, path, chunkDirectory, backupKey, manifestLines, newChunkCount);
+      } else {
+        if (fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)
+          || fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_HEADER_INDEX_SUFFIX)
+          || fileName.contains(".DS_Store")) {
+          // Do not include the block store or its header index (to save space)
+          continue;
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+          manifestLines.add(addStreamToBackup(path, in, chunkDirectory, backupKey, newChunkCount));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return The manifest line describing the stream
+   */
+  private static String addStreamToBackup(String path, InputStream in, File chunkDirectory, KeyParameter backupKey, int[] newChunkCount) throws IOException {
+
+    Preconditions.checkState(path.indexOf(FIELD_SEPARATOR) == -1 && path.indexOf('\n') == -1, "Unsupported file name '" + path + "'");
+
+    byte[] chunkIdKey = chunkIdKey(backupKey);
+    List<String> chunkIds = Lists.newArrayList();
+    long length = 0;
+
+    byte[] buffer = new byte[CHUNK_SIZE];
+    int read;
+    while ((read = ByteStreams.read(in, buffer, 0, CHUNK_SIZE)) > 0) {
+      byte[] chunk = read == CHUNK_SIZE ? buffer : Arrays.copyOf(buffer, read);
+      String chunkId = chunkId(chunk, chunkIdKey);
+      if (writeChunkIfAbsent(chunkDirectory, chunkId, chunk, backupKey)) {
+        newChunkCount[0]++;
+      }
+      chunkIds.add(chunkId);
+      length += read;
+    }
+    Arrays.fill(buffer, (byte) 0);
+
+    return path + FIELD_SEPARATOR + length + FIELD_SEPARATOR + Joiner.on(CHUNK_ID_SEPARATOR).join(chunkIds);
+  }
+
+  /**
+   * @return True if the chunk was written, false if it was already present
+   */
+  private static boolean writeChunkIfAbsent(File chunkDirectory, String chunkId, byte[] chunk, KeyParameter backupKey) throws IOException {
+
+    File chunkFile = new File(chunkDirectory, chunkId);
+    if (chunkFile.exists() && chunkFile.length() > 0) {
+      return false;
+    }
+
+    byte[] encryptedChunk = AESUtils.encrypt(chunk, backupKey, WalletManager.AES_INITIALISATION_VECTOR);
+    File temporaryFile = new File(chunkFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+    Files.writeFile(new ByteArrayInputStream(encryptedChunk), temporaryFile, chunkFile);
+
+    return true;
+  }
+
+  private static byte[] readChunk(File chunkDirectory, String chunkId, KeyParameter backupKey, byte[] chunkIdKey) throws IOException {
+
+    File chunkFile = new File(chunkDirectory, chunkId);
+    if (!chunkFile.exists()) {
+      throw new IOException("Backup chunk '" + chunkId + "' is missing from '" + chunkDirectory.getAbsolutePath() + "'");
+    }
+
+    byte[] chunk = AESUtils.decrypt(org.multibit.hd.brit.utils.FileUtils.readFile(chunkFile), backupKey, WalletManager.AES_INITIALISATION_VECTOR);
+
+    // The name of the chunk authenticates its content
+    if (!MessageDigest.isEqual(Utils.HEX.decode(chunkId), Utils.HEX.decode(chunkId(chunk, chunkIdKey)))) {
+      throw new IOException("Backup chunk '" + chunkId + "' is corrupt");
+    }
+
+    return chunk;
+  }
+
+  private static void writeManifest(List<String> manifestLines, File manifestFile, KeyParameter backupKey) throws IOException {
+
+    byte[] manifestBytes = Joiner.on('\n').join(manifestLines).getBytes(Charsets.UTF_8);
+    byte[] encryptedManifest = AESUtils.encrypt(manifestBytes, backupKey, WalletManager.AES_INITIALISATION_VECTOR);
+
+    File temporaryFile = new File(manifestFile.getAbsolutePath() + TEMPORARY_FILE_EXTENSION);
+    Files.writeFile(new ByteArrayInputStream(encryptedManifest), temporaryFile, manifestFile);
+  }
+
+  private static List<ManifestEntry> readManifest(File manifestFile, KeyParameter backupKey) throws IOException {
+
+    byte[] manifestBytes;
+    try {
+      manifestBytes = AESUtils.decrypt(org.multibit.hd.brit.utils.FileUtils.readFile(manifestFile), backupKey, WalletManager.AES_INITIALISATION_VECTOR);
+    } catch (RuntimeException e) {
+      throw new IOException("Could not decrypt backup manifest '" + manifestFile.getAbsolutePath() + "'", e);
+    }
+
+    List<String> lines = Splitter.on('\n').omitEmptyStrings().splitToList(new String(manifestBytes, Charsets.UTF_8));
+    final byte[] chunkIdKey;
+    if (!lines.isEmpty() && MANIFEST_HEADER.equals(lines.get(0))) {
+      chunkIdKey = chunkIdKey(backupKey);
+    } else if (!lines.isEmpty() && LEGACY_MANIFEST_HEADER.equals(lines.get(0))) {
+      chunkIdKey = backupKey.getKey();
+    } else {
+      throw new IOException("Backup manifest '" + manifestFile.getAbsolutePath() + "' is not in a supported format");
+    }
+
+    List<ManifestEntry> entries = Lists.newArrayList();
+    for (String line : lines.subList(1, lines.size())) {
+      List<String> fields = Splitter.on(FIELD_SEPARATOR).splitToList(line);
+      if (fields.size() != 3) {
+        throw new IOException("Backup manifest '" + manifestFile.getAbsolutePath() + "' is corrupt");
+      }
+      ManifestEntry entry = new ManifestEntry();
+      entry.path = fields.get(0);
+      entry.length = Long.parseLong(fields.get(1));
+      entry.chunkIds = Splitter.on(CHUNK_ID_SEPARATOR).omitEmptyStrings().splitToList(fields.get(2));
+      entry.chunkIdKey = chunkIdKey;
+
+      // Refuse anything that would escape the restore directory
+      if (entry.path.startsWith("/") || entry.path.contains("..")) {
+        throw new IOException("Backup manifest '" + manifestFile.getAbsolutePath() + "' contains an illegal path");
+      }
+
+      entries.add(entry);
+    }
+
+    return entries;
+  }
+
+  /**
+   * @return The chunk ID as a keyed hash of the content so that the chunk names reveal nothing about the content
+   */
+  private static String chunkId(byte[] chunk, byte[] chunkIdKey) {
+    return Utils.HEX.encode(hmacSha256(chunkIdKey, chunk));
+  }
+
+  /**
+   * @return The key for the chunk ids, derived from the backup key so that the AES key is not also used as a MAC key
+   */
+  private static byte[] chunkIdKey(KeyParameter backupKey) {
+    return hmacSha256(backupKey.getKey(), CHUNK_ID_KEY_LABEL);
+  }
+
+  private static byte[] hmacSha256(byte[] key, byte[] data) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(key, "HmacSHA256"));
+      return mac.doFinal(data);
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("HmacSHA256 is not available", e);
+    }
+  }
+
+  /**
+   * A single file within a manifest
+   */
+  private static class ManifestEntry {
+
+    private String path;
+
+    private long length;
+
+    private List<String> chunkIds;
+
+    /**
+     * The key the chunk ids were computed with (depends on the manifest version)
+     */
+    private byte[] chunkIdKey;
+
+  }
+}
@@ -58,17 +58,7 @@ public class Files {
       // Attempt to force the bits to hit the disk. In reality the OS or hard disk itself may still decide
       // to not write through to physical media for at least a few seconds, but this is the best we can do.
       tempStream = null;
-      if (Utils.isWindows()) {
-        // Work around an issue on Windows whereby you can't rename over existing files.
-        File canonical = destFile.getCanonicalFile();
-        if (canonical.exists() && !canonical.delete()) {
-          throw new IOException("Failed to delete canonical wallet file for replacement with autosave");
-        }
-        if (temp.renameTo(canonical)) return; // else fall through.
-        throw new IOException("Failed to rename " + temp + " to " + canonical);
-      } else if (!temp.renameTo(destFile)) {
-        throw new IOException("Failed to rename " + temp + " to " + destFile);
-      }
+      replaceWithTemporaryFile(temp, destFile);
     } catch (RuntimeException e) {
       log.error("Failed whilst saving wallet", e);
       throw e;
@@ -78,4 +68,27 @@ public class Files {
       }
     }
   }
+
+  /**
+   * <p>Rename the (fully written) temporary file to the destination file, replacing it if present</p>
+   *
+   * @param temp     The temporary file
+   * @param destFile The destination file
+   *
+   * @throws IOException If the rename fails
+   */
+  public static void replaceWithTemporaryFile(File temp, File destFile) throws IOException {
+
+    if (Utils.isWindows()) {
+      // Work around an issue on Windows whereby you can't rename over existing files.
+      File canonical = destFile.getCanonicalFile();
+      if (canonical.exists() && !canonical.delete()) {
+        throw new IOException("Failed to delete canonical wallet file for replacement with autosave");
+      }
+      if (temp.renameTo(canonical)) return; // else fall through.
+      throw new IOException("Failed to rename " + temp + " to " + canonical);
+    } else if (!temp.renameTo(destFile)) {
+      throw new IOException("Failed to rename " + temp + " to " + destFile);
+    }
+  }
 }
@@ -1,14 +1,19 @@
 package org.multibit.hd.core.files;
 
+import com.google.common.base.Preconditions;
+import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.WalletManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
 
 import java.io.*;
 import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import static org.multibit.hd.core.files.SecureFiles.verifyOrCreateDirectory;
@@ -17,6 +22,7 @@ import static org.multibit.hd.core.files.SecureFiles.verifyOrCreateDirectory;
  * <p>Utilties to provide the following to applications:</p>
  * <ul>
  * <li>Access to common ZIP operations</li>
+ * <li>Streaming extraction of AES encrypted ZIP backups</li>
  * </ul>
  * <p>Uses Java new I/O and Guava Files where possible</p>
  *
@@ -27,6 +33,11 @@ public class ZipFiles {
 
   private static final Logger log = LoggerFactory.getLogger(ZipFiles.class);
 
+  /**
+   * The size of the buffer used to copy file contents in and out of a zip
+   */
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
   /**
    * Utilities have private constructor
    */
@@ -45,26 +56,98 @@ public class ZipFiles {
    * @throws java.io.IOException
    */
   public static void zipFolder(String srcFolder, String destZipFile, boolean includeBlockStore) throws IOException {
-    ZipOutputStream zip;
-    FileOutputStream fileWriter;
 
-    fileWriter = new FileOutputStream(destZipFile);
-    zip = new ZipOutputStream(fileWriter);
+    try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(destZipFile), COPY_BUFFER_SIZE))) {
+      addFolderContentsToZip(srcFolder, zip, includeBlockStore);
+    }
+  }
 
-    try {
-      // Add the contents of the srcFolder to the zip - note the top folder (with the wallet id) is not added as it is coded in the name of the zip
-      if (new File(srcFolder).list() != null) {
-        for (String fileName : new File(srcFolder).list()) {
-          if (!includeBlockStore && fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)) {
-            // Do not include the block writeContacts (to save space)
+  /**
+   * <p>Extract an AES encrypted zip, decrypting it on the fly so that no unencrypted copy of the zip is written to disk</p>
+   * <p>The whole file is decrypted so that a wrong key or a corrupt or truncated file fails the padding check
+   * rather than appearing as an empty or partial zip.</p>
+   *
+   * @param encryptedZipFile     The encrypted zip file
+   * @param directoryToExtractTo The directory to extract to (existing files are overwritten)
+   * @param aesKey               The AES key (typically the backup AES key)
+   *
+   * @throws java.io.IOException If the zip could not be decrypted or an entry would be extracted outside the directory
+   */
+  public static void unzipEncrypted(File encryptedZipFile, String directoryToExtractTo, KeyParameter aesKey) throws IOException {
+
+    Preconditions.checkNotNull(encryptedZipFile, "'encryptedZipFile' must be present");
+    Preconditions.checkNotNull(aesKey, "'aesKey' must be present");
+
+    File directory = new File(directoryToExtractTo);
+    verifyOrCreateDirectory(directory);
+
+    InputStream decryptingInputStream = EncryptedFileReaderWriter.newDecryptingInputStream(
+      new FileInputStream(encryptedZipFile),
+      aesKey,
+      WalletManager.AES_INITIALISATION_VECTOR
+    );
+    try (ZipInputStream zip = new ZipInputStream(decryptingInputStream)) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        if (entry.isDirectory()) {
+          verifyOrCreateDirectory(resolveEntry(directory, entry.getName()));
+        } else {
+
+          // Ignore certain files
+          if (entry.getName().contains(".DS_Store")) {
             continue;
           }
-          addFileToZip(srcFolder, fileName, zip, includeBlockStore);
+
+          log.debug("Extracting file: " + entry.getName());
+
+          File destination = resolveEntry(directory, entry.getName());
+          verifyOrCreateDirectory(destination.getParentFile());
+
+          // Copy without closing the zip stream
+          try (OutputStream out = new BufferedOutputStream(new FileOutputStream(destination))) {
+            copy(zip, out);
+          }
         }
       }
-    } finally {
-      zip.flush();
-      zip.close();
+
+      // The zip stops reading at the central directory so read on to the end to check the padding
+      readToEnd(decryptingInputStream);
+    }
+  }
+
+  /**
+   * @param directory The directory being extracted to
+   * @param entryName The name of a zip entry
+   *
+   * @return The file the entry extracts to
+   *
+   * @throws IOException If the entry would be extracted outside the directory (e.g. "../../evil")
+   */
+  static File resolveEntry(File directory, String entryName) throws IOException {
+
+    String canonicalDirectory = directory.getCanonicalPath();
+    File destination = new File(directory, entryName);
+    String canonicalDestination = destination.getCanonicalPath();
+
+    if (!canonicalDestination.startsWith(canonicalDirectory + File.separator)) {
+      throw new IOException("Zip entry '" + entryName + "' is outside the directory '" + canonicalDirectory + "'");
+    }
+
+    return destination;
+  }
+
+  /**
+   * <p>Read and discard the remainder of a stream so that a decrypting stream checks its padding</p>
+   *
+   * @param in The input stream (not closed)
+   *
+   * @throws IOException If the stream could not be read to the end (e.g. bad padding after decryption)
+   */
+  static void readToEnd(InputStream in) throws IOException {
+
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    while (in.read(buffer) >= 0) {
+      // Discard
     }
   }
 
@@ -85,7 +168,7 @@ public class ZipFiles {
         ZipEntry entry = (ZipEntry) entriesEnum.nextElement();
 
         if (entry.isDirectory()) {
-          verifyOrCreateDirectory(new File(directoryToExtractTo + File.separator + entry.getName()));
+          verifyOrCreateDirectory(resolveEntry(directory, entry.getName()));
         } else {
 
           // Ignore certain files
@@ -100,15 +183,11 @@ public class ZipFiles {
           // i.e.:
           //   /foo/foo.txt
           //   /foo/
-          String dir = directoryPart(entry.getName());
-          if (dir != null) {
-            verifyOrCreateDirectory(new File(directoryToExtractTo + File.separator + dir));
-          }
-          String name = entry.getName();
+          File destination = resolveEntry(directory, entry.getName());
+          verifyOrCreateDirectory(destination.getParentFile());
 
           writeFile(zipFile.getInputStream(entry),
-            new BufferedOutputStream(new FileOutputStream(
-              directoryToExtractTo + File.separator + name))
+            new BufferedOutputStream(new FileOutputStream(destination))
           );
         }
       }
@@ -119,6 +198,21 @@ public class ZipFiles {
     }
   }
 
+  private static void addFolderContentsToZip(String srcFolder, ZipOutputStream zip, boolean includeBlockStore) throws IOException {
+
+    // Add the contents of the srcFolder to the zip - note the top folder (with the wallet id) is not added as it is coded in the name of the zip
+    String[] fileNames = new File(srcFolder).list();
+    if (fileNames != null) {
+      for (String fileName : fileNames) {
+        if (!includeBlockStore && isBlockStoreFile(fileName)) {
+          // Do not include the block writeContacts (to save space)
+          continue;
+        }
+        addFileToZip(srcFolder, fileName, zip, includeBlockStore);
+      }
+    }
+  }
+
   private static void addFileToZip(String path, String srcFile, ZipOutputStream zip, Boolean includeBlockStore)
     throws IOException {
 
@@ -126,13 +220,10 @@ public class ZipFiles {
     if (srcFileOnDisk.isDirectory()) {
       addFolderToZip(path, srcFile, zip, includeBlockStore);
     } else {
-      byte[] buf = new byte[1024];
-      int len;
-      FileInputStream in = new FileInputStream(srcFileOnDisk);
-      zip.putNextEntry(new ZipEntry(srcFile));
-
-      while ((len = in.read(buf)) > 0) {
-        zip.write(buf, 0, len);
+      try (InputStream in = new FileInputStream(srcFileOnDisk)) {
+        zip.putNextEntry(new ZipEntry(srcFile));
+        copy(in, zip);
+        zip.closeEntry();
       }
     }
   }
@@ -150,7 +241,7 @@ public class ZipFiles {
 
     if (folderOnDisk.list() != null) {
       for (String fileName : folderOnDisk.list()) {
-        if (!includeBlockStore && fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)) {
+        if (!includeBlockStore && isBlockStoreFile(fileName)) {
           // Do not include the block writeContacts (to save space)
           continue;
         }
@@ -160,32 +251,38 @@ public class ZipFiles {
   }
 
   /**
-   * Work out the directory part of a filename
-   *
-   * @param name of file
-   *
-   * @return directory part of filename
+   * Write a file from the inputstream to the outputstream
    * TODO (GR) Replace with Guava or NIO equivalent
    */
-  private static String directoryPart(String name) {
-    int s = name.lastIndexOf(File.separatorChar);
-    return s == -1 ? null : name.substring(0, s);
+  private static void writeFile(InputStream in, OutputStream out)
+    throws IOException {
+
+    copy(in, out);
+
+    in.close();
+    out.close();
   }
 
   /**
-   * Write a file from the inputstream to the outputstream
-   * TODO (GR) Replace with Guava or NIO equivalent
+   * Copy the input stream to the output stream without closing either
    */
-  private static void writeFile(InputStream in, OutputStream out)
-    throws IOException {
-    byte[] buffer = new byte[1024];
+  private static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
     int len;
 
-    while ((len = in.read(buffer)) >= 0)
+    while ((len = in.read(buffer)) >= 0) {
       out.write(buffer, 0, len);
+    }
+  }
 
-    in.close();
-    out.close();
+  /**
+   * @param fileName The file name
+   *
+   * @return True if the file is the SPV block store or its header index (both can be recreated from the network)
+   */
+  private static boolean isBlockStoreFile(String fileName) {
+    return fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX)
+      || fileName.endsWith(InstallationManager.MBHD_PREFIX + InstallationManager.SPV_HEADER_INDEX_SUFFIX);
   }
 
 }
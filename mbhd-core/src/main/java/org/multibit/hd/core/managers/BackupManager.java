@@ -7,15 +7,14 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import org.joda.time.DateTime;
-import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
-import org.multibit.hd.brit.utils.FileUtils;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.BackupSummary;
 import org.multibit.hd.core.dto.WalletId;
 import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.files.ChunkedBackups;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
@@ -28,9 +27,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -56,6 +53,10 @@ public enum BackupManager {
   public static final String ENCRYPTED_BACKUP_FILE_EXTENSION = ".zip.aes";
   public static final String ENCRYPTED_BACKUP_ZIP_FILE_EXTENSION_REGEX = "\\.zip\\.aes";
 
+  public static final String ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION = ".manifest.aes";
+  public static final String ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION_REGEX = "\\.manifest\\.aes";
+  public static final String BACKUP_CHUNK_DIRECTORY_SUFFIX = "-chunks";
+
   public static final String ROLLING_BACKUP_DIRECTORY_NAME = "rolling-backup";
   public static final int MAXIMUM_NUMBER_OF_ROLLING_BACKUPS = 4;
 
@@ -80,6 +81,9 @@ public enum BackupManager {
   // Notification scheduler
   private ListeningScheduledExecutorService backupNotifier;
 
+  // Held while backup chunks are written, restored or deleted so that a sweep never removes a chunk in use
+  private final Object chunkLock = new Object();
+
   /**
    * Initialise the backup manager to use the specified cloudBackupDirectory.
    * All the cloud backups will be written and read from this directory.
@@ -128,7 +132,8 @@ public enum BackupManager {
 
   /**
    * Find the wallet backups in a directory.
-   * Wallet backups are called mbhd-[formatted wallet id]-timestamp.zip and the specified wallet id is used to subset all backups
+   * Wallet backups are called mbhd-[formatted wallet id]-timestamp.manifest.aes (or .zip.aes for older backups)
+   * and the specified wallet id is used to subset all backups
    *
    * @param walletId      The walletId to subset on
    * @param directoryName The directory to look in
@@ -144,13 +149,13 @@ public enum BackupManager {
 
     File[] files = directoryName.listFiles();
 
-    // Look for filenames with format "mbhd-" + [formatted wallet id ] + "-YYYYMMDDHHMMSS.aes"
+    // Look for filenames with format "mbhd-" + [formatted wallet id ] + "-YYYYMMDDHHMMSS.manifest.aes" or "-YYYYMMDDHHMMSS.zip.aes"
     String backupRegex = WalletManager.WALLET_DIRECTORY_PREFIX
             + WALLET_ID_SEPARATOR
             + walletId.toFormattedString()
             + WALLET_ID_SEPARATOR
             + "\\d{14}"
-            + ENCRYPTED_BACKUP_ZIP_FILE_EXTENSION_REGEX;
+            + "(" + ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION_REGEX + "|" + ENCRYPTED_BACKUP_ZIP_FILE_EXTENSION_REGEX + ")";
 
     if (files != null) {
       for (File file : files) {
@@ -248,7 +253,7 @@ public enum BackupManager {
    * There is a maximum number of rolling backups, removals are done using a first in - first out rule.
    *
    * @param walletSummary The wallet data with the wallet to backup
-   * @return the File of the created rolling wallet backup
+   * @return the File of the created (AES encrypted) rolling wallet backup
    * @throws java.io.IOException if the wallet backup could not be created
    */
   public File createRollingBackup(WalletSummary walletSummary, CharSequence password) throws IOException {
@@ -277,13 +282,15 @@ public enum BackupManager {
             + Dates.formatBackupDate(Dates.nowUtc())
             + WalletManager.MBHD_WALLET_SUFFIX;
 
-    File walletBackupFile = new File(walletBackupFilename);
-    log.debug("Creating rolling-backup '" + walletBackupFilename + "'");
-    walletSummary.getWallet().saveToFile(walletBackupFile);
-    log.debug("Created rolling-backup successfully. Size = " + walletBackupFile.length() + " bytes");
-
-    File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletBackupFile, password);
-    log.debug("Created rolling-backup AES copy successfully as file '{}'", encryptedAESCopy == null ? "null" : encryptedAESCopy.getAbsolutePath());
+    File encryptedAESCopy = new File(walletBackupFilename + WalletManager.MBHD_AES_SUFFIX);
+    log.debug("Creating rolling-backup '" + encryptedAESCopy.getAbsolutePath() + "'");
+    try {
+      // Stream straight to the AES file so no unencrypted copy touches the disk
+      EncryptedFileReaderWriter.encryptAndWrite(walletSummary.getWallet(), password, encryptedAESCopy);
+    } catch (EncryptedFileReaderWriterException e) {
+      throw new IOException("Could not create rolling backup '" + encryptedAESCopy.getAbsolutePath() + "'", e);
+    }
+    log.debug("Created rolling-backup AES copy successfully. Size = " + encryptedAESCopy.length() + " bytes");
 
     List<File> rollingBackups = getRollingBackups(walletSummary.getWalletId());
 
@@ -298,16 +305,16 @@ public enum BackupManager {
       // Delete the second eldest
       SecureFiles.secureDelete(rollingBackups.get(1));
     }
-    return walletBackupFile;
+    return encryptedAESCopy;
   }
 
   /**
-   * Create a local zip backup of the specified wallet id.
+   * Create a local backup of the specified wallet id.
    * The wallet manager is interrogated to find the physical directory where the wallet is stored.
-   * The whole directory (except the zip-backups) is then copied and zipped into a timestamped backup file
-   * This is then written to the local backup directories
+   * The whole directory (except the zip-backups) is then chunked into the local chunk directory and a timestamped
+   * manifest is written to the local backup directory. Only chunks that are not already present are written.
    *
-   * @return The created local backup as a file
+   * @return The created local backup manifest as a file
    */
   public File createLocalBackup(WalletId walletId, CharSequence password) throws IOException {
     Preconditions.checkNotNull(applicationDataDirectory);
@@ -325,32 +332,23 @@ public enum BackupManager {
     File localBackupDirectory = new File(walletRootDirectory.getAbsoluteFile() + File.separator + LOCAL_ZIP_BACKUP_DIRECTORY_NAME);
     SecureFiles.verifyOrCreateDirectory(localBackupDirectory);
 
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
-            + WALLET_ID_SEPARATOR
-            + walletId.toFormattedString()
-            + WALLET_ID_SEPARATOR
-            + Dates.formatBackupDate(Dates.nowUtc())
-            + BACKUP_ZIP_FILE_EXTENSION;
-    String localBackupFilename = localBackupDirectory.getAbsolutePath() + File.separator + backupFilename;
+    KeyParameter backupAESKey = EncryptedFileReaderWriter.decryptBackupAESKey((String) password, walletSummary.getEncryptedBackupKey());
 
-    log.debug("Creating local zip-backup '" + localBackupFilename + "'");
-    ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), localBackupFilename, false);
-    File localBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(new File(localBackupFilename), (String) password, walletSummary.getEncryptedBackupKey());
-    log.debug("Created encrypted local zip-backup successfully. Size = " + (localBackupEncryptedFilename).length() + " bytes");
+    log.debug("Creating local backup in '" + localBackupDirectory.getAbsolutePath() + "'");
+    File localBackupManifest = createChunkedBackup(walletId, walletRootDirectory, localBackupDirectory, backupAESKey);
+    log.debug("Created encrypted local backup successfully. Manifest size = " + localBackupManifest.length() + " bytes");
 
-    // Thin the local backup directory
-    thinBackupDirectory(walletId, localBackupDirectory);
-
-    return localBackupEncryptedFilename;
+    return localBackupManifest;
   }
 
   /**
    * Create a cloud backup of the specified wallet id.
    * The wallet manager is interrogated to find the physical directory where the wallet is stored.
-   * The whole directory (except the zip-backups) is then copied and zipped into a timestamped backup file
-   * This is then written to the cloud backup directories
+   * The whole directory (except the zip-backups) is then chunked into the cloud chunk directory and a timestamped
+   * manifest is written to the cloud backup directory. Only chunks that are not already present are written
+   * so the cloud sync only has to upload what has changed.
    *
-   * @return The created cloud backup as a file or null if nothing was generated
+   * @return The created cloud backup manifest as a file or null if nothing was generated
    */
   public File createCloudBackup(WalletId walletId, CharSequence password) throws IOException {
     Preconditions.checkNotNull(applicationDataDirectory);
@@ -365,32 +363,123 @@ public enum BackupManager {
 
     WalletSummary walletSummary = WalletManager.getOrCreateWalletSummary(walletRootDirectory, walletId);
 
+    if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
+      KeyParameter backupAESKey = EncryptedFileReaderWriter.decryptBackupAESKey((String) password, walletSummary.getEncryptedBackupKey());
+
+      log.debug("Creating cloud backup in '" + cloudBackupDirectory.get().getAbsolutePath() + "'");
+      File cloudBackupManifest = createChunkedBackup(walletId, walletRootDirectory, cloudBackupDirectory.get(), backupAESKey);
+      log.debug("Created encrypted cloud backup successfully. Manifest size = " + cloudBackupManifest.length() + " bytes");
+
+      return cloudBackupManifest;
+    } else {
+      log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
+      return null;
+    }
+  }
+
+  /**
+   * Write a chunked backup of the wallet root directory into the backup directory, then thin the backups
+   * and remove any chunks that are no longer referenced.
+   * Any zip backups for the wallet in the backup directory are migrated to manifests first so that they share chunks.
+   *
+   * @return The created backup manifest
+   */
+  private File createChunkedBackup(WalletId walletId, File walletRootDirectory, File backupDirectory, KeyParameter backupAESKey) throws IOException {
+
+    synchronized (chunkLock) {
+      return createChunkedBackupLocked(walletId, walletRootDirectory, backupDirectory, backupAESKey);
+    }
+  }
+
+  private File createChunkedBackupLocked(WalletId walletId, File walletRootDirectory, File backupDirectory, KeyParameter backupAESKey) throws IOException {
 
-    String backupFilename = WalletManager.WALLET_DIRECTORY_PREFIX
+    File chunkDirectory = getChunkDirectory(walletId, backupDirectory);
+
+    migrateZipBackups(walletId, backupDirectory, chunkDirectory, backupAESKey);
+
+    String manifestFilename = WalletManager.WALLET_DIRECTORY_PREFIX
             + WALLET_ID_SEPARATOR
             + walletId.toFormattedString()
             + WALLET_ID_SEPARATOR
             + Dates.formatBackupDate(Dates.nowUtc())
-            + BACKUP_ZIP_FILE_EXTENSION;
+            + ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION;
+    File manifestFile = new File(backupDirectory.getAbsolutePath() + File.separator + manifestFilename);
 
-    if (cloudBackupDirectory.isPresent() && cloudBackupDirectory.get().exists()) {
-      String cloudBackupFilename = cloudBackupDirectory.get().getAbsolutePath() + File.separator + backupFilename;
-      log.debug("Creating cloud zip-backup '" + cloudBackupFilename + "'");
-      ZipFiles.zipFolder(walletRootDirectory.getAbsolutePath(), cloudBackupFilename, false);
-      File cloudBackupEncryptedFilename = EncryptedFileReaderWriter.makeBackupAESEncryptedCopyAndDeleteOriginal(new File(cloudBackupFilename), (String) password, walletSummary.getEncryptedBackupKey());
+    int newChunks = ChunkedBackups.writeBackup(walletRootDirectory, manifestFile, chunkDirectory, backupAESKey);
+    log.debug("Backup '" + manifestFilename + "' required " + newChunks + " new chunk(s)");
 
-      log.debug("Created encrypted cloud zip-backup successfully. Size = " + (cloudBackupEncryptedFilename).length() + " bytes");
+    // Thin the backup directory
+    thinBackupDirectory(walletId, backupDirectory);
 
-      // Thin the local backup directory
-      thinBackupDirectory(walletId, cloudBackupDirectory.get());
+    // Remove the chunks only referenced by thinned backups
+    List<File> manifestFiles = Lists.newArrayList();
+    for (BackupSummary backupSummary : getWalletBackups(walletId, backupDirectory)) {
+      if (backupSummary.getFile().getName().endsWith(ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION)) {
+        manifestFiles.add(backupSummary.getFile());
+      }
+    }
+    try {
+      ChunkedBackups.deleteUnreferencedChunks(manifestFiles, chunkDirectory, backupAESKey);
+    } catch (IOException e) {
+      // The backup itself is complete so leave the chunks for the next sweep
+      log.warn("Could not delete unreferenced chunks from '" + chunkDirectory.getAbsolutePath() + "'. Error = '" + e.getMessage() + "'");
+    }
 
-      return cloudBackupEncryptedFilename;
-    } else {
-      log.debug("No cloud backup made for wallet '" + walletId + "' as no cloudBackupDirectory is set.");
-      return null;
+    return manifestFile;
+  }
+
+  /**
+   * Convert any zip backups of the wallet in the backup directory into manifests with the same timestamp.
+   * A zip backup that cannot be migrated is left in place and remains available for restore.
+   */
+  private void migrateZipBackups(WalletId walletId, File backupDirectory, File chunkDirectory, KeyParameter backupAESKey) {
+
+    for (BackupSummary backupSummary : getWalletBackups(walletId, backupDirectory)) {
+      File zipBackup = backupSummary.getFile();
+      if (!zipBackup.getName().endsWith(ENCRYPTED_BACKUP_FILE_EXTENSION)) {
+        continue;
+      }
+      String stem = zipBackup.getName().substring(0, zipBackup.getName().length() - ENCRYPTED_BACKUP_FILE_EXTENSION.length());
+      File manifestFile = new File(zipBackup.getParentFile(), stem + ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION);
+      boolean manifestExisted = manifestFile.exists();
+      try {
+        long migratedLength = ChunkedBackups.migrateZipBackup(zipBackup, manifestFile, chunkDirectory, backupAESKey);
+
+        // Only delete the original once the manifest is known to restore all of it
+        long verifiedLength = ChunkedBackups.verifyBackup(manifestFile, chunkDirectory, backupAESKey);
+        if (verifiedLength != migratedLength) {
+          throw new IOException("Migrated backup has length " + verifiedLength + " but expected " + migratedLength);
+        }
+
+        SecureFiles.secureDelete(zipBackup);
+        log.debug("Migrated zip backup '" + zipBackup.getAbsolutePath() + "' to '" + manifestFile.getName() + "'");
+      } catch (IOException | RuntimeException e) {
+        log.warn("Could not migrate zip backup '" + zipBackup.getAbsolutePath() + "'. Error = '" + e.getMessage() + "'");
+        if (!manifestExisted && manifestFile.exists()) {
+          // The zip backup remains available so do not leave a manifest that may be incomplete
+          try {
+            SecureFiles.secureDelete(manifestFile);
+          } catch (IOException ioe) {
+            log.warn("Could not remove manifest '" + manifestFile.getAbsolutePath() + "'. Error = '" + ioe.getMessage() + "'");
+          }
+        }
+      }
     }
   }
 
+  /**
+   * @return The directory holding the backup chunks for the wallet id, alongside the manifests in the backup directory
+   * (manifests do not record it so a manifest is only restorable next to this directory)
+   */
+  private File getChunkDirectory(WalletId walletId, File backupDirectory) {
+    return new File(backupDirectory.getAbsolutePath()
+            + File.separator
+            + WalletManager.WALLET_DIRECTORY_PREFIX
+            + WALLET_ID_SEPARATOR
+            + walletId.toFormattedString()
+            + BACKUP_CHUNK_DIRECTORY_SUFFIX);
+  }
+
   /**
    * Load a rolling backup file.
    * A BackupWalletLoadedEvent is emitted
@@ -448,7 +537,7 @@ public enum BackupManager {
   }
 
   /**
-   * Load a zip backup file, copying all the backup files to the appropriate wallet root directory
+   * Load a backup (either a manifest or an older zip backup), copying all the backup files to the appropriate wallet root directory
    */
   public WalletId loadZipBackup(File backupFileToLoad, List<String> seedPhrase) throws IOException {
 
@@ -461,8 +550,9 @@ public enum BackupManager {
     // Remove "mbhd-" prefix
     String walletRoot = backupFilename.replace(WalletManager.WALLET_DIRECTORY_PREFIX + WALLET_ID_SEPARATOR, "");
 
-    // Remove  ".zip.aes" suffix
-    walletRoot = walletRoot.replace(ENCRYPTED_BACKUP_FILE_EXTENSION, "");
+    // Remove ".manifest.aes" or ".zip.aes" suffix
+    boolean isManifest = backupFilename.endsWith(ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION);
+    walletRoot = walletRoot.replace(isManifest ? ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION : ENCRYPTED_BACKUP_FILE_EXTENSION, "");
 
     // Remove the timestamp
     if (walletRoot.length() > LENGTH_OF_FORMATTED_WALLET_ID) {
@@ -473,35 +563,30 @@ public enum BackupManager {
     // Make a backup of all the current file in the wallet root directory if it exists
     File walletRootDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
 
-    File temporaryFile = null;
-    try {
-      // Read the encrypted file in.
-      byte[] encryptedBytes = org.multibit.hd.brit.utils.FileUtils.readFile(new File(backupFileToLoad.getAbsolutePath()));
-
-      KeyParameter seedDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(seed, WalletManager.SCRYPT_SALT);
+    if (isManifest) {
+      try {
+        KeyParameter seedDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(seed, WalletManager.SCRYPT_SALT);
 
-      // Decrypt the backup bytes
-      byte[] decryptedBytes = AESUtils.decrypt(encryptedBytes, seedDerivedAESKey, WalletManager.AES_INITIALISATION_VECTOR);
+        // Restore the chunks into the wallet root directory - this overwrites files if already present
+        synchronized (chunkLock) {
+          ChunkedBackups.restoreBackup(backupFileToLoad, getChunkDirectory(walletId, backupFileToLoad.getAbsoluteFile().getParentFile()), walletRootDirectory, seedDerivedAESKey);
+        }
 
-      File tempDirectory = FileUtils.makeRandomTemporaryDirectory();
-      temporaryFile = File.createTempFile("backup", "zip", tempDirectory);
-      FileOutputStream outputFileStream = new FileOutputStream(temporaryFile);
-      try {
-        FileUtils.writeFile(new ByteArrayInputStream(decryptedBytes), outputFileStream);
-      } finally {
-        outputFileStream.close();
+        return walletId;
+      } catch (Exception e) {
+        throw new EncryptedFileReaderWriterException("Cannot read and decrypt the backup file '" + backupFileToLoad.getAbsolutePath() + "'", e);
       }
+    }
 
-      // Unzip the backup into the wallet root directory - this overwrites files if already present (hence the backup just done)
-      ZipFiles.unzip(temporaryFile.getAbsolutePath(), walletRootDirectory.getAbsolutePath());
+    try {
+      KeyParameter seedDerivedAESKey = org.multibit.hd.core.crypto.AESUtils.createAESKey(seed, WalletManager.SCRYPT_SALT);
+
+      // Decrypt and unzip the backup into the wallet root directory in one pass - this overwrites files if already present
+      ZipFiles.unzipEncrypted(backupFileToLoad, walletRootDirectory.getAbsolutePath(), seedDerivedAESKey);
 
       return walletId;
     } catch (Exception e) {
       throw new EncryptedFileReaderWriterException("Cannot read and decrypt the backup file '" + backupFileToLoad.getAbsolutePath() + "'", e);
-    } finally {
-      if (temporaryFile != null) {
-        SecureFiles.secureDelete(temporaryFile);
-      }
     }
   }
 
@@ -538,12 +623,13 @@ public enum BackupManager {
     // 44 chars of walletId
     // 1 char separator
     // 14 chars of timestamp
-    // 8 chars of filetype suffix
+    // 8 chars of filetype suffix (13 chars for ".manifest.aes")
     Map<File, Date> mapOfFileToBackupTimes = new HashMap<>();
     for (int i = 0; i < backups.size(); i++) {
       String filename = backups.get(i).getName();
       if (filename.length() > 71) {
-        int startOfTimestamp = filename.length() - BACKUP_TIMESTAMP_SUFFIX_FORMAT.length() - ENCRYPTED_BACKUP_FILE_EXTENSION.length();
+        String extension = filename.endsWith(ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION) ? ENCRYPTED_BACKUP_MANIFEST_FILE_EXTENSION : ENCRYPTED_BACKUP_FILE_EXTENSION;
+        int startOfTimestamp = filename.length() - BACKUP_TIMESTAMP_SUFFIX_FORMAT.length() - extension.length();
         String timestampText = filename.substring(startOfTimestamp, startOfTimestamp + BACKUP_TIMESTAMP_SUFFIX_FORMAT.length());
         try {
           Date parsedTimestamp = dateFormat.parse(timestampText);
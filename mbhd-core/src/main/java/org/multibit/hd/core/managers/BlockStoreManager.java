@@ -2,10 +2,13 @@ package org.multibit.hd.core.managers;
 
 import com.google.bitcoin.core.CheckpointManager;
 import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.StoredBlock;
 import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
 import com.google.bitcoin.store.SPVBlockStore;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import org.multibit.hd.core.store.BlockHeaderIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,17 +16,24 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 /**
  *  <p>Manager to provide the following to BitcoinNetworkService:</p>
  *  <ul>
  *  <li>Create a blockstore</li>
+ *  <li>Rewind a blockstore for a replay using the block header index</li>
  *  </ul>
  */
 public class BlockStoreManager {
 
   private static final Logger log = LoggerFactory.getLogger(BlockStoreManager.class);
 
+  /**
+   * Block times are only approximately ordered so replays start a week early (as for checkpoints)
+   */
+  private static final long REPLAY_SAFETY_MARGIN_SECONDS = TimeUnit.DAYS.toSeconds(7);
+
   private final NetworkParameters networkParameters;
 
   /**
@@ -49,11 +59,94 @@ public class BlockStoreManager {
    */
   public BlockStore createBlockStore(File blockStoreFile, File checkpointsFile, Date checkpointDate, boolean createNew) throws BlockStoreException, IOException {
 
-    boolean blockStoreCreatedNew = !blockStoreFile.exists();
-
     // TODO copy checkpoints file from installation directory if does not exist
     // TODO use bigger of managers files if installed version is larger
 
+    BlockStore blockStore = openBlockStore(blockStoreFile, createNew);
+
+    // A fresh block store starts at the genesis block
+    boolean blockStoreCreatedNew = blockStore.getChainHead().getHeight() == 0;
+
+    // Load the existing checkpoint file and checkpoint from today.
+    if (checkpointsFile.exists()) {
+
+      log.debug("Checkpoints exist attempting to stream from '{}'", checkpointsFile.getAbsolutePath());
+
+      try (FileInputStream checkpointsInputStream = new FileInputStream(checkpointsFile)) {
+
+        Preconditions.checkNotNull(checkpointsInputStream, "'stream' must be present");
+
+        if (checkpointDate == null) {
+          if (blockStoreCreatedNew) {
+            // Brand new block store - managers from today. This
+            // will go back to the last managers.
+            CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, (new Date()).getTime() / 1000);
+          }
+        } else {
+          // Use managers date (block replay).
+          CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, checkpointDate.getTime() / 1000);
+        }
+      }
+    }
+
+    return blockStore;
+
+  }
+
+  /**
+   * <p>Recreate the block store with its chain head just before the replay date</p>
+   * <p>If the block header index covers the replay date the block store is seeded from the last indexed difficulty
+   * retarget header before it so that only the blocks since then are downloaded. Otherwise the block store is
+   * checkpointed as before.</p>
+   *
+   * @param blockStoreFile  The file to use for the block store
+   * @param checkpointsFile The file to use for the checkpoints
+   * @param headerIndex     The block header index
+   * @param replayDate      The date to replay from
+   *
+   * @return The rewound blockStore
+   *
+   * @throws BlockStoreException
+   * @throws IOException
+   */
+  public BlockStore rewindBlockStore(File blockStoreFile, File checkpointsFile, BlockHeaderIndex headerIndex, Date replayDate) throws BlockStoreException, IOException {
+
+    Preconditions.checkNotNull(headerIndex, "'headerIndex' must be present");
+    Preconditions.checkNotNull(replayDate, "'replayDate' must be present");
+
+    long replayTimeSeconds = TimeUnit.MILLISECONDS.toSeconds(replayDate.getTime()) - REPLAY_SAFETY_MARGIN_SECONDS;
+
+    // Like a checkpoint the seed must be a retarget block or the next difficulty transition cannot be verified
+    Optional<StoredBlock> indexedBlock = headerIndex.findLastRetargetBefore(replayTimeSeconds, networkParameters.getInterval());
+    if (!indexedBlock.isPresent()) {
+      log.debug("Block header index does not cover {} so using checkpoints", replayDate);
+      return createBlockStore(blockStoreFile, checkpointsFile, replayDate, true);
+    }
+
+    log.debug("Rewinding block store to indexed height {}", indexedBlock.get().getHeight());
+
+    BlockStore blockStore = openBlockStore(blockStoreFile, true);
+
+    // Equivalent to a checkpoint but much closer to the replay date
+    blockStore.put(indexedBlock.get());
+    blockStore.setChainHead(indexedBlock.get());
+
+    return blockStore;
+
+  }
+
+  /**
+   * @param blockStoreFile The file to use for the block store
+   * @param createNew      True if any existing block store should be deleted first
+   *
+   * @return The opened blockStore
+   *
+   * @throws BlockStoreException If the block store cannot be opened even after deletion
+   */
+  private BlockStore openBlockStore(File blockStoreFile, boolean createNew) throws BlockStoreException {
+
+    boolean blockStoreCreatedNew = !blockStoreFile.exists();
+
     // If the spvBlockStore is to be created new
     // or its size is 0 bytes delete the file so that it is recreated fresh
     // (fix for MultiBit Classic issue #165)
@@ -97,28 +190,6 @@ public class BlockStoreManager {
 
     log.debug("Block store in place. Created new: {}", blockStoreCreatedNew);
 
-    // Load the existing checkpoint file and checkpoint from today.
-    if (checkpointsFile.exists()) {
-
-      log.debug("Checkpoints exist attempting to stream from '{}'", checkpointsFile.getAbsolutePath());
-
-      try (FileInputStream checkpointsInputStream = new FileInputStream(checkpointsFile)) {
-
-        Preconditions.checkNotNull(checkpointsInputStream, "'stream' must be present");
-
-        if (checkpointDate == null) {
-          if (blockStoreCreatedNew) {
-            // Brand new block store - managers from today. This
-            // will go back to the last managers.
-            CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, (new Date()).getTime() / 1000);
-          }
-        } else {
-          // Use managers date (block replay).
-          CheckpointManager.checkpoint(networkParameters, checkpointsInputStream, blockStore, checkpointDate.getTime() / 1000);
-        }
-      }
-    }
-
     return blockStore;
 
   }
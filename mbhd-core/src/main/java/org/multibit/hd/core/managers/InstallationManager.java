@@ -44,6 +44,7 @@ public class InstallationManager {
   public static final String MBHD_CONFIGURATION_FILE = MBHD_PREFIX + ".yaml";
 
   public static final String SPV_BLOCKCHAIN_SUFFIX = ".spvchain";
+  public static final String SPV_HEADER_INDEX_SUFFIX = ".spvindex";
   public static final String CHECKPOINTS_SUFFIX = ".checkpoints";
   public static final String CA_CERTS_NAME = MBHD_PREFIX + "-cacerts";
 
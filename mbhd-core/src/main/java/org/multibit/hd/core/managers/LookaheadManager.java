@@ -0,0 +1,305 @@
+package org.multibit.hd.core.managers;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.crypto.ChildNumber;
+import com.google.bitcoin.crypto.DeterministicKey;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Manager to provide the following to WalletManager and BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Key chain lookahead sized from the observed use of receiving addresses</li>
+ * <li>A full size lookahead while a wallet is restored</li>
+ * <li>Growth of the lookahead when a receiving address is used near the edge of the window</li>
+ * <li>Lookahead size and bloom filter element count as metrics</li>
+ * </ul>
+ * <p>Every key in the lookahead is an element of the bloom filter sent to peers so a quiet wallet is given a small
+ * window (the BIP32 gap limit) and a busy wallet a larger one.</p>
+ *
+ * @since 0.0.1
+ */
+public enum LookaheadManager {
+
+  INSTANCE;
+
+  private static final Logger log = LoggerFactory.getLogger(LookaheadManager.class);
+
+  /**
+   * The smallest lookahead (the BIP32 gap limit expected by other wallets)
+   */
+  public static final int MINIMUM_LOOKAHEAD_SIZE = 20;
+
+  /**
+   * The largest lookahead (the bitcoinj default) also used while restoring
+   */
+  public static final int MAXIMUM_LOOKAHEAD_SIZE = 100;
+
+  /**
+   * The period over which receiving address use is counted
+   */
+  public static final long RECENT_PERIOD_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  /**
+   * A used address within this fraction of the end of the window (as a divisor) causes the window to grow
+   */
+  private static final int EDGE_DIVISOR = 4;
+
+  /**
+   * The lookahead state of each managed wallet (a closed wallet and its state can be collected)
+   */
+  private final Map<Wallet, WalletLookahead> walletLookaheads = new WeakHashMap<>();
+
+  /**
+   * <p>Size the lookahead of a newly created or loaded wallet and follow its use of receiving addresses</p>
+   *
+   * @param wallet The wallet
+   */
+  public void manage(Wallet wallet) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    WalletLookahead walletLookahead;
+    synchronized (walletLookaheads) {
+      walletLookahead = walletLookaheads.get(wallet);
+      if (walletLookahead == null) {
+        walletLookahead = new WalletLookahead();
+        // Runs on the user thread so the wallet lock is never held while waiting for the lookahead
+        wallet.addEventListener(walletLookahead);
+        walletLookaheads.put(wallet, walletLookahead);
+      }
+    }
+
+    walletLookahead.resize(wallet);
+  }
+
+  /**
+   * <p>Use the full lookahead until the restore finishes so that no address used by another copy is missed</p>
+   *
+   * @param wallet The wallet being restored (or replayed)
+   */
+  public void startRestore(Wallet wallet) {
+
+    WalletLookahead walletLookahead = getOrManage(wallet);
+    synchronized (walletLookahead) {
+      walletLookahead.restoring = true;
+      walletLookahead.apply(wallet, MAXIMUM_LOOKAHEAD_SIZE);
+    }
+  }
+
+  /**
+   * <p>Return to a lookahead sized from use (no effect if the wallet is not being restored)</p>
+   *
+   * @param wallet The wallet
+   */
+  public void finishRestore(Wallet wallet) {
+
+    WalletLookahead walletLookahead = getOrManage(wallet);
+    synchronized (walletLookahead) {
+      if (!walletLookahead.restoring) {
+        return;
+      }
+      walletLookahead.restoring = false;
+    }
+
+    walletLookahead.resize(wallet);
+  }
+
+  /**
+   * @param wallet The wallet
+   *
+   * @return The current lookahead size of the wallet key chain
+   */
+  public int getLookaheadSize(Wallet wallet) {
+
+    WalletLookahead walletLookahead = getOrManage(wallet);
+    synchronized (walletLookahead) {
+      return walletLookahead.lookaheadSize;
+    }
+  }
+
+  /**
+   * @param wallet The wallet
+   *
+   * @return The number of elements the wallet contributes to the bloom filter
+   */
+  public int getFilterElementCount(Wallet wallet) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    return wallet.getBloomFilterElementCount();
+  }
+
+  /**
+   * @param recentReceiveCount The number of receiving address uses in the recent period
+   * @param restoring          True if the wallet is being restored
+   *
+   * @return The lookahead size
+   */
+  static int calculateLookaheadSize(int recentReceiveCount, boolean restoring) {
+
+    if (restoring) {
+      return MAXIMUM_LOOKAHEAD_SIZE;
+    }
+
+    // Allow for twice the recent use before the window is exhausted
+    return Math.max(MINIMUM_LOOKAHEAD_SIZE, Math.min(MAXIMUM_LOOKAHEAD_SIZE, MINIMUM_LOOKAHEAD_SIZE + 2 * recentReceiveCount));
+  }
+
+  /**
+   * @param lookaheadSize  The current lookahead size
+   * @param gap            The distance from the previous highest used receiving address to the newly used one
+   *
+   * @return The lookahead size after the address is used
+   */
+  static int calculateGrownLookaheadSize(int lookaheadSize, int gap) {
+
+    if (gap < lookaheadSize - lookaheadSize / EDGE_DIVISOR) {
+      return lookaheadSize;
+    }
+
+    // Another copy of the wallet is handing out addresses ahead of this one
+    return Math.min(MAXIMUM_LOOKAHEAD_SIZE, lookaheadSize * 2);
+  }
+
+  private WalletLookahead getOrManage(Wallet wallet) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    synchronized (walletLookaheads) {
+      if (!walletLookaheads.containsKey(wallet)) {
+        manage(wallet);
+      }
+      return walletLookaheads.get(wallet);
+    }
+  }
+
+  /**
+   * @return The index of the receiving (external chain) key paid by the output, or -1 if it is not one
+   */
+  private static int receivingKeyIndex(Wallet wallet, TransactionOutput output) {
+
+    try {
+      if (!output.getScriptPubKey().isSentToAddress()) {
+        return -1;
+      }
+      ECKey key = wallet.findKeyFromPubHash(output.getScriptPubKey().getPubKeyHash());
+      if (!(key instanceof DeterministicKey)) {
+        return -1;
+      }
+
+      List<ChildNumber> path = ((DeterministicKey) key).getPath();
+      if (path.size() < 2 || !ChildNumber.ZERO.equals(path.get(path.size() - 2))) {
+        // Change addresses are issued by this wallet so never run ahead of the window
+        return -1;
+      }
+
+      return path.get(path.size() - 1).num();
+
+    } catch (ScriptException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * The lookahead of a single wallet that follows its receiving address use
+   */
+  private static class WalletLookahead extends AbstractWalletEventListener {
+
+    private final Deque<Long> recentReceiveTimes = Lists.newLinkedList();
+
+    private int lookaheadSize = MINIMUM_LOOKAHEAD_SIZE;
+
+    private int highestReceivingKeyIndex = -1;
+
+    private boolean restoring = false;
+
+    @Override
+    public synchronized void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+
+      int highestIndex = -1;
+      for (TransactionOutput output : tx.getOutputs()) {
+        if (output.isMine(wallet)) {
+          highestIndex = Math.max(highestIndex, receivingKeyIndex(wallet, output));
+        }
+      }
+      if (highestIndex < 0) {
+        return;
+      }
+
+      long now = System.currentTimeMillis();
+      recentReceiveTimes.addLast(now);
+      while (!recentReceiveTimes.isEmpty() && recentReceiveTimes.peekFirst() < now - RECENT_PERIOD_MILLIS) {
+        recentReceiveTimes.removeFirst();
+      }
+
+      if (restoring) {
+        highestReceivingKeyIndex = Math.max(highestReceivingKeyIndex, highestIndex);
+        return;
+      }
+
+      int size = calculateLookaheadSize(recentReceiveTimes.size(), false);
+      if (highestIndex > highestReceivingKeyIndex) {
+        size = Math.max(size, calculateGrownLookaheadSize(lookaheadSize, highestIndex - highestReceivingKeyIndex));
+        highestReceivingKeyIndex = highestIndex;
+      }
+
+      // Only grow while receiving, shrinking waits for the next load
+      if (size > lookaheadSize) {
+        apply(wallet, size);
+      }
+    }
+
+    /**
+     * <p>Size the lookahead from the receiving address use recorded in the wallet transactions</p>
+     */
+    private synchronized void resize(Wallet wallet) {
+
+      long recentSince = System.currentTimeMillis() - RECENT_PERIOD_MILLIS;
+
+      recentReceiveTimes.clear();
+      List<Long> receiveTimes = Lists.newArrayList();
+      for (Transaction tx : wallet.getTransactions(false)) {
+        int highestIndex = -1;
+        for (TransactionOutput output : tx.getOutputs()) {
+          if (output.isMine(wallet)) {
+            highestIndex = Math.max(highestIndex, receivingKeyIndex(wallet, output));
+          }
+        }
+        if (highestIndex < 0) {
+          continue;
+        }
+        highestReceivingKeyIndex = Math.max(highestReceivingKeyIndex, highestIndex);
+        long updateTime = tx.getUpdateTime().getTime();
+        if (updateTime >= recentSince) {
+          receiveTimes.add(updateTime);
+        }
+      }
+      Collections.sort(receiveTimes);
+      recentReceiveTimes.addAll(receiveTimes);
+
+      apply(wallet, calculateLookaheadSize(recentReceiveTimes.size(), restoring));
+    }
+
+    private synchronized void apply(Wallet wallet, int size) {
+
+      if (size != lookaheadSize) {
+        log.debug("Changing key chain lookahead from {} to {}", lookaheadSize, size);
+      }
+      lookaheadSize = size;
+
+      // Newly required keys are derived when the key chain next looks ahead and the peer group then refreshes the filter
+      wallet.setKeychainLookaheadSize(size);
+    }
+  }
+
+}
@@ -1,15 +1,18 @@
 package org.multibit.hd.core.managers;
 
 import com.google.bitcoin.wallet.WalletFiles;
-import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
+import org.multibit.hd.core.files.SecureFiles;
 import org.multibit.hd.core.services.BackupService;
 import org.multibit.hd.core.services.CoreServices;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  *  <p>Listener to provide the following to WalletManager:</p>
@@ -22,6 +25,25 @@ import java.io.File;
 public class WalletAutoSaveListener implements WalletFiles.Listener {
   private static final Logger log = LoggerFactory.getLogger(WalletManager.class);
 
+  private final WalletSummary walletSummary;
+
+  private final File walletFile;
+
+  /**
+   * <p>Each open wallet has its own listener so a wallet that is not the current wallet is still saved with its own password</p>
+   *
+   * @param walletSummary The summary of the wallet being autosaved (provides the password)
+   * @param walletFile    The unencrypted wallet file Bitcoinj autosaves to
+   */
+  public WalletAutoSaveListener(WalletSummary walletSummary, File walletFile) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkNotNull(walletFile, "'walletFile' must be present");
+
+    this.walletSummary = walletSummary;
+    this.walletFile = walletFile;
+  }
+
   @Override
   public void onBeforeAutoSave(File tempFile) {
     log.debug("Just about to save wallet to tempFile '" + tempFile.getAbsolutePath() +"'");
@@ -31,24 +53,42 @@ public class WalletAutoSaveListener implements WalletFiles.Listener {
   public void onAfterAutoSave(File newlySavedFile) {
     log.debug("Have just saved wallet to newlySavedFile '" + newlySavedFile.getAbsolutePath() + "'");
 
-    Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
-    if (walletSummary.isPresent()) {
-      // Save an encrypted copy of the wallet
-      CharSequence password = walletSummary.get().getPassword();
-      File encryptedWalletFile = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(newlySavedFile, password);
-      if (encryptedWalletFile != null && encryptedWalletFile.exists()) {
+    if (!newlySavedFile.getAbsoluteFile().equals(walletFile.getAbsoluteFile())) {
+      log.warn("Wallet '{}' was autosaved to '{}' rather than '{}'", walletSummary.getWalletId(), newlySavedFile.getAbsolutePath(), walletFile.getAbsolutePath());
+    }
+
+    CharSequence password = walletSummary.getPassword();
+    if (password != null) {
+      // Stream the file Bitcoinj has just saved through the cipher so the encrypted copy matches it exactly
+      File encryptedWalletFile = new File(walletFile.getAbsolutePath() + WalletManager.MBHD_AES_SUFFIX);
+      try {
+        EncryptedFileReaderWriter.encryptAndWrite(newlySavedFile, password, encryptedWalletFile);
         log.debug("Save encrypted copy of wallet as '{}'. Size was {} bytes.", encryptedWalletFile.getAbsolutePath(), encryptedWalletFile.length());
-      } else {
-        log.debug("No encrypted copy of wallet '{}' made.", newlySavedFile.getAbsolutePath());
+      } catch (EncryptedFileReaderWriterException e) {
+        // The previous encrypted copy remains and the next autosave tries again
+        log.error("No encrypted copy of wallet '{}' made. Error was '{}'", newlySavedFile.getAbsolutePath(), e.getMessage());
+      } finally {
+        // Bitcoinj always autosaves unencrypted so never leave it on disk
+        deletePlaintext(newlySavedFile);
       }
 
       // Remember the info required for the next backups
       BackupService backupService = CoreServices.getOrCreateBackupService();
-      backupService.rememberWalletSummaryAndPasswordForRollingBackup(walletSummary.get(), password);
-      backupService.rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.get().getWalletId(), password);
-      backupService.rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.get().getWalletId(), password);
+      backupService.rememberWalletSummaryAndPasswordForRollingBackup(walletSummary, password);
+      backupService.rememberWalletIdAndPasswordForLocalZipBackup(walletSummary.getWalletId(), password);
+      backupService.rememberWalletIdAndPasswordForCloudZipBackup(walletSummary.getWalletId(), password);
     } else {
-      log.error("No AES wallet encryption nor backups created as there was no wallet data to backup.");
+      log.error("No AES wallet encryption nor backups created as wallet '{}' has no password.", walletSummary.getWalletId());
+      deletePlaintext(newlySavedFile);
+    }
+  }
+
+  private void deletePlaintext(File newlySavedFile) {
+
+    try {
+      SecureFiles.secureDelete(newlySavedFile);
+    } catch (IOException e) {
+      log.error("Could not securely delete unencrypted wallet '{}'. Error was '{}'", newlySavedFile.getAbsolutePath(), e.getMessage());
     }
   }
 }
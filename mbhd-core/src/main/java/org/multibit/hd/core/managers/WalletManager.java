@@ -10,7 +10,9 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.primitives.Bytes;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -28,6 +30,7 @@ import org.multibit.hd.brit.services.TransactionSentBySelfProvider;
 import org.multibit.hd.core.concurrent.SafeExecutors;
 import org.multibit.hd.core.config.BitcoinNetwork;
 import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.CoreEvents;
@@ -49,6 +52,7 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
@@ -63,6 +67,7 @@ import static org.multibit.hd.core.dto.WalletId.parseWalletFilename;
  *  <li>save wallet wallet</li>
  *  <li>load wallet wallet</li>
  * <li>tracks the current wallet and the list of wallet directories</li>
+ * <li>tracks all open wallets so they can share a single connection to the Bitcoin network</li>
  *  </ul>
  * <p/>
  * TODO (GR) Consider renaming/restructuring this to Wallets since it provides tools for multiple wallets and allow for BitcoinNetwork injection
@@ -73,27 +78,28 @@ public enum WalletManager implements WalletEventListener {
     @Override
     public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
       // Emit an event so that GUI elements can update as required
-      Coin value = tx.getValue(wallet);
-      CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
+      CoreEvents.fireTransactionSeenEvent(newTransactionSeenEvent(wallet, tx));
     }
 
     @Override
     public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
       // Emit an event so that GUI elements can update as required
-      Coin value = tx.getValue(wallet);
-      CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
+      CoreEvents.fireTransactionSeenEvent(newTransactionSeenEvent(wallet, tx));
     }
 
     @Override
     public void onReorganize(Wallet wallet) {
-
+      // A reorganisation can affect any transaction so the payments must be adapted again
+      Optional<WalletSummary> walletSummary = getOpenWalletSummary(wallet);
+      if (walletSummary.isPresent()) {
+        CoreServices.getOrCreateWalletService(walletSummary.get().getWalletId()).invalidatePaymentDataList();
+      }
     }
 
     @Override
     public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
       // Emit an event so that GUI elements can update as required
-      Coin value = tx.getValue(wallet);
-      CoreEvents.fireTransactionSeenEvent(new TransactionSeenEvent(tx, value));
+      CoreEvents.fireTransactionSeenEvent(newTransactionSeenEvent(wallet, tx));
     }
 
     @Override
@@ -114,6 +120,20 @@ public enum WalletManager implements WalletEventListener {
 
   private static final int AUTO_SAVE_DELAY = 30; // Seconds
 
+  /**
+   * @param wallet The wallet the transaction belongs to
+   * @param tx     The transaction
+   *
+   * @return A transaction seen event naming the open wallet (if known) so that only its wallet service reacts
+   */
+  private static TransactionSeenEvent newTransactionSeenEvent(Wallet wallet, Transaction tx) {
+
+    Coin value = tx.getValue(wallet);
+    Optional<WalletSummary> walletSummary = INSTANCE.getOpenWalletSummary(wallet);
+
+    return new TransactionSeenEvent(tx, value, walletSummary.isPresent() ? walletSummary.get().getWalletId() : null);
+  }
+
   // TODO (GR) Refactor this to be injected
   private static final NetworkParameters networkParameters = BitcoinNetwork.current().get();
 
@@ -149,10 +169,13 @@ public enum WalletManager implements WalletEventListener {
 
   public static final String MBHD_SUMMARY_NAME = MBHD_WALLET_PREFIX + MBHD_SUMMARY_SUFFIX;
 
-  public static final int LOOK_AHEAD_SIZE = 50; // A smaller look ahead size than the bitcoinj default of 100 (speeds up syncing as te bloom filters are smaller)
-
   private Optional<WalletSummary> currentWalletSummary = Optional.absent();
 
+  /**
+   * All wallets opened in this session in order of opening, including the current wallet (guarded by itself)
+   */
+  private final Map<WalletId, WalletSummary> openWalletSummaries = Maps.newLinkedHashMap();
+
   private static final SecureRandom random = new SecureRandom();
 
   /**
@@ -171,6 +194,11 @@ public enum WalletManager implements WalletEventListener {
 
   private TransactionConfidenceSentBySelfProvider transactionConfidenceSentBySelfProvider;
 
+  /**
+   * The sent by self providers used for the BRIT fee state by wallet ID
+   */
+  private final Map<WalletId, TransactionSentBySelfProvider> transactionSentBySelfProviders = Maps.newConcurrentMap();
+
   /**
    * Open the given wallet
    *
@@ -224,6 +252,13 @@ public enum WalletManager implements WalletEventListener {
 
     currentWalletSummary = Optional.absent();
 
+    synchronized (openWalletSummaries) {
+      openWalletSummaries.clear();
+    }
+
+    // Derived keys must not outlive the open wallet
+    DerivedKeyCache.INSTANCE.onShutdownEvent(shutdownEvent);
+
   }
 
   /**
@@ -340,18 +375,12 @@ public enum WalletManager implements WalletEventListener {
       // Create a wallet using the seed and password
       DeterministicSeed deterministicSeed = new DeterministicSeed(seed, "", creationTimeInSeconds);
       Wallet walletToReturn = Wallet.fromSeed(networkParameters, deterministicSeed);
-      walletToReturn.setKeychainLookaheadSize(LOOK_AHEAD_SIZE);
+      LookaheadManager.INSTANCE.manage(walletToReturn);
       walletToReturn.encrypt(password);
       walletToReturn.setVersion(MBHD_WALLET_VERSION);
 
-      // Set up auto-save on the wallet.
-      // This ensures the wallet is saved on modification
-      // The listener has a 'after save' callback which ensures rolling backups and local/ cloud backups are also saved where necessary
-      walletToReturn.autosaveToFile(walletFile, AUTO_SAVE_DELAY, TimeUnit.SECONDS, new WalletAutoSaveListener());
-
-      // Save it now to ensure it is on the disk
-      walletToReturn.saveToFile(walletFile);
-      EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletFile, password);
+      // Save it now to ensure it is on the disk (encrypted, with no unencrypted copy)
+      EncryptedFileReaderWriter.encryptAndWrite(walletToReturn, password, walletFileWithAES);
 
       if (Configurations.currentConfiguration != null) {
         Configurations.currentConfiguration.getWallet().setCurrentWalletRoot(walletRoot);
@@ -365,6 +394,11 @@ public enum WalletManager implements WalletEventListener {
       walletSummary.setWalletType(WalletType.MBHD_SOFT_WALLET);
       setCurrentWalletSummary(walletSummary);
 
+      // Set up auto-save on the wallet.
+      // This ensures the wallet is saved on modification
+      // The listener has a 'after save' callback which ensures rolling backups and local/ cloud backups are also saved where necessary
+      walletToReturn.autosaveToFile(walletFile, AUTO_SAVE_DELAY, TimeUnit.SECONDS, new WalletAutoSaveListener(walletSummary, walletFile));
+
       try {
         WalletManager.writeEncryptedPasswordAndBackupKey(walletSummary, seed, password);
         File walletSummaryFile = WalletManager.getOrCreateWalletSummaryFile(walletDirectory);
@@ -453,19 +487,13 @@ public enum WalletManager implements WalletEventListener {
       DeterministicKey rootNodePubOnly = rootNode.getPubOnly();
       log.debug("rootNodePubOnly = " + rootNodePubOnly);
       Wallet walletToReturn = Wallet.fromWatchingKey(networkParameters, rootNodePubOnly, creationTimeInSeconds, rootNodePubOnly.getPath());
-      walletToReturn.setKeychainLookaheadSize(LOOK_AHEAD_SIZE);
+      LookaheadManager.INSTANCE.manage(walletToReturn);
 
       // No need to encrypt as it is a watch only wallet - no private keys
       walletToReturn.setVersion(MBHD_WALLET_VERSION);
 
-      // Set up auto-save on the wallet.
-      // This ensures the wallet is saved on modification
-      // The listener has a 'after save' callback which ensures rolling backups and local/ cloud backups are also saved where necessary
-      walletToReturn.autosaveToFile(walletFile, AUTO_SAVE_DELAY, TimeUnit.SECONDS, new WalletAutoSaveListener());
-
-      // Save it now to ensure it is on the disk
-      walletToReturn.saveToFile(walletFile);
-      EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(walletFile, password);
+      // Save it now to ensure it is on the disk (encrypted, with no unencrypted copy)
+      EncryptedFileReaderWriter.encryptAndWrite(walletToReturn, password, walletFileWithAES);
 
       if (Configurations.currentConfiguration != null) {
         Configurations.currentConfiguration.getWallet().setCurrentWalletRoot(walletRoot);
@@ -479,6 +507,11 @@ public enum WalletManager implements WalletEventListener {
       walletSummary.setWalletType(WalletType.TREZOR_SOFT_WALLET);
       setCurrentWalletSummary(walletSummary);
 
+      // Set up auto-save on the wallet.
+      // This ensures the wallet is saved on modification
+      // The listener has a 'after save' callback which ensures rolling backups and local/ cloud backups are also saved where necessary
+      walletToReturn.autosaveToFile(walletFile, AUTO_SAVE_DELAY, TimeUnit.SECONDS, new WalletAutoSaveListener(walletSummary, walletFile));
+
       // TODO backup of Trezor wallets
 //      try {
 //        WalletManager.writeEncryptedPasswordAndBackupKey(walletSummary, seed, password);
@@ -502,8 +535,8 @@ public enum WalletManager implements WalletEventListener {
     byte[] encryptedWalletBytes = org.multibit.hd.brit.utils.FileUtils.readFile(walletFile);
     log.trace("Encrypted wallet bytes after load:\n" + Utils.HEX.encode(encryptedWalletBytes));
 
-    KeyCrypterScrypt keyCrypterScrypt = new KeyCrypterScrypt(EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT));
-    KeyParameter keyParameter = keyCrypterScrypt.deriveKey(password);
+    Protos.ScryptParameters scryptParameters = EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT);
+    KeyParameter keyParameter = DerivedKeyCache.INSTANCE.deriveKey(password, scryptParameters);
 
     // Decrypt the wallet bytes
     byte[] decryptedBytes = AESUtils.decrypt(encryptedWalletBytes, keyParameter, WalletManager.AES_INITIALISATION_VECTOR);
@@ -512,9 +545,12 @@ public enum WalletManager implements WalletEventListener {
 
     Protos.Wallet walletProto = WalletProtobufSerializer.parseToProto(inputStream);
 
+    // The wallet decrypted and parsed so the password is correct and the key can be reused
+    DerivedKeyCache.INSTANCE.confirmKey(password, scryptParameters, keyParameter);
+
     WalletExtension[] walletExtensions = new WalletExtension[]{new SendFeeDtoWalletExtension(), new MatcherResponseWalletExtension()};
     Wallet wallet = new WalletProtobufSerializer().readWallet(BitcoinNetwork.current().get(), walletExtensions, walletProto);
-    wallet.setKeychainLookaheadSize(WalletManager.LOOK_AHEAD_SIZE);
+    LookaheadManager.INSTANCE.manage(wallet);
 
     log.debug("Just loaded wallet:\n" + wallet.toString());
     return wallet;
@@ -586,7 +622,8 @@ public enum WalletManager implements WalletEventListener {
       // + encrypts the wallet
       // + ensures rolling backups
       // + local/ cloud backups are also saved where necessary
-      wallet.autosaveToFile(new File(walletFilenameNoAESSuffix), AUTO_SAVE_DELAY, TimeUnit.SECONDS, new WalletAutoSaveListener());
+      File autosaveFile = new File(walletFilenameNoAESSuffix);
+      wallet.autosaveToFile(autosaveFile, AUTO_SAVE_DELAY, TimeUnit.SECONDS, new WalletAutoSaveListener(walletSummary, autosaveFile));
 
       if (performSync) {
         // Perform a sync from the last seen block date to ensure all tx are seen
@@ -821,7 +858,13 @@ public enum WalletManager implements WalletEventListener {
        Wallet wallet = getCurrentWalletSummary().get().getWallet();
 
        // Set the transaction sent by self provider to use TransactionInfos
-       TransactionSentBySelfProvider transactionSentBySelfProvider = new TransactionInfoSentBySelfProvider(getCurrentWalletSummary().get().getWalletId());
+       // (reuse it for the wallet so that the fee ledger is not rebuilt on every call)
+       WalletId walletId = getCurrentWalletSummary().get().getWalletId();
+       TransactionSentBySelfProvider transactionSentBySelfProvider = transactionSentBySelfProviders.get(walletId);
+       if (transactionSentBySelfProvider == null) {
+         transactionSentBySelfProvider = new TransactionInfoSentBySelfProvider(walletId);
+         transactionSentBySelfProviders.put(walletId, transactionSentBySelfProvider);
+       }
        feeService.setTransactionSentBySelfProvider(transactionSentBySelfProvider);
 
        File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
@@ -854,6 +897,11 @@ public enum WalletManager implements WalletEventListener {
    */
   public void setCurrentWalletSummary(WalletSummary currentWalletSummary) {
 
+    if (this.currentWalletSummary.isPresent() && !this.currentWalletSummary.get().getWalletId().equals(currentWalletSummary.getWalletId())) {
+      // Switching wallets so the derived keys of the previous wallet are no longer required
+      DerivedKeyCache.INSTANCE.clear();
+    }
+
     if (currentWalletSummary.getWallet() != null) {
 
       // Remove the previous WalletEventListener
@@ -864,6 +912,107 @@ public enum WalletManager implements WalletEventListener {
     }
 
     this.currentWalletSummary = Optional.of(currentWalletSummary);
+
+    // Previously opened wallets remain open alongside the current one while they share the network (see BitcoinNetworkService)
+    synchronized (openWalletSummaries) {
+      openWalletSummaries.put(currentWalletSummary.getWalletId(), currentWalletSummary);
+    }
+  }
+
+  /**
+   * @return All open wallets (including the current wallet) in order of opening
+   */
+  public List<WalletSummary> getOpenWalletSummaries() {
+
+    synchronized (openWalletSummaries) {
+      return ImmutableList.copyOf(openWalletSummaries.values());
+    }
+
+  }
+
+  /**
+   * @param wallet The Bitcoinj wallet
+   *
+   * @return The open wallet summary wrapping the given wallet, or absent
+   */
+  public Optional<WalletSummary> getOpenWalletSummary(Wallet wallet) {
+
+    synchronized (openWalletSummaries) {
+      for (WalletSummary walletSummary : openWalletSummaries.values()) {
+        if (walletSummary.getWallet() == wallet) {
+          return Optional.of(walletSummary);
+        }
+      }
+    }
+
+    return Optional.absent();
+  }
+
+  /**
+   * @param walletId The wallet ID
+   *
+   * @return The open wallet summary with the given wallet ID, or absent
+   */
+  public Optional<WalletSummary> getOpenWalletSummary(WalletId walletId) {
+
+    synchronized (openWalletSummaries) {
+      return Optional.fromNullable(openWalletSummaries.get(walletId));
+    }
+  }
+
+  /**
+   * <p>Auto save an open wallet to its wallet file again (e.g. after the network has been restarted)</p>
+   *
+   * @param walletSummary The open wallet summary
+   */
+  public void resumeAutosave(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+
+    Wallet wallet = walletSummary.getWallet();
+    if (wallet == null) {
+      return;
+    }
+
+    File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
+    File walletDirectory = getOrCreateWalletDirectory(applicationDataDirectory, createWalletRoot(walletSummary.getWalletId()));
+    File autosaveFile = new File(walletDirectory, MBHD_WALLET_NAME);
+
+    try {
+      wallet.autosaveToFile(autosaveFile, AUTO_SAVE_DELAY, TimeUnit.SECONDS, new WalletAutoSaveListener(walletSummary, autosaveFile));
+    } catch (IllegalStateException ise) {
+      // If auto saving was never stopped then that is ok
+      if (!ise.getMessage().contains("Already auto saving")) {
+        throw ise;
+      }
+    }
+  }
+
+  /**
+   * <p>Forget an open wallet so that it no longer receives events. The current wallet cannot be closed this way.</p>
+   *
+   * @param walletId The wallet ID
+   *
+   * @return The closed wallet summary, or absent if it was not open
+   */
+  public Optional<WalletSummary> closeWallet(WalletId walletId) {
+
+    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkState(
+      !currentWalletSummary.isPresent() || !currentWalletSummary.get().getWalletId().equals(walletId),
+      "'walletId' must not be the current wallet"
+    );
+
+    WalletSummary walletSummary;
+    synchronized (openWalletSummaries) {
+      walletSummary = openWalletSummaries.remove(walletId);
+    }
+
+    if (walletSummary != null && walletSummary.getWallet() != null) {
+      walletSummary.getWallet().removeEventListener(this);
+    }
+
+    return Optional.fromNullable(walletSummary);
   }
 
   /**
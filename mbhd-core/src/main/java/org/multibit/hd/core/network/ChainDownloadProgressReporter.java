@@ -0,0 +1,138 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Reporter to provide the following to the peer event listener:</p>
+ * <ul>
+ * <li>Rate limiting of chain download progress updates</li>
+ * <li>Download rate and estimated time to completion</li>
+ * </ul>
+ * <p>A report is due when the percentage changes, when the minimum interval has elapsed or when the
+ * download completes. The completion report is never suppressed.</p>
+ *
+ * @since 0.0.1
+ */
+public class ChainDownloadProgressReporter {
+
+  /**
+   * The default maximum number of progress updates per second
+   */
+  public static final int DEFAULT_MAXIMUM_UPDATES_PER_SECOND = 4;
+
+  private final Ticker ticker;
+
+  private final long minimumIntervalNanos;
+
+  private long startNanos = -1;
+  private int startBlocksLeft = -1;
+
+  private long lastReportNanos = -1;
+  private int lastReportedPercent = -1;
+
+  private double blocksPerSecond = -1;
+  private long secondsRemaining = -1;
+
+  /**
+   * @param maximumUpdatesPerSecond The maximum number of progress updates per second when the percentage is unchanged
+   */
+  public ChainDownloadProgressReporter(int maximumUpdatesPerSecond) {
+    this(maximumUpdatesPerSecond, Ticker.systemTicker());
+  }
+
+  /**
+   * @param maximumUpdatesPerSecond The maximum number of progress updates per second when the percentage is unchanged
+   * @param ticker                  The time source (allows testing)
+   */
+  ChainDownloadProgressReporter(int maximumUpdatesPerSecond, Ticker ticker) {
+
+    Preconditions.checkArgument(maximumUpdatesPerSecond > 0, "'maximumUpdatesPerSecond' must be positive");
+    Preconditions.checkNotNull(ticker, "'ticker' must be present");
+
+    this.ticker = ticker;
+    this.minimumIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maximumUpdatesPerSecond;
+  }
+
+  /**
+   * <p>Start measuring the download rate</p>
+   *
+   * @param blocksLeft The number of blocks left at the start of the download
+   */
+  public synchronized void start(int blocksLeft) {
+
+    startNanos = ticker.read();
+    startBlocksLeft = blocksLeft;
+
+    lastReportNanos = -1;
+    lastReportedPercent = -1;
+    blocksPerSecond = -1;
+    secondsRemaining = -1;
+  }
+
+  /**
+   * <p>Determine if a progress update should be reported and update the rate estimates if so</p>
+   *
+   * @param percent    The percentage of blocks downloaded
+   * @param blocksLeft The number of blocks left
+   *
+   * @return True if the caller should report progress
+   */
+  public synchronized boolean isReportDue(int percent, int blocksLeft) {
+
+    long now = ticker.read();
+
+    boolean due = blocksLeft == 0
+      || percent != lastReportedPercent
+      || lastReportNanos == -1
+      || now - lastReportNanos >= minimumIntervalNanos;
+
+    if (!due) {
+      return false;
+    }
+
+    lastReportNanos = now;
+    lastReportedPercent = percent;
+
+    updateEstimates(now, blocksLeft);
+
+    return true;
+  }
+
+  /**
+   * @return The average number of blocks downloaded per second since the start, -1 if not known
+   */
+  public synchronized double getBlocksPerSecond() {
+    return blocksPerSecond;
+  }
+
+  /**
+   * @return The estimated number of seconds to complete the download, -1 if not known
+   */
+  public synchronized long getSecondsRemaining() {
+    return secondsRemaining;
+  }
+
+  private void updateEstimates(long now, int blocksLeft) {
+
+    if (startNanos == -1 || blocksLeft < 0) {
+      return;
+    }
+
+    if (blocksLeft == 0) {
+      secondsRemaining = 0;
+    }
+
+    long elapsedNanos = now - startNanos;
+    int blocksDownloaded = startBlocksLeft - blocksLeft;
+    if (elapsedNanos <= 0 || blocksDownloaded <= 0) {
+      return;
+    }
+
+    blocksPerSecond = blocksDownloaded * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    secondsRemaining = (long) Math.ceil(blocksLeft / blocksPerSecond);
+
+  }
+}
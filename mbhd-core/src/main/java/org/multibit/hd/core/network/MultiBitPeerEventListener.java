@@ -1,7 +1,6 @@
 package org.multibit.hd.core.network;
 
 import com.google.bitcoin.core.*;
-import com.google.common.base.Optional;
 import org.multibit.hd.core.dto.BitcoinNetworkSummary;
 import org.multibit.hd.core.dto.WalletSummary;
 import org.multibit.hd.core.events.CoreEvents;
@@ -31,12 +30,16 @@ public class MultiBitPeerEventListener implements PeerEventListener {
   // Start with peer count suppression until blocks start to arrive
   private boolean suppressPeerCountMessages = true;
 
+  // Avoid flooding the UI with an event for every block during synchronization
+  private final ChainDownloadProgressReporter progressReporter = new ChainDownloadProgressReporter(
+    ChainDownloadProgressReporter.DEFAULT_MAXIMUM_UPDATES_PER_SECOND
+  );
+
   public MultiBitPeerEventListener() {
   }
 
   @Override
   public void onBlocksDownloaded(Peer peer, Block block, int blocksLeft) {
-    log.trace("Number of blocks left = {}", blocksLeft);
 
     if (caughtUp)
           return;
@@ -65,8 +68,19 @@ public class MultiBitPeerEventListener implements PeerEventListener {
     // Keep track of the download progress
     //updateDownloadPercent(blocksLeft);
 
+    // Only report when the percentage changes, the interval has elapsed or the download completes
+    if (!progressReporter.isReportDue(lastPercent, blocksLeft)) {
+      return;
+    }
+
     // Fire the download percentage
-    CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newChainDownloadProgress(lastPercent, blocksLeft));
+    CoreEvents.fireBitcoinNetworkChangedEvent(
+      BitcoinNetworkSummary.newChainDownloadProgress(
+        lastPercent,
+        blocksLeft,
+        progressReporter.getBlocksPerSecond(),
+        progressReporter.getSecondsRemaining()
+      ));
 
     if (!suppressPeerCountMessages) {
       // Fully synchronized so switch to showing the peer count
@@ -82,9 +96,10 @@ public class MultiBitPeerEventListener implements PeerEventListener {
     startDownload(blocksLeft);
     // Only mark this the first time, because this method can be called more than once during a chain download
     // if we switch peers during it.
-    if (originalBlocksLeft == -1)
+    if (originalBlocksLeft == -1) {
         originalBlocksLeft = blocksLeft;
-    else
+        progressReporter.start(blocksLeft);
+    } else
         log.info("Chain download switched to {}", peer);
     if (blocksLeft == 0) {
         doneDownload();
@@ -152,35 +167,31 @@ public class MultiBitPeerEventListener implements PeerEventListener {
 
     // Loop through all the wallets, seeing if the transaction is relevant and adding them as pending if so.
     if (transaction != null) {
-      // TODO - want to iterate over all open wallets
-      Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
-      if (currentWalletSummary.isPresent()) {
-        if (currentWalletSummary.get() != null) {
-          Wallet currentWallet = currentWalletSummary.get().getWallet();
-          if (currentWallet != null) {
-            try {
-              if (currentWallet.isTransactionRelevant(transaction)) {
-                if (!(transaction.isTimeLocked() && transaction.getConfidence().getSource() != TransactionConfidence.Source.SELF)) {
-                  if (currentWallet.getTransaction(transaction.getHash()) == null) {
-
-                    log.debug("MultiBitHD adding a new pending transaction for the wallet '{}'\n{}",
-                      currentWalletSummary.get().getWalletId(),
-                      transaction.toString()
-                    );
-                    currentWallet.receivePending(transaction, null);
-
-                    // Emit an event so that GUI elements can update as required
-                    Coin value = transaction.getValue(currentWallet);
-                    TransactionSeenEvent transactionSeenEvent = new TransactionSeenEvent(transaction, value);
-                    transactionSeenEvent.setFirstAppearanceInWallet(true);
-
-                    CoreEvents.fireTransactionSeenEvent(transactionSeenEvent);
-                  }
+      for (WalletSummary walletSummary : WalletManager.INSTANCE.getOpenWalletSummaries()) {
+        Wallet wallet = walletSummary.getWallet();
+        if (wallet != null) {
+          try {
+            if (wallet.isTransactionRelevant(transaction)) {
+              if (!(transaction.isTimeLocked() && transaction.getConfidence().getSource() != TransactionConfidence.Source.SELF)) {
+                if (wallet.getTransaction(transaction.getHash()) == null) {
+
+                  log.debug("MultiBitHD adding a new pending transaction for the wallet '{}'\n{}",
+                    walletSummary.getWalletId(),
+                    transaction.toString()
+                  );
+                  wallet.receivePending(transaction, null);
+
+                  // Emit an event so that GUI elements can update as required
+                  Coin value = transaction.getValue(wallet);
+                  TransactionSeenEvent transactionSeenEvent = new TransactionSeenEvent(transaction, value, walletSummary.getWalletId());
+                  transactionSeenEvent.setFirstAppearanceInWallet(true);
+
+                  CoreEvents.fireTransactionSeenEvent(transactionSeenEvent);
                 }
               }
-            } catch (ScriptException se) {
-              // Cannot understand this transaction - carry on
             }
+          } catch (ScriptException se) {
+            // Cannot understand this transaction - carry on
           }
         }
       }
@@ -221,8 +232,8 @@ public class MultiBitPeerEventListener implements PeerEventListener {
    * @param date the date of the last block downloaded
    */
   protected void progress(double pct, int blocksSoFar, Date date) {
-      log.info(String.format("Chain download %d%% done with %d blocks to go, block date %s", (int) pct,
-              blocksSoFar, DateFormat.getDateTimeInstance().format(date)));
+      log.info(String.format("Chain download %d%% done with %d blocks to go, block date %s, %.1f blocks/s", (int) pct,
+              blocksSoFar, DateFormat.getDateTimeInstance().format(date), progressReporter.getBlocksPerSecond()));
   }
 
   /**
@@ -0,0 +1,279 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Score to provide the following to the peer score keeper:</p>
+ * <ul>
+ * <li>Smoothed ping round trip time of a single peer</li>
+ * <li>Block and merkle block throughput while the peer is the download peer</li>
+ * <li>A count of misbehaviour (failed pings and stalled downloads) that decays with each successful ping</li>
+ * </ul>
+ *
+ * @since 0.0.1
+ */
+public class PeerScore {
+
+  /**
+   * Orders responsive peers first, then by lowest ping time, then by highest block throughput
+   */
+  public static final Comparator<PeerScore> FASTEST_FIRST = new Comparator<PeerScore>() {
+    @Override
+    public int compare(PeerScore o1, PeerScore o2) {
+
+      if (o1.isResponsive() != o2.isResponsive()) {
+        return o1.isResponsive() ? -1 : 1;
+      }
+
+      // An unmeasured ping time is treated as the slowest
+      long ping1 = o1.getAveragePingMillis() < 0 ? Long.MAX_VALUE : o1.getAveragePingMillis();
+      long ping2 = o2.getAveragePingMillis() < 0 ? Long.MAX_VALUE : o2.getAveragePingMillis();
+      int result = Long.compare(ping1, ping2);
+
+      return result != 0 ? result : Double.compare(o2.getBlocksPerSecond(), o1.getBlocksPerSecond());
+    }
+  };
+
+  /**
+   * A peer with this much misbehaviour is no longer considered responsive
+   */
+  public static final int MAXIMUM_MISBEHAVIOUR = 3;
+
+  /**
+   * The weight given to the latest ping in the smoothed ping time
+   */
+  private static final double PING_SMOOTHING = 0.3;
+
+  /**
+   * A ping time must be this many times longer than another to be considered much slower
+   */
+  private static final int SLOW_PING_FACTOR = 3;
+
+  /**
+   * A ping time must also be this much longer than another to be considered much slower (avoids churn on fast links)
+   */
+  private static final long SLOW_PING_MARGIN_MILLIS = 250;
+
+  private final Ticker ticker;
+
+  private long averagePingMillis = -1;
+  private boolean lastPingOk = true;
+  private int pingCount = 0;
+  private int failedPingCount = 0;
+
+  private int blockCount = 0;
+  private int filteredBlockCount = 0;
+  private long firstBlockNanos = -1;
+  private long lastBlockNanos = -1;
+
+  private int misbehaviourCount = 0;
+
+  public PeerScore() {
+    this(Ticker.systemTicker());
+  }
+
+  /**
+   * @param ticker The time source (allows testing)
+   */
+  PeerScore(Ticker ticker) {
+
+    Preconditions.checkNotNull(ticker, "'ticker' must be present");
+
+    this.ticker = ticker;
+  }
+
+  /**
+   * <p>Record a successful ping (also forgives one count of earlier misbehaviour)</p>
+   *
+   * @param pingMillis The round trip time of a successful ping
+   */
+  public synchronized void recordPing(long pingMillis) {
+
+    Preconditions.checkArgument(pingMillis >= 0, "'pingMillis' must not be negative");
+
+    if (averagePingMillis < 0) {
+      averagePingMillis = pingMillis;
+    } else {
+      averagePingMillis = Math.round(PING_SMOOTHING * pingMillis + (1 - PING_SMOOTHING) * averagePingMillis);
+    }
+    lastPingOk = true;
+    pingCount++;
+
+    // A peer that answers again recovers from occasional lost pings (common over Tor)
+    if (misbehaviourCount > 0) {
+      misbehaviourCount--;
+    }
+  }
+
+  /**
+   * <p>Record a reply to a ping already recorded as a failure when it timed out (the failure is withdrawn)</p>
+   *
+   * @param pingMillis The round trip time of the late ping
+   */
+  public synchronized void recordLatePing(long pingMillis) {
+
+    Preconditions.checkArgument(pingMillis >= 0, "'pingMillis' must not be negative");
+
+    if (failedPingCount > 0) {
+      pingCount--;
+      failedPingCount--;
+      if (misbehaviourCount > 0) {
+        misbehaviourCount--;
+      }
+    }
+
+    recordPing(pingMillis);
+  }
+
+  /**
+   * <p>Record a ping that failed or timed out (also counted as misbehaviour)</p>
+   */
+  public synchronized void recordPingFailure() {
+
+    lastPingOk = false;
+    pingCount++;
+    failedPingCount++;
+    misbehaviourCount++;
+  }
+
+  /**
+   * <p>Record a full block received from the peer</p>
+   */
+  public synchronized void recordBlock() {
+
+    blockCount++;
+    recordBlockTime();
+  }
+
+  /**
+   * <p>Record a merkle (filtered) block received from the peer</p>
+   */
+  public synchronized void recordFilteredBlock() {
+
+    filteredBlockCount++;
+    recordBlockTime();
+  }
+
+  /**
+   * <p>Record misbehaviour other than a failed ping (e.g. a stalled download)</p>
+   */
+  public synchronized void recordMisbehaviour() {
+    misbehaviourCount++;
+  }
+
+  /**
+   * @return The smoothed ping round trip time in milliseconds, or -1 if no ping has succeeded
+   */
+  public synchronized long getAveragePingMillis() {
+    return averagePingMillis;
+  }
+
+  /**
+   * @return True if the last ping succeeded (or none has been made) and the misbehaviour is below the maximum
+   */
+  public synchronized boolean isResponsive() {
+    return lastPingOk && misbehaviourCount < MAXIMUM_MISBEHAVIOUR;
+  }
+
+  /**
+   * @return The number of pings made
+   */
+  public synchronized int getPingCount() {
+    return pingCount;
+  }
+
+  /**
+   * @return The number of pings that failed or timed out
+   */
+  public synchronized int getFailedPingCount() {
+    return failedPingCount;
+  }
+
+  /**
+   * @return The number of full blocks received
+   */
+  public synchronized int getBlockCount() {
+    return blockCount;
+  }
+
+  /**
+   * @return The number of merkle blocks received
+   */
+  public synchronized int getFilteredBlockCount() {
+    return filteredBlockCount;
+  }
+
+  /**
+   * @return The number of blocks of either kind received per second, or zero if there are too few to measure
+   */
+  public synchronized double getBlocksPerSecond() {
+
+    long elapsedNanos = lastBlockNanos - firstBlockNanos;
+    if (firstBlockNanos < 0 || elapsedNanos <= 0) {
+      return 0;
+    }
+
+    // The first block starts the clock
+    return (blockCount + filteredBlockCount - 1) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+  }
+
+  /**
+   * @return The nanosecond ticker time of the last block received, or -1 if none has been received
+   */
+  public synchronized long getLastBlockNanos() {
+    return lastBlockNanos;
+  }
+
+  /**
+   * @return The number of failed pings and other misbehaviour
+   */
+  public synchronized int getMisbehaviourCount() {
+    return misbehaviourCount;
+  }
+
+  /**
+   * @param other The score of another peer
+   *
+   * @return True if this peer is unresponsive or its ping time is much longer than that of the other peer
+   */
+  public boolean isMuchSlowerThan(PeerScore other) {
+
+    Preconditions.checkNotNull(other, "'other' must be present");
+
+    if (!isResponsive()) {
+      return other.isResponsive();
+    }
+
+    long ping = getAveragePingMillis();
+    long otherPing = other.getAveragePingMillis();
+    if (ping < 0 || otherPing < 0) {
+      return false;
+    }
+
+    return ping > otherPing * SLOW_PING_FACTOR && ping - otherPing > SLOW_PING_MARGIN_MILLIS;
+  }
+
+  private void recordBlockTime() {
+
+    lastBlockNanos = ticker.read();
+    if (firstBlockNanos < 0) {
+      firstBlockNanos = lastBlockNanos;
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "PeerScore{" +
+      "averagePingMillis=" + averagePingMillis +
+      ", lastPingOk=" + lastPingOk +
+      ", failedPingCount=" + failedPingCount +
+      ", blockCount=" + blockCount +
+      ", filteredBlockCount=" + filteredBlockCount +
+      ", misbehaviourCount=" + misbehaviourCount +
+      '}';
+  }
+}
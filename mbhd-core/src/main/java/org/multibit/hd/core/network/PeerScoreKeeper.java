@@ -0,0 +1,494 @@
+package org.multibit.hd.core.network;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.utils.Threading;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Peer event listener to provide the following to Bitcoin network service:</p>
+ * <ul>
+ * <li>A score for each connected peer from its ping time, block throughput and misbehaviour</li>
+ * <li>Health checks that ping all connected peers in parallel</li>
+ * <li>Switching away from a download peer that is unresponsive, stalled or much slower than the fastest peer</li>
+ * <li>Disconnection of peers that keep misbehaving</li>
+ * <li>More connections while syncing (more candidates for the download peer) and fewer when idle</li>
+ * </ul>
+ * <p>The peer group chooses the download peer itself so a slow download peer is disconnected and the peer group
+ * chooses again from the remaining peers. A switch is only made when a better peer is connected.</p>
+ * <p>The event callbacks run on the network thread (required to see every merkle block) so they only record
+ * counts and hand any changes to the peer group over to the scheduled executor.</p>
+ *
+ * @since 0.0.1
+ */
+public class PeerScoreKeeper extends AbstractPeerEventListener {
+
+  private static final Logger log = LoggerFactory.getLogger(PeerScoreKeeper.class);
+
+  /**
+   * The number of connections while downloading the block chain
+   */
+  public static final int SYNCING_NUMBER_OF_PEERS = 8;
+
+  /**
+   * The number of connections once the block chain is downloaded (enough for broadcasting and relay)
+   */
+  public static final int IDLE_NUMBER_OF_PEERS = 4;
+
+  /**
+   * The interval between periodic health checks
+   */
+  public static final int HEALTH_CHECK_INTERVAL_SECONDS = 30;
+
+  /**
+   * The time allowed for the peers to respond to a health check ping
+   */
+  public static final int PING_TIMEOUT_SECONDS = 4;
+
+  /**
+   * The time allowed for the peers to respond to a health check ping over Tor (circuits add several seconds)
+   */
+  public static final int TOR_PING_TIMEOUT_SECONDS = 20;
+
+  private final PeerGroup peerGroup;
+  private final ListeningScheduledExecutorService executorService;
+  private final int pingTimeoutSeconds;
+
+  /**
+   * The score of each connected peer
+   */
+  private final ConcurrentMap<Peer, PeerScore> peerScores = Maps.newConcurrentMap();
+
+  private volatile boolean syncing = false;
+
+  private volatile int switchCount = 0;
+  private volatile int disconnectCount = 0;
+
+  /**
+   * The download peer and its block count at the last health check (only accessed from the health check)
+   */
+  private Peer lastDownloadPeer = null;
+  private int lastDownloadBlockCount = 0;
+
+  private Optional<ScheduledFuture<?>> healthCheckFuture = Optional.absent();
+
+  /**
+   * @param peerGroup       The peer group
+   * @param executorService The scheduled executor service running the health checks
+   */
+  public PeerScoreKeeper(PeerGroup peerGroup, ListeningScheduledExecutorService executorService) {
+    this(peerGroup, executorService, PING_TIMEOUT_SECONDS);
+  }
+
+  /**
+   * @param peerGroup          The peer group
+   * @param executorService    The scheduled executor service running the health checks
+   * @param pingTimeoutSeconds The time allowed for the peers to respond to a health check ping
+   */
+  public PeerScoreKeeper(PeerGroup peerGroup, ListeningScheduledExecutorService executorService, int pingTimeoutSeconds) {
+
+    Preconditions.checkNotNull(peerGroup, "'peerGroup' must be present");
+    Preconditions.checkNotNull(executorService, "'executorService' must be present");
+    Preconditions.checkArgument(pingTimeoutSeconds > 0, "'pingTimeoutSeconds' must be positive");
+
+    this.peerGroup = peerGroup;
+    this.executorService = executorService;
+    this.pingTimeoutSeconds = pingTimeoutSeconds;
+  }
+
+  /**
+   * <p>Start following peer events and schedule the periodic health checks</p>
+   */
+  public synchronized void start() {
+
+    peerGroup.setMaxConnections(calculateTargetConnectionCount(syncing));
+
+    // Merkle blocks are only visible to listeners running on the network thread
+    peerGroup.addEventListener(this, Threading.SAME_THREAD);
+
+    healthCheckFuture = Optional.<ScheduledFuture<?>>of(executorService.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          checkHealth();
+        } catch (RuntimeException e) {
+          log.warn("Peer health check failed", e);
+        }
+      }
+    }, HEALTH_CHECK_INTERVAL_SECONDS, HEALTH_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS));
+  }
+
+  /**
+   * <p>Stop following peer events and cancel the periodic health checks</p>
+   */
+  public synchronized void stop() {
+
+    peerGroup.removeEventListener(this);
+
+    if (healthCheckFuture.isPresent()) {
+      healthCheckFuture.get().cancel(false);
+      healthCheckFuture = Optional.absent();
+    }
+
+    log.debug("Peer scores at stop: {} switch(es) of download peer, {} disconnection(s)", switchCount, disconnectCount);
+  }
+
+  /**
+   * <p>Ping the connected peers in parallel, score them and switch the download peer if a faster one is available</p>
+   *
+   * @return The number of peers that had responded when the first response arrived (zero if none responded)
+   */
+  public int checkHealth() {
+
+    int responsiveCount = pingPeers(peerGroup.getConnectedPeers(), pingTimeoutSeconds, TimeUnit.SECONDS);
+
+    disconnectMisbehavingPeers();
+
+    if (syncing) {
+      checkDownloadPeer();
+    }
+
+    log.debug("Peer health check: {} of {} peer(s) responded, fastest {}", responsiveCount,
+      peerGroup.numConnectedPeers(), getFastestPeer(peerGroup.getConnectedPeers()).orNull());
+
+    return responsiveCount;
+  }
+
+  /**
+   * <p>Ping the given peers in parallel and record the results in their scores</p>
+   * <p>Returns as soon as one peer responds. The remaining pings update their scores as they complete and any
+   * still outstanding after the timeout are recorded as failures (withdrawn if the reply arrives later).</p>
+   *
+   * @param peers   The peers to ping
+   * @param timeout The time allowed for the peers to respond
+   * @param unit    The time unit of the timeout
+   *
+   * @return The number of peers that had responded on return (zero if none responded within the timeout)
+   */
+  public int pingPeers(List<Peer> peers, long timeout, TimeUnit unit) {
+
+    if (peers == null || peers.isEmpty()) {
+      return 0;
+    }
+
+    // Released by the first response or once every ping has completed
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicInteger remaining = new AtomicInteger(peers.size());
+    final AtomicInteger responded = new AtomicInteger();
+    // Set once each ping has been recorded as answered, failed or timed out
+    final Map<Peer, AtomicBoolean> pings = Maps.newHashMap();
+
+    for (final Peer peer : peers) {
+
+      // Scores are only created here for peers that are connected now
+      getOrCreatePeerScore(peer);
+
+      final AtomicBoolean recorded = new AtomicBoolean();
+      try {
+        ListenableFuture<Long> ping = peer.ping();
+        pings.put(peer, recorded);
+        Futures.addCallback(ping, new FutureCallback<Long>() {
+          @Override
+          public void onSuccess(Long pingMillis) {
+            Optional<PeerScore> peerScore = getPeerScore(peer);
+            if (peerScore.isPresent()) {
+              if (recorded.compareAndSet(false, true)) {
+                peerScore.get().recordPing(pingMillis);
+              } else {
+                // Already recorded as a failure by the timeout check
+                peerScore.get().recordLatePing(pingMillis);
+              }
+            }
+            responded.incrementAndGet();
+            latch.countDown();
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            log.warn("Peer '{}' failed ping test. Message was {}", peer.getAddress(), t.getMessage());
+            if (recorded.compareAndSet(false, true)) {
+              recordPingFailure(peer);
+            }
+            if (remaining.decrementAndGet() == 0) {
+              latch.countDown();
+            }
+          }
+        });
+      } catch (ProtocolException e) {
+        // The peer does not support ping so cannot be checked
+        log.warn("Peer '{}' failed ping test. Message was {}", peer.getAddress(), e.getMessage());
+        recordPingFailure(peer);
+        if (remaining.decrementAndGet() == 0) {
+          latch.countDown();
+        }
+      }
+    }
+
+    try {
+      latch.await(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (!pings.isEmpty()) {
+      scheduleTimeoutCheck(pings, timeout, unit);
+    }
+
+    return responded.get();
+  }
+
+  /**
+   * @param peer The peer
+   *
+   * @return The score of the peer if it is scored (peers are no longer scored once disconnected)
+   */
+  public Optional<PeerScore> getPeerScore(Peer peer) {
+
+    Preconditions.checkNotNull(peer, "'peer' must be present");
+
+    return Optional.fromNullable(peerScores.get(peer));
+  }
+
+  /**
+   * @param peer The peer
+   *
+   * @return The score of the peer (created if the peer is not yet scored so only use for connected peers)
+   */
+  public PeerScore getOrCreatePeerScore(Peer peer) {
+
+    Preconditions.checkNotNull(peer, "'peer' must be present");
+
+    PeerScore peerScore = peerScores.get(peer);
+    if (peerScore == null) {
+      peerScore = new PeerScore();
+      PeerScore existing = peerScores.putIfAbsent(peer, peerScore);
+      if (existing != null) {
+        peerScore = existing;
+      }
+    }
+
+    return peerScore;
+  }
+
+  /**
+   * @param peers The candidate peers
+   *
+   * @return The responsive peer with the best score
+   */
+  public Optional<Peer> getFastestPeer(List<Peer> peers) {
+
+    Peer fastest = null;
+    PeerScore fastestScore = null;
+    for (Peer peer : peers) {
+      PeerScore peerScore = peerScores.get(peer);
+      if (peerScore != null && peerScore.isResponsive() && (fastestScore == null || PeerScore.FASTEST_FIRST.compare(peerScore, fastestScore) < 0)) {
+        fastest = peer;
+        fastestScore = peerScore;
+      }
+    }
+
+    return Optional.fromNullable(fastest);
+  }
+
+  /**
+   * @return The time allowed for the peers to respond to a health check ping in seconds
+   */
+  public int getPingTimeoutSeconds() {
+    return pingTimeoutSeconds;
+  }
+
+  /**
+   * @return True if the block chain is being downloaded
+   */
+  public boolean isSyncing() {
+    return syncing;
+  }
+
+  /**
+   * @return The number of times the download peer has been switched
+   */
+  public int getSwitchCount() {
+    return switchCount;
+  }
+
+  /**
+   * @return The number of misbehaving peers disconnected
+   */
+  public int getDisconnectCount() {
+    return disconnectCount;
+  }
+
+  /**
+   * @param syncing True if the block chain is being downloaded
+   *
+   * @return The number of connections the peer group should keep
+   */
+  static int calculateTargetConnectionCount(boolean syncing) {
+    return syncing ? SYNCING_NUMBER_OF_PEERS : IDLE_NUMBER_OF_PEERS;
+  }
+
+  @Override
+  public Message onPreMessageReceived(Peer peer, Message message) {
+
+    PeerScore peerScore = peerScores.get(peer);
+    if (peerScore == null) {
+      return message;
+    }
+
+    if (message instanceof FilteredBlock) {
+      peerScore.recordFilteredBlock();
+    } else if (message instanceof Block) {
+      peerScore.recordBlock();
+    }
+
+    return message;
+  }
+
+  @Override
+  public void onChainDownloadStarted(Peer peer, int blocksLeft) {
+    setSyncing(blocksLeft > 0);
+  }
+
+  @Override
+  public void onBlocksDownloaded(Peer peer, Block block, int blocksLeft) {
+
+    if (blocksLeft == 0) {
+      setSyncing(false);
+    }
+  }
+
+  @Override
+  public void onPeerConnected(Peer peer, int peerCount) {
+    getOrCreatePeerScore(peer);
+  }
+
+  @Override
+  public void onPeerDisconnected(Peer peer, int peerCount) {
+    peerScores.remove(peer);
+  }
+
+  /**
+   * <p>Adapt the number of connections when the download starts or finishes</p>
+   */
+  private void setSyncing(final boolean syncing) {
+
+    if (this.syncing == syncing) {
+      return;
+    }
+    this.syncing = syncing;
+
+    // Leave the network thread before changing the peer group
+    executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+        int connectionCount = calculateTargetConnectionCount(syncing);
+        log.debug("{} so using {} connection(s)", syncing ? "Syncing" : "Idle", connectionCount);
+        peerGroup.setMaxConnections(connectionCount);
+      }
+    });
+  }
+
+  /**
+   * <p>Record a failed ping against a peer that is still scored</p>
+   */
+  private void recordPingFailure(Peer peer) {
+
+    PeerScore peerScore = peerScores.get(peer);
+    if (peerScore != null) {
+      peerScore.recordPingFailure();
+    }
+  }
+
+  /**
+   * <p>Record the pings still outstanding once the timeout has passed as failures (a late reply withdraws the
+   * failure and still updates the ping time)</p>
+   */
+  private void scheduleTimeoutCheck(final Map<Peer, AtomicBoolean> pings, long timeout, TimeUnit unit) {
+
+    executorService.schedule(new Runnable() {
+      @Override
+      public void run() {
+        for (Map.Entry<Peer, AtomicBoolean> entry : pings.entrySet()) {
+          // Only if neither a reply nor a failure has been recorded
+          if (entry.getValue().compareAndSet(false, true)) {
+            log.warn("Peer '{}' failed ping test. Timed out", entry.getKey().getAddress());
+            recordPingFailure(entry.getKey());
+          }
+        }
+      }
+    }, timeout, unit);
+  }
+
+  private void disconnectMisbehavingPeers() {
+
+    for (Peer peer : peerGroup.getConnectedPeers()) {
+      PeerScore peerScore = getOrCreatePeerScore(peer);
+      if (peerScore.getMisbehaviourCount() >= PeerScore.MAXIMUM_MISBEHAVIOUR) {
+        log.info("Disconnecting misbehaving peer '{}' {}", peer.getAddress(), peerScore);
+        disconnectCount++;
+        peer.close();
+      }
+    }
+  }
+
+  /**
+   * <p>Switch away from a download peer that has stalled or is much slower than the fastest connected peer</p>
+   */
+  private void checkDownloadPeer() {
+
+    Peer downloadPeer = peerGroup.getDownloadPeer();
+    if (downloadPeer == null) {
+      lastDownloadPeer = null;
+      return;
+    }
+    PeerScore downloadScore = getOrCreatePeerScore(downloadPeer);
+
+    // A download peer that has sent nothing since the last check has stalled
+    int blockCount = downloadScore.getBlockCount() + downloadScore.getFilteredBlockCount();
+    if (downloadPeer == lastDownloadPeer && blockCount == lastDownloadBlockCount) {
+      log.debug("Download peer '{}' has stalled", downloadPeer.getAddress());
+      downloadScore.recordMisbehaviour();
+    }
+    lastDownloadPeer = downloadPeer;
+    lastDownloadBlockCount = blockCount;
+
+    // Only consider peers that can serve the rest of the chain
+    List<Peer> candidates = Lists.newArrayList();
+    for (Peer peer : peerGroup.getConnectedPeers()) {
+      if (peer != downloadPeer && peer.getBestHeight() >= downloadPeer.getBestHeight()) {
+        candidates.add(peer);
+      }
+    }
+
+    Optional<Peer> fastest = getFastestPeer(candidates);
+    if (!fastest.isPresent() || !downloadScore.isMuchSlowerThan(getOrCreatePeerScore(fastest.get()))) {
+      return;
+    }
+
+    log.info("Switching away from download peer '{}' {} (fastest is '{}' {})", downloadPeer.getAddress(), downloadScore,
+      fastest.get().getAddress(), getOrCreatePeerScore(fastest.get()));
+    switchCount++;
+    lastDownloadPeer = null;
+
+    // The peer group chooses a new download peer from those remaining
+    downloadPeer.close();
+  }
+
+}
@@ -5,10 +5,15 @@ import com.google.bitcoin.crypto.KeyCrypterException;
 import com.google.bitcoin.net.discovery.DnsDiscovery;
 import com.google.bitcoin.store.BlockStore;
 import com.google.bitcoin.store.BlockStoreException;
+import com.google.bitcoin.utils.Threading;
+import com.google.bitcoin.wallet.CoinSelector;
 import com.google.bitcoin.wallet.KeyChain;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.subgraph.orchid.TorClient;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.config.Configurations;
@@ -19,8 +24,11 @@ import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.TransactionCreationEvent;
 import org.multibit.hd.core.managers.BlockStoreManager;
 import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.LookaheadManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.network.MultiBitPeerEventListener;
+import org.multibit.hd.core.network.PeerScoreKeeper;
+import org.multibit.hd.core.store.BlockHeaderIndex;
 import org.multibit.hd.core.utils.Coins;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,7 +41,8 @@ import java.math.BigDecimal;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -42,6 +51,7 @@ import java.util.concurrent.TimeoutException;
  * <ul>
  * <li>Initialisation of bitcoin network connection</li>
  * <li>Ability to send bitcoin</li>
+ * <li>A single peer group and block chain shared by all open wallets</li>
  * </ul>
  * <p/>
  * <p>Emits the following events:</p>
@@ -57,7 +67,11 @@ public class BitcoinNetworkService extends AbstractService {
   private static final Logger log = LoggerFactory.getLogger(BitcoinNetworkService.class);
 
   public static final Coin DEFAULT_FEE_PER_KB = Transaction.REFERENCE_DEFAULT_MIN_TX_FEE; // Currently 10,000 satoshi
-  public static final int MAXIMUM_NUMBER_OF_PEERS = 6;
+
+  /**
+   * The most connections kept (while syncing, fewer are kept when idle)
+   */
+  public static final int MAXIMUM_NUMBER_OF_PEERS = PeerScoreKeeper.SYNCING_NUMBER_OF_PEERS;
 
   /**
    * The boundary for when more mining fee is due
@@ -67,7 +81,20 @@ public class BitcoinNetworkService extends AbstractService {
   private BlockStore blockStore;
   private PeerGroup peerGroup;  // May need to add listener as in MultiBitPeerGroup
   private BlockChain blockChain;
+  private volatile BlockHeaderIndex headerIndex;
   private MultiBitPeerEventListener peerEventListener;
+  private FilterRefreshScheduler filterRefreshScheduler;
+  private PeerScoreKeeper peerScoreKeeper;
+
+  /**
+   * The wallets attached to the block chain and peer group (guarded by itself)
+   */
+  private final Map<WalletId, Wallet> attachedWallets = Maps.newLinkedHashMap();
+
+  /**
+   * The unspent output indexes of the wallets sent from so far (a closed wallet and its index can be collected)
+   */
+  private final Map<Wallet, UnspentOutputIndex> unspentOutputIndexes = new WeakHashMap<>();
 
   private final NetworkParameters networkParameters;
 
@@ -85,6 +112,7 @@ public class BitcoinNetworkService extends AbstractService {
     this.networkParameters = networkParameters;
 
     requireFixedThreadPoolExecutor(5, "bitcoin-network");
+    requireSingleThreadScheduledExecutor("bitcoin-network-scheduled");
 
   }
 
@@ -106,6 +134,8 @@ public class BitcoinNetworkService extends AbstractService {
       blockStore = new BlockStoreManager(networkParameters).createBlockStore(blockStoreFile, checkpointsFile, null, false);
       log.debug("Success. Blockstore is '{}'", blockStore);
 
+      openHeaderIndex(walletRoot);
+
       log.debug("Starting Bitcoin network...");
 
       restartNetwork();
@@ -137,11 +167,15 @@ public class BitcoinNetworkService extends AbstractService {
     // Close the block store
     closeBlockstore();
 
-    // Save the current wallet
-    saveWallet();
+    // Save the open wallets
+    saveWallets();
 
-    // Close the wallet
-    closeWallet();
+    // Close the open wallets
+    closeWallets();
+
+    synchronized (attachedWallets) {
+      attachedWallets.clear();
+    }
 
     // Hand over to the superclass to finalise service executors
     super.stopAndWait();
@@ -157,14 +191,25 @@ public class BitcoinNetworkService extends AbstractService {
     return startedOk;
   }
 
+  /**
+   * <p>Request a bloom filter refresh (requests within a short window are coalesced and an unchanged filter is not
+   * sent to the peers again)</p>
+   */
   public void recalculateFastCatchupAndFilter() {
 
-    if (peerGroup != null) {
-      peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.FORCE_SEND_FOR_REFRESH);
+    if (filterRefreshScheduler != null) {
+      filterRefreshScheduler.requestRefresh();
     }
 
   }
 
+  /**
+   * @return The filter refresh scheduler providing the bloom filter metrics if the peer group has been created
+   */
+  public Optional<FilterRefreshScheduler> getFilterRefreshScheduler() {
+    return Optional.fromNullable(filterRefreshScheduler);
+  }
+
   /**
    * <p>Download the block chain in a new thread</p>
    */
@@ -180,12 +225,22 @@ public class BitcoinNetworkService extends AbstractService {
         // This method blocks until completed but fires events along the way
         try {
           peerGroup.downloadBlockChain();
+
+          log.debug("Block chain downloaded.");
+
+          // Any restore is complete so return to a lookahead sized from use (an interrupted download keeps the
+          // restore lookahead so that the next download still finds transactions to the deeper addresses)
+          if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+            Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+            LookaheadManager.INSTANCE.finishRestore(wallet);
+            log.debug("Key chain lookahead is {} with {} bloom filter element(s)",
+              LookaheadManager.INSTANCE.getLookaheadSize(wallet),
+              LookaheadManager.INSTANCE.getFilterElementCount(wallet));
+          }
         } catch (RuntimeException re) {
           log.debug("Blockchain download was interrupted. Error was : '" + re.getMessage() + "'");
         }
 
-        log.debug("Block chain downloaded.");
-
         CoreEvents.fireBitcoinNetworkChangedEvent(BitcoinNetworkSummary.newNetworkReady(peerGroup.numConnectedPeers()));
       }
     });
@@ -194,7 +249,8 @@ public class BitcoinNetworkService extends AbstractService {
 
   /**
    * Sync the current wallet from the date specified.
-   * The blockstore is deleted and created anew, checkpointed and then the blockchain is downloaded.
+   * The blockstore is deleted and created anew, rewound using the block header index (or checkpointed if the index
+   * does not cover the date) and then the blockchain is downloaded.
    */
   public void replayWallet(DateTime dateToReplayFrom) throws IOException, BlockStoreException, TimeoutException {
 
@@ -213,6 +269,9 @@ public class BitcoinNetworkService extends AbstractService {
     log.info("Starting replay of wallet with id '" + WalletManager.INSTANCE.getCurrentWalletSummary().get().getWalletId()
             + "' from date " + dateToReplayFrom);
 
+    // Look further ahead until the replay completes so that addresses used by other copies of the wallet are found
+    LookaheadManager.INSTANCE.startRestore(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
+
     // TODO (JB) The current best height should be remembered and used to generate percentage completeWithoutSigning as
     // TODO (JB) then if the peer is replaced the percentage increases monotonically
 
@@ -222,8 +281,15 @@ public class BitcoinNetworkService extends AbstractService {
     File blockchainFile = new File(walletRoot + File.separator + InstallationManager.MBHD_PREFIX + InstallationManager.SPV_BLOCKCHAIN_SUFFIX);
     File checkpointsFile = new File(walletRoot + File.separator + InstallationManager.MBHD_PREFIX + InstallationManager.CHECKPOINTS_SUFFIX);
 
-    log.debug("Recreating blockstore with checkpoint date of " + dateToReplayFrom + " ...");
-    blockStore = new BlockStoreManager(networkParameters).createBlockStore(blockchainFile, checkpointsFile, dateToReplayFrom.toDate(), true);
+    openHeaderIndex(walletRoot);
+
+    log.debug("Recreating blockstore with replay date of " + dateToReplayFrom + " ...");
+    BlockStoreManager blockStoreManager = new BlockStoreManager(networkParameters);
+    if (headerIndex != null) {
+      blockStore = blockStoreManager.rewindBlockStore(blockchainFile, checkpointsFile, headerIndex, dateToReplayFrom.toDate());
+    } else {
+      blockStore = blockStoreManager.createBlockStore(blockchainFile, checkpointsFile, dateToReplayFrom.toDate(), true);
+    }
     log.debug("Blockstore is '{}'", blockStore);
 
     restartNetwork();
@@ -242,6 +308,7 @@ public class BitcoinNetworkService extends AbstractService {
    * <li>a CoinSelector - when HD subnodes are supported</li>
    * </ul>
    * <p>The result of the operation is sent to the CoreEventBus as a TransactionCreationEvent and, if the tx is sent ok, a BitcoinSentEvent</p>
+   * <p>A summary with a batch of payouts is sent as a single transaction and reported as a single send listing every recipient</p>
    *
    * @param sendRequestSummary The information required to send bitcoin
    */
@@ -326,7 +393,7 @@ public class BitcoinNetworkService extends AbstractService {
               Optional.<FiatPayment>absent(),
               Optional.<Coin>absent(),
               Optional.<Coin>absent(),
-              sendRequestSummary.getDestinationAddress(),
+              sendRequestSummary.getDestinationAddresses(),
               sendRequestSummary.getChangeAddress(),
               false,
               CoreMessageKey.THE_ERROR_WAS.getKey(),
@@ -390,7 +457,7 @@ public class BitcoinNetworkService extends AbstractService {
               Optional.<FiatPayment>absent(),
               Optional.<Coin>absent(),
               Optional.<Coin>absent(),
-              sendRequestSummary.getDestinationAddress(),
+              sendRequestSummary.getDestinationAddresses(),
               sendRequestSummary.getChangeAddress(),
               false,
               CoreMessageKey.NO_ACTIVE_WALLET.getKey(),
@@ -417,10 +484,20 @@ public class BitcoinNetworkService extends AbstractService {
     log.debug("Appending send request based on: {}", sendRequestSummary);
 
     try {
-      final Wallet.SendRequest sendRequest = Wallet.SendRequest.to(
-              sendRequestSummary.getDestinationAddress(),
-              sendRequestSummary.getAmount()
-      );
+      final Wallet.SendRequest sendRequest;
+      if (sendRequestSummary.isBatch()) {
+        // One output per payout so the batch shares a single coin selection, signature pass and broadcast
+        Transaction tx = new Transaction(networkParameters);
+        for (Payout payout : sendRequestSummary.getPayouts()) {
+          tx.addOutput(payout.getAmount(), payout.getDestinationAddress());
+        }
+        sendRequest = Wallet.SendRequest.forTx(tx);
+      } else {
+        sendRequest = Wallet.SendRequest.to(
+                sendRequestSummary.getDestinationAddress(),
+                sendRequestSummary.getAmount()
+        );
+      }
       if (sendRequestSummary.getKeyParameter().isPresent()) {
         sendRequest.aesKey = sendRequestSummary.getKeyParameter().get();
       }
@@ -455,6 +532,9 @@ public class BitcoinNetworkService extends AbstractService {
           );
           sendRequestSummary.setClientFeeAdded(Optional.of(sendRequestSummary.getFeeState().get().getFeeOwed()));
 
+          // The client fee is always the last output (one per batch)
+          int clientFeeOutputIndex = sendRequest.tx.getOutputs().size() - 1;
+
           // The transaction now has an extra client fee output added
           // This increases the size of the transaction, and may require more fee if it pushes it over a 1000 byte size boundary
           int updatedSize;
@@ -469,26 +549,29 @@ public class BitcoinNetworkService extends AbstractService {
           if (Math.floor(updatedSize / MINING_FEE_BOUNDARY) > Math.floor(initialSize / MINING_FEE_BOUNDARY)) {
             // Adding a client fee output has stepped over a mining fee boundary.
             // There is extra mining fee due - this can either be paid by reducing the amount redeemed (tx output 0)
-            // or reducing the client fee (tx output 1)
+            // or reducing the client fee (the last tx output)
+            // A batch does not reduce one payout on behalf of the others.
             // If neither of these is possible (due to dust limits) then give up trying to claim the client fee.
 
-            if (sendRequest.tx.getOutput(0).getValue().compareTo(Transaction.MIN_NONDUST_OUTPUT.add(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE)) > 0) {
+            if (!sendRequestSummary.isBatch() && sendRequest.tx.getOutput(0).getValue().compareTo(Transaction.MIN_NONDUST_OUTPUT.add(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE)) > 0) {
               // There is enough bitcoin on the redemption output, decrease that
               sendRequest.tx.getOutput(0).setValue(sendRequest.tx.getOutput(0).getValue().subtract(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE));
               log.debug("Adjusting transaction output 0 to {}", sendRequest.tx.getOutput(0).getValue());
             } else {
               // Try decreasing the client fee
-              if (sendRequest.tx.getOutput(1).getValue().compareTo(Transaction.MIN_NONDUST_OUTPUT.add(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE)) > 0) {
+              if (sendRequest.tx.getOutput(clientFeeOutputIndex).getValue().compareTo(Transaction.MIN_NONDUST_OUTPUT.add(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE)) > 0) {
                 // There is enough bitcoin on the client fee output, decrease that
-                Coin adjustedClientFee = sendRequest.tx.getOutput(1).getValue().subtract(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE);
-                sendRequest.tx.getOutput(1).setValue(adjustedClientFee);
+                Coin adjustedClientFee = sendRequest.tx.getOutput(clientFeeOutputIndex).getValue().subtract(Transaction.REFERENCE_DEFAULT_MIN_TX_FEE);
+                sendRequest.tx.getOutput(clientFeeOutputIndex).setValue(adjustedClientFee);
                 sendRequestSummary.setClientFeeAdded(Optional.of(adjustedClientFee));
-                log.debug("Adjusting transaction output 1 to {}", adjustedClientFee);
+                log.debug("Adjusting transaction output {} to {}", clientFeeOutputIndex, adjustedClientFee);
               } else {
                 // We cannot pay the mining fee for the extra client fee output so remove it.
-                // Put back the original amount on the redemption output
+                // Put back the original amounts on the redemption outputs
                 sendRequest.tx.clearOutputs();
-                sendRequest.tx.addOutput(sendRequestSummary.getAmount(), sendRequestSummary.getDestinationAddress());
+                for (Payout payout : sendRequestSummary.getPayouts()) {
+                  sendRequest.tx.addOutput(payout.getAmount(), payout.getDestinationAddress());
+                }
                 sendRequestSummary.setClientFeeAdded(Optional.<Coin>absent());
                 log.debug("Removing client fee as cannot be paid due to dust levels");
               }
@@ -513,7 +596,7 @@ public class BitcoinNetworkService extends AbstractService {
               Optional.<FiatPayment>absent(),
               Optional.<Coin>absent(),
               Optional.<Coin>absent(),
-              sendRequestSummary.getDestinationAddress(),
+              sendRequestSummary.getDestinationAddresses(),
               sendRequestSummary.getChangeAddress(),
               false,
               CoreMessageKey.THE_ERROR_WAS.getKey(),
@@ -705,6 +788,9 @@ public class BitcoinNetworkService extends AbstractService {
 
     try {
 
+      // Select coins from the maintained index rather than sorting every output again
+      sendRequest.coinSelector = newCoinSelector(wallet);
+
       // Complete it (works out fee) but DO NOT sign it
       sendRequest.signInputs=false;
       wallet.completeTx(sendRequest);
@@ -722,7 +808,7 @@ public class BitcoinNetworkService extends AbstractService {
               Optional.<FiatPayment>absent(),
               Optional.<Coin>absent(),
               Optional.<Coin>absent(),
-              sendRequestSummary.getDestinationAddress(),
+              sendRequestSummary.getDestinationAddresses(),
               sendRequestSummary.getChangeAddress(),
               false,
               CoreMessageKey.THE_ERROR_WAS.getKey(),
@@ -738,6 +824,28 @@ public class BitcoinNetworkService extends AbstractService {
     return true;
   }
 
+  /**
+   * @param wallet The wallet
+   *
+   * @return A coin selector using the unspent output index of the wallet, brought up to date
+   */
+  private CoinSelector newCoinSelector(Wallet wallet) {
+
+    UnspentOutputIndex unspentOutputIndex;
+    synchronized (unspentOutputIndexes) {
+      unspentOutputIndex = unspentOutputIndexes.get(wallet);
+      if (unspentOutputIndex == null) {
+        unspentOutputIndex = new UnspentOutputIndex();
+        // Only records the changed transaction so it can run while the wallet is locked
+        wallet.addEventListener(unspentOutputIndex.newWalletEventListener(), Threading.SAME_THREAD);
+        unspentOutputIndexes.put(wallet, unspentOutputIndex);
+      }
+    }
+    unspentOutputIndex.update(wallet);
+
+    return new IndexedCoinSelector(unspentOutputIndex, IndexedCoinSelector.Strategy.BRANCH_AND_BOUND);
+  }
+
   /**
    * @param sendRequestSummary The information required to send bitcoin
    * @param wallet             The wallet
@@ -751,12 +859,19 @@ public class BitcoinNetworkService extends AbstractService {
 
     try {
       // Ensure the aeskey for decrypting the keys is present in the sendRequest
-      sendRequest.aesKey = wallet.getKeyCrypter().deriveKey(sendRequestSummary.getPassword());
+      // (reuse the key parameter already derived for this send since the derivation is deliberately slow)
+      if (sendRequestSummary.getKeyParameter().isPresent()) {
+        sendRequest.aesKey = sendRequestSummary.getKeyParameter().get();
+      } else {
+        sendRequest.aesKey = wallet.getKeyCrypter().deriveKey(sendRequestSummary.getPassword());
+      }
 
-      // Sign the transaction
+      // Sign the transaction, in parallel if it has many inputs (e.g. emptying the wallet)
       sendRequest.signInputs=true;
       log.debug("sendRequest just before signing " + sendRequest);
-      wallet.signTransaction(sendRequest);
+      if (!ParallelTransactionSigner.signInputs(wallet, sendRequest.tx, sendRequest.aesKey)) {
+        wallet.signTransaction(sendRequest);
+      }
       // sendRequest.tx.signInputs(Transaction.SigHash.ALL, wallet, sendRequestSummary.getKeyParameter().get());
 
       // Commit to the wallet (informs the wallet of the transaction)
@@ -769,7 +884,7 @@ public class BitcoinNetworkService extends AbstractService {
               sendRequestSummary.getFiatPayment(),
               Optional.of(sendRequest.fee) /* the actual mining fee paid */,
               sendRequestSummary.getClientFeeAdded(),
-              sendRequestSummary.getDestinationAddress(),
+              sendRequestSummary.getDestinationAddresses(),
               sendRequestSummary.getChangeAddress(),
               true,
               null,
@@ -791,7 +906,7 @@ public class BitcoinNetworkService extends AbstractService {
               Optional.<FiatPayment>absent(),
               Optional.<Coin>absent(),
               Optional.<Coin>absent(),
-              sendRequestSummary.getDestinationAddress(),
+              sendRequestSummary.getDestinationAddresses(),
               sendRequestSummary.getChangeAddress(),
               false,
               CoreMessageKey.THE_ERROR_WAS.getKey(),
@@ -826,7 +941,7 @@ public class BitcoinNetworkService extends AbstractService {
 
         // Declare the send a failure
         CoreEvents.fireBitcoinSentEvent(new BitcoinSentEvent(
-                sendRequestSummary.getDestinationAddress(),
+                sendRequestSummary.getDestinationAddresses(),
                 sendRequestSummary.getTotalAmount(),
                 sendRequestSummary.getChangeAddress(),
                 Optional.<Coin>absent(),
@@ -847,7 +962,7 @@ public class BitcoinNetworkService extends AbstractService {
 
       // Declare the send a success
       CoreEvents.fireBitcoinSentEvent(new BitcoinSentEvent(
-              sendRequestSummary.getDestinationAddress(), sendRequestSummary.getTotalAmount(),
+              sendRequestSummary.getDestinationAddresses(), sendRequestSummary.getTotalAmount(),
               sendRequestSummary.getChangeAddress(),
               Optional.of(sendRequest.fee),
               sendRequestSummary.getClientFeeAdded(),
@@ -862,7 +977,7 @@ public class BitcoinNetworkService extends AbstractService {
 
       // Declare the send a failure
       CoreEvents.fireBitcoinSentEvent(new BitcoinSentEvent(
-              sendRequestSummary.getDestinationAddress(), sendRequestSummary.getTotalAmount(),
+              sendRequestSummary.getDestinationAddresses(), sendRequestSummary.getTotalAmount(),
               sendRequestSummary.getChangeAddress(),
               Optional.<Coin>absent(),
               Optional.<Coin>absent(),
@@ -903,16 +1018,135 @@ public class BitcoinNetworkService extends AbstractService {
     peerGroup.setUserAgent(InstallationManager.MBHD_APP_NAME,
             Configurations.currentConfiguration.getAppearance().getVersion());
     peerGroup.setFastCatchupTimeSecs(0); // genesis block
-    peerGroup.setMaxConnections(MAXIMUM_NUMBER_OF_PEERS);
     peerGroup.setUseLocalhostPeerWhenPossible(false);
 
     peerEventListener = new MultiBitPeerEventListener();
     peerGroup.addEventListener(peerEventListener);
 
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
-      Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
+    // Scores the peers, keeps the download peer fast and adapts the number of connections
+    peerScoreKeeper = new PeerScoreKeeper(
+      peerGroup,
+      getScheduledExecutorService(),
+      Configurations.currentConfiguration.isTor() ? PeerScoreKeeper.TOR_PING_TIMEOUT_SECONDS : PeerScoreKeeper.PING_TIMEOUT_SECONDS
+    );
+    peerScoreKeeper.start();
+
+    // The peer group combines the bloom filters of all the attached wallets
+    for (Wallet wallet : getAttachedWallets()) {
       peerGroup.addWallet(wallet);
-      peerGroup.setFastCatchupTimeSecs(wallet.getEarliestKeyCreationTime());
+    }
+    updateFastCatchupTime();
+
+    filterRefreshScheduler = new FilterRefreshScheduler(
+      peerGroup,
+      new Supplier<List<Wallet>>() {
+        @Override
+        public List<Wallet> get() {
+          return getAttachedWallets();
+        }
+      },
+      getScheduledExecutorService(),
+      FilterRefreshScheduler.DEFAULT_WINDOW_MILLIS
+    );
+    // Choose the initial false positive rate from the size of the attached wallets
+    filterRefreshScheduler.requestRefresh();
+  }
+
+  /**
+   * <p>Attach an open wallet to the running block chain and peer group so that it shares the network connection</p>
+   * <p>A wallet can only be attached if it has seen the same chain head as the shared block chain, otherwise it
+   * would miss the blocks in between. In that case the caller should restart the network with the wallet as the
+   * current wallet.</p>
+   *
+   * @param walletSummary The wallet summary
+   *
+   * @return True if the wallet is attached
+   */
+  public boolean addWallet(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkNotNull(walletSummary.getWallet(), "'wallet' must be present");
+
+    if (!startedOk || blockChain == null || peerGroup == null) {
+      return false;
+    }
+
+    Wallet wallet = walletSummary.getWallet();
+
+    synchronized (attachedWallets) {
+
+      Wallet attachedWallet = attachedWallets.get(walletSummary.getWalletId());
+      if (attachedWallet == wallet) {
+        // Already sharing the network
+        return true;
+      }
+
+      int walletHeight = wallet.getLastBlockSeenHeight();
+      int chainHeight = blockChain.getBestChainHeight();
+      if (walletHeight != chainHeight) {
+        log.info("Wallet '{}' has seen height {} but the shared block chain is at {}. Not attaching.",
+          walletSummary.getWalletId(), walletHeight, chainHeight);
+        return false;
+      }
+
+      if (attachedWallet != null) {
+        // The wallet has been reopened so replace the stale instance
+        detach(attachedWallet);
+      }
+
+      blockChain.addWallet(wallet);
+      peerGroup.addWallet(wallet);
+      attachedWallets.put(walletSummary.getWalletId(), wallet);
+    }
+
+    updateFastCatchupTime();
+
+    log.debug("Attached wallet '{}' to the shared block chain", walletSummary.getWalletId());
+
+    return true;
+  }
+
+  /**
+   * @return A snapshot of the wallets attached to the block chain and peer group
+   */
+  public List<Wallet> getAttachedWallets() {
+
+    synchronized (attachedWallets) {
+      return ImmutableList.copyOf(attachedWallets.values());
+    }
+  }
+
+  /**
+   * <p>Remove a wallet from the block chain and peer group</p>
+   *
+   * @param wallet The wallet
+   */
+  private void detach(Wallet wallet) {
+
+    if (blockChain != null) {
+      blockChain.removeWallet(wallet);
+    }
+    if (peerGroup != null) {
+      peerGroup.removeWallet(wallet);
+    }
+  }
+
+  /**
+   * <p>Fast catch up must start from the earliest key in any attached wallet</p>
+   */
+  private void updateFastCatchupTime() {
+
+    if (peerGroup == null) {
+      return;
+    }
+
+    long earliestKeyCreationTime = Long.MAX_VALUE;
+    for (Wallet wallet : getAttachedWallets()) {
+      earliestKeyCreationTime = Math.min(earliestKeyCreationTime, wallet.getEarliestKeyCreationTime());
+    }
+
+    if (earliestKeyCreationTime != Long.MAX_VALUE) {
+      peerGroup.setFastCatchupTimeSecs(earliestKeyCreationTime);
     }
   }
 
@@ -933,31 +1167,24 @@ public class BitcoinNetworkService extends AbstractService {
   }
 
   /**
-   * Ping all connected peers to see if there is an active network connection
+   * Ping all connected peers in parallel to see if there is an active network connection
    *
    * @return true is one or more peers respond to the ping
    */
   public boolean pingPeers() {
 
-    List<Peer> connectedPeers = peerGroup.getConnectedPeers();
-    boolean atLeastOnePingWorked = false;
-    if (connectedPeers != null) {
-      for (Peer peer : connectedPeers) {
-
-        log.debug("Ping: {}", peer.getAddress().toString());
-
-        try {
-          ListenableFuture<Long> result = peer.ping();
-          result.get(4, TimeUnit.SECONDS);
-          atLeastOnePingWorked = true;
-          break;
-        } catch (ProtocolException | InterruptedException | ExecutionException | TimeoutException e) {
-          log.warn("Peer '" + peer.getAddress().toString() + "' failed ping test. Message was " + e.getMessage());
-        }
-      }
+    if (peerScoreKeeper == null) {
+      return false;
     }
 
-    return atLeastOnePingWorked;
+    int responsiveCount = peerScoreKeeper.pingPeers(
+      peerGroup.getConnectedPeers(),
+      peerScoreKeeper.getPingTimeoutSeconds(),
+      TimeUnit.SECONDS
+    );
+    log.debug("Ping: {} of {} peer(s) responded", responsiveCount, peerGroup.numConnectedPeers());
+
+    return responsiveCount > 0;
   }
 
   /**
@@ -983,13 +1210,25 @@ public class BitcoinNetworkService extends AbstractService {
   }
 
   /**
-   * Removes the current wallet from the block chain and closes the block store
+   * Removes the attached wallets from the block chain and closes the block store
    */
   private void closeBlockstore() {
 
-    // Remove the wallet from the block chain
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent() && blockChain != null) {
-      blockChain.removeWallet(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
+    // Remove the wallets from the block chain
+    if (blockChain != null) {
+      for (Wallet wallet : getAttachedWallets()) {
+        blockChain.removeWallet(wallet);
+      }
+    }
+
+    // Close the header index
+    if (headerIndex != null) {
+      try {
+        headerIndex.close();
+      } catch (IOException e) {
+        log.warn("Block header index not closed cleanly", e);
+      }
+      headerIndex = null;
     }
 
     // Close the blockstore
@@ -1006,17 +1245,29 @@ public class BitcoinNetworkService extends AbstractService {
   }
 
   /**
-   * Closes the wallet
+   * Closes the open wallets
    */
-  private void closeWallet() {
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent() && blockChain != null) {
-      try {
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet().shutdownAutosaveAndWait();
-      } catch (IllegalStateException ise) {
-        // If there is no autosaving set up yet then that is ok
-        if (!ise.getMessage().contains("Auto saving not enabled.")) {
-          throw ise;
-        }
+  private void closeWallets() {
+    if (blockChain != null) {
+      for (WalletSummary walletSummary : WalletManager.INSTANCE.getOpenWalletSummaries()) {
+        shutdownAutosave(walletSummary.getWallet());
+      }
+    }
+  }
+
+  /**
+   * @param wallet The wallet to stop auto saving
+   */
+  private void shutdownAutosave(Wallet wallet) {
+    if (wallet == null) {
+      return;
+    }
+    try {
+      wallet.shutdownAutosaveAndWait();
+    } catch (IllegalStateException ise) {
+      // If there is no autosaving set up yet then that is ok
+      if (!ise.getMessage().contains("Auto saving not enabled.")) {
+        throw ise;
       }
     }
   }
@@ -1026,13 +1277,26 @@ public class BitcoinNetworkService extends AbstractService {
    */
   private void stopPeerGroup() {
 
+    if (filterRefreshScheduler != null) {
+      // Do not let a pending refresh reach the stopping peer group
+      filterRefreshScheduler.stop();
+      log.debug("Bloom filter refreshed {} time(s) for {} request(s), sent {} time(s)",
+        filterRefreshScheduler.getRefreshCount(), filterRefreshScheduler.getRequestCount(), filterRefreshScheduler.getSentCount());
+      filterRefreshScheduler = null;
+    }
+
+    if (peerScoreKeeper != null) {
+      peerScoreKeeper.stop();
+      peerScoreKeeper = null;
+    }
+
     if (peerGroup != null) {
       log.debug("Stopping peerGroup service...");
       peerGroup.removeEventListener(peerEventListener);
 
-      // Remove the wallet from the peer group
-      if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
-        peerGroup.removeWallet(WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet());
+      // Remove the wallets from the peer group
+      for (Wallet wallet : getAttachedWallets()) {
+        peerGroup.removeWallet(wallet);
       }
 
       peerGroup.stopAsync();
@@ -1041,7 +1305,7 @@ public class BitcoinNetworkService extends AbstractService {
   }
 
   /**
-   * Restart the network, using the current wallet (specifically the blockstore)
+   * Restart the network, using the current wallet (specifically the blockstore) and any open wallets in step with it
    *
    * @throws BlockStoreException                   If the block store fails
    * @throws IOException                           If the network fails
@@ -1058,12 +1322,27 @@ public class BitcoinNetworkService extends AbstractService {
 
     log.debug("Creating block chain ...");
     blockChain = new BlockChain(networkParameters, blockStore);
+    attachOpenWallets(blockChain);
+    log.debug("Created block chain '{}' with height '{}'", blockChain, blockChain.getBestChainHeight());
 
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
-      Wallet wallet = WalletManager.INSTANCE.getCurrentWalletSummary().get().getWallet();
-      blockChain.addWallet(wallet);
+    if (headerIndex != null) {
+      // Record the best chain so that a later replay can rewind to it
+      indexBlock(blockChain.getChainHead());
+      blockChain.addListener(new AbstractBlockChainListener() {
+        @Override
+        public void notifyNewBestBlock(StoredBlock block) throws VerificationException {
+          indexBlock(block);
+        }
+
+        @Override
+        public void reorganize(StoredBlock splitPoint, List<StoredBlock> oldBlocks, List<StoredBlock> newBlocks) throws VerificationException {
+          // The new blocks are given from the new chain head down
+          for (StoredBlock block : Lists.reverse(newBlocks)) {
+            indexBlock(block);
+          }
+        }
+      });
     }
-    log.debug("Created block chain '{}' with height '{}'", blockChain, blockChain.getBestChainHeight());
 
     log.debug("Creating peer group ...");
     createNewPeerGroup();
@@ -1077,24 +1356,133 @@ public class BitcoinNetworkService extends AbstractService {
   }
 
   /**
-   * <p>Save the current wallet to application directory, create a rolling backup and a cloud backup</p>
+   * <p>Attach the current wallet and the open wallets in step with the block chain and resume their auto saving
+   * (stopping the service stops auto saving on every open wallet)</p>
+   * <p>An open wallet that is not in step (typically the previous wallet after a switch to a wallet with its own
+   * block store) could not be synchronized so it is closed. It has already been saved when the service stopped.
+   * Wallets in step stay open and attached until shutdown.</p>
+   * <p>Reduced visibility for testing</p>
+   *
+   * @param blockChain The new block chain
+   */
+  void attachOpenWallets(BlockChain blockChain) {
+
+    List<WalletSummary> attachedWalletSummaries = Lists.newArrayList();
+    List<WalletSummary> closedWalletSummaries = Lists.newArrayList();
+
+    synchronized (attachedWallets) {
+      attachedWallets.clear();
+
+      if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+        WalletSummary currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary().get();
+        blockChain.addWallet(currentWalletSummary.getWallet());
+        attachedWallets.put(currentWalletSummary.getWalletId(), currentWalletSummary.getWallet());
+        attachedWalletSummaries.add(currentWalletSummary);
+      }
+
+      // Other open wallets share the chain if they have seen the same chain head
+      for (WalletSummary walletSummary : WalletManager.INSTANCE.getOpenWalletSummaries()) {
+        Wallet wallet = walletSummary.getWallet();
+        if (wallet == null || attachedWallets.containsKey(walletSummary.getWalletId())) {
+          continue;
+        }
+        if (wallet.getLastBlockSeenHeight() == blockChain.getBestChainHeight()) {
+          blockChain.addWallet(wallet);
+          attachedWallets.put(walletSummary.getWalletId(), wallet);
+          attachedWalletSummaries.add(walletSummary);
+        } else {
+          log.info("Open wallet '{}' is not in step with the block store so will be closed", walletSummary.getWalletId());
+          closedWalletSummaries.add(walletSummary);
+        }
+      }
+    }
+
+    // Forget the wallets that cannot share the network (and their passwords)
+    for (WalletSummary walletSummary : closedWalletSummaries) {
+      WalletManager.INSTANCE.closeWallet(walletSummary.getWalletId());
+    }
+
+    // Attached wallets must persist the transactions they now receive
+    for (WalletSummary walletSummary : attachedWalletSummaries) {
+      WalletManager.INSTANCE.resumeAutosave(walletSummary);
+    }
+  }
+
+  /**
+   * <p>Open the block header index alongside the block store</p>
+   *
+   * @param walletRoot The wallet root directory containing the block store
+   */
+  private void openHeaderIndex(String walletRoot) {
+
+    if (headerIndex != null) {
+      return;
+    }
+
+    File headerIndexFile = new File(walletRoot + File.separator + InstallationManager.MBHD_PREFIX + InstallationManager.SPV_HEADER_INDEX_SUFFIX);
+    try {
+      headerIndex = new BlockHeaderIndex(networkParameters, headerIndexFile);
+    } catch (IOException e) {
+      // The index is an optimisation so carry on without it
+      log.warn("Could not open block header index '{}'", headerIndexFile.getAbsolutePath(), e);
+    }
+  }
+
+  /**
+   * @param block The block on the best chain to add to the header index
+   */
+  private void indexBlock(StoredBlock block) {
+
+    BlockHeaderIndex currentHeaderIndex = headerIndex;
+    if (currentHeaderIndex == null) {
+      return;
+    }
+
+    try {
+      currentHeaderIndex.put(block);
+    } catch (IOException e) {
+      log.warn("Could not index block at height {}", block.getHeight(), e);
+    }
+  }
+
+  /**
+   * <p>Save the open wallets, finishing with the current wallet</p>
+   */
+  private void saveWallets() {
+
+    Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+
+    for (WalletSummary walletSummary : WalletManager.INSTANCE.getOpenWalletSummaries()) {
+      if (!currentWalletSummary.isPresent() || !walletSummary.getWalletId().equals(currentWalletSummary.get().getWalletId())) {
+        saveWallet(walletSummary);
+      }
+    }
+
+    // Save the current wallet last so that it is the one remembered for backups
+    if (currentWalletSummary.isPresent()) {
+      saveWallet(currentWalletSummary.get());
+    }
+  }
+
+  /**
+   * <p>Save a wallet to application directory, create a rolling backup and a cloud backup</p>
+   *
+   * @param walletSummary The wallet summary
    */
-  private void saveWallet() {
+  private void saveWallet(WalletSummary walletSummary) {
 
-    // Save the current wallet immediately
-    if (WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+    if (walletSummary.getWallet() != null) {
 
-      WalletSummary walletSummary = WalletManager.INSTANCE.getCurrentWalletSummary().get();
       WalletId walletId = walletSummary.getWalletId();
       log.debug("Saving wallet with id '" + walletId + "'.");
 
       try {
         File applicationDataDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
-        File currentWalletFile = WalletManager.INSTANCE.getCurrentWalletFile(applicationDataDirectory).get();
-        walletSummary.getWallet().saveToFile(currentWalletFile);
-        File encryptedAESCopy = EncryptedFileReaderWriter.makeAESEncryptedCopyAndDeleteOriginal(currentWalletFile, walletSummary.getPassword());
-        log.debug("Created AES encrypted wallet as file '{}', size {}", encryptedAESCopy == null ? "null" : encryptedAESCopy.getAbsolutePath(),
-                encryptedAESCopy == null ? "null" : encryptedAESCopy.length());
+        File walletDirectory = WalletManager.getOrCreateWalletDirectory(applicationDataDirectory, WalletManager.createWalletRoot(walletId));
+        File walletFile = new File(walletDirectory, WalletManager.MBHD_WALLET_NAME);
+        File encryptedAESCopy = new File(walletFile.getAbsolutePath() + WalletManager.MBHD_AES_SUFFIX);
+        EncryptedFileReaderWriter.encryptAndWrite(walletSummary.getWallet(), walletSummary.getPassword(), encryptedAESCopy);
+        log.debug("Created AES encrypted wallet as file '{}', size {}", encryptedAESCopy.getAbsolutePath(), encryptedAESCopy.length());
 
         BackupService backupService = CoreServices.getOrCreateBackupService();
         backupService.rememberWalletSummaryAndPasswordForRollingBackup(walletSummary, walletSummary.getPassword());
@@ -0,0 +1,233 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.crypto.ChildNumber;
+import com.google.bitcoin.crypto.DeterministicKey;
+import com.google.bitcoin.crypto.HDKeyDerivation;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import org.multibit.hd.core.dto.Contact;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * <p>Index to provide the following to ContactService:</p>
+ * <ul>
+ * <li>Constant time lookup of contacts by Bitcoin address</li>
+ * <li>Addresses derived from each contact's extended public key</li>
+ * <li>Constant time lookup of contacts by exact (case insensitive) name</li>
+ * </ul>
+ * <p>An extended public key is expected to be at account level so a window of the first
+ * {@link #EXTENDED_PUBLIC_KEY_WINDOW} addresses on its external chain is indexed. This matches the gap limit a
+ * wallet uses when handing out receiving addresses. The derived addresses are retained while the key is unchanged
+ * so that an edit to other details does not derive them again.</p>
+ *
+ * @since 0.0.1
+ */
+public class ContactIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(ContactIndex.class);
+
+  /**
+   * The number of external chain addresses indexed for each extended public key
+   */
+  public static final int EXTENDED_PUBLIC_KEY_WINDOW = 20;
+
+  private final NetworkParameters networkParameters;
+
+  /**
+   * The contacts for each indexed address
+   */
+  private final SetMultimap<String, Contact> contactsByAddress = HashMultimap.create();
+
+  /**
+   * The contacts for each lower case name
+   */
+  private final SetMultimap<String, Contact> contactsByName = HashMultimap.create();
+
+  /**
+   * The indexed keys of each contact by ID so that an edited contact can be removed
+   */
+  private final Map<UUID, Entry> entries = Maps.newHashMap();
+
+  /**
+   * @param networkParameters The network parameters for derived addresses
+   */
+  public ContactIndex(NetworkParameters networkParameters) {
+
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+
+    this.networkParameters = networkParameters;
+  }
+
+  /**
+   * <p>Add or re-index the given contacts</p>
+   *
+   * @param contacts The new or edited contacts
+   */
+  public synchronized void addAll(Collection<Contact> contacts) {
+
+    Preconditions.checkNotNull(contacts, "'contacts' must be present");
+
+    for (Contact contact : contacts) {
+      add(contact);
+    }
+  }
+
+  /**
+   * @param contacts The contacts to remove
+   */
+  public synchronized void removeAll(Collection<Contact> contacts) {
+
+    Preconditions.checkNotNull(contacts, "'contacts' must be present");
+
+    for (Contact contact : contacts) {
+      remove(contact.getId());
+    }
+  }
+
+  /**
+   * <p>Remove all contacts</p>
+   */
+  public synchronized void clear() {
+
+    contactsByAddress.clear();
+    contactsByName.clear();
+    entries.clear();
+  }
+
+  /**
+   * @param address The Bitcoin address
+   *
+   * @return The contacts with the address, either directly or derived from their extended public key
+   */
+  public synchronized List<Contact> filterByAddress(String address) {
+
+    return Lists.newArrayList(contactsByAddress.get(address));
+  }
+
+  /**
+   * @param name The name
+   *
+   * @return The contacts with exactly the given name ignoring case
+   */
+  public synchronized List<Contact> filterByName(String name) {
+
+    return Lists.newArrayList(contactsByName.get(name.toLowerCase()));
+  }
+
+  private void add(Contact contact) {
+
+    Entry previousEntry = remove(contact.getId());
+
+    String extendedPublicKey = Strings.nullToEmpty(contact.getExtendedPublicKey().orNull()).trim();
+
+    // Only derive the addresses again if the extended public key has changed
+    final List<String> derivedAddresses;
+    if (previousEntry != null && previousEntry.extendedPublicKey.equals(extendedPublicKey)) {
+      derivedAddresses = previousEntry.derivedAddresses;
+    } else {
+      derivedAddresses = deriveAddresses(extendedPublicKey);
+    }
+
+    Entry entry = new Entry(
+      contact.getName() == null ? "" : contact.getName().toLowerCase(),
+      Strings.nullToEmpty(contact.getBitcoinAddress().orNull()).trim(),
+      extendedPublicKey,
+      derivedAddresses
+    );
+    entries.put(contact.getId(), entry);
+
+    contactsByName.put(entry.name, contact);
+    if (!entry.bitcoinAddress.isEmpty()) {
+      contactsByAddress.put(entry.bitcoinAddress, contact);
+    }
+    for (String derivedAddress : derivedAddresses) {
+      contactsByAddress.put(derivedAddress, contact);
+    }
+  }
+
+  private Entry remove(UUID id) {
+
+    Entry entry = entries.remove(id);
+    if (entry == null) {
+      return null;
+    }
+
+    // Contacts are equal by ID so the removed contact need not be the indexed instance
+    removeById(contactsByName.get(entry.name), id);
+    if (!entry.bitcoinAddress.isEmpty()) {
+      removeById(contactsByAddress.get(entry.bitcoinAddress), id);
+    }
+    for (String derivedAddress : entry.derivedAddresses) {
+      removeById(contactsByAddress.get(derivedAddress), id);
+    }
+
+    return entry;
+  }
+
+  private static void removeById(Set<Contact> contacts, UUID id) {
+
+    contacts.remove(new Contact(id, ""));
+  }
+
+  /**
+   * @param extendedPublicKey The Base58 account level extended public key (may be empty)
+   *
+   * @return The addresses in the window of the external chain, empty if the key is absent or not valid
+   */
+  private List<String> deriveAddresses(String extendedPublicKey) {
+
+    if (extendedPublicKey.isEmpty()) {
+      return ImmutableList.of();
+    }
+
+    try {
+      DeterministicKey accountKey = DeterministicKey.deserializeB58(null, extendedPublicKey);
+      DeterministicKey externalChainKey = HDKeyDerivation.deriveChildKey(accountKey, ChildNumber.ZERO);
+
+      ImmutableList.Builder<String> derivedAddresses = ImmutableList.builder();
+      for (int i = 0; i < EXTENDED_PUBLIC_KEY_WINDOW; i++) {
+        DeterministicKey key = HDKeyDerivation.deriveChildKey(externalChainKey, new ChildNumber(i, false));
+        derivedAddresses.add(key.toAddress(networkParameters).toString());
+      }
+
+      return derivedAddresses.build();
+
+    } catch (RuntimeException e) {
+      // An invalid key is shown to the user when editing so only its direct address is indexed
+      log.warn("Could not derive addresses from extended public key: {}", e.getMessage());
+      return ImmutableList.of();
+    }
+  }
+
+  /**
+   * The keys under which a contact was indexed
+   */
+  private static class Entry {
+
+    private final String name;
+    private final String bitcoinAddress;
+    private final String extendedPublicKey;
+    private final List<String> derivedAddresses;
+
+    private Entry(String name, String bitcoinAddress, String extendedPublicKey, List<String> derivedAddresses) {
+      this.name = name;
+      this.bitcoinAddress = bitcoinAddress;
+      this.extendedPublicKey = extendedPublicKey;
+      this.derivedAddresses = derivedAddresses;
+    }
+  }
+
+}
@@ -40,6 +40,9 @@ public interface ContactService {
   List<Contact> allContacts();
 
   /**
+   * <p>Find the contacts using a Bitcoin address, either directly or from a window of the addresses derived from
+   * their extended public key</p>
+   *
    * @param address The Bitcoin address to query on
    *
    * @return A filtered set of Contacts for the given query
@@ -352,13 +352,28 @@ public class CoreServices {
 
     Preconditions.checkNotNull(walletId, "'walletId' must be present");
 
+    // Each wallet service reads its own wallet and password rather than those of the current wallet
+    Optional<WalletSummary> walletSummary = WalletManager.INSTANCE.getOpenWalletSummary(walletId);
+
     // Check if the wallet service has been created for this wallet ID
     if (!walletServiceMap.containsKey(walletId)) {
+      Preconditions.checkState(walletSummary.isPresent(), "'walletSummary' must be present. The wallet is not open.");
+
       File applicationDirectory = InstallationManager.getOrCreateApplicationDataDirectory();
 
       WalletService walletService = new WalletService(BitcoinNetwork.current().get());
-      walletService.initialise(applicationDirectory, walletId);
+      walletService.initialise(applicationDirectory, walletSummary.get());
       walletServiceMap.put(walletId, walletService);
+
+      // Name contacts in sent payments (if the contacts are already open)
+      if (contactServiceMap.containsKey(walletId)) {
+        walletService.setContactService(contactServiceMap.get(walletId));
+      }
+    }
+
+    // A wallet opened again has a new summary
+    if (walletSummary.isPresent()) {
+      walletServiceMap.get(walletId).setWalletSummary(walletSummary.get());
     }
 
     // Return the existing or new wallet service
@@ -399,13 +414,32 @@ public class CoreServices {
 
     // Check if the contact service has been created for this wallet ID
     if (!contactServiceMap.containsKey(walletId)) {
-      contactServiceMap.put(walletId, new PersistentContactService(walletId));
+      ContactService contactService = new PersistentContactService(walletId);
+      contactServiceMap.put(walletId, contactService);
+
+      // Name contacts in sent payments (if the payments are already open)
+      if (walletServiceMap.containsKey(walletId)) {
+        walletServiceMap.get(walletId).setContactService(contactService);
+      }
     }
 
     // Return the existing or new contact service
     return contactServiceMap.get(walletId);
   }
 
+  /**
+   * <p>Payment descriptions name the contacts they were sent to so they must be built again after a contact change</p>
+   *
+   * @param walletId The wallet ID of the contact service that changed
+   */
+  static void onContactsChanged(WalletId walletId) {
+
+    WalletService walletService = walletServiceMap.get(walletId);
+    if (walletService != null) {
+      walletService.invalidatePaymentDataList();
+    }
+  }
+
   /**
    * @return A BRIT fee service pointing to the live Matcher machine
    */
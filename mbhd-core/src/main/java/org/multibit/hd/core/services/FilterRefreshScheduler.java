@@ -0,0 +1,283 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.BloomFilter;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.Wallet;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Scheduler to provide the following to Bitcoin network service:</p>
+ * <ul>
+ * <li>Coalescing of bloom filter refresh requests arriving within a window into a single refresh</li>
+ * <li>A false positive rate chosen from the number of filter elements in the attached wallets</li>
+ * <li>Sending the filter to peers only when its content has changed since the last refresh</li>
+ * <li>Filter size, false positive rate and refresh counts as metrics</li>
+ * </ul>
+ * <p>The peer group already sends a changed filter when keys are added to a wallet so a burst of new receiving
+ * addresses (e.g. several payment requests) would otherwise cause the same filter to be sent repeatedly.</p>
+ *
+ * @since 0.0.1
+ */
+public class FilterRefreshScheduler {
+
+  private static final Logger log = LoggerFactory.getLogger(FilterRefreshScheduler.class);
+
+  /**
+   * The window within which refresh requests are coalesced
+   */
+  public static final long DEFAULT_WINDOW_MILLIS = 2000;
+
+  /**
+   * Wallets with up to this many filter elements use the small wallet false positive rate
+   */
+  public static final int SMALL_WALLET_ELEMENT_COUNT = 200;
+
+  /**
+   * Wallets with more than this many filter elements use the large wallet false positive rate
+   */
+  public static final int LARGE_WALLET_ELEMENT_COUNT = 2000;
+
+  /**
+   * A small wallet has few true matches so a higher rate keeps them hidden among the false positives
+   */
+  public static final double SMALL_WALLET_FALSE_POSITIVE_RATE = 0.001;
+
+  /**
+   * The bitcoinj default
+   */
+  public static final double MEDIUM_WALLET_FALSE_POSITIVE_RATE = 0.0005;
+
+  /**
+   * A large wallet already has many true matches so a lower rate reduces the bandwidth spent on false positives
+   */
+  public static final double LARGE_WALLET_FALSE_POSITIVE_RATE = 0.0001;
+
+  /**
+   * The tweak used to fingerprint the filter content (the peer group uses its own tweak for the filter it sends)
+   */
+  private static final long FINGERPRINT_TWEAK = 0x4d424844L;
+
+  private final PeerGroup peerGroup;
+  private final Supplier<List<Wallet>> walletSupplier;
+  private final ListeningScheduledExecutorService executorService;
+  private final long windowMillis;
+
+  /**
+   * The refresh waiting for the window to close (guarded by this)
+   */
+  private ListenableFuture<Boolean> pendingRefresh = null;
+
+  /**
+   * True once stopped so that no further refresh reaches the peer group (guarded by this)
+   */
+  private boolean stopped = false;
+
+  /**
+   * The fingerprint of the filter at the last refresh (only accessed from the refresh)
+   */
+  private BloomFilter lastFilter = null;
+
+  private volatile int requestCount = 0;
+  private volatile int coalescedCount = 0;
+  private volatile int refreshCount = 0;
+  private volatile int sentCount = 0;
+  private volatile int elementCount = 0;
+  private volatile int filterSize = 0;
+  private volatile double falsePositiveRate = MEDIUM_WALLET_FALSE_POSITIVE_RATE;
+
+  /**
+   * @param peerGroup       The peer group sending the filter
+   * @param walletSupplier  The supplier of the wallets attached to the peer group
+   * @param executorService The scheduled executor service running the refreshes
+   * @param windowMillis    The window within which refresh requests are coalesced
+   */
+  public FilterRefreshScheduler(
+    PeerGroup peerGroup,
+    Supplier<List<Wallet>> walletSupplier,
+    ListeningScheduledExecutorService executorService,
+    long windowMillis
+  ) {
+
+    Preconditions.checkNotNull(peerGroup, "'peerGroup' must be present");
+    Preconditions.checkNotNull(walletSupplier, "'walletSupplier' must be present");
+    Preconditions.checkNotNull(executorService, "'executorService' must be present");
+    Preconditions.checkArgument(windowMillis >= 0, "'windowMillis' must not be negative");
+
+    this.peerGroup = peerGroup;
+    this.walletSupplier = walletSupplier;
+    this.executorService = executorService;
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * <p>Request a filter refresh at the end of the current window</p>
+   *
+   * @return A future providing true if the refreshed filter had changed (shared by all requests in the window)
+   */
+  public synchronized ListenableFuture<Boolean> requestRefresh() {
+
+    if (stopped) {
+      return Futures.immediateFuture(false);
+    }
+
+    requestCount++;
+
+    if (pendingRefresh != null) {
+      coalescedCount++;
+      return pendingRefresh;
+    }
+
+    pendingRefresh = executorService.schedule(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return refresh();
+      }
+    }, windowMillis, TimeUnit.MILLISECONDS);
+
+    return pendingRefresh;
+  }
+
+  /**
+   * <p>Cancel any refresh waiting for the window to close and ignore further requests (the peer group is stopping)</p>
+   */
+  public synchronized void stop() {
+
+    stopped = true;
+
+    if (pendingRefresh != null) {
+      pendingRefresh.cancel(false);
+      pendingRefresh = null;
+    }
+  }
+
+  /**
+   * @return The number of refreshes requested
+   */
+  public int getRequestCount() {
+    return requestCount;
+  }
+
+  /**
+   * @return The number of requests served by a refresh already waiting in the window
+   */
+  public int getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /**
+   * @return The number of refreshes performed
+   */
+  public int getRefreshCount() {
+    return refreshCount;
+  }
+
+  /**
+   * @return The number of refreshes that found a changed filter and sent it to the peers
+   */
+  public int getSentCount() {
+    return sentCount;
+  }
+
+  /**
+   * @return The number of filter elements at the last refresh
+   */
+  public int getElementCount() {
+    return elementCount;
+  }
+
+  /**
+   * @return The serialized size of the filter in bytes at the last refresh
+   */
+  public int getFilterSize() {
+    return filterSize;
+  }
+
+  /**
+   * @return The false positive rate at the last refresh
+   */
+  public double getFalsePositiveRate() {
+    return falsePositiveRate;
+  }
+
+  /**
+   * @param elementCount The number of filter elements in the attached wallets
+   *
+   * @return The false positive rate to use for the filter
+   */
+  static double calculateFalsePositiveRate(int elementCount) {
+
+    if (elementCount <= SMALL_WALLET_ELEMENT_COUNT) {
+      return SMALL_WALLET_FALSE_POSITIVE_RATE;
+    }
+    if (elementCount <= LARGE_WALLET_ELEMENT_COUNT) {
+      return MEDIUM_WALLET_FALSE_POSITIVE_RATE;
+    }
+    return LARGE_WALLET_FALSE_POSITIVE_RATE;
+  }
+
+  /**
+   * @return True if the filter had changed and was sent to the peers
+   */
+  private boolean refresh() {
+
+    synchronized (this) {
+      if (stopped) {
+        return false;
+      }
+      // Requests from now on start a new window
+      pendingRefresh = null;
+    }
+
+    refreshCount++;
+
+    List<Wallet> wallets = walletSupplier.get();
+
+    int count = 0;
+    for (Wallet wallet : wallets) {
+      count += wallet.getBloomFilterElementCount();
+    }
+    double rate = calculateFalsePositiveRate(count);
+
+    // Fingerprint the combined filter to detect a change in content as well as size
+    BloomFilter filter = new BloomFilter(Math.max(count, 1), rate, FINGERPRINT_TWEAK);
+    for (Wallet wallet : wallets) {
+      if (wallet.getBloomFilterElementCount() > 0) {
+        filter.merge(wallet.getBloomFilter(Math.max(count, 1), rate, FINGERPRINT_TWEAK));
+      }
+    }
+
+    elementCount = count;
+    filterSize = filter.bitcoinSerialize().length;
+
+    boolean changed = !filter.equals(lastFilter);
+    lastFilter = filter;
+
+    if (changed) {
+      sentCount++;
+      if (rate != falsePositiveRate) {
+        // The peer group recalculates the filter for the new rate
+        falsePositiveRate = rate;
+        peerGroup.setBloomFilterFalsePositiveRate(rate);
+      } else {
+        // The peer group sends the filter to any peer that has not seen it yet
+        peerGroup.recalculateFastCatchupAndFilter(PeerGroup.FilterRecalculateMode.SEND_IF_CHANGED);
+      }
+    }
+
+    log.debug("Filter refresh {}: {} element(s), {} byte(s), false positive rate {}, {} request(s) ({} coalesced), {} sent",
+      changed ? "sent" : "skipped", elementCount, filterSize, falsePositiveRate, requestCount, coalescedCount, sentCount);
+
+    return changed;
+  }
+
+}
@@ -0,0 +1,297 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.Coin;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.core.TransactionOutput;
+import com.google.bitcoin.wallet.CoinSelection;
+import com.google.bitcoin.wallet.CoinSelector;
+import com.google.bitcoin.wallet.DefaultCoinSelector;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Coin selector to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Selection from an {@link UnspentOutputIndex} rather than sorting every candidate on each attempt</li>
+ * <li>A choice of strategy (branch and bound, largest first or consolidation)</li>
+ * <li>Confirmed outputs before pending ones</li>
+ * </ul>
+ * <p>Only outputs offered by the wallet as candidates and selectable by the rules of the default selector are used.
+ * If the index cannot reach the target the default selector is used instead so a stale index never fails a send.</p>
+ *
+ * @since 0.0.1
+ */
+public class IndexedCoinSelector implements CoinSelector {
+
+  private static final Logger log = LoggerFactory.getLogger(IndexedCoinSelector.class);
+
+  /**
+   * The cost of creating a change output, so a selection within this amount of the target needs no change
+   */
+  public static final Coin DEFAULT_COST_OF_CHANGE = Transaction.MIN_NONDUST_OUTPUT;
+
+  /**
+   * The largest number of outputs considered by branch and bound
+   */
+  public static final int MAXIMUM_BRANCH_AND_BOUND_OUTPUTS = 1000;
+
+  /**
+   * The number of branches explored before branch and bound gives up
+   */
+  public static final int MAXIMUM_BRANCH_AND_BOUND_TRIES = 100000;
+
+  /**
+   * <p>Coin selection strategies</p>
+   */
+  public enum Strategy {
+
+    /**
+     * Search for a set of outputs that matches the target without change, otherwise largest first
+     */
+    BRANCH_AND_BOUND,
+
+    /**
+     * The fewest outputs (smallest transaction)
+     */
+    LARGEST_FIRST,
+
+    /**
+     * The smallest outputs first to reduce the number of outputs in the wallet while fees are low
+     */
+    CONSOLIDATE,
+
+    // End of enum
+    ;
+
+  }
+
+  private final UnspentOutputIndex unspentOutputIndex;
+
+  private final Strategy strategy;
+
+  private final Coin costOfChange;
+
+  private final CoinSelector fallbackCoinSelector = new DefaultCoinSelector();
+
+  /**
+   * @param unspentOutputIndex The index, brought up to date by the caller
+   * @param strategy           The strategy
+   */
+  public IndexedCoinSelector(UnspentOutputIndex unspentOutputIndex, Strategy strategy) {
+    this(unspentOutputIndex, strategy, DEFAULT_COST_OF_CHANGE);
+  }
+
+  /**
+   * @param unspentOutputIndex The index, brought up to date by the caller
+   * @param strategy           The strategy
+   * @param costOfChange       The excess that branch and bound accepts instead of a change output
+   */
+  public IndexedCoinSelector(UnspentOutputIndex unspentOutputIndex, Strategy strategy, Coin costOfChange) {
+
+    Preconditions.checkNotNull(unspentOutputIndex, "'unspentOutputIndex' must be present");
+    Preconditions.checkNotNull(strategy, "'strategy' must be present");
+    Preconditions.checkNotNull(costOfChange, "'costOfChange' must be present");
+
+    this.unspentOutputIndex = unspentOutputIndex;
+    this.strategy = strategy;
+    this.costOfChange = costOfChange;
+  }
+
+  @Override
+  public CoinSelection select(Coin target, LinkedList<TransactionOutput> candidates) {
+
+    // The wallet may have excluded some outputs (e.g. those already spent by the request)
+    Set<TransactionOutput> candidateSet = Sets.newIdentityHashSet();
+    candidateSet.addAll(candidates);
+
+    List<TransactionOutput> confirmed = selectable(unspentOutputIndex.getConfirmedLargestFirst(), candidateSet);
+    List<TransactionOutput> pending = selectable(unspentOutputIndex.getPendingLargestFirst(), candidateSet);
+
+    List<TransactionOutput> largestFirst = Lists.newArrayListWithCapacity(confirmed.size() + pending.size());
+    largestFirst.addAll(confirmed);
+    largestFirst.addAll(pending);
+
+    Coin available = sum(largestFirst);
+    if (available.compareTo(target) < 0) {
+      if (available.compareTo(sum(selectable(candidates, candidateSet))) < 0) {
+        log.debug("Unspent output index is missing outputs. Using the default coin selector.");
+        return fallbackCoinSelector.select(target, candidates);
+      }
+      // Not enough funds (or emptying the wallet) so everything is gathered
+      return new CoinSelection(available, largestFirst);
+    }
+
+    List<TransactionOutput> gathered = null;
+    switch (strategy) {
+      case BRANCH_AND_BOUND:
+        gathered = branchAndBound(confirmed, target);
+        if (gathered == null && !pending.isEmpty()) {
+          gathered = branchAndBound(largestFirst, target);
+        }
+        if (gathered == null) {
+          gathered = accumulate(largestFirst, target);
+        }
+        break;
+      case LARGEST_FIRST:
+        gathered = accumulate(largestFirst, target);
+        break;
+      case CONSOLIDATE:
+        List<TransactionOutput> smallestFirst = Lists.newArrayList(Lists.reverse(confirmed));
+        smallestFirst.addAll(Lists.reverse(pending));
+        gathered = accumulate(smallestFirst, target);
+        break;
+      default:
+        throw new IllegalStateException("Unknown strategy: " + strategy);
+    }
+
+    return new CoinSelection(sum(gathered), gathered);
+  }
+
+  /**
+   * @param outputs The outputs in order of preference
+   * @param target  The target value
+   *
+   * @return The outputs in order until the target is reached
+   */
+  private static List<TransactionOutput> accumulate(List<TransactionOutput> outputs, Coin target) {
+
+    List<TransactionOutput> gathered = Lists.newArrayList();
+    long remaining = target.longValue();
+    for (TransactionOutput output : outputs) {
+      if (remaining <= 0) {
+        break;
+      }
+      gathered.add(output);
+      remaining -= output.getValue().longValue();
+    }
+
+    return gathered;
+  }
+
+  /**
+   * <p>Depth first search over include/exclude decisions, taking the largest outputs first and pruning any branch
+   * that overshoots the target by more than the cost of change or cannot reach the target</p>
+   *
+   * @param largestFirst The outputs from the largest value to the smallest
+   * @param target       The target value
+   *
+   * @return The outputs with the smallest excess over the target within the cost of change, or null if none found
+   */
+  private List<TransactionOutput> branchAndBound(List<TransactionOutput> largestFirst, Coin target) {
+
+    int count = Math.min(largestFirst.size(), MAXIMUM_BRANCH_AND_BOUND_OUTPUTS);
+
+    long[] values = new long[count];
+    // The total of the values from each position to the end
+    long[] remaining = new long[count + 1];
+    for (int i = 0; i < count; i++) {
+      values[i] = largestFirst.get(i).getValue().longValue();
+    }
+    for (int i = count - 1; i >= 0; i--) {
+      remaining[i] = remaining[i + 1] + values[i];
+    }
+
+    BranchAndBoundSearch search = new BranchAndBoundSearch(values, remaining, target.longValue(), target.add(costOfChange).longValue());
+    search.search(0, 0L);
+
+    if (search.best == null) {
+      return null;
+    }
+
+    List<TransactionOutput> gathered = Lists.newArrayList();
+    for (int i = 0; i < count; i++) {
+      if (search.best[i]) {
+        gathered.add(largestFirst.get(i));
+      }
+    }
+
+    log.debug("Branch and bound selected {} output(s) with an excess of {} after {} tries", gathered.size(), search.bestExcess, search.tries);
+
+    return gathered;
+  }
+
+  /**
+   * @return The outputs that are candidates and selectable in their original order
+   */
+  private static List<TransactionOutput> selectable(List<TransactionOutput> outputs, Set<TransactionOutput> candidateSet) {
+
+    List<TransactionOutput> selectable = Lists.newArrayListWithCapacity(outputs.size());
+    for (TransactionOutput output : outputs) {
+      if (candidateSet.contains(output) && DefaultCoinSelector.isSelectable(output.getParentTransaction())) {
+        selectable.add(output);
+      }
+    }
+
+    return selectable;
+  }
+
+  private static Coin sum(List<TransactionOutput> outputs) {
+
+    long total = 0;
+    for (TransactionOutput output : outputs) {
+      total += output.getValue().longValue();
+    }
+
+    return Coin.valueOf(total);
+  }
+
+  /**
+   * The state of a single branch and bound search
+   */
+  private static class BranchAndBoundSearch {
+
+    private final long[] values;
+    private final long[] remaining;
+    private final long target;
+    private final long upperBound;
+
+    private final boolean[] current;
+    private boolean[] best = null;
+    private long bestExcess = Long.MAX_VALUE;
+    private int tries = 0;
+
+    private BranchAndBoundSearch(long[] values, long[] remaining, long target, long upperBound) {
+      this.values = values;
+      this.remaining = remaining;
+      this.target = target;
+      this.upperBound = upperBound;
+      this.current = new boolean[values.length];
+    }
+
+    private void search(int position, long total) {
+
+      if (bestExcess == 0 || tries++ >= MAXIMUM_BRANCH_AND_BOUND_TRIES) {
+        return;
+      }
+      if (total > upperBound) {
+        // Overshot by more than the cost of change
+        return;
+      }
+      if (total >= target) {
+        if (total - target < bestExcess) {
+          bestExcess = total - target;
+          best = current.clone();
+        }
+        return;
+      }
+      if (position == values.length || total + remaining[position] < target) {
+        // The target can no longer be reached
+        return;
+      }
+
+      current[position] = true;
+      search(position + 1, total + values[position]);
+      current[position] = false;
+
+      search(position + 1, total);
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.crypto.TransactionSignature;
+import com.google.bitcoin.script.Script;
+import com.google.bitcoin.script.ScriptBuilder;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>Signer to provide the following to BitcoinNetworkService:</p>
+ * <ul>
+ * <li>Signing of transactions with many inputs across all available cores</li>
+ * <li>A single decryption of each key however many inputs it signs</li>
+ * </ul>
+ * <p>The signature hashes are calculated one input at a time since the transaction is modified while each hash is
+ * calculated. Only the ECDSA signatures are made in parallel. Signatures are deterministic (RFC 6979) so the signed
+ * transaction is identical to one signed by the wallet.</p>
+ * <p>Only pay to address and pay to public key outputs are supported. Any other input is left to the wallet.</p>
+ *
+ * @since 0.0.1
+ */
+public class ParallelTransactionSigner {
+
+  private static final Logger log = LoggerFactory.getLogger(ParallelTransactionSigner.class);
+
+  /**
+   * The number of inputs below which the wallet signs the transaction on the calling thread
+   */
+  public static final int PARALLEL_SIGNING_THRESHOLD = 8;
+
+  /**
+   * The number of signatures made by each fork join task
+   */
+  private static final int SIGNATURES_PER_TASK = 4;
+
+  /**
+   * Worker threads are daemons so an idle pool does not prevent a shutdown
+   */
+  private static final ForkJoinPool signingPool = new ForkJoinPool();
+
+  /**
+   * Utilities have private constructors
+   */
+  private ParallelTransactionSigner() {
+  }
+
+  /**
+   * <p>Sign all the inputs of a completed transaction</p>
+   *
+   * @param wallet The wallet holding the keys of the connected outputs
+   * @param tx     The transaction with connected inputs
+   * @param aesKey The key parameter to decrypt the wallet keys (null if the wallet is not encrypted)
+   *
+   * @return True if the transaction was signed, false if it is small or has inputs that must be signed by the wallet
+   */
+  public static boolean signInputs(Wallet wallet, Transaction tx, KeyParameter aesKey) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+    Preconditions.checkNotNull(tx, "'tx' must be present");
+
+    int inputCount = tx.getInputs().size();
+    if (inputCount < PARALLEL_SIGNING_THRESHOLD) {
+      return false;
+    }
+
+    // Find and decrypt the keys before anything is changed
+    ECKey[] keys = new ECKey[inputCount];
+    boolean[] payToAddress = new boolean[inputCount];
+    Map<ECKey, ECKey> decryptedKeys = Maps.newHashMap();
+    for (int i = 0; i < inputCount; i++) {
+
+      TransactionOutput connectedOutput = tx.getInput(i).getConnectedOutput();
+      if (connectedOutput == null) {
+        log.debug("Input {} is not connected", i);
+        return false;
+      }
+
+      Script script = connectedOutput.getScriptPubKey();
+      ECKey key;
+      if (script.isSentToAddress()) {
+        key = wallet.findKeyFromPubHash(script.getPubKeyHash());
+        payToAddress[i] = true;
+      } else if (script.isSentToRawPubKey()) {
+        key = wallet.findKeyFromPubKey(script.getPubKey());
+      } else {
+        log.debug("Input {} has an unsupported script", i);
+        return false;
+      }
+      if (key == null) {
+        log.debug("No key for input {}", i);
+        return false;
+      }
+
+      ECKey decryptedKey = decryptedKeys.get(key);
+      if (decryptedKey == null) {
+        if (key.isEncrypted()) {
+          if (aesKey == null) {
+            log.debug("No key parameter for an encrypted key");
+            return false;
+          }
+          decryptedKey = key.decrypt(wallet.getKeyCrypter(), aesKey);
+        } else {
+          decryptedKey = key;
+        }
+        decryptedKeys.put(key, decryptedKey);
+      }
+      keys[i] = decryptedKey;
+    }
+
+    // The signature hash blanks the other input scripts while it is calculated so cannot run in parallel
+    Sha256Hash[] hashes = new Sha256Hash[inputCount];
+    for (int i = 0; i < inputCount; i++) {
+      byte[] connectedScript = tx.getInput(i).getConnectedOutput().getScriptBytes();
+      hashes[i] = tx.hashForSignature(i, connectedScript, Transaction.SigHash.ALL, false);
+    }
+
+    ECKey.ECDSASignature[] signatures = new ECKey.ECDSASignature[inputCount];
+    signingPool.invoke(new SigningTask(keys, hashes, signatures, 0, inputCount));
+
+    for (int i = 0; i < inputCount; i++) {
+      TransactionSignature signature = new TransactionSignature(signatures[i], Transaction.SigHash.ALL, false);
+      Script inputScript = payToAddress[i] ? ScriptBuilder.createInputScript(signature, keys[i]) : ScriptBuilder.createInputScript(signature);
+      tx.getInput(i).setScriptSig(inputScript);
+    }
+
+    log.debug("Signed {} input(s) with {} key(s) in parallel", inputCount, decryptedKeys.size());
+
+    return true;
+  }
+
+  /**
+   * Signs a range of inputs, splitting it until it is small enough
+   */
+  private static class SigningTask extends RecursiveAction {
+
+    private final ECKey[] keys;
+    private final Sha256Hash[] hashes;
+    private final ECKey.ECDSASignature[] signatures;
+    private final int from;
+    private final int to;
+
+    private SigningTask(ECKey[] keys, Sha256Hash[] hashes, ECKey.ECDSASignature[] signatures, int from, int to) {
+      this.keys = keys;
+      this.hashes = hashes;
+      this.signatures = signatures;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+
+      if (to - from <= SIGNATURES_PER_TASK) {
+        for (int i = from; i < to; i++) {
+          signatures[i] = keys[i].sign(hashes[i]);
+        }
+        return;
+      }
+
+      int middle = (from + to) >>> 1;
+      invokeAll(
+        new SigningTask(keys, hashes, signatures, from, middle),
+        new SigningTask(keys, hashes, signatures, middle, to)
+      );
+    }
+  }
+
+}
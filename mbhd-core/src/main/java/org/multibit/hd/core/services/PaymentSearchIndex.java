@@ -0,0 +1,405 @@
+package org.multibit.hd.core.services;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.dto.TransactionData;
+
+import java.util.*;
+
+/**
+ * <p>Index to provide the following to WalletService:</p>
+ * <ul>
+ * <li>Case insensitive substring search over the searchable text of payments</li>
+ * <li>Incremental maintenance as payments are added, changed or removed</li>
+ * <li>Ranked and capped results</li>
+ * </ul>
+ * <p>Each payment is indexed by the trigrams of its description, note, label, addresses and transaction ID. A query
+ * of three or more characters only examines the payments containing all of its trigrams and each candidate is then
+ * checked for the exact substring. Shorter queries fall back to a scan of the cached lower case text.</p>
+ *
+ * @since 0.0.1
+ */
+public class PaymentSearchIndex {
+
+  /**
+   * Separates fields so that a query cannot match across two of them
+   */
+  private static final char FIELD_SEPARATOR = '\u0000';
+
+  private static final int NGRAM_LENGTH = 3;
+
+  /**
+   * Payment text (description, note and label) ranks above addresses, which rank above transaction IDs
+   */
+  private static final int TEXT_WEIGHT = 3;
+  private static final int ADDRESS_WEIGHT = 2;
+  private static final int TRANSACTION_ID_WEIGHT = 1;
+
+  /**
+   * The indexed payments by document ID, null when removed
+   */
+  private final List<Entry> documents = Lists.newArrayList();
+
+  /**
+   * The document ID of each payment by key
+   */
+  private final Map<String, Integer> documentIds = Maps.newHashMap();
+
+  /**
+   * The ascending document IDs containing each trigram
+   */
+  private final Map<Long, Postings> postings = Maps.newHashMap();
+
+  private int removedCount = 0;
+
+  /**
+   * <p>Bring the index into line with the given payments, re-indexing only those whose searchable text has changed</p>
+   * <p>A payment that is the same instance as at the last update is assumed unchanged, so a payment whose text is
+   * edited must be replaced by a new instance (as WalletService does) rather than changed in place.</p>
+   *
+   * @param paymentDataList The complete list of payments
+   */
+  public synchronized void update(List<PaymentData> paymentDataList) {
+
+    Preconditions.checkNotNull(paymentDataList, "'paymentDataList' must be present");
+
+    Set<String> currentKeys = Sets.newHashSetWithExpectedSize(paymentDataList.size());
+
+    for (PaymentData paymentData : paymentDataList) {
+
+      String key = keyOf(paymentData);
+      if (key == null) {
+        continue;
+      }
+      currentKeys.add(key);
+
+      Integer documentId = documentIds.get(key);
+      if (documentId != null && documents.get(documentId).paymentData == paymentData) {
+        // The same instance as last time so the text is unchanged and need not be built again
+        continue;
+      }
+
+      Entry entry = newEntry(paymentData);
+
+      if (documentId != null) {
+        Entry existing = documents.get(documentId);
+        if (existing.text.equals(entry.text)) {
+          // Keep the latest instance for the results
+          existing.paymentData = paymentData;
+          continue;
+        }
+        remove(documentId);
+      }
+
+      add(key, entry);
+    }
+
+    // Remove payments that no longer exist
+    for (String key : Lists.newArrayList(documentIds.keySet())) {
+      if (!currentKeys.contains(key)) {
+        remove(documentIds.get(key));
+      }
+    }
+
+    if (removedCount > 1000 && removedCount > documentIds.size()) {
+      compact();
+    }
+  }
+
+  /**
+   * @param query       The text fragment to match (case-insensitive, anywhere in the searchable text)
+   * @param maxResults  The maximum number of results to return
+   * @param tieBreaker  The ordering of payments with the same rank
+   *
+   * @return The matching payments, best match first
+   */
+  public synchronized List<PaymentData> search(String query, int maxResults, Comparator<PaymentData> tieBreaker) {
+
+    Preconditions.checkNotNull(query, "'query' must be present");
+    Preconditions.checkArgument(maxResults > 0, "'maxResults' must be positive");
+
+    final String lowerQuery = query.toLowerCase();
+
+    List<Match> matches = Lists.newArrayList();
+
+    if (lowerQuery.length() < NGRAM_LENGTH) {
+      for (Entry entry : documents) {
+        addIfMatched(matches, entry, lowerQuery);
+      }
+    } else {
+      for (int documentId : candidates(lowerQuery)) {
+        addIfMatched(matches, documents.get(documentId), lowerQuery);
+      }
+    }
+
+    final Comparator<PaymentData> paymentComparator = tieBreaker;
+    Collections.sort(matches, new Comparator<Match>() {
+      @Override
+      public int compare(Match o1, Match o2) {
+        if (o1.weight != o2.weight) {
+          return o2.weight - o1.weight;
+        }
+        return paymentComparator.compare(o1.paymentData, o2.paymentData);
+      }
+    });
+
+    List<PaymentData> results = Lists.newArrayListWithCapacity(Math.min(maxResults, matches.size()));
+    for (Match match : matches) {
+      if (results.size() == maxResults) {
+        break;
+      }
+      results.add(match.paymentData);
+    }
+
+    return results;
+  }
+
+  /**
+   * @return The number of indexed payments
+   */
+  public synchronized int size() {
+    return documentIds.size();
+  }
+
+  /**
+   * @param lowerQuery The lower case query of at least three characters
+   *
+   * @return The IDs of the documents containing every trigram of the query
+   */
+  private List<Integer> candidates(String lowerQuery) {
+
+    List<Postings> queryPostings = Lists.newArrayList();
+    for (long ngram : ngrams(lowerQuery)) {
+      Postings ngramPostings = postings.get(ngram);
+      if (ngramPostings == null) {
+        // No payment contains this trigram
+        return Collections.emptyList();
+      }
+      queryPostings.add(ngramPostings);
+    }
+
+    // Intersect starting with the most selective trigram
+    Collections.sort(queryPostings, new Comparator<Postings>() {
+      @Override
+      public int compare(Postings o1, Postings o2) {
+        return o1.size - o2.size;
+      }
+    });
+
+    int[] result = Arrays.copyOf(queryPostings.get(0).ids, queryPostings.get(0).size);
+    int resultSize = result.length;
+    for (int i = 1; i < queryPostings.size() && resultSize > 0; i++) {
+      resultSize = intersect(result, resultSize, queryPostings.get(i));
+    }
+
+    List<Integer> candidates = Lists.newArrayListWithCapacity(resultSize);
+    for (int i = 0; i < resultSize; i++) {
+      candidates.add(result[i]);
+    }
+    return candidates;
+  }
+
+  /**
+   * @return The new size of the result after keeping only the IDs also present in the postings
+   */
+  private static int intersect(int[] result, int resultSize, Postings other) {
+
+    int size = 0;
+    int j = 0;
+    for (int i = 0; i < resultSize; i++) {
+      int id = result[i];
+      while (j < other.size && other.ids[j] < id) {
+        j++;
+      }
+      if (j == other.size) {
+        break;
+      }
+      if (other.ids[j] == id) {
+        result[size++] = id;
+      }
+    }
+    return size;
+  }
+
+  private static void addIfMatched(List<Match> matches, Entry entry, String lowerQuery) {
+
+    if (entry == null || !entry.text.contains(lowerQuery)) {
+      return;
+    }
+
+    // Rank by the best field containing the query
+    int weight = 0;
+    for (int i = 0; i < entry.fields.length; i++) {
+      if (entry.weights[i] > weight && entry.fields[i].contains(lowerQuery)) {
+        weight = entry.weights[i];
+      }
+    }
+
+    matches.add(new Match(entry.paymentData, weight));
+  }
+
+  private void add(String key, Entry entry) {
+
+    int documentId = documents.size();
+    documents.add(entry);
+    documentIds.put(key, documentId);
+
+    for (long ngram : ngrams(entry.text)) {
+      Postings ngramPostings = postings.get(ngram);
+      if (ngramPostings == null) {
+        ngramPostings = new Postings();
+        postings.put(ngram, ngramPostings);
+      }
+      // Document IDs only increase so the postings remain sorted
+      ngramPostings.add(documentId);
+    }
+  }
+
+  /**
+   * Removed documents stay in the postings until the next compaction but are never returned
+   */
+  private void remove(int documentId) {
+
+    Entry entry = documents.get(documentId);
+    documents.set(documentId, null);
+    documentIds.remove(entry.key);
+    removedCount++;
+  }
+
+  private void compact() {
+
+    List<Entry> liveEntries = Lists.newArrayListWithCapacity(documentIds.size());
+    for (Entry entry : documents) {
+      if (entry != null) {
+        liveEntries.add(entry);
+      }
+    }
+
+    documents.clear();
+    documentIds.clear();
+    postings.clear();
+    removedCount = 0;
+
+    for (Entry entry : liveEntries) {
+      add(entry.key, entry);
+    }
+  }
+
+  /**
+   * @return The distinct trigrams of the text, each packed into a long
+   */
+  private static Set<Long> ngrams(String text) {
+
+    Set<Long> ngrams = Sets.newHashSet();
+    for (int i = 0; i + NGRAM_LENGTH <= text.length(); i++) {
+      char c0 = text.charAt(i);
+      char c1 = text.charAt(i + 1);
+      char c2 = text.charAt(i + 2);
+      if (c0 == FIELD_SEPARATOR || c1 == FIELD_SEPARATOR || c2 == FIELD_SEPARATOR) {
+        continue;
+      }
+      ngrams.add(((long) c0 << 32) | ((long) c1 << 16) | c2);
+    }
+    return ngrams;
+  }
+
+  /**
+   * @return A key that identifies the payment across updates, or null if it cannot be searched
+   */
+  private static String keyOf(PaymentData paymentData) {
+
+    if (paymentData instanceof TransactionData) {
+      return "tx:" + ((TransactionData) paymentData).getTransactionId();
+    }
+    if (paymentData instanceof PaymentRequestData) {
+      return "request:" + ((PaymentRequestData) paymentData).getAddress();
+    }
+    return null;
+  }
+
+  private static Entry newEntry(PaymentData paymentData) {
+
+    List<String> fields = Lists.newArrayList();
+    List<Integer> weights = Lists.newArrayList();
+
+    addField(fields, weights, paymentData.getDescription(), TEXT_WEIGHT);
+    addField(fields, weights, paymentData.getNote(), TEXT_WEIGHT);
+
+    if (paymentData instanceof PaymentRequestData) {
+      PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
+      addField(fields, weights, paymentRequestData.getLabel(), TEXT_WEIGHT);
+      addField(fields, weights, paymentRequestData.getAddress(), ADDRESS_WEIGHT);
+    } else if (paymentData instanceof TransactionData) {
+      TransactionData transactionData = (TransactionData) paymentData;
+      for (String outputAddress : transactionData.getOutputAddresses()) {
+        addField(fields, weights, outputAddress, ADDRESS_WEIGHT);
+      }
+      addField(fields, weights, transactionData.getTransactionId(), TRANSACTION_ID_WEIGHT);
+    }
+
+    Entry entry = new Entry();
+    entry.key = keyOf(paymentData);
+    entry.paymentData = paymentData;
+    entry.fields = fields.toArray(new String[fields.size()]);
+    entry.weights = new int[weights.size()];
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < entry.fields.length; i++) {
+      entry.weights[i] = weights.get(i);
+      text.append(entry.fields[i]).append(FIELD_SEPARATOR);
+    }
+    entry.text = text.toString();
+
+    return entry;
+  }
+
+  private static void addField(List<String> fields, List<Integer> weights, String value, int weight) {
+
+    if (value == null || value.isEmpty()) {
+      return;
+    }
+    fields.add(value.toLowerCase());
+    weights.add(weight);
+  }
+
+  private static class Entry {
+
+    private String key;
+    private PaymentData paymentData;
+    private String[] fields;
+    private int[] weights;
+    private String text;
+
+  }
+
+  private static class Match {
+
+    private final PaymentData paymentData;
+    private final int weight;
+
+    private Match(PaymentData paymentData, int weight) {
+      this.paymentData = paymentData;
+      this.weight = weight;
+    }
+  }
+
+  /**
+   * A growable array of ascending document IDs
+   */
+  private static class Postings {
+
+    private int[] ids = new int[4];
+    private int size = 0;
+
+    private void add(int id) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++] = id;
+    }
+  }
+
+}
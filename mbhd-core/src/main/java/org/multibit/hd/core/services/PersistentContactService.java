@@ -6,6 +6,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import org.multibit.hd.core.config.BitcoinNetwork;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.WalletId;
@@ -19,10 +20,10 @@ import org.multibit.hd.core.store.ContactsProtobufSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -45,11 +46,27 @@ public class PersistentContactService implements ContactService {
    */
   private final Set<Contact> contacts = Sets.newHashSet();
 
+  /**
+   * The contacts read from the backing store that have not been copied into the cache yet (each is decoded on first
+   * access so read only operations work on this list directly)
+   */
+  private List<Contact> undecodedContacts = Collections.emptyList();
+
+  /**
+   * The address and name index over the in-memory cache of contacts
+   */
+  private final ContactIndex contactIndex = new ContactIndex(BitcoinNetwork.current().get());
+
   /**
    * The location of the backing writeContacts for the contacts
    */
   private File backingStoreFile;
 
+  /**
+   * The wallet owning the contacts (absent when testing against a single file)
+   */
+  private Optional<WalletId> walletId = Optional.absent();
+
   /**
    * The serializer for the backing writeContacts
    */
@@ -64,6 +81,8 @@ public class PersistentContactService implements ContactService {
 
     Preconditions.checkNotNull(walletId, "'walletId' must be present");
 
+    this.walletId = Optional.of(walletId);
+
     // Register for events
     CoreServices.uiEventBus.register(this);
 
@@ -123,7 +142,7 @@ public class PersistentContactService implements ContactService {
   @Override
   public List<Contact> allContacts() {
 
-    return Lists.newArrayList(contacts);
+    return Lists.newArrayList(readOnlyContacts());
 
   }
 
@@ -132,18 +151,10 @@ public class PersistentContactService implements ContactService {
 
     Preconditions.checkNotNull(address, "'address' must be present");
 
-    String queryAddress = address.toString();
-
-    List<Contact> filteredContacts = Lists.newArrayList();
-
-    for (Contact contact : contacts) {
+    // Ensure any loaded contacts have been indexed
+    contacts();
 
-      if (contact.getBitcoinAddress().or("").equals(queryAddress)) {
-        filteredContacts.add(contact);
-      }
-    }
-
-    return filteredContacts;
+    return contactIndex.filterByAddress(address.toString());
   }
 
   @Override
@@ -155,7 +166,7 @@ public class PersistentContactService implements ContactService {
 
     List<Contact> filteredContacts = Lists.newArrayList();
 
-    for (Contact contact : contacts) {
+    for (Contact contact : readOnlyContacts()) {
 
       // No Bitcoin address and excluding not payable
       if (excludeNotPayable && Strings.isNullOrEmpty(contact.getBitcoinAddress().or("").trim())) {
@@ -214,11 +225,13 @@ public class PersistentContactService implements ContactService {
 
     Preconditions.checkNotNull(query, "'query' must be present. Use * for wildcard.");
 
-    String lowerQuery = query.toLowerCase();
+    // Ensure any loaded contacts have been indexed
+    contacts();
 
     List<Contact> filteredContacts = Lists.newArrayList();
 
-    for (Contact contact : contacts) {
+    // We apply a stricter rule here to force a single match on the name
+    for (Contact contact : contactIndex.filterByName(query)) {
 
       // No Bitcoin address and excluding not payable
       if (excludeNotPayable && Strings.isNullOrEmpty(contact.getBitcoinAddress().or("").trim())) {
@@ -228,11 +241,7 @@ public class PersistentContactService implements ContactService {
       // Note: Do not include a Bitcoin address or xpub in this search
       // because vanity addresses can cause an attack vector
       // Instead use the dedicated methods for those fields
-
-      // We apply a stricter rule here to force a single match
-      if (contact.getName().toLowerCase().equals(lowerQuery)) {
-        filteredContacts.add(contact);
-      }
+      filteredContacts.add(contact);
     }
 
     // Test for exactly one match
@@ -247,7 +256,10 @@ public class PersistentContactService implements ContactService {
   @Override
   public void addAll(Collection<Contact> selectedContacts) {
 
-    contacts.addAll(selectedContacts);
+    contacts().addAll(selectedContacts);
+    contactIndex.addAll(selectedContacts);
+
+    fireContactsChanged();
 
   }
 
@@ -257,13 +269,18 @@ public class PersistentContactService implements ContactService {
     log.debug("Loading contacts from '{}'", backingStoreFile.getAbsolutePath());
 
     try {
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(backingStoreFile,
+      byte[] decryptedBytes = EncryptedFileReaderWriter.readAndDecryptBytes(backingStoreFile,
         WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
         WalletManager.SCRYPT_SALT,
         WalletManager.AES_INITIALISATION_VECTOR);
-      Set<Contact> loadedContacts = protobufSerializer.readContacts(decryptedInputStream);
+
+      // Only index the contacts here so that opening a wallet does not wait for them to be decoded
+      List<Contact> loadedContacts = protobufSerializer.readContacts(decryptedBytes);
       contacts.clear();
-      contacts.addAll(loadedContacts);
+      contactIndex.clear();
+      undecodedContacts = loadedContacts;
+
+      fireContactsChanged();
 
     } catch (EncryptedFileReaderWriterException e) {
       throw new ContactsLoadException("Could not loadContacts contacts db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.");
@@ -275,7 +292,37 @@ public class PersistentContactService implements ContactService {
    * <p>Reduced visibility for testing</p>
    */
   void clear() {
+    undecodedContacts = Collections.emptyList();
     contacts.clear();
+    contactIndex.clear();
+  }
+
+  /**
+   * @return The contacts for reading only, decoding each loaded contact as it is reached rather than copying them
+   * all into the cache
+   */
+  private Collection<Contact> readOnlyContacts() {
+
+    // The cache is empty until the loaded contacts are copied into it
+    return undecodedContacts.isEmpty() ? contacts : undecodedContacts;
+  }
+
+  /**
+   * @return The in-memory cache of contacts for changing, first copying in any that have been loaded
+   */
+  private Set<Contact> contacts() {
+
+    if (!undecodedContacts.isEmpty()) {
+
+      // Decode every contact before touching the cache so a record that fails leaves the loaded contacts in place
+      List<Contact> decodedContacts = Lists.newArrayList(undecodedContacts);
+
+      contacts.addAll(decodedContacts);
+      contactIndex.addAll(decodedContacts);
+      undecodedContacts = Collections.emptyList();
+    }
+
+    return contacts;
   }
 
   @Override
@@ -285,7 +332,10 @@ public class PersistentContactService implements ContactService {
 
     log.debug("Removing {} contact(s)", selectedContacts.size());
 
-    contacts.removeAll(selectedContacts);
+    contacts().removeAll(selectedContacts);
+    contactIndex.removeAll(selectedContacts);
+
+    fireContactsChanged();
 
   }
 
@@ -298,25 +348,41 @@ public class PersistentContactService implements ContactService {
 
     for (Contact editedContact : editedContacts) {
 
-      if (!contacts.contains(editedContact)) {
+      if (!contacts().contains(editedContact)) {
 
-        contacts.add(editedContact);
+        contacts().add(editedContact);
 
       }
 
     }
 
+    // Any of the indexed details may have been edited
+    contactIndex.addAll(editedContacts);
+
+    fireContactsChanged();
+
+  }
+
+  /**
+   * <p>Payments name their recipients from the contacts so any cached descriptions are now stale</p>
+   */
+  private void fireContactsChanged() {
+
+    if (walletId.isPresent()) {
+      CoreServices.onContactsChanged(walletId.get());
+    }
+
   }
 
   @Override
   public void writeContacts() throws ContactsSaveException {
 
-    log.debug("Writing {} contact(s)", contacts.size());
+    log.debug("Writing {} contact(s)", readOnlyContacts().size());
 
     try {
       ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
 
-      protobufSerializer.writeContacts(contacts, byteArrayOutputStream);
+      protobufSerializer.writeContacts(contacts(), byteArrayOutputStream);
       EncryptedFileReaderWriter.encryptAndWrite(byteArrayOutputStream.toByteArray(), WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(), backingStoreFile);
 
     } catch (Exception e) {
@@ -328,7 +394,7 @@ public class PersistentContactService implements ContactService {
   public void addDemoContacts() {
 
     // Only add the demo contacts if there are none present
-    if (!contacts.isEmpty()) {
+    if (!readOnlyContacts().isEmpty()) {
       return;
     }
 
@@ -337,33 +403,35 @@ public class PersistentContactService implements ContactService {
     contact1.getTags().add("VIP");
     contact1.getTags().add("Family");
     contact1.setNotes("This is a really long note that should span over several lines when finally rendered to the screen. It began with Alice Capital.");
-    contacts.add(contact1);
+    contacts().add(contact1);
 
     Contact contact2 = newContact("Bob Capital");
     contact2.setEmail("bob.capital@example.org");
     contact2.setNotes("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
     contact2.getTags().add("VIP");
     contact2.getTags().add("Merchandise");
-    contacts.add(contact2);
+    contacts().add(contact2);
 
     Contact contact3 = newContact("Charles Capital");
     contact2.setNotes("Charles Capital's note 1\n\nCharles Capital's note 2");
     contact3.setEmail("charles.capital@example.org");
-    contacts.add(contact3);
+    contacts().add(contact3);
 
     // No email for Derek
     Contact contact4 = newContact("Derek Capital");
     contact2.setNotes("Derek Capital's note 1\n\nDerek Capital's note 2");
     contact4.getTags().add("Family");
-    contacts.add(contact4);
+    contacts().add(contact4);
 
     Contact contact5 = newContact("alice Lower");
     contact5.setEmail("alice.lower@example.org");
-    contacts.add(contact5);
+    contacts().add(contact5);
 
     Contact contact6 = newContact("alicia Lower");
     contact6.setEmail("alicia.lower@example.org");
-    contacts.add(contact6);
+    contacts().add(contact6);
+
+    contactIndex.addAll(contacts);
 
   }
 
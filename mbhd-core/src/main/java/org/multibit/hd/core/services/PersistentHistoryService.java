@@ -17,10 +17,10 @@ import org.multibit.hd.core.store.HistoryProtobufSerializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
@@ -43,6 +43,12 @@ public class PersistentHistoryService implements HistoryService {
    */
   private final Set<HistoryEntry> history = Sets.newHashSet();
 
+  /**
+   * The history entries read from the backing store that have not been copied into the cache yet (each is decoded
+   * on first access so read only operations work on this list directly)
+   */
+  private List<HistoryEntry> undecodedHistory = Collections.emptyList();
+
   /**
    * The location of the backing writeHistory for the history
    */
@@ -108,7 +114,7 @@ public class PersistentHistoryService implements HistoryService {
 
     HistoryEntry historyEntry = new HistoryEntry(UUID.randomUUID(), description);
 
-    history.add(historyEntry);
+    history().add(historyEntry);
 
     return historyEntry;
 
@@ -117,7 +123,7 @@ public class PersistentHistoryService implements HistoryService {
   @Override
   public List<HistoryEntry> allHistory() {
 
-    return Lists.newArrayList(history);
+    return Lists.newArrayList(readOnlyHistory());
 
   }
 
@@ -128,7 +134,7 @@ public class PersistentHistoryService implements HistoryService {
 
     List<HistoryEntry> filteredHistory = Lists.newArrayList();
 
-    for (HistoryEntry historyEntry : history) {
+    for (HistoryEntry historyEntry : readOnlyHistory()) {
 
       boolean isDescriptionMatched = historyEntry.getDescription().toLowerCase().contains(lowerQuery);
       boolean isNoteMatched = historyEntry.getNotes().or("").toLowerCase().contains(lowerQuery);
@@ -144,7 +150,7 @@ public class PersistentHistoryService implements HistoryService {
   @Override
   public void addAll(Collection<HistoryEntry> selectedHistory) {
 
-    history.addAll(selectedHistory);
+    history().addAll(selectedHistory);
 
   }
 
@@ -153,13 +159,15 @@ public class PersistentHistoryService implements HistoryService {
 
     log.debug("Loading history from '{}'", backingStoreFile.getAbsolutePath());
     try {
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(backingStoreFile,
+      byte[] decryptedBytes = EncryptedFileReaderWriter.readAndDecryptBytes(backingStoreFile,
               WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
               WalletManager.SCRYPT_SALT,
               WalletManager.AES_INITIALISATION_VECTOR);
-      Set<HistoryEntry> loadedHistory = protobufSerializer.readHistoryEntries(decryptedInputStream);
+
+      // Only index the history here so that opening a wallet does not wait for it to be decoded
+      List<HistoryEntry> loadedHistory = protobufSerializer.readHistoryEntries(decryptedBytes);
       history.clear();
-      history.addAll(loadedHistory);
+      undecodedHistory = loadedHistory;
 
     } catch (EncryptedFileReaderWriterException e) {
       ExceptionHandler.handleThrowable(new HistoryLoadException("Could not loadHistory history db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'."));
@@ -171,9 +179,37 @@ public class PersistentHistoryService implements HistoryService {
    * <p>Reduced visibility for testing</p>
    */
   void clear() {
+    undecodedHistory = Collections.emptyList();
     history.clear();
   }
 
+  /**
+   * @return The history for reading only, decoding each loaded entry as it is reached rather than copying them all
+   * into the cache
+   */
+  private Collection<HistoryEntry> readOnlyHistory() {
+
+    // The cache is empty until the loaded entries are copied into it
+    return undecodedHistory.isEmpty() ? history : undecodedHistory;
+  }
+
+  /**
+   * @return The in-memory cache of history for changing, first copying in any entries that have been loaded
+   */
+  private Set<HistoryEntry> history() {
+
+    if (!undecodedHistory.isEmpty()) {
+
+      // Decode every entry before touching the cache so a record that fails leaves the loaded entries in place
+      List<HistoryEntry> decodedHistory = Lists.newArrayList(undecodedHistory);
+
+      history.addAll(decodedHistory);
+      undecodedHistory = Collections.emptyList();
+    }
+
+    return history;
+  }
+
   @Override
   public void removeAll(Collection<HistoryEntry> selectedHistory) {
 
@@ -181,7 +217,7 @@ public class PersistentHistoryService implements HistoryService {
 
     log.debug("Removing {} history entries", selectedHistory.size());
 
-    history.removeAll(selectedHistory);
+    history().removeAll(selectedHistory);
 
   }
 
@@ -194,9 +230,9 @@ public class PersistentHistoryService implements HistoryService {
 
     for (HistoryEntry editedHistoryEntry : editedHistory) {
 
-      if (!history.contains(editedHistoryEntry)) {
+      if (!history().contains(editedHistoryEntry)) {
 
-        history.add(editedHistoryEntry);
+        history().add(editedHistoryEntry);
 
       }
 
@@ -210,11 +246,11 @@ public class PersistentHistoryService implements HistoryService {
     Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "Current wallet summary must be present");
     Preconditions.checkNotNull(protobufSerializer, "'protobufSerializer' must be present");
 
-    log.debug("Writing {} history(s)", history.size());
+    log.debug("Writing {} history(s)", readOnlyHistory().size());
 
     try {
       ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
-      protobufSerializer.writeHistoryEntries(history, byteArrayOutputStream);
+      protobufSerializer.writeHistoryEntries(history(), byteArrayOutputStream);
       EncryptedFileReaderWriter.encryptAndWrite(
         byteArrayOutputStream.toByteArray(),
         WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
@@ -230,7 +266,7 @@ public class PersistentHistoryService implements HistoryService {
   public void addDemoHistory() {
 
     // Only add the demo history if there are none present
-    if (!history.isEmpty()) {
+    if (!readOnlyHistory().isEmpty()) {
       return;
     }
 
@@ -0,0 +1,250 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.wallet.WalletTransaction;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <p>Index to provide the following to coin selection:</p>
+ * <ul>
+ * <li>The unspent outputs of a wallet ordered by value</li>
+ * <li>Separate buckets for confirmed and pending outputs</li>
+ * <li>Incremental maintenance driven by wallet transaction events</li>
+ * </ul>
+ * <p>A changed transaction is classified again together with the transactions its inputs spend from, so both a new
+ * spend and a spend that has died are reflected in the parent outputs. The events only record the hashes, the work
+ * is done on the next {@link #update(Wallet)} on the caller's thread.</p>
+ * <p>The index is rebuilt from the whole wallet after a reorganisation or if the number of transactions in the
+ * wallet no longer matches (e.g. after a reset).</p>
+ *
+ * @since 0.0.1
+ */
+public class UnspentOutputIndex {
+
+  private static final Logger log = LoggerFactory.getLogger(UnspentOutputIndex.class);
+
+  /**
+   * Outputs in ascending value, then by outpoint so that the order is total
+   */
+  private static final Comparator<TransactionOutput> VALUE_ORDER = new Comparator<TransactionOutput>() {
+    @Override
+    public int compare(TransactionOutput o1, TransactionOutput o2) {
+      int result = o1.getValue().compareTo(o2.getValue());
+      if (result == 0) {
+        result = o1.getParentTransaction().getHash().toString().compareTo(o2.getParentTransaction().getHash().toString());
+      }
+      return result != 0 ? result : Integer.compare(o1.getIndex(), o2.getIndex());
+    }
+  };
+
+  /**
+   * The confidence type of each live transaction when it was last classified (also read from the wallet event thread)
+   */
+  private final Map<Sha256Hash, TransactionConfidence.ConfidenceType> classifiedTransactions = Maps.newConcurrentMap();
+
+  /**
+   * The indexed outputs of each transaction
+   */
+  private final Map<Sha256Hash, List<TransactionOutput>> outputsByTransaction = Maps.newHashMap();
+
+  /**
+   * The outputs of transactions in the best chain
+   */
+  private final TreeSet<TransactionOutput> confirmed = new TreeSet<>(VALUE_ORDER);
+
+  /**
+   * The outputs of transactions not yet in the best chain
+   */
+  private final TreeSet<TransactionOutput> pending = new TreeSet<>(VALUE_ORDER);
+
+  /**
+   * The transactions changed since the last update (written from the wallet event thread)
+   */
+  private final Set<Sha256Hash> changedHashes = Sets.newConcurrentHashSet();
+
+  private volatile boolean rebuildRequired = true;
+
+  private Coin totalValue = Coin.ZERO;
+
+  /**
+   * @return A listener to add to the wallet so that the index learns of changed transactions
+   */
+  public WalletEventListener newWalletEventListener() {
+
+    return new AbstractWalletEventListener() {
+
+      @Override
+      public void onCoinsReceived(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        changedHashes.add(tx.getHash());
+      }
+
+      @Override
+      public void onCoinsSent(Wallet wallet, Transaction tx, Coin prevBalance, Coin newBalance) {
+        changedHashes.add(tx.getHash());
+      }
+
+      @Override
+      public void onTransactionConfidenceChanged(Wallet wallet, Transaction tx) {
+        // A new block changes the depth of every transaction so only a change of bucket is of interest
+        TransactionConfidence.ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+        TransactionConfidence.ConfidenceType classifiedType = classifiedTransactions.get(tx.getHash());
+        if (classifiedType == null
+          ? confidenceType != TransactionConfidence.ConfidenceType.DEAD
+          : classifiedType != confidenceType) {
+          changedHashes.add(tx.getHash());
+        }
+      }
+
+      @Override
+      public void onReorganize(Wallet wallet) {
+        rebuildRequired = true;
+      }
+    };
+  }
+
+  /**
+   * <p>Bring the index up to date with the wallet</p>
+   *
+   * @param wallet The wallet the listener was added to
+   */
+  public synchronized void update(Wallet wallet) {
+
+    Preconditions.checkNotNull(wallet, "'wallet' must be present");
+
+    if (rebuildRequired) {
+      rebuild(wallet);
+      return;
+    }
+
+    // Spending or releasing an output changes the transaction that holds it
+    Set<Sha256Hash> hashes = Sets.newHashSet();
+    for (Sha256Hash hash : Sets.newHashSet(changedHashes)) {
+      changedHashes.remove(hash);
+      hashes.add(hash);
+      Transaction transaction = wallet.getTransaction(hash);
+      if (transaction != null) {
+        for (TransactionInput input : transaction.getInputs()) {
+          hashes.add(input.getOutpoint().getHash());
+        }
+      }
+    }
+
+    for (Sha256Hash hash : hashes) {
+      remove(hash);
+      Transaction transaction = wallet.getTransaction(hash);
+      if (transaction != null && transaction.getConfidence().getConfidenceType() != TransactionConfidence.ConfidenceType.DEAD) {
+        add(wallet, transaction);
+      }
+    }
+
+    // Catch any change that was not reported (e.g. transactions cleared for a replay)
+    if (classifiedTransactions.size() != liveTransactionCount(wallet)) {
+      log.debug("Unspent output index is out of step with the wallet");
+      rebuild(wallet);
+    }
+  }
+
+  /**
+   * @return The outputs of transactions in the best chain from the largest value to the smallest
+   */
+  public synchronized List<TransactionOutput> getConfirmedLargestFirst() {
+    return ImmutableList.copyOf(confirmed.descendingSet());
+  }
+
+  /**
+   * @return The outputs of transactions not yet in the best chain from the largest value to the smallest
+   */
+  public synchronized List<TransactionOutput> getPendingLargestFirst() {
+    return ImmutableList.copyOf(pending.descendingSet());
+  }
+
+  /**
+   * @return The number of indexed outputs
+   */
+  public synchronized int size() {
+    return confirmed.size() + pending.size();
+  }
+
+  /**
+   * @return The total value of the indexed outputs
+   */
+  public synchronized Coin getTotalValue() {
+    return totalValue;
+  }
+
+  private void rebuild(Wallet wallet) {
+
+    // Events after this point will be seen on the next update
+    rebuildRequired = false;
+    changedHashes.clear();
+
+    classifiedTransactions.clear();
+    outputsByTransaction.clear();
+    confirmed.clear();
+    pending.clear();
+    totalValue = Coin.ZERO;
+
+    for (Transaction transaction : wallet.getTransactions(false)) {
+      add(wallet, transaction);
+    }
+
+    log.debug("Unspent output index rebuilt with {} output(s) from {} transaction(s)", size(), classifiedTransactions.size());
+  }
+
+  private void add(Wallet wallet, Transaction transaction) {
+
+    TransactionConfidence.ConfidenceType confidenceType = transaction.getConfidence().getConfidenceType();
+    NavigableSet<TransactionOutput> bucket = confidenceType == TransactionConfidence.ConfidenceType.BUILDING ? confirmed : pending;
+
+    List<TransactionOutput> outputs = Lists.newArrayList();
+    for (TransactionOutput output : transaction.getOutputs()) {
+      if (output.isAvailableForSpending() && output.isMine(wallet)) {
+        outputs.add(output);
+        bucket.add(output);
+        totalValue = totalValue.add(output.getValue());
+      }
+    }
+
+    classifiedTransactions.put(transaction.getHash(), confidenceType);
+    if (!outputs.isEmpty()) {
+      outputsByTransaction.put(transaction.getHash(), outputs);
+    }
+  }
+
+  private void remove(Sha256Hash hash) {
+
+    classifiedTransactions.remove(hash);
+
+    List<TransactionOutput> outputs = outputsByTransaction.remove(hash);
+    if (outputs == null) {
+      return;
+    }
+
+    for (TransactionOutput output : outputs) {
+      if (confirmed.remove(output) || pending.remove(output)) {
+        totalValue = totalValue.subtract(output.getValue());
+      }
+    }
+  }
+
+  private static int liveTransactionCount(Wallet wallet) {
+
+    return wallet.getPoolSize(WalletTransaction.Pool.UNSPENT)
+      + wallet.getPoolSize(WalletTransaction.Pool.SPENT)
+      + wallet.getPoolSize(WalletTransaction.Pool.PENDING);
+  }
+
+}
@@ -2,9 +2,12 @@ package org.multibit.hd.core.services;
 
 import com.google.bitcoin.core.*;
 import com.google.common.base.Charsets;
-import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -13,6 +16,7 @@ import com.googlecode.jcsv.writer.CSVEntryConverter;
 import org.joda.time.DateMidnight;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.concurrent.SafeExecutors;
+import org.multibit.hd.core.crypto.DerivedKeyCache;
 import org.multibit.hd.core.crypto.EncryptedFileReaderWriter;
 import org.multibit.hd.core.dto.*;
 import org.multibit.hd.core.events.*;
@@ -26,6 +30,7 @@ import org.multibit.hd.core.managers.ExportManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.store.Payments;
+import org.multibit.hd.core.store.PaymentsJournal;
 import org.multibit.hd.core.store.PaymentsProtobufSerializer;
 import org.multibit.hd.core.store.TransactionInfo;
 import org.multibit.hd.core.utils.Coins;
@@ -33,13 +38,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongycastle.crypto.params.KeyParameter;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  <p>Service to provide the following to GUI classes:</p>
@@ -53,6 +58,11 @@ public class WalletService {
 
   private static final Logger log = LoggerFactory.getLogger(WalletService.class);
 
+  /**
+   * Shares a single instance of each address string across all the transactions that pay it
+   */
+  private static final Interner<String> ADDRESS_INTERNER = Interners.newWeakInterner();
+
   /**
    * The name of the directory (within the wallet directory) that contains the payments database
    */
@@ -63,11 +73,26 @@ public class WalletService {
    */
   public static final String PAYMENTS_DATABASE_NAME = "payments.aes";
 
+  /**
+   * The name of the journal of changes made since the payments database was last written
+   */
+  public static final String PAYMENTS_JOURNAL_NAME = "payments.journal";
+
+  /**
+   * The number of journal records that triggers a background compaction into the payments database
+   */
+  public static final int MAXIMUM_JOURNAL_RECORDS = 250;
+
   /**
    * The text separator used in localising To: and By: prefices
    */
   public static final String PREFIX_SEPARATOR = ": ";
 
+  /**
+   * The maximum number of payments returned by a search
+   */
+  public static final int MAXIMUM_SEARCH_RESULTS = 1000;
+
   /**
    * The Bitcoin network parameters
    */
@@ -84,20 +109,41 @@ public class WalletService {
   private PaymentsProtobufSerializer protobufSerializer;
 
   /**
-   * The payment requests in a map, indexed by the bitcoin address
+   * The changes made since the backing store was last written
+   */
+  private PaymentsJournal paymentsJournal;
+
+  /**
+   * Ensures only one snapshot of the payments is written at a time
+   */
+  private final Object snapshotLock = new Object();
+
+  /**
+   * True while a background compaction is pending
+   */
+  private final AtomicBoolean compactionPending = new AtomicBoolean(false);
+
+  /**
+   * The payment requests in a map, indexed by the bitcoin address (synchronize on the map to iterate it)
    */
-  private final Map<String, PaymentRequestData> paymentRequestMap = Maps.newHashMap();
+  private final Map<String, PaymentRequestData> paymentRequestMap = Collections.synchronizedMap(Maps.<String, PaymentRequestData>newHashMap());
 
   /**
-   * The additional transaction information, in the form of a map, index by the transaction hash
+   * The additional transaction information, in the form of a map, index by the transaction hash (synchronize on the
+   * map to iterate it)
    */
-  private final Map<String, TransactionInfo> transactionInfoMap = Maps.newHashMap();
+  private final Map<String, TransactionInfo> transactionInfoMap = Collections.synchronizedMap(Maps.<String, TransactionInfo>newHashMap());
 
   /**
    * The wallet id that this WalletService is using
    */
   private WalletId walletId;
 
+  /**
+   * The summary of the wallet that owns this WalletService (provides the wallet and its password)
+   */
+  private WalletSummary walletSummary;
+
   /**
    * The undo stack for undeleting payment requests
    */
@@ -106,7 +152,55 @@ public class WalletService {
   /**
    * The last seen payments data
    */
-  private List<PaymentData> lastSeenPaymentDataList = Lists.newArrayList();
+  private volatile List<PaymentData> lastSeenPaymentDataList = Lists.newArrayList();
+
+  /**
+   * The adapted transactions, indexed by the transaction hash (guarded by paymentDataLock)
+   */
+  private final Map<String, TransactionData> transactionDataMap = Maps.newHashMap();
+
+  /**
+   * The transaction hashes that need to be adapted again before the next snapshot
+   * (written from network and wallet listener threads)
+   */
+  private final Set<String> staleTransactionHashes = Sets.newConcurrentHashSet();
+
+  /**
+   * True if the transaction data map must be rebuilt from the whole wallet before the next snapshot
+   */
+  private volatile boolean transactionDataMapInvalid = true;
+
+  /**
+   * The wallet that the transaction data map was built from (guarded by paymentDataLock)
+   */
+  private Wallet indexedWallet;
+
+  /**
+   * Incremented each time the payment data changes so views can cheaply detect a stale snapshot
+   */
+  private final AtomicLong paymentDataVersion = new AtomicLong();
+
+  /**
+   * The version of the payment data used to build lastSeenPaymentDataList (guarded by paymentDataLock)
+   */
+  private long lastSeenPaymentDataVersion = -1;
+
+  private final Object paymentDataLock = new Object();
+
+  /**
+   * The search index over lastSeenPaymentDataList
+   */
+  private final PaymentSearchIndex paymentSearchIndex = new PaymentSearchIndex();
+
+  /**
+   * The version of lastSeenPaymentDataList held in the search index (guarded by paymentSearchIndex)
+   */
+  private long indexedPaymentDataVersion = -2;
+
+  /**
+   * The contacts used to name the recipients of sent payments
+   */
+  private volatile Optional<ContactService> contactService = Optional.absent();
 
   private static ExecutorService executorService;
 
@@ -120,16 +214,18 @@ public class WalletService {
   }
 
   /**
-   * Initialise the wallet service with a user data directory and a wallet id so that it knows where to put files etc
+   * Initialise the wallet service with a user data directory and the wallet it belongs to so that it knows where to put files etc
    *
-   * @param walletId the walletId to use for this WalletService
+   * @param walletSummary the summary of the wallet that owns this WalletService (not necessarily the current wallet)
    */
-  public void initialise(File applicationDataDirectory, WalletId walletId) {
+  public void initialise(File applicationDataDirectory, WalletSummary walletSummary) {
 
     Preconditions.checkNotNull(applicationDataDirectory, "'applicationDataDirectory' must be present");
-    Preconditions.checkNotNull(walletId, "'walletId' must be present");
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkNotNull(walletSummary.getWalletId(), "'walletId' must be present");
 
-    this.walletId = walletId;
+    this.walletSummary = walletSummary;
+    this.walletId = walletSummary.getWalletId();
 
     // Work out where to write the contacts for this wallet id.
     String walletRoot = WalletManager.createWalletRoot(walletId);
@@ -143,58 +239,176 @@ public class WalletService {
 
     protobufSerializer = new PaymentsProtobufSerializer();
 
-    if (backingStoreFile.exists()) {
+    File journalFile = new File(paymentsDirectory.getAbsolutePath() + File.separator + PAYMENTS_JOURNAL_NAME);
+    paymentsJournal = new PaymentsJournal(journalFile, protobufSerializer);
+
+    if (backingStoreFile.exists()
+      || journalFile.exists()
+      || new File(journalFile.getAbsolutePath() + PaymentsJournal.ROTATED_SUFFIX).exists()) {
       readPayments();
     }
   }
 
   /**
-   * <p>Get all the payments (payments and payment requests) in the current wallet.</p>
-   * <h3>WARNING: This is moderately expensive so don't call it indiscriminately</h3>
+   * <p>Get all the payments (payments and payment requests) in the wallet owning this service.</p>
+   * <p>The returned list is a shared, read only snapshot. Only the transactions that have changed since the last
+   * snapshot (as reported by TransactionSeenEvents) are adapted again so repeated calls are cheap.
+   * Use {@link #getPaymentDataVersion()} to detect whether a previous snapshot is still current.</p>
    */
   public List<PaymentData> getPaymentDataList() {
 
-    // See if there is a current wallet
-    WalletManager walletManager = WalletManager.INSTANCE;
-
-    Optional<WalletSummary> currentWalletSummary = walletManager.getCurrentWalletSummary();
-    if (!currentWalletSummary.isPresent()) {
-      // No wallet is present
+    if (walletSummary == null) {
+      // Not initialised with a wallet
       return Lists.newArrayList();
     }
 
-    // Wallet is present
-    WalletSummary walletSummary = currentWalletSummary.get();
+    // The wallet may be replaced in the summary (e.g. loaded from a rolling backup)
     Wallet wallet = walletSummary.getWallet();
 
     // There should be a wallet
     Preconditions.checkNotNull(wallet, "There is no wallet to process");
 
+    synchronized (paymentDataLock) {
+
+      if (wallet != indexedWallet) {
+        // A different wallet (e.g. loaded from a rolling backup) is a wallet wide change
+        invalidatePaymentDataList();
+      }
+
+      // Capture the version first so that a change made while adapting is never hidden behind it
+      long snapshotVersion = paymentDataVersion.get();
+
+      if (transactionDataMapInvalid) {
+        rebuildTransactionDataMap(wallet);
+      } else {
+        updateStaleTransactionData(wallet);
+      }
+
+      if (snapshotVersion == lastSeenPaymentDataVersion) {
+        // Nothing has changed since the last snapshot
+        return lastSeenPaymentDataList;
+      }
+
+      // Determine which paymentRequests have not been fully funded (these will appear as independent entities in the UI)
+      Set<PaymentRequestData> paymentRequestsNotFullyFunded = Sets.newHashSet();
+      for (PaymentRequestData basePaymentRequestData : getPaymentRequests()) {
+        if (basePaymentRequestData.getPaidAmountCoin().compareTo(basePaymentRequestData.getAmountCoin()) < 0) {
+          paymentRequestsNotFullyFunded.add(basePaymentRequestData);
+        }
+      }
+
+      // Union the transactionData set and paymentData set
+      List<PaymentData> paymentDataList = Lists.newArrayListWithCapacity(transactionDataMap.size() + paymentRequestsNotFullyFunded.size());
+      paymentDataList.addAll(transactionDataMap.values());
+      paymentDataList.addAll(paymentRequestsNotFullyFunded);
+
+      List<PaymentData> snapshot = Collections.unmodifiableList(paymentDataList);
+
+      if (paymentDataVersion.get() == snapshotVersion) {
+        // Only share the snapshot if nothing changed while it was built
+        lastSeenPaymentDataList = snapshot;
+        lastSeenPaymentDataVersion = snapshotVersion;
+      }
+
+      //log.debug("lastSeenPaymentDataList:\n" + lastSeenPaymentDataList.toString());
+      return snapshot;
+    }
+  }
+
+  /**
+   * @return The version of the payment data, incremented whenever a transaction or payment request changes
+   */
+  public long getPaymentDataVersion() {
+    return paymentDataVersion.get();
+  }
+
+  /**
+   * <p>Force all the transactions in the wallet to be adapted again on the next call to getPaymentDataList()</p>
+   * <p>Use this after a wallet wide change (e.g. a reorganisation or a replay)</p>
+   */
+  public void invalidatePaymentDataList() {
+    transactionDataMapInvalid = true;
+    paymentDataVersion.incrementAndGet();
+  }
+
+  /**
+   * <p>Name the recipients of sent payments using the given contacts (looked up by Bitcoin address)</p>
+   *
+   * @param contactService The contact service for the same wallet
+   */
+  public void setContactService(ContactService contactService) {
+
+    Preconditions.checkNotNull(contactService, "'contactService' must be present");
+
+    this.contactService = Optional.of(contactService);
+
+    // Existing descriptions may now name a contact
+    invalidatePaymentDataList();
+  }
+
+  /**
+   * <p>Mark a single transaction as changed so that it is adapted again on the next call to getPaymentDataList()</p>
+   *
+   * @param transactionHashAsString The transaction hash
+   */
+  private void invalidateTransactionData(String transactionHashAsString) {
+    staleTransactionHashes.add(transactionHashAsString);
+    paymentDataVersion.incrementAndGet();
+  }
+
+  /**
+   * <p>Adapt every transaction in the wallet (called with paymentDataLock held)</p>
+   *
+   * @param wallet The wallet providing the transactions
+   */
+  private void rebuildTransactionDataMap(Wallet wallet) {
+
+    // Clear the flags first so that concurrent events are not lost
+    transactionDataMapInvalid = false;
+    staleTransactionHashes.clear();
+
+    transactionDataMap.clear();
+
     // Get all the transactions in the wallet
     Set<Transaction> transactions = wallet.getTransactions(true);
 
-    // Adapted transaction data to return
-    Set<TransactionData> transactionDataSet = Sets.newHashSet();
-
     if (transactions != null) {
       for (Transaction transaction : transactions) {
         TransactionData transactionData = adaptTransaction(wallet, transaction);
-        transactionDataSet.add(transactionData);
+        transactionDataMap.put(transactionData.getTransactionId(), transactionData);
       }
     }
 
-    // Determine which paymentRequests have not been fully funded (these will appear as independent entities in the UI)
-    Set<PaymentRequestData> paymentRequestsNotFullyFunded = Sets.newHashSet();
-    for (PaymentRequestData basePaymentRequestData : paymentRequestMap.values()) {
-      if (basePaymentRequestData.getPaidAmountCoin().compareTo(basePaymentRequestData.getAmountCoin()) < 0) {
-        paymentRequestsNotFullyFunded.add(basePaymentRequestData);
+    indexedWallet = wallet;
+
+    log.debug("Rebuilt payment data for {} transactions", transactionDataMap.size());
+  }
+
+  /**
+   * <p>Adapt only the transactions that have changed since the last snapshot (called with paymentDataLock held)</p>
+   *
+   * @param wallet The wallet providing the transactions
+   */
+  private void updateStaleTransactionData(Wallet wallet) {
+
+    if (staleTransactionHashes.isEmpty()) {
+      return;
+    }
+
+    Iterator<String> iterator = staleTransactionHashes.iterator();
+    while (iterator.hasNext()) {
+      String transactionHashAsString = iterator.next();
+      iterator.remove();
+
+      Transaction transaction = wallet.getTransaction(new Sha256Hash(transactionHashAsString));
+      if (transaction == null) {
+        // Not (or no longer) in this wallet
+        transactionDataMap.remove(transactionHashAsString);
+      } else {
+        transactionDataMap.put(transactionHashAsString, adaptTransaction(wallet, transaction));
       }
     }
-    // Union the transactionData set and paymentData set
-    lastSeenPaymentDataList = Lists.newArrayList(Sets.union(transactionDataSet, paymentRequestsNotFullyFunded));
 
-    //log.debug("lastSeenPaymentDataList:\n" + lastSeenPaymentDataList.toString());
-    return lastSeenPaymentDataList;
   }
 
   /**
@@ -242,49 +456,45 @@ public class WalletService {
   }
 
   /**
-   * @param query The text fragment to match (case-insensitive, anywhere in the name)
+   * @param query The text fragment to match (case-insensitive, anywhere in the searchable text)
    *
-   * @return A filtered set of Payments for the given query
+   * @return A filtered set of Payments for the given query, best match first and capped at {@link #MAXIMUM_SEARCH_RESULTS}
    */
   public List<PaymentData> filterPaymentsByContent(String query) {
+    return filterPaymentsByContent(query, MAXIMUM_SEARCH_RESULTS);
+  }
 
-    String lowerQuery = query.toLowerCase();
-
-    List<PaymentData> filteredPayments = Lists.newArrayList();
-
-    for (PaymentData paymentData : lastSeenPaymentDataList) {
+  /**
+   * @param query      The text fragment to match (case-insensitive, anywhere in the searchable text)
+   * @param maxResults The maximum number of payments to return for a non-empty query
+   *
+   * @return A filtered set of Payments for the given query, best match first
+   */
+  public List<PaymentData> filterPaymentsByContent(String query, int maxResults) {
 
-      boolean isDescriptionMatched = paymentData.getDescription().toLowerCase().contains(lowerQuery);
-      boolean isNoteMatched = paymentData.getNote().toLowerCase().contains(lowerQuery);
+    List<PaymentData> paymentDataList;
+    long paymentDataListVersion;
+    synchronized (paymentDataLock) {
+      paymentDataList = lastSeenPaymentDataList;
+      paymentDataListVersion = lastSeenPaymentDataVersion;
+    }
 
-      boolean isQrCodeLabelMatched = false;
-      boolean isPaymentAddressMatched = false;
-      boolean isOutputAddressMatched = false;
-      boolean isRawTransactionMatched = false;
+    if (query == null || query.isEmpty()) {
+      // Everything matches so no ranking or cap is applied
+      List<PaymentData> allPayments = Lists.newArrayList(paymentDataList);
+      Collections.sort(allPayments, new PaymentComparator());
+      return allPayments;
+    }
 
-      if (paymentData instanceof PaymentRequestData) {
-        PaymentRequestData paymentRequestData = (PaymentRequestData) paymentData;
-        isQrCodeLabelMatched = paymentRequestData.getLabel().toLowerCase().contains(lowerQuery);
-        isPaymentAddressMatched = paymentRequestData.getAddress().toLowerCase().contains(lowerQuery);
-      } else if (paymentData instanceof TransactionData) {
-        TransactionData transactionData = (TransactionData) paymentData;
-        isOutputAddressMatched = Joiner.on(" ").join(transactionData.getOutputAddresses()).toLowerCase().contains(lowerQuery);
-        isRawTransactionMatched = transactionData.getRawTransaction().toLowerCase().contains(lowerQuery);
-      }
-      if (isDescriptionMatched
-        || isNoteMatched
-        || isQrCodeLabelMatched
-        || isPaymentAddressMatched
-        || isOutputAddressMatched
-        || isRawTransactionMatched
-        ) {
-        filteredPayments.add(paymentData);
+    synchronized (paymentSearchIndex) {
+      if (paymentDataListVersion != indexedPaymentDataVersion) {
+        // Only the payments that have changed since the last search are re-indexed
+        paymentSearchIndex.update(paymentDataList);
+        indexedPaymentDataVersion = paymentDataListVersion;
       }
     }
 
-    Collections.sort(filteredPayments, new PaymentComparator());
-
-    return filteredPayments;
+    return paymentSearchIndex.search(query, maxResults, new PaymentComparator());
   }
 
   /**
@@ -297,7 +507,7 @@ public class WalletService {
    *
    * @return TransactionData the transaction data
    */
-  public TransactionData adaptTransaction(Wallet wallet, Transaction transaction) {
+  public TransactionData adaptTransaction(Wallet wallet, final Transaction transaction) {
 
     // Tx id
     String transactionHashAsString = transaction.getHashAsString();
@@ -343,16 +553,19 @@ public class WalletService {
     String description = calculateDescriptionAndUpdatePaymentRequests(wallet, transaction, transactionHashAsString, paymentType, amountBTC);
     // Also works out outputAddresses
 
-    String rawTransaction = transaction.toString();
-
-    int size = -1;
-    ByteArrayOutputStream byteOutputStream = new ByteArrayOutputStream();
-    try {
-      transaction.bitcoinSerialize(byteOutputStream);
-      size = byteOutputStream.size();
-    } catch (IOException e1) {
-      e1.printStackTrace();
-    }
+    // The raw form and size are only shown in the transaction details so defer them until then
+    Supplier<String> rawTransaction = Suppliers.memoize(new Supplier<String>() {
+      @Override
+      public String get() {
+        return transaction.toString();
+      }
+    });
+    Supplier<Integer> size = Suppliers.memoize(new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return transaction.bitcoinSerialize().length;
+      }
+    });
 
     List<String> outputAddresses = calculateOutputAddresses(transaction);
 
@@ -513,20 +726,37 @@ public class WalletService {
       if (transaction.getOutputs() != null) {
         for (TransactionOutput transactionOutput : transaction.getOutputs()) {
           // TODO Beef up description for other cases
-          description = description + " " + transactionOutput.getScriptPubKey().getToAddress(networkParameters);
+          description = description + " " + calculateRecipient(transactionOutput.getScriptPubKey().getToAddress(networkParameters));
         }
       }
     }
     return description;
   }
 
+  /**
+   * @param address The output address
+   *
+   * @return The name of the single contact using the address (directly or derived from an extended public key), otherwise the address
+   */
+  private String calculateRecipient(Address address) {
+
+    if (contactService.isPresent()) {
+      List<Contact> contacts = contactService.get().filterContactsByBitcoinAddress(address);
+      if (contacts.size() == 1) {
+        return contacts.get(0).getName();
+      }
+    }
+
+    return address.toString();
+  }
+
   private List<String> calculateOutputAddresses(Transaction transaction) {
     List<String> outputAddresses = Lists.newArrayList();
 
     if (transaction.getOutputs() != null) {
       for (TransactionOutput transactionOutput : transaction.getOutputs()) {
         String outputAddress = transactionOutput.getScriptPubKey().getToAddress(networkParameters).toString();
-        outputAddresses.add(outputAddress);
+        outputAddresses.add(ADDRESS_INTERNER.intern(outputAddress));
       }
     }
 
@@ -631,7 +861,7 @@ public class WalletService {
   }
 
   /**
-   * <p>Populate the internal cache of Payments from the backing store</p>
+   * <p>Populate the internal cache of Payments from the backing store and replay the journalled changes</p>
    */
   public void readPayments() throws PaymentsLoadException {
 
@@ -639,31 +869,45 @@ public class WalletService {
 
     try {
 
-      log.debug("Reading payments from '{}'", backingStoreFile.getAbsolutePath());
+      CharSequence password = walletSummary.getPassword();
+
+      if (backingStoreFile.exists()) {
+
+        log.debug("Reading payments from '{}'", backingStoreFile.getAbsolutePath());
 
-      ByteArrayInputStream decryptedInputStream = EncryptedFileReaderWriter.readAndDecrypt(backingStoreFile,
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
-        WalletManager.SCRYPT_SALT,
-        WalletManager.AES_INITIALISATION_VECTOR);
-      Payments payments = protobufSerializer.readPayments(decryptedInputStream);
+        byte[] decryptedBytes = EncryptedFileReaderWriter.readAndDecryptBytes(backingStoreFile,
+          password,
+          WalletManager.SCRYPT_SALT,
+          WalletManager.AES_INITIALISATION_VECTOR);
 
-      // For quick access payment requests and transaction infos are stored in maps
-      Collection<PaymentRequestData> paymentRequestDatas = payments.getPaymentRequestDatas();
-      if (paymentRequestDatas != null) {
-        paymentRequestMap.clear();
-        for (PaymentRequestData paymentRequestData : paymentRequestDatas) {
-          paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+        // Each entry is decoded straight from the decrypted buffer as it is put into the maps
+        Payments payments = protobufSerializer.readPayments(decryptedBytes);
+
+        // For quick access payment requests and transaction infos are stored in maps
+        Collection<PaymentRequestData> paymentRequestDatas = payments.getPaymentRequestDatas();
+        if (paymentRequestDatas != null) {
+          paymentRequestMap.clear();
+          for (PaymentRequestData paymentRequestData : paymentRequestDatas) {
+            paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+          }
         }
-      }
 
-      Collection<TransactionInfo> transactionInfos = payments.getTransactionInfos();
-      if (transactionInfos != null) {
-        transactionInfoMap.clear();
-        for (TransactionInfo transactionInfo : transactionInfos) {
-          transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+        Collection<TransactionInfo> transactionInfos = payments.getTransactionInfos();
+        if (transactionInfos != null) {
+          transactionInfoMap.clear();
+          for (TransactionInfo transactionInfo : transactionInfos) {
+            transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+          }
         }
       }
 
+      // Apply the changes made since the backing store was written
+      int replayed = paymentsJournal.replay(deriveKey(password), paymentRequestMap, transactionInfoMap);
+      log.debug("Replayed {} payments journal records", replayed);
+
+      // Descriptions, notes and fiat amounts may all have changed
+      invalidatePaymentDataList();
+
       log.debug("Reading payments completed");
 
     } catch (EncryptedFileReaderWriterException e) {
@@ -672,48 +916,194 @@ public class WalletService {
   }
 
   /**
-   * <p>Save the payments data to the backing store</p>
+   * <p>Save all the payments data to the backing store, compacting the journal into it</p>
+   * <p>Individual changes should be saved with {@link #writePaymentRequest(PaymentRequestData)} or
+   * {@link #writeTransactionInfo(TransactionInfo)} instead.</p>
    */
   public void writePayments() throws PaymentsSaveException {
 
+    Preconditions.checkNotNull(walletSummary.getPassword(), "'password' must be present");
+
+    writePayments(walletSummary.getPassword(), false);
+  }
+
+  /**
+   * <p>Save all the payments data to the backing store with a new password and then switch the wallet to it</p>
+   * <p>Appends are held off until the password has been switched so the journal never holds records written with
+   * different passwords.</p>
+   *
+   * @param newPassword The new wallet password
+   */
+  public void changePaymentsPassword(CharSequence newPassword) throws PaymentsSaveException {
+
+    Preconditions.checkNotNull(newPassword, "'newPassword' must be present");
+
+    writePayments(newPassword, true);
+  }
+
+  /**
+   * @param password       The password to write the backing store with
+   * @param switchPassword True if the wallet should use the password once the journal has been rotated
+   */
+  private void writePayments(CharSequence password, boolean switchPassword) throws PaymentsSaveException {
+
     Preconditions.checkNotNull(backingStoreFile, "'backingStoreFile' must be present. Initialise WalletService.");
-    Preconditions.checkState(WalletManager.INSTANCE.getCurrentWalletSummary().isPresent(), "Current wallet summary must be present");
 
-    try {
+    synchronized (snapshotLock) {
+
+      try {
+
+        log.debug("Writing payments to '{}'", backingStoreFile.getAbsolutePath());
+
+        Payments payments = new Payments();
+
+        // Appends hold the journal lock so the copy, the write and the rotation must be atomic with respect to them
+        synchronized (paymentsJournal) {
+          synchronized (transactionInfoMap) {
+            payments.setTransactionInfos(Lists.newArrayList(transactionInfoMap.values()));
+          }
+          payments.setPaymentRequestDatas(getPaymentRequests());
+
+          // The snapshot is written to a temporary file and renamed over the backing store so a failure leaves
+          // both the previous snapshot and the journal (written with the same password) in place
+          ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
+          protobufSerializer.writePayments(payments, byteArrayOutputStream);
+          EncryptedFileReaderWriter.encryptAndWrite(
+            byteArrayOutputStream.toByteArray(),
+            password,
+            backingStoreFile
+          );
+
+          // Only now does the snapshot contain every journalled change
+          paymentsJournal.rotate();
+          paymentsJournal.completeRotation();
+
+          // The journal is empty so appends can use the new password from here on
+          if (switchPassword) {
+            walletSummary.setPassword(password);
+          }
+        }
+
+        log.debug("Writing payments completed");
+
+      } catch (Exception e) {
+        log.error("Could not write to payments db '{}'. backingStoreFile.getAbsolutePath()", e);
+        throw new PaymentsSaveException("Could not write payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+      }
+    }
+  }
+
+  /**
+   * <p>Save a new or changed payment request by appending it to the journal</p>
+   *
+   * @param paymentRequestData The payment request, already added with {@link #addPaymentRequest(PaymentRequestData)}
+   */
+  public void writePaymentRequest(PaymentRequestData paymentRequestData) throws PaymentsSaveException {
 
-      log.debug("Writing payments to '{}'", backingStoreFile.getAbsolutePath());
+    Preconditions.checkNotNull(paymentsJournal, "'paymentsJournal' must be present. Initialise WalletService.");
+
+    // The key is derived under the journal lock so a change of password cannot come between them
+    synchronized (paymentsJournal) {
+      paymentsJournal.appendPaymentRequest(paymentRequestData, deriveWalletKey());
+    }
+    compactIfRequired();
+  }
 
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(1024);
-      Payments payments = new Payments();
-      payments.setTransactionInfos(transactionInfoMap.values());
-      payments.setPaymentRequestDatas(paymentRequestMap.values());
-      protobufSerializer.writePayments(payments, byteArrayOutputStream);
-      EncryptedFileReaderWriter.encryptAndWrite(
-        byteArrayOutputStream.toByteArray(),
-        WalletManager.INSTANCE.getCurrentWalletSummary().get().getPassword(),
-        backingStoreFile
-      );
+  /**
+   * <p>Save a new or changed transaction info by appending it to the journal</p>
+   *
+   * @param transactionInfo The transaction info, already added with {@link #addTransactionInfo(TransactionInfo)}
+   */
+  public void writeTransactionInfo(TransactionInfo transactionInfo) throws PaymentsSaveException {
 
-      log.debug("Writing payments completed");
+    Preconditions.checkNotNull(paymentsJournal, "'paymentsJournal' must be present. Initialise WalletService.");
 
-    } catch (Exception e) {
-      log.error("Could not write to payments db '{}'. backingStoreFile.getAbsolutePath()", e);
-      throw new PaymentsSaveException("Could not write payments db '" + backingStoreFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+    synchronized (paymentsJournal) {
+      paymentsJournal.appendTransactionInfo(transactionInfo, deriveWalletKey());
     }
+    compactIfRequired();
+  }
+
+  /**
+   * @return The AES key for the wallet owning this service (scrypt is only run when the password changes)
+   */
+  private KeyParameter deriveWalletKey() {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present. Initialise WalletService.");
+    Preconditions.checkNotNull(walletSummary.getPassword(), "'password' must be present");
+
+    KeyParameter keyParameter = deriveKey(walletSummary.getPassword());
+
+    // The wallet was opened with (or changed to) this password so the key is known to be correct
+    DerivedKeyCache.INSTANCE.confirmKey(walletSummary.getPassword(), EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT), keyParameter);
+
+    return keyParameter;
+  }
+
+  private static KeyParameter deriveKey(CharSequence password) {
+    return DerivedKeyCache.INSTANCE.deriveKey(password, EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT));
+  }
+
+  /**
+   * <p>Compact the journal into the backing store in the background once it has grown large enough</p>
+   */
+  private void compactIfRequired() {
+
+    if (paymentsJournal.getRecordCount() < MAXIMUM_JOURNAL_RECORDS || !compactionPending.compareAndSet(false, true)) {
+      return;
+    }
+
+    getOrCreateExecutorService().submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          writePayments();
+        } catch (RuntimeException e) {
+          // The journal remains in place so nothing is lost
+          log.warn("Could not compact payments journal", e);
+        } finally {
+          compactionPending.set(false);
+        }
+      }
+    });
   }
 
   public WalletId getWalletId() {
     return walletId;
   }
 
+  /**
+   * @return The summary of the wallet owning this service
+   */
+  public WalletSummary getWalletSummary() {
+    return walletSummary;
+  }
+
+  /**
+   * @param walletSummary The summary of the same wallet after it has been opened again
+   */
+  void setWalletSummary(WalletSummary walletSummary) {
+
+    Preconditions.checkNotNull(walletSummary, "'walletSummary' must be present");
+    Preconditions.checkArgument(walletSummary.getWalletId().equals(walletId), "'walletSummary' must be for the same wallet");
+
+    this.walletSummary = walletSummary;
+  }
+
   public void addPaymentRequest(PaymentRequestData paymentRequestData) {
 
     paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
 
+    // Transaction descriptions are derived from the payment requests they fund
+    invalidatePaymentDataList();
+
   }
 
   public void addTransactionInfo(TransactionInfo transactionInfo) {
     transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+
+    // The note and fiat amount of the transaction may have changed
+    invalidateTransactionData(transactionInfo.getHash());
   }
 
   public TransactionInfo getTransactionInfoByHash(String transactionHashAsString) {
@@ -722,7 +1112,9 @@ public class WalletService {
 
 
   List<PaymentRequestData> getPaymentRequests() {
-    return Lists.newArrayList(paymentRequestMap.values());
+    synchronized (paymentRequestMap) {
+      return Lists.newArrayList(paymentRequestMap.values());
+    }
   }
 
   /**
@@ -736,14 +1128,13 @@ public class WalletService {
    */
   public String generateNextReceivingAddress(Optional<CharSequence> walletPasswordOptional) {
 
-    Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
-    if (!currentWalletSummary.isPresent()) {
+    if (walletSummary == null || walletSummary.getWallet() == null) {
       // No wallet is present
       throw new IllegalStateException("Trying to add a key to a non-existent wallet");
     } else {
       // If there is no password then recycle the first address in the wallet
       if (walletPasswordOptional.isPresent()) {
-        ECKey newKey = currentWalletSummary.get().getWallet().freshReceiveKey();
+        ECKey newKey = walletSummary.getWallet().freshReceiveKey();
         return newKey.toAddress(networkParameters).toString();
       } else {
         // A password is required as all wallets are encrypted
@@ -784,7 +1175,12 @@ public class WalletService {
 
     undoDeletePaymentRequestStack.push(paymentRequestData);
     paymentRequestMap.remove(paymentRequestData.getAddress());
-    writePayments();
+    invalidatePaymentDataList();
+
+    synchronized (paymentsJournal) {
+      paymentsJournal.appendDeletePaymentRequest(paymentRequestData.getAddress(), deriveWalletKey());
+    }
+    compactIfRequired();
   }
 
   /**
@@ -795,7 +1191,7 @@ public class WalletService {
     if (!undoDeletePaymentRequestStack.isEmpty()) {
       PaymentRequestData deletedPaymentRequestData = undoDeletePaymentRequestStack.pop();
       addPaymentRequest(deletedPaymentRequestData);
-      writePayments();
+      writePaymentRequest(deletedPaymentRequestData);
     }
   }
 
@@ -840,11 +1236,7 @@ public class WalletService {
    */
   public static void changeWalletPassword(final WalletSummary walletSummary, final String oldPassword, final String newPassword) {
 
-    if (executorService == null) {
-      executorService = SafeExecutors.newSingleThreadExecutor("wallet-service");
-    }
-
-    executorService.submit(new Runnable() {
+    getOrCreateExecutorService().submit(new Runnable() {
       @Override
       public void run() {
         WalletService.changeWalletPasswordInternal(walletSummary, oldPassword, newPassword);
@@ -852,6 +1244,15 @@ public class WalletService {
     });
   }
 
+  private static synchronized ExecutorService getOrCreateExecutorService() {
+
+    if (executorService == null) {
+      executorService = SafeExecutors.newSingleThreadExecutor("wallet-service");
+    }
+
+    return executorService;
+  }
+
   static void changeWalletPasswordInternal(final WalletSummary walletSummary, final String oldPassword, final String newPassword) {
 
     if (walletSummary.getWallet() != null) {
@@ -905,17 +1306,23 @@ public class WalletService {
 
         // Change the password used to encrypt the wallet
         wallet.decrypt(oldPassword);
+
+        // Rotate the payments journal under its lock before switching the password so no append is written with
+        // the new password into a journal of records written with the old one
+        walletService.changePaymentsPassword(newPassword);
         walletSummary.setPassword(newPassword);
+
+        // Keys derived from the old password must not be reused
+        DerivedKeyCache.INSTANCE.clear();
         walletSummary.setEncryptedBackupKey(encryptedNewBackupAESKey);
         walletSummary.setEncryptedPassword(encryptedPaddedNewPassword);
 
         // Save the wallet summary file
         WalletManager.updateWalletSummary(WalletManager.INSTANCE.getCurrentWalletSummaryFile(applicationDataDirectory).get(), walletSummary);
 
-        // Save all the Contacts, history and payment information using the new wallet password
+        // Save the contacts and history using the new wallet password
         contactService.writeContacts();
         historyService.writeHistory();
-        walletService.writePayments();
 
         wallet.encrypt(newPassword);
 
@@ -937,6 +1344,11 @@ public class WalletService {
   @Subscribe
   public void onTransactionSeenEvent(TransactionSeenEvent event) {
 
+    if (!isOwnTransaction(event)) {
+      // Another open wallet has its own WalletService
+      return;
+    }
+
     // Get/ Create a transactionInfo to match the event
     TransactionInfo transactionInfo = transactionInfoMap.get(event.getTransactionId());
     if (transactionInfo == null) {
@@ -978,6 +1390,29 @@ public class WalletService {
     } else {
       log.trace("There was already a TransactionInfo: for " + event.getTransactionId() + ", value = " + transactionInfo.toString());
     }
+
+    // Adapt only this transaction on the next refresh
+    invalidateTransactionData(event.getTransactionId());
+  }
+
+  /**
+   * @param event The transaction seen event
+   *
+   * @return True if the event is for the wallet owning this service
+   */
+  private boolean isOwnTransaction(TransactionSeenEvent event) {
+
+    if (walletSummary == null) {
+      return false;
+    }
+
+    if (event.getWalletId().isPresent()) {
+      return event.getWalletId().get().equals(walletId);
+    }
+
+    // Fall back to the wallet contents for events that do not name a wallet
+    Wallet wallet = walletSummary.getWallet();
+    return wallet != null && wallet.getTransaction(new Sha256Hash(event.getTransactionId())) != null;
   }
 
   /**
@@ -986,7 +1421,7 @@ public class WalletService {
   @Subscribe
   public void onShutdownEvent(ShutdownEvent shutdownEvent) {
 
-    if (!WalletManager.INSTANCE.getCurrentWalletSummary().isPresent()) {
+    if (walletSummary == null || walletSummary.getPassword() == null) {
       // Nothing to write
       return;
     }
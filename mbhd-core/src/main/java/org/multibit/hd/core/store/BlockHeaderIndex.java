@@ -0,0 +1,310 @@
+package org.multibit.hd.core.store;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.ProtocolException;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>Index to provide the following to BlockStoreManager:</p>
+ * <ul>
+ * <li>Persistent record of every block header seen on the best chain, by height</li>
+ * <li>Fast lookup of the last header before a given date using a memory mapped binary search</li>
+ * </ul>
+ * <p>The SPV block store only retains the most recent headers, so without this index a replay has to start again
+ * from the nearest checkpoint. Each record is the compact form of a <code>StoredBlock</code> (chain work, height and
+ * header) so a block store can be seeded directly from it.</p>
+ * <p>The records are contiguous from a base height. Putting a block at or below the top truncates anything above it
+ * (a reorganisation), while a gap starts the index again from the new block.</p>
+ *
+ * @since 0.0.1
+ */
+public class BlockHeaderIndex implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(BlockHeaderIndex.class);
+
+  /**
+   * "MBHI" identifies the index file
+   */
+  private static final int MAGIC = 0x4d424849;
+
+  private static final int VERSION = 1;
+
+  /**
+   * Magic, version, base height and record count
+   */
+  static final int FILE_HEADER_SIZE = 16;
+
+  /**
+   * Chain work (12 bytes), height (4 bytes) and block header (80 bytes)
+   */
+  static final int RECORD_SIZE = StoredBlock.COMPACT_SERIALIZED_SIZE;
+
+  /**
+   * The offset of the little endian block time within a record
+   */
+  private static final int TIME_OFFSET = 12 + 4 + 68;
+
+  private final NetworkParameters networkParameters;
+
+  private final RandomAccessFile randomAccessFile;
+
+  private final FileChannel channel;
+
+  private int baseHeight = -1;
+
+  private int count = 0;
+
+  /**
+   * @param networkParameters The Bitcoin network parameters
+   * @param indexFile         The index file (created if it does not exist)
+   *
+   * @throws IOException If the index file cannot be opened
+   */
+  public BlockHeaderIndex(NetworkParameters networkParameters, File indexFile) throws IOException {
+
+    Preconditions.checkNotNull(networkParameters, "'networkParameters' must be present");
+    Preconditions.checkNotNull(indexFile, "'indexFile' must be present");
+
+    this.networkParameters = networkParameters;
+    this.randomAccessFile = new RandomAccessFile(indexFile, "rw");
+    this.channel = randomAccessFile.getChannel();
+
+    readFileHeader(indexFile);
+  }
+
+  /**
+   * <p>Record a block on the best chain</p>
+   *
+   * @param block The stored block
+   *
+   * @throws IOException If the index cannot be written
+   */
+  public synchronized void put(StoredBlock block) throws IOException {
+
+    Preconditions.checkNotNull(block, "'block' must be present");
+
+    int height = block.getHeight();
+
+    if (count == 0 || height < baseHeight || height > baseHeight + count) {
+      // Not contiguous with the existing records so start again from here
+      baseHeight = height;
+      count = 0;
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    block.serializeCompact(record);
+    record.flip();
+    channel.write(record, recordPosition(height - baseHeight));
+
+    // Anything above this height is no longer on the best chain
+    count = height - baseHeight + 1;
+
+    writeFileHeader();
+  }
+
+  /**
+   * @param height The block height
+   *
+   * @return The stored block at the given height, or absent if it is not indexed
+   *
+   * @throws IOException If the index cannot be read
+   */
+  public synchronized Optional<StoredBlock> get(int height) throws IOException {
+
+    if (count == 0 || height < baseHeight || height >= baseHeight + count) {
+      return Optional.absent();
+    }
+
+    MappedByteBuffer records = mapRecords();
+
+    return Optional.of(readRecord(records, height - baseHeight));
+  }
+
+  /**
+   * <p>Find the highest indexed block with a time at or before the given time</p>
+   * <p>Block times are only approximately ordered so callers should allow a safety margin.</p>
+   *
+   * @param timeSeconds The time in seconds since the epoch
+   *
+   * @return The stored block, or absent if the index starts after the given time
+   *
+   * @throws IOException If the index cannot be read
+   */
+  public synchronized Optional<StoredBlock> findLastBefore(long timeSeconds) throws IOException {
+
+    if (count == 0) {
+      return Optional.absent();
+    }
+
+    MappedByteBuffer records = mapRecords();
+    int found = indexOfLastBefore(records, timeSeconds);
+
+    if (found == -1) {
+      return Optional.absent();
+    }
+
+    return Optional.of(readRecord(records, found));
+  }
+
+  /**
+   * <p>Find the highest indexed block on a difficulty retarget height with a time at or before the given time</p>
+   * <p>A block store can only be seeded from a retarget block since the block chain walks back to the last one at
+   * the next difficulty transition (the same reason checkpoints are only made at these heights).</p>
+   *
+   * @param timeSeconds The time in seconds since the epoch
+   * @param interval    The number of blocks between difficulty retargets
+   *
+   * @return The stored block, or absent if the index holds no retarget block before the given time
+   *
+   * @throws IOException If the index cannot be read
+   */
+  public synchronized Optional<StoredBlock> findLastRetargetBefore(long timeSeconds, int interval) throws IOException {
+
+    Preconditions.checkArgument(interval > 0, "'interval' must be positive");
+
+    if (count == 0) {
+      return Optional.absent();
+    }
+
+    MappedByteBuffer records = mapRecords();
+    int found = indexOfLastBefore(records, timeSeconds);
+
+    if (found == -1) {
+      return Optional.absent();
+    }
+
+    int height = baseHeight + found;
+    int retargetHeight = height - height % interval;
+    if (retargetHeight < baseHeight) {
+      return Optional.absent();
+    }
+
+    return Optional.of(readRecord(records, retargetHeight - baseHeight));
+  }
+
+  /**
+   * @param records     The mapped records
+   * @param timeSeconds The time in seconds since the epoch
+   *
+   * @return The index of the last record with a time at or before the given time, -1 if there is none
+   */
+  private int indexOfLastBefore(ByteBuffer records, long timeSeconds) {
+
+    ByteBuffer littleEndianRecords = records.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+    // Binary search for the last record with a time at or before the target
+    int low = 0;
+    int high = count - 1;
+    int found = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long blockTime = littleEndianRecords.getInt(middle * RECORD_SIZE + TIME_OFFSET) & 0xffffffffL;
+      if (blockTime <= timeSeconds) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+
+    return found;
+  }
+
+  /**
+   * @return The lowest indexed height, -1 if the index is empty
+   */
+  public synchronized int getBaseHeight() {
+    return count == 0 ? -1 : baseHeight;
+  }
+
+  /**
+   * @return The highest indexed height, -1 if the index is empty
+   */
+  public synchronized int getTopHeight() {
+    return count == 0 ? -1 : baseHeight + count - 1;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    randomAccessFile.close();
+  }
+
+  /**
+   * @param indexFile The index file for logging
+   */
+  private void readFileHeader(File indexFile) throws IOException {
+
+    if (channel.size() < FILE_HEADER_SIZE) {
+      return;
+    }
+
+    ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    channel.read(fileHeader, 0);
+    fileHeader.flip();
+
+    int magic = fileHeader.getInt();
+    int version = fileHeader.getInt();
+    int storedBaseHeight = fileHeader.getInt();
+    int storedCount = fileHeader.getInt();
+
+    if (magic != MAGIC
+      || version != VERSION
+      || storedBaseHeight < 0
+      || storedCount < 0
+      || channel.size() < recordPosition(storedCount)) {
+      // The index is only a cache of the block chain so start again rather than fail
+      log.warn("Ignoring unreadable block header index '{}'", indexFile.getAbsolutePath());
+      return;
+    }
+
+    baseHeight = storedBaseHeight;
+    count = storedCount;
+  }
+
+  private void writeFileHeader() throws IOException {
+
+    ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+    fileHeader.putInt(MAGIC);
+    fileHeader.putInt(VERSION);
+    fileHeader.putInt(baseHeight);
+    fileHeader.putInt(count);
+    fileHeader.flip();
+
+    channel.write(fileHeader, 0);
+  }
+
+  private MappedByteBuffer mapRecords() throws IOException {
+    return channel.map(FileChannel.MapMode.READ_ONLY, FILE_HEADER_SIZE, (long) count * RECORD_SIZE);
+  }
+
+  private StoredBlock readRecord(ByteBuffer records, int index) throws IOException {
+
+    ByteBuffer record = records.duplicate();
+    record.position(index * RECORD_SIZE);
+    record.limit((index + 1) * RECORD_SIZE);
+
+    try {
+      return StoredBlock.deserializeCompact(networkParameters, record.slice());
+    } catch (ProtocolException e) {
+      throw new IOException("Corrupt block header index record at height " + (baseHeight + index), e);
+    }
+  }
+
+  private static long recordPosition(int index) {
+    return FILE_HEADER_SIZE + (long) index * RECORD_SIZE;
+  }
+
+}
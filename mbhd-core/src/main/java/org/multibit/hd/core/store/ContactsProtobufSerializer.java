@@ -133,6 +133,37 @@ public class ContactsProtobufSerializer {
     }
   }
 
+  /**
+   * <p>Indexes the contacts in the given decrypted buffer without decoding them. Each contact is decoded when it
+   * is first accessed so a large contacts db can be opened in a single pass over its tags and lengths.</p>
+   *
+   * @param buffer The serialized contacts (not copied so must not be modified afterwards)
+   *
+   * @return A read only list of the contacts in the order they were written
+   *
+   * @throws ContactsLoadException If the buffer cannot be indexed or (on access) a contact cannot be decoded
+   */
+  public List<Contact> readContacts(byte[] buffer) throws ContactsLoadException {
+
+    final ProtobufRecordIndex index;
+    try {
+      index = new ProtobufRecordIndex(buffer, MBHDContactsProtos.Contacts.CONTACT_FIELD_NUMBER);
+    } catch (IOException e) {
+      throw new ContactsLoadException("Could not index contacts buffer", e);
+    }
+
+    return new LazyRecordList<Contact>(index.size()) {
+      @Override
+      protected Contact decode(int recordIndex) {
+        try {
+          return makeContact(index.parse(recordIndex, MBHDContactsProtos.Contact.PARSER));
+        } catch (IOException e) {
+          throw new ContactsLoadException("Could not parse contact " + recordIndex, e);
+        }
+      }
+    };
+  }
+
   /**
    * <p>Loads contacts data from the given protocol buffer and inserts it into the given Set of Contact object.
    *
@@ -149,29 +180,7 @@ public class ContactsProtobufSerializer {
 
     if (contactProtos != null) {
       for (MBHDContactsProtos.Contact contactProto : contactProtos) {
-        String idAsString = contactProto.getId();
-        UUID id = UUID.fromString(idAsString);
-
-        String name = contactProto.getName();
-
-        Contact contact = new Contact(id, name);
-
-        contact.setEmail(contactProto.getEmail());
-        contact.setBitcoinAddress(contactProto.getBitcoinAddress());
-        contact.setImagePath(contactProto.getImagePath());
-        contact.setExtendedPublicKey(contactProto.getExtendedPublicKey());
-        contact.setNotes(contactProto.getNotes());
-
-        // Create tags
-        List<String> tags = Lists.newArrayList();
-        List<MBHDContactsProtos.Tag> tagProtos = contactProto.getTagList();
-        if (tagProtos != null) {
-          for (MBHDContactsProtos.Tag tagProto : tagProtos) {
-            tags.add(tagProto.getTagValue());
-          }
-        }
-        contact.setTags(tags);
-        readContacts.add(contact);
+        readContacts.add(makeContact(contactProto));
       }
     }
 
@@ -180,6 +189,33 @@ public class ContactsProtobufSerializer {
     contacts.addAll(readContacts);
   }
 
+  private static Contact makeContact(MBHDContactsProtos.Contact contactProto) {
+    String idAsString = contactProto.getId();
+    UUID id = UUID.fromString(idAsString);
+
+    String name = contactProto.getName();
+
+    Contact contact = new Contact(id, name);
+
+    contact.setEmail(contactProto.getEmail());
+    contact.setBitcoinAddress(contactProto.getBitcoinAddress());
+    contact.setImagePath(contactProto.getImagePath());
+    contact.setExtendedPublicKey(contactProto.getExtendedPublicKey());
+    contact.setNotes(contactProto.getNotes());
+
+    // Create tags
+    List<String> tags = Lists.newArrayList();
+    List<MBHDContactsProtos.Tag> tagProtos = contactProto.getTagList();
+    if (tagProtos != null) {
+      for (MBHDContactsProtos.Tag tagProto : tagProtos) {
+        tags.add(tagProto.getTagValue());
+      }
+    }
+    contact.setTags(tags);
+
+    return contact;
+  }
+
   /**
    * Returns the loaded protocol buffer from the given byte stream. This method is designed for low level work involving the
    * wallet file format itself.
@@ -96,6 +96,37 @@ public class HistoryProtobufSerializer {
     return historyEntries;
   }
 
+  /**
+   * <p>Indexes the history entries in the given decrypted buffer without decoding them. Each entry is decoded when
+   * it is first accessed so a long history can be opened in a single pass over its tags and lengths.</p>
+   *
+   * @param buffer The serialized history (not copied so must not be modified afterwards)
+   *
+   * @return A read only list of the history entries in the order they were written
+   *
+   * @throws HistoryLoadException If the buffer cannot be indexed or (on access) an entry cannot be decoded
+   */
+  public List<HistoryEntry> readHistoryEntries(byte[] buffer) {
+
+    final ProtobufRecordIndex index;
+    try {
+      index = new ProtobufRecordIndex(buffer, MBHDHistoryProtos.History.HISTORYENTRY_FIELD_NUMBER);
+    } catch (IOException e) {
+      throw new HistoryLoadException("Could not index history buffer", e);
+    }
+
+    return new LazyRecordList<HistoryEntry>(index.size()) {
+      @Override
+      protected HistoryEntry decode(int recordIndex) {
+        try {
+          return makeHistoryEntry(index.parse(recordIndex, MBHDHistoryProtos.HistoryEntry.PARSER));
+        } catch (IOException e) {
+          throw new HistoryLoadException("Could not parse history entry " + recordIndex, e);
+        }
+      }
+    };
+  }
+
   /**
    * Returns the loaded protocol buffer from the given byte stream. This method is designed for low level work involving the
    * wallet file format itself.
@@ -121,17 +152,7 @@ public class HistoryProtobufSerializer {
 
     if (historyProtos != null) {
       for (MBHDHistoryProtos.HistoryEntry historyEntryProto : historyProtos) {
-
-        String idAsString = historyEntryProto.getId();
-
-        UUID id = UUID.fromString(idAsString);
-        String description = historyEntryProto.getDescription();
-        DateTime created = new DateTime(historyEntryProto.getCreated(), DateTimeZone.UTC);
-
-        HistoryEntry history = new HistoryEntry(id, description, created);
-        history.setNotes(historyEntryProto.getNotes());
-
-        readHistoryEntry.add(history);
+        readHistoryEntry.add(makeHistoryEntry(historyEntryProto));
       }
 
     }
@@ -141,6 +162,20 @@ public class HistoryProtobufSerializer {
     historyEntries.addAll(readHistoryEntry);
   }
 
+  private static HistoryEntry makeHistoryEntry(MBHDHistoryProtos.HistoryEntry historyEntryProto) {
+
+    String idAsString = historyEntryProto.getId();
+
+    UUID id = UUID.fromString(idAsString);
+    String description = historyEntryProto.getDescription();
+    DateTime created = new DateTime(historyEntryProto.getCreated(), DateTimeZone.UTC);
+
+    HistoryEntry history = new HistoryEntry(id, description, created);
+    history.setNotes(historyEntryProto.getNotes());
+
+    return history;
+  }
+
   private static MBHDHistoryProtos.HistoryEntry makeHistoryEntryProto(HistoryEntry historyEntry) {
 
     MBHDHistoryProtos.HistoryEntry.Builder historyBuilder = MBHDHistoryProtos.HistoryEntry.newBuilder();
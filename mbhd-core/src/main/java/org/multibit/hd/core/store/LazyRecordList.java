@@ -0,0 +1,60 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Preconditions;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * <p>List to provide the following to the protobuf serializers:</p>
+ * <ul>
+ * <li>Read only view of the records in a {@link ProtobufRecordIndex}</li>
+ * <li>Each record decoded on first access and retained thereafter</li>
+ * </ul>
+ *
+ * @param <T> The type of the decoded record
+ *
+ * @since 0.0.1
+ */
+public abstract class LazyRecordList<T> extends AbstractList<T> implements RandomAccess {
+
+  private final Object[] decoded;
+
+  /**
+   * @param size The number of records
+   */
+  protected LazyRecordList(int size) {
+
+    Preconditions.checkArgument(size >= 0, "'size' must not be negative");
+
+    this.decoded = new Object[size];
+  }
+
+  /**
+   * @param index The record index
+   *
+   * @return The decoded record (never null)
+   */
+  protected abstract T decode(int index);
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized T get(int index) {
+
+    Preconditions.checkElementIndex(index, decoded.length);
+
+    Object record = decoded[index];
+    if (record == null) {
+      record = Preconditions.checkNotNull(decode(index), "Decoded record must be present");
+      decoded[index] = record;
+    }
+
+    return (T) record;
+  }
+
+  @Override
+  public int size() {
+    return decoded.length;
+  }
+
+}
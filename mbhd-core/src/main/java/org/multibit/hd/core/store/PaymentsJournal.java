@@ -0,0 +1,445 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.exceptions.PaymentsLoadException;
+import org.multibit.hd.core.exceptions.PaymentsSaveException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>Journal to provide the following to WalletService:</p>
+ * <ul>
+ * <li>Append-only storage of individual changes to the payments database</li>
+ * <li>Authenticated encryption of each change</li>
+ * <li>Crash-safe replay on top of the last snapshot</li>
+ * </ul>
+ * <p>The file starts with a check value for the key so that a journal written with another password is rejected
+ * rather than mistaken for damage. Each record is the length, a random initialisation vector, the AES encrypted
+ * change and an HMAC-SHA256 of all three so that a torn or tampered record is detected. A change is either a
+ * payment request, a transaction info (each as a single entry <code>Payments</code> protobuf) or the address of a
+ * deleted payment request.</p>
+ * <p>Compaction writes a new snapshot of the whole database in two steps. {@link #rotate()} moves the current
+ * records aside so that new changes can be appended while the snapshot is written, and
+ * {@link #completeRotation()} removes them once the snapshot is safely on disk. Replaying a change on a snapshot
+ * that already contains it has no effect, so a crash at any point between the two steps loses nothing.</p>
+ *
+ * @since 0.0.1
+ */
+public class PaymentsJournal {
+
+  private static final Logger log = LoggerFactory.getLogger(PaymentsJournal.class);
+
+  /**
+   * The suffix of the records moved aside during compaction
+   */
+  public static final String ROTATED_SUFFIX = ".old";
+
+  /**
+   * "MBPJ" identifies a journal file
+   */
+  private static final int MAGIC = 0x4d42504a;
+
+  private static final byte PAYMENT_REQUEST = 1;
+  private static final byte DELETE_PAYMENT_REQUEST = 2;
+  private static final byte TRANSACTION_INFO = 3;
+
+  private static final int IV_LENGTH = AESUtils.BLOCK_LENGTH;
+  private static final int MAC_LENGTH = 32;
+
+  /**
+   * Magic and key check
+   */
+  private static final int FILE_HEADER_SIZE = 4 + MAC_LENGTH;
+
+  /**
+   * Guards against reading an absurd record length from a damaged file
+   */
+  private static final int MAXIMUM_RECORD_LENGTH = 16 * 1024 * 1024;
+
+  private static final byte[] MAC_KEY_LABEL = "MultiBit HD payments journal".getBytes(Charsets.UTF_8);
+
+  private static final byte[] KEY_CHECK_LABEL = "MultiBit HD payments journal key check".getBytes(Charsets.UTF_8);
+
+  private final File journalFile;
+
+  private final File rotatedFile;
+
+  private final PaymentsProtobufSerializer protobufSerializer;
+
+  private final SecureRandom secureRandom = new SecureRandom();
+
+  private int recordCount = 0;
+
+  /**
+   * @param journalFile        The journal file (created on the first append)
+   * @param protobufSerializer The serializer for the payments protobuf
+   */
+  public PaymentsJournal(File journalFile, PaymentsProtobufSerializer protobufSerializer) {
+
+    Preconditions.checkNotNull(journalFile, "'journalFile' must be present");
+    Preconditions.checkNotNull(protobufSerializer, "'protobufSerializer' must be present");
+
+    this.journalFile = journalFile;
+    this.rotatedFile = new File(journalFile.getAbsolutePath() + ROTATED_SUFFIX);
+    this.protobufSerializer = protobufSerializer;
+  }
+
+  /**
+   * @param paymentRequestData The added or changed payment request
+   * @param aesKey             The AES key derived from the wallet password
+   */
+  public synchronized void appendPaymentRequest(PaymentRequestData paymentRequestData, KeyParameter aesKey) throws PaymentsSaveException {
+
+    Payments payments = new Payments();
+    payments.setPaymentRequestDatas(Lists.newArrayList(paymentRequestData));
+    payments.setTransactionInfos(Lists.<TransactionInfo>newArrayList());
+
+    append(PAYMENT_REQUEST, serialize(payments), aesKey);
+  }
+
+  /**
+   * @param address The address of the deleted payment request
+   * @param aesKey  The AES key derived from the wallet password
+   */
+  public synchronized void appendDeletePaymentRequest(String address, KeyParameter aesKey) throws PaymentsSaveException {
+
+    Preconditions.checkNotNull(address, "'address' must be present");
+
+    append(DELETE_PAYMENT_REQUEST, address.getBytes(Charsets.UTF_8), aesKey);
+  }
+
+  /**
+   * @param transactionInfo The added or changed transaction info
+   * @param aesKey          The AES key derived from the wallet password
+   */
+  public synchronized void appendTransactionInfo(TransactionInfo transactionInfo, KeyParameter aesKey) throws PaymentsSaveException {
+
+    Payments payments = new Payments();
+    payments.setPaymentRequestDatas(Lists.<PaymentRequestData>newArrayList());
+    payments.setTransactionInfos(Lists.newArrayList(transactionInfo));
+
+    append(TRANSACTION_INFO, serialize(payments), aesKey);
+  }
+
+  /**
+   * <p>Apply the journalled changes, including any moved aside by an unfinished compaction, in order</p>
+   * <p>A torn record at the end of a journal (a crash during an append) is discarded.</p>
+   *
+   * @param aesKey             The AES key derived from the wallet password
+   * @param paymentRequestMap  The payment requests by address, from the snapshot
+   * @param transactionInfoMap The transaction infos by hash, from the snapshot
+   *
+   * @return The number of changes applied
+   */
+  public synchronized int replay(
+    KeyParameter aesKey,
+    Map<String, PaymentRequestData> paymentRequestMap,
+    Map<String, TransactionInfo> transactionInfoMap
+  ) throws PaymentsLoadException {
+
+    int applied = replay(rotatedFile, aesKey, paymentRequestMap, transactionInfoMap);
+    recordCount = replay(journalFile, aesKey, paymentRequestMap, transactionInfoMap);
+
+    return applied + recordCount;
+  }
+
+  /**
+   * <p>Move the current records aside at the start of a compaction</p>
+   */
+  public synchronized void rotate() throws PaymentsSaveException {
+
+    if (!journalFile.exists()) {
+      return;
+    }
+
+    try {
+      if (rotatedFile.exists()) {
+        // An earlier compaction did not complete so keep its records ahead of the current ones
+        appendRecords(journalFile, rotatedFile);
+        if (!journalFile.delete()) {
+          throw new IOException("Could not delete '" + journalFile.getAbsolutePath() + "'");
+        }
+      } else if (!journalFile.renameTo(rotatedFile)) {
+        throw new IOException("Could not rename '" + journalFile.getAbsolutePath() + "'");
+      }
+    } catch (IOException e) {
+      throw new PaymentsSaveException("Could not rotate payments journal. Error was '" + e.getMessage() + "'.", e);
+    }
+
+    recordCount = 0;
+  }
+
+  /**
+   * <p>Remove the records moved aside once the snapshot containing them has been written</p>
+   */
+  public synchronized void completeRotation() {
+
+    if (rotatedFile.exists() && !rotatedFile.delete()) {
+      log.warn("Could not delete rotated payments journal '{}'", rotatedFile.getAbsolutePath());
+    }
+  }
+
+  /**
+   * @return The number of records in the current journal
+   */
+  public synchronized int getRecordCount() {
+    return recordCount;
+  }
+
+  private byte[] serialize(Payments payments) throws PaymentsSaveException {
+
+    try {
+      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(256);
+      protobufSerializer.writePayments(payments, byteArrayOutputStream);
+      return byteArrayOutputStream.toByteArray();
+    } catch (IOException e) {
+      throw new PaymentsSaveException("Could not serialize payments journal record. Error was '" + e.getMessage() + "'.", e);
+    }
+  }
+
+  private void append(byte type, byte[] body, KeyParameter aesKey) throws PaymentsSaveException {
+
+    Preconditions.checkNotNull(aesKey, "'aesKey' must be present");
+
+    try {
+      byte[] plainBytes = new byte[body.length + 1];
+      plainBytes[0] = type;
+      System.arraycopy(body, 0, plainBytes, 1, body.length);
+
+      byte[] iv = new byte[IV_LENGTH];
+      secureRandom.nextBytes(iv);
+      byte[] encryptedBytes = AESUtils.encrypt(plainBytes, aesKey, iv);
+
+      int length = IV_LENGTH + encryptedBytes.length + MAC_LENGTH;
+      ByteBuffer record = ByteBuffer.allocate(4 + length);
+      record.putInt(length);
+      record.put(iv);
+      record.put(encryptedBytes);
+      record.put(mac(aesKey, record.array(), 4 + IV_LENGTH + encryptedBytes.length));
+      record.flip();
+
+      try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+        FileChannel channel = randomAccessFile.getChannel();
+        if (channel.size() == 0) {
+          ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE);
+          fileHeader.putInt(MAGIC);
+          fileHeader.put(keyCheck(aesKey));
+          fileHeader.flip();
+          channel.write(fileHeader, 0);
+        } else {
+          // Never mix records written with different keys
+          checkFileHeader(randomAccessFile, journalFile, aesKey);
+        }
+        long position = channel.size();
+        while (record.hasRemaining()) {
+          position += channel.write(record, position);
+        }
+        // The change is only durable once it reaches the disk
+        channel.force(false);
+      }
+
+      recordCount++;
+
+    } catch (Exception e) {
+      throw new PaymentsSaveException("Could not append to payments journal '" + journalFile.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+    }
+  }
+
+  private int replay(
+    File file,
+    KeyParameter aesKey,
+    Map<String, PaymentRequestData> paymentRequestMap,
+    Map<String, TransactionInfo> transactionInfoMap
+  ) throws PaymentsLoadException {
+
+    if (!file.exists()) {
+      return 0;
+    }
+
+    int applied = 0;
+    long validLength = FILE_HEADER_SIZE;
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+
+      if (randomAccessFile.length() < FILE_HEADER_SIZE) {
+        // A crash before the first record was written so start again
+        log.warn("Discarding incomplete payments journal '{}'", file.getAbsolutePath());
+        randomAccessFile.setLength(0);
+        return 0;
+      }
+
+      checkFileHeader(randomAccessFile, file, aesKey);
+
+      long fileLength = randomAccessFile.length();
+      randomAccessFile.seek(FILE_HEADER_SIZE);
+
+      while (validLength + 4 <= fileLength) {
+
+        int length = randomAccessFile.readInt();
+        long end = validLength + 4 + length;
+        if (length < IV_LENGTH + MAC_LENGTH || length > MAXIMUM_RECORD_LENGTH || end > fileLength) {
+          // Incomplete final record
+          break;
+        }
+
+        byte[] record = new byte[4 + length];
+        ByteBuffer.wrap(record).putInt(length);
+        randomAccessFile.readFully(record, 4, length);
+
+        byte[] expectedMac = mac(aesKey, record, record.length - MAC_LENGTH);
+        byte[] actualMac = Arrays.copyOfRange(record, record.length - MAC_LENGTH, record.length);
+        if (!constantTimeEquals(expectedMac, actualMac)) {
+          if (end == fileLength) {
+            // A final record with a bad MAC is treated as torn
+            break;
+          }
+          throw new PaymentsLoadException("Payments journal '" + file.getAbsolutePath() + "' is corrupt at offset " + validLength);
+        }
+
+        byte[] iv = Arrays.copyOfRange(record, 4, 4 + IV_LENGTH);
+        byte[] encryptedBytes = Arrays.copyOfRange(record, 4 + IV_LENGTH, record.length - MAC_LENGTH);
+        apply(AESUtils.decrypt(encryptedBytes, aesKey, iv), paymentRequestMap, transactionInfoMap);
+
+        applied++;
+        validLength = end;
+      }
+
+      if (validLength < fileLength) {
+        log.warn("Discarding {} bytes of incomplete record from '{}'", fileLength - validLength, file.getAbsolutePath());
+        randomAccessFile.setLength(validLength);
+      }
+
+    } catch (PaymentsLoadException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new PaymentsLoadException("Could not replay payments journal '" + file.getAbsolutePath() + "'. Error was '" + e.getMessage() + "'.", e);
+    }
+
+    return applied;
+  }
+
+  private void apply(
+    byte[] plainBytes,
+    Map<String, PaymentRequestData> paymentRequestMap,
+    Map<String, TransactionInfo> transactionInfoMap
+  ) throws PaymentsLoadException {
+
+    byte[] body = Arrays.copyOfRange(plainBytes, 1, plainBytes.length);
+
+    switch (plainBytes[0]) {
+      case PAYMENT_REQUEST:
+        for (PaymentRequestData paymentRequestData : protobufSerializer.readPayments(body).getPaymentRequestDatas()) {
+          paymentRequestMap.put(paymentRequestData.getAddress(), paymentRequestData);
+        }
+        break;
+      case DELETE_PAYMENT_REQUEST:
+        paymentRequestMap.remove(new String(body, Charsets.UTF_8));
+        break;
+      case TRANSACTION_INFO:
+        for (TransactionInfo transactionInfo : protobufSerializer.readPayments(body).getTransactionInfos()) {
+          transactionInfoMap.put(transactionInfo.getHash(), transactionInfo);
+        }
+        break;
+      default:
+        throw new PaymentsLoadException("Unknown payments journal record type " + plainBytes[0]);
+    }
+  }
+
+  /**
+   * @throws PaymentsLoadException If the file is not a journal or was written with a different key
+   */
+  private static void checkFileHeader(RandomAccessFile randomAccessFile, File file, KeyParameter aesKey) throws IOException, PaymentsLoadException {
+
+    if (randomAccessFile.length() < FILE_HEADER_SIZE) {
+      throw new PaymentsLoadException("'" + file.getAbsolutePath() + "' is not a payments journal");
+    }
+
+    randomAccessFile.seek(0);
+    int magic = randomAccessFile.readInt();
+    byte[] keyCheck = new byte[MAC_LENGTH];
+    randomAccessFile.readFully(keyCheck);
+
+    if (magic != MAGIC) {
+      throw new PaymentsLoadException("'" + file.getAbsolutePath() + "' is not a payments journal");
+    }
+    if (!constantTimeEquals(keyCheck, keyCheck(aesKey))) {
+      throw new PaymentsLoadException("Payments journal '" + file.getAbsolutePath() + "' was written with a different password");
+    }
+  }
+
+  /**
+   * @return The HMAC-SHA256 of the first <code>length</code> bytes using a key derived from the AES key
+   */
+  private static byte[] mac(KeyParameter aesKey, byte[] bytes, int length) {
+
+    // Use a separate key for authentication rather than the encryption key itself
+    return hmac(hmac(aesKey.getKey(), MAC_KEY_LABEL, MAC_KEY_LABEL.length), bytes, length);
+  }
+
+  /**
+   * @return A value identifying the AES key without revealing it
+   */
+  private static byte[] keyCheck(KeyParameter aesKey) {
+    return hmac(aesKey.getKey(), KEY_CHECK_LABEL, KEY_CHECK_LABEL.length);
+  }
+
+  private static byte[] hmac(byte[] key, byte[] bytes, int length) {
+
+    HMac hMac = new HMac(new SHA256Digest());
+    hMac.init(new KeyParameter(key));
+    hMac.update(bytes, 0, length);
+    byte[] mac = new byte[MAC_LENGTH];
+    hMac.doFinal(mac, 0);
+
+    return mac;
+  }
+
+  private static boolean constantTimeEquals(byte[] a, byte[] b) {
+
+    if (a.length != b.length) {
+      return false;
+    }
+    int result = 0;
+    for (int i = 0; i < a.length; i++) {
+      result |= a[i] ^ b[i];
+    }
+    return result == 0;
+  }
+
+  /**
+   * @param source      The journal whose records are appended
+   * @param destination The journal receiving the records
+   */
+  private static void appendRecords(File source, File destination) throws IOException {
+
+    try (FileInputStream inputStream = new FileInputStream(source);
+         FileOutputStream outputStream = new FileOutputStream(destination, true)) {
+
+      FileChannel sourceChannel = inputStream.getChannel();
+      FileChannel destinationChannel = outputStream.getChannel();
+
+      // Skip the file header of the source
+      long position = FILE_HEADER_SIZE;
+      long size = sourceChannel.size();
+      while (position < size) {
+        position += sourceChannel.transferTo(position, size - position, destinationChannel);
+      }
+      destinationChannel.force(false);
+    }
+  }
+
+}
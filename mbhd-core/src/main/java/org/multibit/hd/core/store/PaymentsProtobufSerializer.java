@@ -122,6 +122,54 @@ public class PaymentsProtobufSerializer {
     }
   }
 
+  /**
+   * <p>Indexes the payment requests and transaction infos in the given decrypted buffer without decoding them. Each
+   * entry is decoded straight from the buffer when it is first accessed.</p>
+   *
+   * @param buffer The serialized payments (not copied so must not be modified afterwards)
+   *
+   * @return The payments backed by read only lists in the order they were written
+   *
+   * @throws PaymentsLoadException If the buffer cannot be indexed or (on access) an entry cannot be decoded
+   */
+  public Payments readPayments(byte[] buffer) throws PaymentsLoadException {
+
+    final ProtobufRecordIndex paymentRequestIndex;
+    final ProtobufRecordIndex transactionInfoIndex;
+    try {
+      paymentRequestIndex = new ProtobufRecordIndex(buffer, MBHDPaymentsProtos.Payments.PAYMENT_REQUEST_FIELD_NUMBER);
+      transactionInfoIndex = new ProtobufRecordIndex(buffer, MBHDPaymentsProtos.Payments.TRANSACTION_INFO_FIELD_NUMBER);
+    } catch (IOException e) {
+      throw new PaymentsLoadException("Could not index payments buffer", e);
+    }
+
+    Payments payments = new Payments();
+
+    payments.setPaymentRequestDatas(new LazyRecordList<PaymentRequestData>(paymentRequestIndex.size()) {
+      @Override
+      protected PaymentRequestData decode(int recordIndex) {
+        try {
+          return makePaymentRequestData(paymentRequestIndex.parse(recordIndex, MBHDPaymentsProtos.PaymentRequest.PARSER));
+        } catch (IOException e) {
+          throw new PaymentsLoadException("Could not parse payment request " + recordIndex, e);
+        }
+      }
+    });
+
+    payments.setTransactionInfos(new LazyRecordList<TransactionInfo>(transactionInfoIndex.size()) {
+      @Override
+      protected TransactionInfo decode(int recordIndex) {
+        try {
+          return makeTransactionInfo(transactionInfoIndex.parse(recordIndex, MBHDPaymentsProtos.TransactionInfo.PARSER));
+        } catch (IOException e) {
+          throw new PaymentsLoadException("Could not parse transaction info " + recordIndex, e);
+        }
+      }
+    });
+
+    return payments;
+  }
+
   /**
    * <p>Loads payments data from the given protocol buffer and inserts it into the given Payments object.
    * <p/>
@@ -138,153 +186,161 @@ public class PaymentsProtobufSerializer {
     List<MBHDPaymentsProtos.PaymentRequest> paymentRequestProtos = paymentsProto.getPaymentRequestList();
     if (paymentRequestProtos != null) {
       for (MBHDPaymentsProtos.PaymentRequest paymentRequestProto : paymentRequestProtos) {
-        PaymentRequestData paymentRequestData = new PaymentRequestData();
-        paymentRequestData.setAddress(paymentRequestProto.getAddress());
-        if (paymentRequestProto.hasLabel()) {
-          paymentRequestData.setLabel(paymentRequestProto.getLabel());
-        }
-        if (paymentRequestProto.hasNote()) {
-          paymentRequestData.setNote(paymentRequestProto.getNote());
-        }
-        if (paymentRequestProto.hasDate()) {
-          paymentRequestData.setDate(new DateTime(paymentRequestProto.getDate()));
-        }
-        if (paymentRequestProto.hasAmountBTC()) {
-          paymentRequestData.setAmountCoin(Coin.valueOf(paymentRequestProto.getAmountBTC()));
-        }
-
-        if (paymentRequestProto.hasAmountFiat()) {
-
-          FiatPayment fiatPayment = new FiatPayment();
-
-          paymentRequestData.setAmountFiat(fiatPayment);
-          MBHDPaymentsProtos.FiatPayment fiatPaymentProto = paymentRequestProto.getAmountFiat();
-
-          if (fiatPaymentProto.hasCurrency()) {
-            final String fiatCurrencyCode = fiatPaymentProto.getCurrency();
-            final Optional<Currency> fiatCurrency;
-            if (ABSENT_STRING.equals(fiatCurrencyCode)) {
-              fiatCurrency = Optional.absent();
-            } else {
-              fiatCurrency = Optional.of(Currency.getInstance(fiatCurrencyCode));
-            }
-            fiatPayment.setCurrency(fiatCurrency);
-
-            String fiatPaymentAmount = fiatPaymentProto.getAmount();
-            Optional<BigDecimal> amountFiat;
-            if (ABSENT_STRING.equals(fiatPaymentAmount)) {
-              amountFiat = Optional.absent();
-            } else {
-              amountFiat = Optional.of(new BigDecimal(fiatPaymentAmount));
-            }
-            fiatPayment.setAmount(amountFiat);
-          }
-
-          if (fiatPaymentProto.hasExchange()) {
-            if (ABSENT_STRING.equals(fiatPaymentProto.getExchange())) {
-              fiatPayment.setExchangeName(Optional.<String>absent());
-            } else {
-              fiatPayment.setExchangeName(Optional.of(fiatPaymentProto.getExchange()));
-            }
-          }
-          if (fiatPaymentProto.hasRate()) {
-            fiatPayment.setRate(Optional.of(fiatPaymentProto.getRate()));
-            if (ABSENT_STRING.equals(fiatPaymentProto.getRate())) {
-              fiatPayment.setRate(Optional.<String>absent());
-            } else {
-              fiatPayment.setRate(Optional.of(fiatPaymentProto.getRate()));
-            }
-          }
-        }
-
-        paymentRequestDatas.add(paymentRequestData);
+        paymentRequestDatas.add(makePaymentRequestData(paymentRequestProto));
       }
     }
 
     List<MBHDPaymentsProtos.TransactionInfo> transactionInfoProtos = paymentsProto.getTransactionInfoList();
     if (transactionInfoProtos != null) {
       for (MBHDPaymentsProtos.TransactionInfo transactionInfoProto : transactionInfoProtos) {
-        org.multibit.hd.core.store.TransactionInfo transactionInfo = new TransactionInfo();
+        transactionInfos.add(makeTransactionInfo(transactionInfoProto));
+      }
+    }
+
+    payments.setPaymentRequestDatas(paymentRequestDatas);
+    payments.setTransactionInfos(transactionInfos);
+  }
+
+  private static PaymentRequestData makePaymentRequestData(MBHDPaymentsProtos.PaymentRequest paymentRequestProto) {
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress(paymentRequestProto.getAddress());
+    if (paymentRequestProto.hasLabel()) {
+      paymentRequestData.setLabel(paymentRequestProto.getLabel());
+    }
+    if (paymentRequestProto.hasNote()) {
+      paymentRequestData.setNote(paymentRequestProto.getNote());
+    }
+    if (paymentRequestProto.hasDate()) {
+      paymentRequestData.setDate(new DateTime(paymentRequestProto.getDate()));
+    }
+    if (paymentRequestProto.hasAmountBTC()) {
+      paymentRequestData.setAmountCoin(Coin.valueOf(paymentRequestProto.getAmountBTC()));
+    }
+
+    if (paymentRequestProto.hasAmountFiat()) {
 
-        transactionInfo.setHash(transactionInfoProto.getHash());
+      FiatPayment fiatPayment = new FiatPayment();
 
-        if (transactionInfoProto.hasNote()) {
-          transactionInfo.setNote(transactionInfoProto.getNote());
+      paymentRequestData.setAmountFiat(fiatPayment);
+      MBHDPaymentsProtos.FiatPayment fiatPaymentProto = paymentRequestProto.getAmountFiat();
+
+      if (fiatPaymentProto.hasCurrency()) {
+        final String fiatCurrencyCode = fiatPaymentProto.getCurrency();
+        final Optional<Currency> fiatCurrency;
+        if (ABSENT_STRING.equals(fiatCurrencyCode)) {
+          fiatCurrency = Optional.absent();
+        } else {
+          fiatCurrency = Optional.of(Currency.getInstance(fiatCurrencyCode));
         }
+        fiatPayment.setCurrency(fiatCurrency);
 
-        if (transactionInfoProto.hasClientFee()) {
-          long clientFee = transactionInfoProto.getClientFee();
-          if (clientFee == ABSENT_VALUE) {
-            transactionInfo.setClientFee(Optional.<Coin>absent());
-          } else {
-            transactionInfo.setClientFee(Optional.of(Coin.valueOf(clientFee)));
-          }
+        String fiatPaymentAmount = fiatPaymentProto.getAmount();
+        Optional<BigDecimal> amountFiat;
+        if (ABSENT_STRING.equals(fiatPaymentAmount)) {
+          amountFiat = Optional.absent();
         } else {
-          transactionInfo.setClientFee(Optional.<Coin>absent());
+          amountFiat = Optional.of(new BigDecimal(fiatPaymentAmount));
         }
+        fiatPayment.setAmount(amountFiat);
+      }
 
-        if (transactionInfoProto.hasMinerFee()) {
-          long minerFee = transactionInfoProto.getMinerFee();
-          if (minerFee == ABSENT_VALUE) {
-            transactionInfo.setMinerFee(Optional.<Coin>absent());
-          } else {
-            transactionInfo.setMinerFee(Optional.of(Coin.valueOf(minerFee)));
-          }
+      if (fiatPaymentProto.hasExchange()) {
+        if (ABSENT_STRING.equals(fiatPaymentProto.getExchange())) {
+          fiatPayment.setExchangeName(Optional.<String>absent());
         } else {
-          transactionInfo.setMinerFee(Optional.<Coin>absent());
+          fiatPayment.setExchangeName(Optional.of(fiatPaymentProto.getExchange()));
         }
+      }
+      if (fiatPaymentProto.hasRate()) {
+        fiatPayment.setRate(Optional.of(fiatPaymentProto.getRate()));
+        if (ABSENT_STRING.equals(fiatPaymentProto.getRate())) {
+          fiatPayment.setRate(Optional.<String>absent());
+        } else {
+          fiatPayment.setRate(Optional.of(fiatPaymentProto.getRate()));
+        }
+      }
+    }
+
+    return paymentRequestData;
+  }
+
+  private static TransactionInfo makeTransactionInfo(MBHDPaymentsProtos.TransactionInfo transactionInfoProto) {
+    org.multibit.hd.core.store.TransactionInfo transactionInfo = new TransactionInfo();
+
+    transactionInfo.setHash(transactionInfoProto.getHash());
+
+    if (transactionInfoProto.hasNote()) {
+      transactionInfo.setNote(transactionInfoProto.getNote());
+    }
+
+    if (transactionInfoProto.hasClientFee()) {
+      long clientFee = transactionInfoProto.getClientFee();
+      if (clientFee == ABSENT_VALUE) {
+        transactionInfo.setClientFee(Optional.<Coin>absent());
+      } else {
+        transactionInfo.setClientFee(Optional.of(Coin.valueOf(clientFee)));
+      }
+    } else {
+      transactionInfo.setClientFee(Optional.<Coin>absent());
+    }
 
-        if (transactionInfoProto.hasAmountFiat()) {
-          FiatPayment fiatPayment = new FiatPayment();
-          transactionInfo.setAmountFiat(fiatPayment);
-          MBHDPaymentsProtos.FiatPayment fiatPaymentProto = transactionInfoProto.getAmountFiat();
-          if (fiatPaymentProto.hasCurrency()) {
-            final String fiatCurrencyCode = fiatPaymentProto.getCurrency();
-            final Optional<Currency> fiatCurrency;
-            if (ABSENT_STRING.equals(fiatCurrencyCode)) {
-              fiatCurrency = Optional.absent();
-            } else {
-              fiatCurrency = Optional.of(Currency.getInstance(fiatCurrencyCode));
-            }
-            fiatPayment.setCurrency(fiatCurrency);
-
-            String fiatPaymentAmount = fiatPaymentProto.getAmount();
-            Optional<BigDecimal> amountFiat;
-            if (ABSENT_STRING.equals(fiatPaymentAmount)) {
-              amountFiat = Optional.absent();
-            } else {
-              amountFiat = Optional.of(new BigDecimal(fiatPaymentAmount));
-            }
-
-            fiatPayment.setAmount(amountFiat);
-          }
-          if (fiatPaymentProto.hasExchange()) {
-            if (ABSENT_STRING.equals(fiatPaymentProto.getExchange())) {
-              fiatPayment.setExchangeName(Optional.<String>absent());
-            } else {
-              fiatPayment.setExchangeName(Optional.of(fiatPaymentProto.getExchange()));
-            }
-          }
-          if (fiatPaymentProto.hasRate()) {
-            fiatPayment.setRate(Optional.of(fiatPaymentProto.getRate()));
-            if (ABSENT_STRING.equals(fiatPaymentProto.getRate())) {
-              fiatPayment.setRate(Optional.<String>absent());
-            } else {
-              fiatPayment.setRate(Optional.of(fiatPaymentProto.getRate()));
-            }
-          }
+    if (transactionInfoProto.hasMinerFee()) {
+      long minerFee = transactionInfoProto.getMinerFee();
+      if (minerFee == ABSENT_VALUE) {
+        transactionInfo.setMinerFee(Optional.<Coin>absent());
+      } else {
+        transactionInfo.setMinerFee(Optional.of(Coin.valueOf(minerFee)));
+      }
+    } else {
+      transactionInfo.setMinerFee(Optional.<Coin>absent());
+    }
+
+    if (transactionInfoProto.hasAmountFiat()) {
+      FiatPayment fiatPayment = new FiatPayment();
+      transactionInfo.setAmountFiat(fiatPayment);
+      MBHDPaymentsProtos.FiatPayment fiatPaymentProto = transactionInfoProto.getAmountFiat();
+      if (fiatPaymentProto.hasCurrency()) {
+        final String fiatCurrencyCode = fiatPaymentProto.getCurrency();
+        final Optional<Currency> fiatCurrency;
+        if (ABSENT_STRING.equals(fiatCurrencyCode)) {
+          fiatCurrency = Optional.absent();
+        } else {
+          fiatCurrency = Optional.of(Currency.getInstance(fiatCurrencyCode));
         }
+        fiatPayment.setCurrency(fiatCurrency);
 
-        if (transactionInfoProto.hasSentBySelf()) {
-          transactionInfo.setSentBySelf(transactionInfoProto.getSentBySelf());
+        String fiatPaymentAmount = fiatPaymentProto.getAmount();
+        Optional<BigDecimal> amountFiat;
+        if (ABSENT_STRING.equals(fiatPaymentAmount)) {
+          amountFiat = Optional.absent();
+        } else {
+          amountFiat = Optional.of(new BigDecimal(fiatPaymentAmount));
         }
 
-        transactionInfos.add(transactionInfo);
+        fiatPayment.setAmount(amountFiat);
+      }
+      if (fiatPaymentProto.hasExchange()) {
+        if (ABSENT_STRING.equals(fiatPaymentProto.getExchange())) {
+          fiatPayment.setExchangeName(Optional.<String>absent());
+        } else {
+          fiatPayment.setExchangeName(Optional.of(fiatPaymentProto.getExchange()));
+        }
+      }
+      if (fiatPaymentProto.hasRate()) {
+        fiatPayment.setRate(Optional.of(fiatPaymentProto.getRate()));
+        if (ABSENT_STRING.equals(fiatPaymentProto.getRate())) {
+          fiatPayment.setRate(Optional.<String>absent());
+        } else {
+          fiatPayment.setRate(Optional.of(fiatPaymentProto.getRate()));
+        }
       }
     }
 
-    payments.setPaymentRequestDatas(paymentRequestDatas);
-    payments.setTransactionInfos(transactionInfos);
+    if (transactionInfoProto.hasSentBySelf()) {
+      transactionInfo.setSentBySelf(transactionInfoProto.getSentBySelf());
+    }
+
+    return transactionInfo;
   }
 
   /**
@@ -0,0 +1,110 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.base.Preconditions;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * <p>Index to provide the following to the protobuf serializers:</p>
+ * <ul>
+ * <li>Offset table of the records in a repeated message field of a serialized container</li>
+ * <li>Decoding of a single record on demand straight from the decrypted buffer</li>
+ * </ul>
+ * <p>Each entry of a repeated message field is already written as a tag, a length and the record bytes, so the
+ * existing contacts, history and payments databases can be indexed by walking the tags and lengths without decoding
+ * any of the records or changing the file format.</p>
+ *
+ * @since 0.0.1
+ */
+public class ProtobufRecordIndex {
+
+  private final byte[] buffer;
+
+  private final int[] offsets;
+
+  private final int[] lengths;
+
+  private final int size;
+
+  /**
+   * @param buffer      The serialized container message (not copied so must not be modified afterwards)
+   * @param fieldNumber The field number of the repeated message field to index
+   *
+   * @throws IOException If the container is truncated or malformed
+   */
+  public ProtobufRecordIndex(byte[] buffer, int fieldNumber) throws IOException {
+
+    Preconditions.checkNotNull(buffer, "'buffer' must be present");
+    Preconditions.checkArgument(fieldNumber > 0, "'fieldNumber' must be positive");
+
+    this.buffer = buffer;
+
+    int recordTag = (fieldNumber << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+    int[] offsets = new int[16];
+    int[] lengths = new int[16];
+    int size = 0;
+
+    CodedInputStream input = CodedInputStream.newInstance(buffer);
+    // Each record is checked for size when it is decoded
+    input.setSizeLimit(Integer.MAX_VALUE);
+
+    int tag;
+    while ((tag = input.readTag()) != 0) {
+
+      if (tag != recordTag) {
+        // Other fields are stepped over as the full parser would
+        if (!input.skipField(tag)) {
+          break;
+        }
+        continue;
+      }
+
+      int length = input.readRawVarint32();
+      int offset = input.getTotalBytesRead();
+
+      // Skipping also checks that the record lies within the buffer
+      input.skipRawBytes(length);
+
+      if (size == offsets.length) {
+        offsets = Arrays.copyOf(offsets, size * 2);
+        lengths = Arrays.copyOf(lengths, size * 2);
+      }
+      offsets[size] = offset;
+      lengths[size] = length;
+      size++;
+    }
+
+    this.offsets = offsets;
+    this.lengths = lengths;
+    this.size = size;
+  }
+
+  /**
+   * @return The number of records in the container
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param index  The record index
+   * @param parser The parser for the record message type
+   *
+   * @return The decoded record
+   *
+   * @throws InvalidProtocolBufferException If the record is malformed
+   */
+  public <M> M parse(int index, Parser<M> parser) throws InvalidProtocolBufferException {
+
+    Preconditions.checkElementIndex(index, size);
+
+    return parser.parseFrom(buffer, offsets[index], lengths[index]);
+  }
+
+}
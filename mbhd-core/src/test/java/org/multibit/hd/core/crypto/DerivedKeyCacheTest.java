@@ -0,0 +1,96 @@
+package org.multibit.hd.core.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.utils.FileUtils;
+import org.multibit.hd.core.exceptions.EncryptedFileReaderWriterException;
+import org.multibit.hd.core.managers.WalletManager;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class DerivedKeyCacheTest {
+
+  private static final String PASSWORD = "throckSplockChockAdock";
+
+  @Before
+  public void setUp() throws Exception {
+    DerivedKeyCache.INSTANCE.clear();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    DerivedKeyCache.INSTANCE.clear();
+  }
+
+  @Test
+  public void testDeriveKey_Reused() throws Exception {
+
+    long performed = DerivedKeyCache.INSTANCE.getDerivationsPerformed();
+    long avoided = DerivedKeyCache.INSTANCE.getDerivationsAvoided();
+
+    KeyParameter first = DerivedKeyCache.INSTANCE.deriveKey(PASSWORD, EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT));
+    DerivedKeyCache.INSTANCE.confirmKey(PASSWORD, EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT), first);
+    KeyParameter second = DerivedKeyCache.INSTANCE.deriveKey(PASSWORD, EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT));
+
+    // Same key material but never the same instance
+    assertThat(second.getKey()).isEqualTo(first.getKey());
+    assertThat(second).isNotSameAs(first);
+
+    assertThat(DerivedKeyCache.INSTANCE.getDerivationsPerformed()).isEqualTo(performed + 1);
+    assertThat(DerivedKeyCache.INSTANCE.getDerivationsAvoided()).isEqualTo(avoided + 1);
+    assertThat(DerivedKeyCache.INSTANCE.size()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testDeriveKey_NotCachedUntilConfirmed() throws Exception {
+
+    long performed = DerivedKeyCache.INSTANCE.getDerivationsPerformed();
+
+    // A mistyped password is never confirmed so each attempt derives again
+    DerivedKeyCache.INSTANCE.deriveKey("wrong" + PASSWORD, EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT));
+    DerivedKeyCache.INSTANCE.deriveKey("wrong" + PASSWORD, EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT));
+
+    assertThat(DerivedKeyCache.INSTANCE.getDerivationsPerformed()).isEqualTo(performed + 2);
+    assertThat(DerivedKeyCache.INSTANCE.size()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testReadAndDecrypt_ConfirmsOnlyCorrectPassword() throws Exception {
+
+    File encryptedFile = new File(FileUtils.makeRandomTemporaryDirectory(), "test.aes");
+    EncryptedFileReaderWriter.encryptAndWrite(new byte[]{1, 2, 3, 4}, PASSWORD, encryptedFile);
+    DerivedKeyCache.INSTANCE.clear();
+
+    try {
+      EncryptedFileReaderWriter.readAndDecryptBytes(encryptedFile, "wrong" + PASSWORD, WalletManager.SCRYPT_SALT, WalletManager.AES_INITIALISATION_VECTOR);
+    } catch (EncryptedFileReaderWriterException e) {
+      // Expected (a wrong key fails the padding check)
+    }
+    assertThat(DerivedKeyCache.INSTANCE.size()).isEqualTo(0);
+
+    assertThat(EncryptedFileReaderWriter.readAndDecryptBytes(encryptedFile, PASSWORD, WalletManager.SCRYPT_SALT, WalletManager.AES_INITIALISATION_VECTOR)).isEqualTo(new byte[]{1, 2, 3, 4});
+    assertThat(DerivedKeyCache.INSTANCE.size()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testClear_DoesNotAffectIssuedKeys() throws Exception {
+
+    KeyParameter issued = DerivedKeyCache.INSTANCE.deriveKey(PASSWORD, EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT));
+    DerivedKeyCache.INSTANCE.confirmKey(PASSWORD, EncryptedFileReaderWriter.makeScryptParameters(WalletManager.SCRYPT_SALT), issued);
+    byte[] expected = issued.getKey().clone();
+
+    DerivedKeyCache.INSTANCE.clear();
+
+    assertThat(DerivedKeyCache.INSTANCE.size()).isEqualTo(0);
+    assertThat(issued.getKey()).isEqualTo(expected);
+
+  }
+
+}
@@ -16,12 +16,15 @@ package org.multibit.hd.core.crypto;
  * limitations under the License.
  */
 
+import com.google.bitcoin.core.NetworkParameters;
 import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.core.Wallet;
 import com.google.bitcoin.utils.BriefLogFormatter;
 import org.junit.Before;
 import org.junit.Test;
 import org.multibit.hd.brit.crypto.AESUtils;
 import org.multibit.hd.brit.utils.FileUtils;
+import org.multibit.hd.core.config.BitcoinNetwork;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.managers.WalletManagerTest;
@@ -97,4 +100,51 @@ public class EncryptedFileReaderWriterTest {
 
     decryptedInputstream.close();
   }
+
+  @Test
+  public void testStreamingWalletEncryptDecryptSuccess() throws Exception {
+    // Create a random temporary directory
+    File temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+
+    File outputFile = new File(temporaryDirectory + File.separator + "mbhd.wallet.aes");
+
+    NetworkParameters networkParameters = BitcoinNetwork.current().get();
+    Wallet wallet = new Wallet(networkParameters);
+    String firstAddress = wallet.freshReceiveKey().toAddress(networkParameters).toString();
+
+    EncryptedFileReaderWriter.encryptAndWrite(wallet, PASSWORD1, outputFile);
+
+    // No temporary or unencrypted files are left behind
+    assertThat(temporaryDirectory.listFiles()).hasSize(1);
+
+    // The streamed file is readable by the standard wallet loader
+    Wallet rebornWallet = WalletManager.loadWalletFromFile(outputFile, PASSWORD1);
+    assertThat(rebornWallet.currentReceiveKey().toAddress(networkParameters).toString()).isEqualTo(firstAddress);
+  }
+
+  @Test
+  public void testStreamingFileEncryptDecryptSuccess() throws Exception {
+    // Create a random temporary directory
+    File temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+
+    File inputFile = new File(temporaryDirectory + File.separator + "mbhd.wallet");
+    File outputFile = new File(temporaryDirectory + File.separator + "mbhd.wallet.aes");
+
+    NetworkParameters networkParameters = BitcoinNetwork.current().get();
+    Wallet wallet = new Wallet(networkParameters);
+    String firstAddress = wallet.freshReceiveKey().toAddress(networkParameters).toString();
+    wallet.saveToFile(inputFile);
+
+    EncryptedFileReaderWriter.encryptAndWrite(inputFile, PASSWORD1, outputFile);
+
+    // The unencrypted file is left for the caller and no temporary file remains
+    assertThat(temporaryDirectory.listFiles()).hasSize(2);
+
+    // The encrypted copy holds exactly the saved file
+    byte[] decryptedBytes = EncryptedFileReaderWriter.readAndDecryptBytes(outputFile, PASSWORD1, WalletManager.SCRYPT_SALT, WalletManager.AES_INITIALISATION_VECTOR);
+    assertThat(Utils.HEX.encode(decryptedBytes)).isEqualTo(Utils.HEX.encode(FileUtils.readFile(inputFile)));
+
+    Wallet rebornWallet = WalletManager.loadWalletFromFile(outputFile, PASSWORD1);
+    assertThat(rebornWallet.currentReceiveKey().toAddress(networkParameters).toString()).isEqualTo(firstAddress);
+  }
 }
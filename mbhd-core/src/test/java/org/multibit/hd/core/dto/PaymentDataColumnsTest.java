@@ -0,0 +1,115 @@
+package org.multibit.hd.core.dto;
+
+import com.google.bitcoin.core.Coin;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentDataColumnsTest {
+
+  private final Map<String, PaymentData> paymentDataMap = Maps.newHashMap();
+
+  private final PaymentDataColumns.PaymentDataSource paymentDataSource = new PaymentDataColumns.PaymentDataSource() {
+    @Override
+    public Optional<PaymentData> getPaymentData(String paymentId) {
+      return Optional.fromNullable(paymentDataMap.get(paymentId));
+    }
+  };
+
+  @Test
+  public void testColumns() throws Exception {
+
+    DateTime date = new DateTime(2014, 3, 1, 12, 0, 0, 0);
+
+    PaymentRequestData first = new PaymentRequestData();
+    first.setAddress("1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty");
+    first.setLabel("Rent");
+    first.setAmountCoin(Coin.valueOf(150000));
+    first.setDate(date);
+
+    PaymentRequestData second = new PaymentRequestData();
+    second.setAddress("1KzTSfqjF2iKCduwz59nv2uqh1W2JsTxZH");
+    second.setLabel("Coffee");
+    second.setAmountCoin(Coin.valueOf(2500));
+
+    List<PaymentData> paymentDataList = Lists.<PaymentData>newArrayList(first, second);
+    paymentDataMap.put(first.getAddress(), first);
+    paymentDataMap.put(second.getAddress(), second);
+
+    PaymentDataColumns testObject = new PaymentDataColumns(paymentDataList, paymentDataSource);
+
+    assertThat(testObject.size()).isEqualTo(2);
+
+    assertThat(testObject.getDateMillis(0)).isEqualTo(date.getMillis());
+    assertThat(testObject.getDate(0)).isEqualTo(date);
+    assertThat(testObject.getAmountSatoshis(0)).isEqualTo(150000);
+    assertThat(testObject.getAmountCoin(0)).isEqualTo(Coin.valueOf(150000));
+    assertThat(testObject.getType(0)).isEqualTo(first.getType());
+    assertThat(testObject.getPaymentId(0)).isEqualTo(first.getAddress());
+    assertThat(testObject.getStatus(0).getStatus()).isEqualTo(RAGStatus.PINK);
+    assertThat(testObject.getStatus(0).getStatusKey()).isEqualTo(CoreMessageKey.PAYMENT_REQUESTED);
+    assertThat(testObject.isCoinBase(0)).isFalse();
+    assertThat(testObject.getPaymentData(0).get()).isSameAs(first);
+
+    // No date is preserved as null
+    assertThat(testObject.getDate(1)).isNull();
+    assertThat(testObject.getAmountSatoshis(1)).isEqualTo(2500);
+    assertThat(testObject.getPaymentData(1).get()).isSameAs(second);
+
+    // Later changes to the source list do not affect the columns
+    paymentDataList.remove(0);
+    assertThat(testObject.size()).isEqualTo(2);
+
+    // A payment that has gone from the source is absent
+    paymentDataMap.remove(second.getAddress());
+    assertThat(testObject.getPaymentData(1).isPresent()).isFalse();
+    assertThat(testObject.getAmountSatoshis(1)).isEqualTo(2500);
+
+  }
+
+  @Test
+  public void testInsertRemoveSet() throws Exception {
+
+    PaymentDataColumns testObject = new PaymentDataColumns(Lists.<PaymentData>newArrayList(), paymentDataSource);
+
+    // Enough rows to grow the columns
+    for (int i = 0; i < 20; i++) {
+      testObject.insert(0, newPaymentRequest(i));
+    }
+    assertThat(testObject.size()).isEqualTo(20);
+    assertThat(testObject.getAmountSatoshis(0)).isEqualTo(19);
+    assertThat(testObject.getAmountSatoshis(19)).isEqualTo(0);
+
+    // Remove from the middle
+    testObject.remove(10);
+    assertThat(testObject.size()).isEqualTo(19);
+    assertThat(testObject.getAmountSatoshis(9)).isEqualTo(10);
+    assertThat(testObject.getAmountSatoshis(10)).isEqualTo(8);
+    assertThat(testObject.getPaymentId(9)).isEqualTo("address-10");
+
+    // Replace
+    PaymentRequestData replacement = newPaymentRequest(1000);
+    testObject.set(10, replacement);
+    assertThat(testObject.getAmountSatoshis(10)).isEqualTo(1000);
+    assertThat(testObject.getPaymentData(10).get()).isSameAs(replacement);
+
+  }
+
+  private PaymentRequestData newPaymentRequest(long satoshis) {
+
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress("address-" + satoshis);
+    paymentRequestData.setAmountCoin(Coin.valueOf(satoshis));
+    paymentDataMap.put(paymentRequestData.getAddress(), paymentRequestData);
+
+    return paymentRequestData;
+  }
+
+}
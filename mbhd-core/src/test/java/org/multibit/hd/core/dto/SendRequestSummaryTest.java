@@ -0,0 +1,101 @@
+package org.multibit.hd.core.dto;
+
+import com.google.bitcoin.core.Address;
+import com.google.bitcoin.core.Coin;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.multibit.hd.brit.dto.FeeState;
+
+import java.util.Arrays;
+
+import static com.google.bitcoin.core.Coin.parseCoin;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SendRequestSummaryTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private final Address changeAddress = newAddress();
+
+  @Test
+  public void testSingleDestination() throws Exception {
+
+    Address destinationAddress = newAddress();
+
+    SendRequestSummary testObject = new SendRequestSummary(
+      destinationAddress,
+      parseCoin("0.1"),
+      Optional.<FiatPayment>absent(),
+      changeAddress,
+      Coin.ZERO,
+      "password",
+      Optional.<FeeState>absent(),
+      false
+    );
+
+    assertThat(testObject.isBatch()).isFalse();
+    assertThat(testObject.getPayouts()).hasSize(1);
+    assertThat(testObject.getPayouts().get(0).getDestinationAddress()).isEqualTo(destinationAddress);
+    assertThat(testObject.getAmount()).isEqualTo(parseCoin("0.1"));
+    assertThat(testObject.getDestinationAddresses()).hasSize(1);
+    assertThat(testObject.getDestinationAddresses().get(0)).isEqualTo(destinationAddress);
+
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+
+    Payout first = new Payout(newAddress(), parseCoin("0.1"));
+    Payout second = new Payout(newAddress(), parseCoin("0.25"));
+
+    SendRequestSummary testObject = new SendRequestSummary(
+      Arrays.asList(first, second),
+      Optional.<FiatPayment>absent(),
+      changeAddress,
+      Coin.ZERO,
+      "password",
+      Optional.<FeeState>absent()
+    );
+
+    assertThat(testObject.isBatch()).isTrue();
+    assertThat(testObject.isEmptyWallet()).isFalse();
+    assertThat(testObject.getPayouts()).hasSize(2);
+    assertThat(testObject.getPayouts().get(1)).isSameAs(second);
+
+    // Events report every recipient rather than standing the first in for the batch
+    assertThat(testObject.getDestinationAddress()).isNull();
+    assertThat(testObject.getDestinationAddresses()).hasSize(2);
+    assertThat(testObject.getDestinationAddresses().get(0)).isEqualTo(first.getDestinationAddress());
+    assertThat(testObject.getDestinationAddresses().get(1)).isEqualTo(second.getDestinationAddress());
+
+    // The total excludes any client fee until one is added to the batch
+    assertThat(testObject.getAmount()).isEqualTo(parseCoin("0.35"));
+    testObject.setClientFeeAdded(Optional.of(parseCoin("0.0001")));
+    assertThat(testObject.getTotalAmount()).isEqualTo(parseCoin("0.3501"));
+
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testBatch_EmptyWallet() throws Exception {
+
+    SendRequestSummary testObject = new SendRequestSummary(
+      Arrays.asList(new Payout(newAddress(), parseCoin("0.1")), new Payout(newAddress(), parseCoin("0.2"))),
+      Optional.<FiatPayment>absent(),
+      changeAddress,
+      Coin.ZERO,
+      "password",
+      Optional.<FeeState>absent()
+    );
+
+    testObject.setEmptyWallet(true);
+
+  }
+
+  private static Address newAddress() {
+    return new ECKey().toAddress(NETWORK_PARAMETERS);
+  }
+
+}
@@ -0,0 +1,186 @@
+package org.multibit.hd.core.events;
+
+import com.google.bitcoin.core.Coin;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Transaction;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.AllowConcurrentEvents;
+import com.google.common.eventbus.Subscribe;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.BitcoinNetworkSummary;
+import org.multibit.hd.core.services.CoreServices;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class CoalescingEventDispatcherTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private final List<TransactionSeenEvent> transactionSeenEvents = Collections.synchronizedList(Lists.<TransactionSeenEvent>newArrayList());
+
+  private final AtomicInteger activeDeliveries = new AtomicInteger();
+
+  private final AtomicInteger maximumActiveDeliveries = new AtomicInteger();
+
+  private CountDownLatch deliveryStarted;
+
+  private CountDownLatch deliveryReleased;
+
+  private final List<BitcoinNetworkChangedEvent> bitcoinNetworkChangedEvents = Lists.newArrayList();
+
+  private CoalescingEventDispatcher testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    CoreServices.uiEventBus.register(this);
+
+    // A long window so that only explicit deliveries occur
+    testObject = new CoalescingEventDispatcher(60000, 10);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    testObject.shutdown();
+
+    CoreServices.uiEventBus.unregister(this);
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+
+    Transaction tx1 = newTransaction(1);
+    Transaction tx2 = newTransaction(2);
+
+    TransactionSeenEvent firstAppearance = new TransactionSeenEvent(tx1, Coin.valueOf(1));
+    firstAppearance.setFirstAppearanceInWallet(true);
+
+    testObject.post(firstAppearance);
+    testObject.post(new TransactionSeenEvent(tx2, Coin.valueOf(2)));
+    testObject.post(new TransactionSeenEvent(tx1, Coin.valueOf(1)));
+    testObject.post(new TransactionSeenEvent(tx1, Coin.valueOf(1)));
+
+    testObject.post(new BitcoinNetworkChangedEvent(BitcoinNetworkSummary.newChainDownloadProgress(10, 180)));
+    testObject.post(new BitcoinNetworkChangedEvent(BitcoinNetworkSummary.newChainDownloadProgress(20, 160)));
+
+    // Nothing is delivered inline
+    assertThat(transactionSeenEvents).isEmpty();
+    assertThat(bitcoinNetworkChangedEvents).isEmpty();
+
+    testObject.deliver();
+
+    // Latest network event only
+    assertThat(bitcoinNetworkChangedEvents).hasSize(1);
+    assertThat(bitcoinNetworkChangedEvents.get(0).getSummary().getPercent()).isEqualTo(20);
+
+    // One event per transaction in order of arrival with the first appearance retained
+    assertThat(transactionSeenEvents).hasSize(2);
+    assertThat(transactionSeenEvents.get(0).getTransactionId()).isEqualTo(tx1.getHashAsString());
+    assertThat(transactionSeenEvents.get(0).isFirstAppearanceInWallet()).isTrue();
+    assertThat(transactionSeenEvents.get(1).getTransactionId()).isEqualTo(tx2.getHashAsString());
+
+    assertThat(testObject.getReceivedCount()).isEqualTo(6);
+    assertThat(testObject.getDeliveredCount()).isEqualTo(3);
+    assertThat(testObject.getMergedCount()).isEqualTo(2);
+    assertThat(testObject.getDroppedCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testOverflowDeliversOnPostingThread() throws Exception {
+
+    for (int i = 0; i < 11; i++) {
+      testObject.post(new TransactionSeenEvent(newTransaction(i), Coin.valueOf(i)));
+    }
+
+    // The eleventh distinct transaction exceeded the bound
+    assertThat(transactionSeenEvents).hasSize(11);
+    assertThat(testObject.getOverflowCount()).isEqualTo(1);
+
+  }
+
+  @Test
+  public void testOverflowWaitsForDeliveryInProgress() throws Exception {
+
+    for (int i = 0; i < 10; i++) {
+      testObject.post(new TransactionSeenEvent(newTransaction(i), Coin.valueOf(i)));
+    }
+
+    // Hold the first delivery inside the subscriber
+    deliveryStarted = new CountDownLatch(1);
+    deliveryReleased = new CountDownLatch(1);
+
+    Thread deliveryThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        testObject.deliver();
+      }
+    });
+    deliveryThread.start();
+    assertThat(deliveryStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+    // Overflow on another thread while the first delivery is in progress
+    Thread postingThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 10; i < 21; i++) {
+          testObject.post(new TransactionSeenEvent(newTransaction(i), Coin.valueOf(i)));
+        }
+      }
+    });
+    postingThread.start();
+    Thread.sleep(200);
+
+    deliveryReleased.countDown();
+    deliveryThread.join(5000);
+    postingThread.join(5000);
+
+    assertThat(testObject.getOverflowCount()).isEqualTo(1);
+    assertThat(transactionSeenEvents).hasSize(21);
+    assertThat(maximumActiveDeliveries.get()).isEqualTo(1);
+
+  }
+
+  @Subscribe
+  @AllowConcurrentEvents
+  public void onTransactionSeenEvent(TransactionSeenEvent event) throws InterruptedException {
+
+    int active = activeDeliveries.incrementAndGet();
+    if (active > maximumActiveDeliveries.get()) {
+      maximumActiveDeliveries.set(active);
+    }
+
+    if (deliveryStarted != null && deliveryStarted.getCount() > 0) {
+      deliveryStarted.countDown();
+      deliveryReleased.await(5, TimeUnit.SECONDS);
+    }
+
+    transactionSeenEvents.add(event);
+    activeDeliveries.decrementAndGet();
+  }
+
+  @Subscribe
+  public void onBitcoinNetworkChangedEvent(BitcoinNetworkChangedEvent event) {
+    bitcoinNetworkChangedEvents.add(event);
+  }
+
+  private Transaction newTransaction(int value) {
+
+    Transaction tx = new Transaction(NETWORK_PARAMETERS);
+    tx.addOutput(Coin.valueOf(value + 1), new ECKey());
+
+    return tx;
+  }
+
+}
@@ -0,0 +1,208 @@
+package org.multibit.hd.core.files;
+
+import com.google.bitcoin.core.Utils;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.utils.FileUtils;
+import org.multibit.hd.core.managers.WalletManager;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ChunkedBackupsTest {
+
+  private KeyParameter backupKey;
+
+  private File walletDirectory;
+
+  private File backupDirectory;
+
+  private File chunkDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+
+    byte[] keyBytes = new byte[AESUtils.KEY_LENGTH];
+    new SecureRandom().nextBytes(keyBytes);
+    backupKey = new KeyParameter(keyBytes);
+
+    walletDirectory = FileUtils.makeRandomTemporaryDirectory();
+    backupDirectory = FileUtils.makeRandomTemporaryDirectory();
+    chunkDirectory = new File(backupDirectory, "chunks");
+
+  }
+
+  @Test
+  public void testBackupIsIncremental() throws Exception {
+
+    writeRandomFile("mbhd.wallet.aes", 3 * ChunkedBackups.CHUNK_SIZE + 17);
+    writeRandomFile("contacts.aes", 1000);
+
+    File firstManifest = new File(backupDirectory, "first.manifest.aes");
+    assertThat(ChunkedBackups.writeBackup(walletDirectory, firstManifest, chunkDirectory, backupKey)).isEqualTo(5);
+
+    // Nothing has changed so nothing new is stored
+    File secondManifest = new File(backupDirectory, "second.manifest.aes");
+    assertThat(ChunkedBackups.writeBackup(walletDirectory, secondManifest, chunkDirectory, backupKey)).isEqualTo(0);
+
+    // Only the changed file is stored again
+    writeRandomFile("contacts.aes", 1200);
+    File thirdManifest = new File(backupDirectory, "third.manifest.aes");
+    assertThat(ChunkedBackups.writeBackup(walletDirectory, thirdManifest, chunkDirectory, backupKey)).isEqualTo(1);
+    assertThat(chunkDirectory.listFiles()).hasSize(6);
+
+    // Dropping the first two backups releases the original contacts chunk
+    assertThat(ChunkedBackups.deleteUnreferencedChunks(Lists.newArrayList(thirdManifest), chunkDirectory, backupKey)).isEqualTo(1);
+    assertThat(chunkDirectory.listFiles()).hasSize(5);
+
+  }
+
+  @Test
+  public void testDeleteUnreferencedChunks_UnreadableManifest() throws Exception {
+
+    writeRandomFile("contacts.aes", 1000);
+    File firstManifest = new File(backupDirectory, "first.manifest.aes");
+    ChunkedBackups.writeBackup(walletDirectory, firstManifest, chunkDirectory, backupKey);
+
+    writeRandomFile("contacts.aes", 1200);
+    File secondManifest = new File(backupDirectory, "second.manifest.aes");
+    ChunkedBackups.writeBackup(walletDirectory, secondManifest, chunkDirectory, backupKey);
+
+    // The first manifest is corrupt so its chunk cannot be told apart from an unreferenced one
+    writeBytes(firstManifest, new byte[]{1, 2, 3});
+
+    assertThat(ChunkedBackups.deleteUnreferencedChunks(Lists.newArrayList(firstManifest, secondManifest), chunkDirectory, backupKey)).isEqualTo(0);
+    assertThat(chunkDirectory.listFiles()).hasSize(2);
+
+  }
+
+  @Test
+  public void testRestore() throws Exception {
+
+    byte[] walletBytes = writeRandomFile("mbhd.wallet.aes", 2 * ChunkedBackups.CHUNK_SIZE);
+    byte[] emptyBytes = writeRandomFile("empty.aes", 0);
+
+    File manifest = new File(backupDirectory, "backup.manifest.aes");
+    ChunkedBackups.writeBackup(walletDirectory, manifest, chunkDirectory, backupKey);
+
+    File restoreDirectory = FileUtils.makeRandomTemporaryDirectory();
+    ChunkedBackups.restoreBackup(manifest, chunkDirectory, restoreDirectory, backupKey);
+
+    assertThat(FileUtils.readFile(new File(restoreDirectory, "mbhd.wallet.aes"))).isEqualTo(walletBytes);
+    assertThat(FileUtils.readFile(new File(restoreDirectory, "empty.aes"))).isEqualTo(emptyBytes);
+
+  }
+
+  @Test
+  public void testMigrateZipBackup() throws Exception {
+
+    byte[] walletBytes = writeRandomFile("mbhd.wallet.aes", ChunkedBackups.CHUNK_SIZE + 5);
+
+    File encryptedZip = ZipFilesTest.newEncryptedZip(walletDirectory, backupKey);
+
+    File manifest = new File(backupDirectory, "backup.manifest.aes");
+    long migratedLength = ChunkedBackups.migrateZipBackup(encryptedZip, manifest, chunkDirectory, backupKey);
+
+    assertThat(migratedLength).isEqualTo(walletBytes.length);
+    assertThat(ChunkedBackups.verifyBackup(manifest, chunkDirectory, backupKey)).isEqualTo(migratedLength);
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testMigrateZipBackup_WrongKey() throws Exception {
+
+    writeRandomFile("mbhd.wallet.aes", 1000);
+
+    byte[] keyBytes = new byte[AESUtils.KEY_LENGTH];
+    new SecureRandom().nextBytes(keyBytes);
+
+    File encryptedZip = ZipFilesTest.newEncryptedZip(walletDirectory, new KeyParameter(keyBytes));
+
+    ChunkedBackups.migrateZipBackup(encryptedZip, new File(backupDirectory, "backup.manifest.aes"), chunkDirectory, backupKey);
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testVerifyBackup_MissingChunk() throws Exception {
+
+    writeRandomFile("mbhd.wallet.aes", 1000);
+
+    File manifest = new File(backupDirectory, "backup.manifest.aes");
+    ChunkedBackups.writeBackup(walletDirectory, manifest, chunkDirectory, backupKey);
+
+    for (File chunkFile : chunkDirectory.listFiles()) {
+      assertThat(chunkFile.delete()).isTrue();
+    }
+
+    ChunkedBackups.verifyBackup(manifest, chunkDirectory, backupKey);
+
+  }
+
+  @Test
+  public void testChunkIdsNotKeyedWithBackupKey() throws Exception {
+
+    byte[] contactsBytes = writeRandomFile("contacts.aes", 1000);
+
+    ChunkedBackups.writeBackup(walletDirectory, new File(backupDirectory, "backup.manifest.aes"), chunkDirectory, backupKey);
+
+    assertThat(chunkDirectory.listFiles()).hasSize(1);
+    assertThat(new File(chunkDirectory, hmacSha256Hex(backupKey.getKey(), contactsBytes)).exists()).isFalse();
+
+  }
+
+  @Test
+  public void testRestoreLegacyManifest() throws Exception {
+
+    byte[] contactsBytes = new byte[1000];
+    new SecureRandom().nextBytes(contactsBytes);
+
+    // Earlier manifests named their chunks with an HMAC under the backup key itself
+    String chunkId = hmacSha256Hex(backupKey.getKey(), contactsBytes);
+    assertThat(chunkDirectory.mkdirs()).isTrue();
+    writeBytes(new File(chunkDirectory, chunkId), AESUtils.encrypt(contactsBytes, backupKey, WalletManager.AES_INITIALISATION_VECTOR));
+
+    String manifestText = "mbhd-backup-manifest 1\ncontacts.aes\t" + contactsBytes.length + "\t" + chunkId;
+    File manifest = new File(backupDirectory, "legacy.manifest.aes");
+    writeBytes(manifest, AESUtils.encrypt(manifestText.getBytes(Charsets.UTF_8), backupKey, WalletManager.AES_INITIALISATION_VECTOR));
+
+    File restoreDirectory = FileUtils.makeRandomTemporaryDirectory();
+    ChunkedBackups.restoreBackup(manifest, chunkDirectory, restoreDirectory, backupKey);
+
+    assertThat(FileUtils.readFile(new File(restoreDirectory, "contacts.aes"))).isEqualTo(contactsBytes);
+
+  }
+
+  private String hmacSha256Hex(byte[] key, byte[] bytes) throws Exception {
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(key, "HmacSHA256"));
+
+    return Utils.HEX.encode(mac.doFinal(bytes));
+  }
+
+  private void writeBytes(File file, byte[] bytes) throws Exception {
+    Files.writeFile(new ByteArrayInputStream(bytes), new File(file.getAbsolutePath() + ".tmp"), file);
+  }
+
+  private byte[] writeRandomFile(String name, int length) throws Exception {
+
+    byte[] bytes = new byte[length];
+    new SecureRandom().nextBytes(bytes);
+
+    File file = new File(walletDirectory, name);
+    Files.writeFile(new ByteArrayInputStream(bytes), new File(walletDirectory, name + ".tmp"), file);
+
+    return bytes;
+  }
+
+}
@@ -0,0 +1,119 @@
+package org.multibit.hd.core.files;
+
+import org.junit.Test;
+import org.multibit.hd.brit.crypto.AESUtils;
+import org.multibit.hd.brit.utils.FileUtils;
+import org.multibit.hd.core.managers.WalletManager;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ZipFilesTest {
+
+  @Test
+  public void testUnzipEncrypted() throws Exception {
+
+    byte[] keyBytes = new byte[AESUtils.KEY_LENGTH];
+    new SecureRandom().nextBytes(keyBytes);
+    KeyParameter aesKey = new KeyParameter(keyBytes);
+
+    // Larger than the copy buffer to exercise the streaming
+    byte[] walletBytes = new byte[200 * 1024 + 3];
+    new SecureRandom().nextBytes(walletBytes);
+
+    File srcFolder = FileUtils.makeRandomTemporaryDirectory();
+    File walletFile = new File(srcFolder, "mbhd.wallet.aes");
+    Files.writeFile(new ByteArrayInputStream(walletBytes), new File(srcFolder, "mbhd.wallet.aes.tmp"), walletFile);
+
+    // Encrypted in memory as zip backups were written
+    File encryptedZip = newEncryptedZip(srcFolder, aesKey);
+
+    File extractFolder = FileUtils.makeRandomTemporaryDirectory();
+    ZipFiles.unzipEncrypted(encryptedZip, extractFolder.getAbsolutePath(), aesKey);
+
+    assertThat(extractFolder.list()).containsOnly("mbhd.wallet.aes");
+    assertThat(FileUtils.readFile(new File(extractFolder, "mbhd.wallet.aes"))).isEqualTo(walletBytes);
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnzipEncrypted_WrongKey() throws Exception {
+
+    File encryptedZip = newEncryptedZip(newKey());
+
+    ZipFiles.unzipEncrypted(encryptedZip, FileUtils.makeRandomTemporaryDirectory().getAbsolutePath(), newKey());
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnzipEncrypted_Truncated() throws Exception {
+
+    KeyParameter aesKey = newKey();
+    File encryptedZip = newEncryptedZip(aesKey);
+
+    // Drop the last block (the end of the central directory and the padding)
+    byte[] encryptedBytes = FileUtils.readFile(encryptedZip);
+    File truncatedZip = new File(encryptedZip.getParentFile(), "truncated.zip.aes");
+    Files.writeFile(new ByteArrayInputStream(Arrays.copyOf(encryptedBytes, encryptedBytes.length - 16)), new File(truncatedZip.getAbsolutePath() + ".tmp"), truncatedZip);
+
+    ZipFiles.unzipEncrypted(truncatedZip, FileUtils.makeRandomTemporaryDirectory().getAbsolutePath(), aesKey);
+
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnzip_EntryOutsideDirectory() throws Exception {
+
+    File zipFile = new File(FileUtils.makeRandomTemporaryDirectory(), "evil.zip");
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      zip.putNextEntry(new ZipEntry(".." + File.separator + "evil.txt"));
+      zip.write(new byte[]{1, 2, 3});
+      zip.closeEntry();
+    }
+
+    ZipFiles.unzip(zipFile.getAbsolutePath(), FileUtils.makeRandomTemporaryDirectory().getAbsolutePath());
+
+  }
+
+  private File newEncryptedZip(KeyParameter aesKey) throws Exception {
+
+    byte[] walletBytes = new byte[10 * 1024];
+    new SecureRandom().nextBytes(walletBytes);
+
+    File srcFolder = FileUtils.makeRandomTemporaryDirectory();
+    Files.writeFile(new ByteArrayInputStream(walletBytes), new File(srcFolder, "mbhd.wallet.aes.tmp"), new File(srcFolder, "mbhd.wallet.aes"));
+
+    return newEncryptedZip(srcFolder, aesKey);
+  }
+
+  /**
+   * @return A zip backup of the source folder in the format written by earlier versions
+   */
+  static File newEncryptedZip(File srcFolder, KeyParameter aesKey) throws Exception {
+
+    File zipFile = new File(FileUtils.makeRandomTemporaryDirectory(), "backup.zip");
+    ZipFiles.zipFolder(srcFolder.getAbsolutePath(), zipFile.getAbsolutePath(), false);
+
+    byte[] encryptedBytes = AESUtils.encrypt(FileUtils.readFile(zipFile), aesKey, WalletManager.AES_INITIALISATION_VECTOR);
+    File encryptedZip = new File(zipFile.getParentFile(), "backup.zip.aes");
+    Files.writeFile(new ByteArrayInputStream(encryptedBytes), new File(encryptedZip.getAbsolutePath() + ".tmp"), encryptedZip);
+
+    return encryptedZip;
+  }
+
+  private KeyParameter newKey() {
+
+    byte[] keyBytes = new byte[AESUtils.KEY_LENGTH];
+    new SecureRandom().nextBytes(keyBytes);
+    return new KeyParameter(keyBytes);
+  }
+
+}
@@ -0,0 +1,158 @@
+package org.multibit.hd.core.managers;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.BlockChain;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.core.Utils;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.bitcoin.store.BlockStore;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.store.BlockHeaderIndex;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BlockStoreManagerTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = UnitTestParams.get();
+
+  /**
+   * One minute between blocks keeps the chain within the allowed time drift of the genesis block
+   */
+  private static final long BLOCK_INTERVAL_SECONDS = 60;
+
+  private File temporaryDirectory;
+
+  private BlockHeaderIndex headerIndex;
+
+  private BlockStore blockStore;
+
+  private BlockStoreManager testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+
+    headerIndex = new BlockHeaderIndex(NETWORK_PARAMETERS, new File(temporaryDirectory, "test.spvindex"));
+
+    testObject = new BlockStoreManager(NETWORK_PARAMETERS);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    if (blockStore != null) {
+      blockStore.close();
+    }
+    headerIndex.close();
+  }
+
+  @Test
+  public void testRewindToRetargetAndConnectAcrossRetarget() throws Exception {
+
+    int interval = NETWORK_PARAMETERS.getInterval();
+    List<Block> chain = newChain(2 * interval + 6);
+
+    StoredBlock previous = new StoredBlock(chain.get(0).cloneAsHeader(), chain.get(0).getWork(), 0);
+    headerIndex.put(previous);
+    for (int i = 1; i < chain.size(); i++) {
+      previous = previous.build(chain.get(i).cloneAsHeader());
+      headerIndex.put(previous);
+    }
+
+    // Replay from part way through the second interval (the rewind allows a week of margin)
+    int replayHeight = interval + interval / 2;
+    long replaySeconds = chain.get(replayHeight).getTimeSeconds() + TimeUnit.DAYS.toSeconds(7);
+
+    blockStore = testObject.rewindBlockStore(
+      new File(temporaryDirectory, "test.spvchain"),
+      new File(temporaryDirectory, "missing.checkpoints"),
+      headerIndex,
+      new Date(TimeUnit.SECONDS.toMillis(replaySeconds))
+    );
+
+    // The chain head is the retarget block at the start of the interval, not the block at the replay date
+    assertThat(blockStore.getChainHead().getHeight()).isEqualTo(interval);
+    assertThat(blockStore.getChainHead().getHeader().getHash()).isEqualTo(chain.get(interval).getHash());
+
+    // The following blocks connect, including the next difficulty transition
+    BlockChain blockChain = new BlockChain(NETWORK_PARAMETERS, blockStore);
+    for (int i = interval + 1; i < chain.size(); i++) {
+      assertThat(blockChain.add(chain.get(i))).isTrue();
+    }
+    assertThat(blockChain.getBestChainHeight()).isEqualTo(chain.size() - 1);
+
+  }
+
+  @Test
+  public void testRewindWithoutIndexedRetargetUsesCheckpoints() throws Exception {
+
+    int interval = NETWORK_PARAMETERS.getInterval();
+    List<Block> chain = newChain(interval + 6);
+
+    // The index starts after the first retarget block
+    StoredBlock previous = new StoredBlock(chain.get(0).cloneAsHeader(), chain.get(0).getWork(), 0);
+    for (int i = 1; i < chain.size(); i++) {
+      previous = previous.build(chain.get(i).cloneAsHeader());
+      if (i > interval) {
+        headerIndex.put(previous);
+      }
+    }
+
+    long replaySeconds = chain.get(chain.size() - 1).getTimeSeconds() + TimeUnit.DAYS.toSeconds(7);
+
+    blockStore = testObject.rewindBlockStore(
+      new File(temporaryDirectory, "test.spvchain"),
+      new File(temporaryDirectory, "missing.checkpoints"),
+      headerIndex,
+      new Date(TimeUnit.SECONDS.toMillis(replaySeconds))
+    );
+
+    // No checkpoints are available so the block store starts again from the genesis block
+    assertThat(blockStore.getChainHead().getHeight()).isEqualTo(0);
+
+  }
+
+  /**
+   * @param length The number of blocks including the genesis block
+   *
+   * @return A chain of solved blocks that follows the difficulty transitions of the network
+   */
+  private List<Block> newChain(int length) throws Exception {
+
+    List<Block> chain = Lists.newArrayList();
+
+    Block previous = NETWORK_PARAMETERS.getGenesisBlock();
+    chain.add(previous);
+
+    ECKey key = new ECKey();
+    for (int height = 1; height < length; height++) {
+      long time = previous.getTimeSeconds() + BLOCK_INTERVAL_SECONDS;
+      Block next = previous.createNextBlock(key.toAddress(NETWORK_PARAMETERS), time);
+
+      if (height % NETWORK_PARAMETERS.getInterval() == 0) {
+        // Blocks arrive much faster than the target so the difficulty rises by the maximum factor of four
+        BigInteger target = Utils.decodeCompactBits(previous.getDifficultyTarget()).divide(BigInteger.valueOf(4));
+        next.setDifficultyTarget(Utils.encodeCompactBits(target));
+        next.solve();
+      }
+
+      chain.add(next);
+      previous = next;
+    }
+
+    return chain;
+  }
+
+}
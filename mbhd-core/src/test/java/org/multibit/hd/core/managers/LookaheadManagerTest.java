@@ -0,0 +1,57 @@
+package org.multibit.hd.core.managers;
+
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.MainNetParams;
+import org.junit.Test;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class LookaheadManagerTest {
+
+  @Test
+  public void testCalculateLookaheadSize() throws Exception {
+
+    // A quiet wallet uses the gap limit
+    assertThat(LookaheadManager.calculateLookaheadSize(0, false)).isEqualTo(LookaheadManager.MINIMUM_LOOKAHEAD_SIZE);
+
+    // A busy wallet allows for twice its recent use
+    assertThat(LookaheadManager.calculateLookaheadSize(10, false)).isEqualTo(LookaheadManager.MINIMUM_LOOKAHEAD_SIZE + 20);
+    assertThat(LookaheadManager.calculateLookaheadSize(1000, false)).isEqualTo(LookaheadManager.MAXIMUM_LOOKAHEAD_SIZE);
+
+    // Restoring always uses the maximum
+    assertThat(LookaheadManager.calculateLookaheadSize(0, true)).isEqualTo(LookaheadManager.MAXIMUM_LOOKAHEAD_SIZE);
+
+  }
+
+  @Test
+  public void testCalculateGrownLookaheadSize() throws Exception {
+
+    // Well inside the window
+    assertThat(LookaheadManager.calculateGrownLookaheadSize(20, 1)).isEqualTo(20);
+    assertThat(LookaheadManager.calculateGrownLookaheadSize(20, 14)).isEqualTo(20);
+
+    // Near the edge
+    assertThat(LookaheadManager.calculateGrownLookaheadSize(20, 15)).isEqualTo(40);
+    assertThat(LookaheadManager.calculateGrownLookaheadSize(80, 70)).isEqualTo(LookaheadManager.MAXIMUM_LOOKAHEAD_SIZE);
+
+  }
+
+  @Test
+  public void testRestore() throws Exception {
+
+    Wallet wallet = new Wallet(MainNetParams.get());
+
+    LookaheadManager.INSTANCE.manage(wallet);
+    assertThat(LookaheadManager.INSTANCE.getLookaheadSize(wallet)).isEqualTo(LookaheadManager.MINIMUM_LOOKAHEAD_SIZE);
+
+    LookaheadManager.INSTANCE.startRestore(wallet);
+    assertThat(LookaheadManager.INSTANCE.getLookaheadSize(wallet)).isEqualTo(LookaheadManager.MAXIMUM_LOOKAHEAD_SIZE);
+
+    LookaheadManager.INSTANCE.finishRestore(wallet);
+    assertThat(LookaheadManager.INSTANCE.getLookaheadSize(wallet)).isEqualTo(LookaheadManager.MINIMUM_LOOKAHEAD_SIZE);
+
+    assertThat(LookaheadManager.INSTANCE.getFilterElementCount(wallet)).isGreaterThan(0);
+
+  }
+
+}
@@ -0,0 +1,101 @@
+package org.multibit.hd.core.managers;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
+import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
+import org.multibit.hd.core.config.BitcoinNetwork;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletIdTest;
+import org.multibit.hd.core.dto.WalletSummary;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class WalletAutoSaveListenerTest {
+
+  private static final String PASSWORD1 = "1throckSplockChockAdock";
+
+  private static final String PASSWORD2 = "2orinocoFlow";
+
+  private NetworkParameters networkParameters;
+
+  private File temporaryDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+    networkParameters = BitcoinNetwork.current().get();
+
+    temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+
+    BackupManager.INSTANCE.initialise(temporaryDirectory, null);
+    InstallationManager.setCurrentApplicationDataDirectory(temporaryDirectory);
+  }
+
+  @Test
+  public void testAutoSaveOfWalletThatIsNotCurrent() throws Exception {
+
+    WalletSummary walletSummary1 = newWalletSummary(WalletIdTest.SEED_PHRASE_1, PASSWORD1);
+    WalletSummary walletSummary2 = newWalletSummary(WalletIdTest.SEED_PHRASE_2, PASSWORD2);
+
+    // Open both wallets leaving the first as the current wallet
+    WalletManager.INSTANCE.setCurrentWalletSummary(walletSummary2);
+    WalletManager.INSTANCE.setCurrentWalletSummary(walletSummary1);
+    assertThat(WalletManager.INSTANCE.getOpenWalletSummaries()).hasSize(2);
+    assertThat(WalletManager.INSTANCE.getCurrentWalletSummary().get()).isSameAs(walletSummary1);
+
+    File walletFile1 = new File(temporaryDirectory, "wallet1.wallet");
+    File walletFile2 = new File(temporaryDirectory, "wallet2.wallet");
+    WalletAutoSaveListener listener1 = new WalletAutoSaveListener(walletSummary1, walletFile1);
+    WalletAutoSaveListener listener2 = new WalletAutoSaveListener(walletSummary2, walletFile2);
+
+    // Bitcoinj autosaves the second wallet (not the current wallet)
+    walletSummary2.getWallet().saveToFile(walletFile2);
+    listener2.onAfterAutoSave(walletFile2);
+
+    // The second wallet is encrypted with its own password and holds its own keys
+    File encryptedWalletFile2 = new File(walletFile2.getAbsolutePath() + WalletManager.MBHD_AES_SUFFIX);
+    assertThat(encryptedWalletFile2.exists()).isTrue();
+    assertThat(walletFile2.exists()).isFalse();
+
+    Wallet rebornWallet2 = WalletManager.loadWalletFromFile(encryptedWalletFile2, PASSWORD2);
+    assertThat(currentAddress(rebornWallet2)).isEqualTo(currentAddress(walletSummary2.getWallet()));
+    assertThat(currentAddress(rebornWallet2)).isNotEqualTo(currentAddress(walletSummary1.getWallet()));
+
+    // The current wallet is unaffected and still saved with its own password
+    walletSummary1.getWallet().saveToFile(walletFile1);
+    listener1.onAfterAutoSave(walletFile1);
+
+    File encryptedWalletFile1 = new File(walletFile1.getAbsolutePath() + WalletManager.MBHD_AES_SUFFIX);
+    assertThat(walletFile1.exists()).isFalse();
+
+    Wallet rebornWallet1 = WalletManager.loadWalletFromFile(encryptedWalletFile1, PASSWORD1);
+    assertThat(currentAddress(rebornWallet1)).isEqualTo(currentAddress(walletSummary1.getWallet()));
+
+    WalletManager.INSTANCE.closeWallet(walletSummary2.getWalletId());
+  }
+
+  private WalletSummary newWalletSummary(String seedPhrase, String password) {
+
+    SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
+    byte[] seed = seedGenerator.convertToSeed(Bip39SeedPhraseGenerator.split(seedPhrase));
+
+    Wallet wallet = new Wallet(networkParameters);
+    wallet.freshReceiveKey();
+
+    WalletSummary walletSummary = new WalletSummary(new WalletId(seed), wallet);
+    walletSummary.setPassword(password);
+
+    return walletSummary;
+  }
+
+  private String currentAddress(Wallet wallet) {
+    return wallet.currentReceiveKey().toAddress(networkParameters).toString();
+  }
+}
@@ -30,6 +30,7 @@ import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
 import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.*;
+import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.services.CoreServices;
 import org.multibit.hd.core.utils.Dates;
 import org.slf4j.Logger;
@@ -325,6 +326,40 @@ public class WalletManagerTest {
     }
   }
 
+  @Test
+  public void testOpenWalletSummaries() throws Exception {
+
+    WalletManager walletManager = WalletManager.INSTANCE;
+    walletManager.onShutdownEvent(new ShutdownEvent(ShutdownEvent.ShutdownType.SOFT));
+
+    NetworkParameters networkParameters = NetworkParameters.fromID(NetworkParameters.ID_MAINNET);
+
+    WalletSummary walletSummary1 = new WalletSummary(new WalletId(EXPECTED_WALLET_ID_1), new Wallet(networkParameters));
+    WalletSummary walletSummary2 = new WalletSummary(new WalletId(EXPECTED_WALLET_ID_2), new Wallet(networkParameters));
+
+    // Switching the current wallet keeps the previous wallet open
+    walletManager.setCurrentWalletSummary(walletSummary1);
+    walletManager.setCurrentWalletSummary(walletSummary2);
+
+    assertThat(walletManager.getCurrentWalletSummary().get()).isSameAs(walletSummary2);
+    List<WalletSummary> openWalletSummaries = walletManager.getOpenWalletSummaries();
+    assertThat(openWalletSummaries).hasSize(2);
+    assertThat(openWalletSummaries.get(0)).isSameAs(walletSummary1);
+    assertThat(openWalletSummaries.get(1)).isSameAs(walletSummary2);
+    assertThat(walletManager.getOpenWalletSummary(walletSummary1.getWallet()).get()).isSameAs(walletSummary1);
+
+    // Closing a non-current wallet removes it
+    assertThat(walletManager.closeWallet(walletSummary1.getWalletId()).isPresent()).isTrue();
+    openWalletSummaries = walletManager.getOpenWalletSummaries();
+    assertThat(openWalletSummaries).hasSize(1);
+    assertThat(openWalletSummaries.get(0)).isSameAs(walletSummary2);
+    assertThat(walletManager.getOpenWalletSummary(walletSummary1.getWallet()).isPresent()).isFalse();
+
+    // Shutdown closes everything
+    walletManager.onShutdownEvent(new ShutdownEvent(ShutdownEvent.ShutdownType.SOFT));
+    assertThat(walletManager.getOpenWalletSummaries()).isEmpty();
+  }
+
   private String makeDirectory(File parentDirectory, String directoryName) {
     File directory = new File(parentDirectory, directoryName);
     assertThat(directory.mkdir()).isTrue();
@@ -0,0 +1,83 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ChainDownloadProgressReporterTest {
+
+  private long nanos = 0;
+
+  private ChainDownloadProgressReporter testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+        return nanos;
+      }
+    };
+
+    // Allow 2 updates per second
+    testObject = new ChainDownloadProgressReporter(2, ticker);
+    testObject.start(1000);
+
+  }
+
+  @Test
+  public void testRateLimiting() throws Exception {
+
+    // First report is always due
+    assertThat(testObject.isReportDue(0, 999)).isTrue();
+
+    // Same percentage within the interval is suppressed
+    advanceMillis(100);
+    assertThat(testObject.isReportDue(0, 998)).isFalse();
+
+    // A percentage change is always reported
+    advanceMillis(100);
+    assertThat(testObject.isReportDue(1, 990)).isTrue();
+
+    // Same percentage after the interval is reported
+    advanceMillis(500);
+    assertThat(testObject.isReportDue(1, 985)).isTrue();
+
+  }
+
+  @Test
+  public void testCompletionIsAlwaysReported() throws Exception {
+
+    assertThat(testObject.isReportDue(99, 1)).isTrue();
+    assertThat(testObject.isReportDue(99, 0)).isTrue();
+
+    assertThat(testObject.getSecondsRemaining()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testEstimates() throws Exception {
+
+    // Nothing known before any progress
+    assertThat(testObject.getBlocksPerSecond()).isEqualTo(-1);
+    assertThat(testObject.getSecondsRemaining()).isEqualTo(-1);
+
+    // 200 blocks in 2 seconds leaves 800 blocks at 100 blocks/s
+    advanceMillis(2000);
+    assertThat(testObject.isReportDue(20, 800)).isTrue();
+
+    assertThat(testObject.getBlocksPerSecond()).isEqualTo(100.0);
+    assertThat(testObject.getSecondsRemaining()).isEqualTo(8);
+
+  }
+
+  private void advanceMillis(long millis) {
+    nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+}
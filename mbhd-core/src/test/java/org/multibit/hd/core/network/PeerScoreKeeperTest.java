@@ -0,0 +1,121 @@
+package org.multibit.hd.core.network;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Peer;
+import com.google.bitcoin.core.PeerAddress;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.VersionMessage;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PeerScoreKeeperTest {
+
+  private ListeningScheduledExecutorService executorService;
+
+  private PeerGroup peerGroup;
+
+  private PeerScoreKeeper testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    executorService = SafeExecutors.newSingleThreadScheduledExecutor("test-peer-score");
+    peerGroup = new PeerGroup(MainNetParams.get());
+
+    testObject = new PeerScoreKeeper(peerGroup, executorService);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testCalculateTargetConnectionCount() throws Exception {
+
+    assertThat(PeerScoreKeeper.calculateTargetConnectionCount(true)).isEqualTo(PeerScoreKeeper.SYNCING_NUMBER_OF_PEERS);
+    assertThat(PeerScoreKeeper.calculateTargetConnectionCount(false)).isEqualTo(PeerScoreKeeper.IDLE_NUMBER_OF_PEERS);
+
+  }
+
+  @Test
+  public void testAdaptConnectionCount() throws Exception {
+
+    testObject.start();
+    assertThat(peerGroup.getMaxConnections()).isEqualTo(PeerScoreKeeper.IDLE_NUMBER_OF_PEERS);
+
+    // Download starts
+    testObject.onChainDownloadStarted(null, 100);
+    awaitExecutor();
+    assertThat(testObject.isSyncing()).isTrue();
+    assertThat(peerGroup.getMaxConnections()).isEqualTo(PeerScoreKeeper.SYNCING_NUMBER_OF_PEERS);
+
+    // Download completes
+    testObject.onBlocksDownloaded(null, null, 0);
+    awaitExecutor();
+    assertThat(testObject.isSyncing()).isFalse();
+    assertThat(peerGroup.getMaxConnections()).isEqualTo(PeerScoreKeeper.IDLE_NUMBER_OF_PEERS);
+
+    testObject.stop();
+
+  }
+
+  @Test
+  public void testPingTimeout() throws Exception {
+
+    assertThat(testObject.getPingTimeoutSeconds()).isEqualTo(PeerScoreKeeper.PING_TIMEOUT_SECONDS);
+
+    PeerScoreKeeper torPeerScoreKeeper = new PeerScoreKeeper(peerGroup, executorService, PeerScoreKeeper.TOR_PING_TIMEOUT_SECONDS);
+    assertThat(torPeerScoreKeeper.getPingTimeoutSeconds()).isEqualTo(PeerScoreKeeper.TOR_PING_TIMEOUT_SECONDS);
+
+  }
+
+  @Test
+  public void testNoPeers() throws Exception {
+
+    assertThat(testObject.pingPeers(Collections.<Peer>emptyList(), 1, TimeUnit.SECONDS)).isEqualTo(0);
+    assertThat(testObject.getFastestPeer(Collections.<Peer>emptyList()).isPresent()).isFalse();
+    assertThat(testObject.checkHealth()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testDisconnectedPeerNotScored() throws Exception {
+
+    NetworkParameters networkParameters = MainNetParams.get();
+    Peer peer = new Peer(networkParameters, new VersionMessage(networkParameters, 0), new PeerAddress(InetAddress.getLocalHost(), 8333), null);
+
+    testObject.onPeerConnected(peer, 1);
+    testObject.onPreMessageReceived(peer, networkParameters.getGenesisBlock());
+    assertThat(testObject.getPeerScore(peer).get().getBlockCount()).isEqualTo(1);
+
+    // A block arriving after the disconnection does not score the peer again
+    testObject.onPeerDisconnected(peer, 0);
+    testObject.onPreMessageReceived(peer, networkParameters.getGenesisBlock());
+    assertThat(testObject.getPeerScore(peer).isPresent()).isFalse();
+    assertThat(testObject.getFastestPeer(Collections.singletonList(peer)).isPresent()).isFalse();
+
+  }
+
+  private void awaitExecutor() throws Exception {
+
+    // The executor runs tasks in order so this follows any change to the peer group
+    executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }).get(5, TimeUnit.SECONDS);
+  }
+
+}
@@ -0,0 +1,187 @@
+package org.multibit.hd.core.network;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PeerScoreTest {
+
+  private FakeTicker ticker;
+
+  @Before
+  public void setUp() {
+
+    ticker = new FakeTicker();
+  }
+
+  @Test
+  public void testPing() throws Exception {
+
+    PeerScore testObject = new PeerScore(ticker);
+
+    // Unmeasured
+    assertThat(testObject.getAveragePingMillis()).isEqualTo(-1);
+    assertThat(testObject.isResponsive()).isTrue();
+
+    testObject.recordPing(100);
+    assertThat(testObject.getAveragePingMillis()).isEqualTo(100);
+
+    // Smoothed towards the latest ping
+    testObject.recordPing(200);
+    assertThat(testObject.getAveragePingMillis()).isEqualTo(130);
+
+    testObject.recordPingFailure();
+    assertThat(testObject.isResponsive()).isFalse();
+    assertThat(testObject.getFailedPingCount()).isEqualTo(1);
+    assertThat(testObject.getPingCount()).isEqualTo(3);
+
+    // A later reply restores the peer
+    testObject.recordPing(100);
+    assertThat(testObject.isResponsive()).isTrue();
+
+  }
+
+  @Test
+  public void testMisbehaviour() throws Exception {
+
+    PeerScore testObject = new PeerScore(ticker);
+
+    for (int i = 0; i < PeerScore.MAXIMUM_MISBEHAVIOUR - 1; i++) {
+      testObject.recordMisbehaviour();
+    }
+    assertThat(testObject.isResponsive()).isTrue();
+
+    testObject.recordPingFailure();
+    assertThat(testObject.getMisbehaviourCount()).isEqualTo(PeerScore.MAXIMUM_MISBEHAVIOUR);
+    assertThat(testObject.isResponsive()).isFalse();
+
+    // Each successful ping forgives one count of misbehaviour
+    testObject.recordPing(50);
+    assertThat(testObject.getMisbehaviourCount()).isEqualTo(PeerScore.MAXIMUM_MISBEHAVIOUR - 1);
+    assertThat(testObject.isResponsive()).isTrue();
+
+    for (int i = 0; i < PeerScore.MAXIMUM_MISBEHAVIOUR; i++) {
+      testObject.recordPing(50);
+    }
+    assertThat(testObject.getMisbehaviourCount()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testLatePing() throws Exception {
+
+    PeerScore testObject = new PeerScore(ticker);
+
+    testObject.recordPing(100);
+
+    // Timed out then answered
+    testObject.recordPingFailure();
+    testObject.recordLatePing(100);
+
+    assertThat(testObject.getPingCount()).isEqualTo(2);
+    assertThat(testObject.getFailedPingCount()).isEqualTo(0);
+    assertThat(testObject.getMisbehaviourCount()).isEqualTo(0);
+    assertThat(testObject.isResponsive()).isTrue();
+
+  }
+
+  @Test
+  public void testBlocksPerSecond() throws Exception {
+
+    PeerScore testObject = new PeerScore(ticker);
+
+    assertThat(testObject.getBlocksPerSecond()).isEqualTo(0.0);
+
+    // The first block starts the clock
+    testObject.recordFilteredBlock();
+    assertThat(testObject.getBlocksPerSecond()).isEqualTo(0.0);
+
+    for (int i = 0; i < 10; i++) {
+      ticker.advance(100, TimeUnit.MILLISECONDS);
+      if (i % 2 == 0) {
+        testObject.recordFilteredBlock();
+      } else {
+        testObject.recordBlock();
+      }
+    }
+
+    assertThat(testObject.getFilteredBlockCount()).isEqualTo(6);
+    assertThat(testObject.getBlockCount()).isEqualTo(5);
+    assertThat(testObject.getBlocksPerSecond()).isEqualTo(10.0);
+
+  }
+
+  @Test
+  public void testFastestFirst() throws Exception {
+
+    PeerScore fast = new PeerScore(ticker);
+    fast.recordPing(50);
+
+    PeerScore slow = new PeerScore(ticker);
+    slow.recordPing(800);
+
+    PeerScore unmeasured = new PeerScore(ticker);
+
+    PeerScore unresponsive = new PeerScore(ticker);
+    unresponsive.recordPing(10);
+    unresponsive.recordPingFailure();
+
+    List<PeerScore> scores = Lists.newArrayList(unresponsive, unmeasured, slow, fast);
+    Collections.sort(scores, PeerScore.FASTEST_FIRST);
+
+    assertThat(scores.get(0)).isSameAs(fast);
+    assertThat(scores.get(1)).isSameAs(slow);
+    assertThat(scores.get(2)).isSameAs(unmeasured);
+    assertThat(scores.get(3)).isSameAs(unresponsive);
+
+  }
+
+  @Test
+  public void testIsMuchSlowerThan() throws Exception {
+
+    PeerScore fast = new PeerScore(ticker);
+    fast.recordPing(50);
+
+    PeerScore nearlyAsFast = new PeerScore(ticker);
+    nearlyAsFast.recordPing(180);
+
+    PeerScore slow = new PeerScore(ticker);
+    slow.recordPing(800);
+
+    assertThat(slow.isMuchSlowerThan(fast)).isTrue();
+    assertThat(fast.isMuchSlowerThan(slow)).isFalse();
+
+    // Within the margin
+    assertThat(nearlyAsFast.isMuchSlowerThan(fast)).isFalse();
+
+    // Unresponsive is always slower than responsive
+    fast.recordPingFailure();
+    assertThat(fast.isMuchSlowerThan(slow)).isTrue();
+
+  }
+
+  /**
+   * Ticker under test control
+   */
+  private static class FakeTicker extends Ticker {
+
+    private long nanos = 0;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advance(long duration, TimeUnit unit) {
+      nanos += unit.toNanos(duration);
+    }
+  }
+
+}
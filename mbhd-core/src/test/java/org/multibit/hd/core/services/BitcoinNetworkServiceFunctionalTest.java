@@ -124,7 +124,7 @@ public class BitcoinNetworkServiceFunctionalTest {
     // See if there are any payments
     WalletService walletService = new WalletService(BitcoinNetwork.current().get());
 
-    walletService.initialise(temporaryDirectory, new WalletId(seed));
+    walletService.initialise(temporaryDirectory, walletSummary);
 
     // Get the current wallets payments - there should be some
     List<PaymentData> transactions = walletService.getPaymentDataList();
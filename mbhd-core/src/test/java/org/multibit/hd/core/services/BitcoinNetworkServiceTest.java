@@ -0,0 +1,123 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.BlockChain;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.store.MemoryBlockStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.brit.seed_phrase.Bip39SeedPhraseGenerator;
+import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
+import org.multibit.hd.core.config.BitcoinNetwork;
+import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.dto.WalletId;
+import org.multibit.hd.core.dto.WalletIdTest;
+import org.multibit.hd.core.dto.WalletSummary;
+import org.multibit.hd.core.managers.BackupManager;
+import org.multibit.hd.core.managers.InstallationManager;
+import org.multibit.hd.core.managers.WalletManager;
+import org.multibit.hd.core.managers.WalletManagerTest;
+
+import java.io.File;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BitcoinNetworkServiceTest {
+
+  private static final String PASSWORD1 = "1throckSplockChockAdock";
+
+  private static final String PASSWORD2 = "2orinocoFlow";
+
+  private NetworkParameters networkParameters;
+
+  private WalletSummary walletSummary1;
+
+  private WalletSummary walletSummary2;
+
+  private BitcoinNetworkService testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    Configurations.currentConfiguration = Configurations.newDefaultConfiguration();
+    networkParameters = BitcoinNetwork.current().get();
+
+    File temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+
+    BackupManager.INSTANCE.initialise(temporaryDirectory, null);
+    InstallationManager.setCurrentApplicationDataDirectory(temporaryDirectory);
+
+    testObject = new BitcoinNetworkService(networkParameters);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    if (walletSummary2 != null) {
+      WalletManager.INSTANCE.closeWallet(walletSummary2.getWalletId());
+    }
+  }
+
+  @Test
+  public void testRestartResumesAutosaveOfOpenWallets() throws Exception {
+
+    walletSummary1 = newWalletSummary(WalletIdTest.SEED_PHRASE_1, PASSWORD1);
+    walletSummary2 = newWalletSummary(WalletIdTest.SEED_PHRASE_2, PASSWORD2);
+
+    // Open both wallets leaving the first as the current wallet
+    WalletManager.INSTANCE.setCurrentWalletSummary(walletSummary2);
+    WalletManager.INSTANCE.setCurrentWalletSummary(walletSummary1);
+
+    // Neither wallet is auto saving, as after the network has been stopped
+    // Restart against a block chain both wallets are in step with
+    testObject.attachOpenWallets(new BlockChain(networkParameters, new MemoryBlockStore(networkParameters)));
+
+    assertThat(testObject.getAttachedWallets()).hasSize(2);
+    assertThat(testObject.getAttachedWallets()).contains(walletSummary1.getWallet(), walletSummary2.getWallet());
+
+    // Both wallets auto save again (shutting down fails if auto saving is not enabled)
+    walletSummary1.getWallet().shutdownAutosaveAndWait();
+    walletSummary2.getWallet().shutdownAutosaveAndWait();
+
+  }
+
+  @Test
+  public void testRestartClosesOpenWalletsNotInStep() throws Exception {
+
+    walletSummary1 = newWalletSummary(WalletIdTest.SEED_PHRASE_1, PASSWORD1);
+    walletSummary2 = newWalletSummary(WalletIdTest.SEED_PHRASE_2, PASSWORD2);
+
+    // The second wallet has seen blocks beyond the block store of the first
+    walletSummary2.getWallet().setLastBlockSeenHeight(100);
+
+    WalletManager.INSTANCE.setCurrentWalletSummary(walletSummary2);
+    WalletManager.INSTANCE.setCurrentWalletSummary(walletSummary1);
+
+    testObject.attachOpenWallets(new BlockChain(networkParameters, new MemoryBlockStore(networkParameters)));
+
+    assertThat(testObject.getAttachedWallets()).containsOnly(walletSummary1.getWallet());
+    assertThat(WalletManager.INSTANCE.getOpenWalletSummary(walletSummary2.getWalletId()).isPresent()).isFalse();
+
+    walletSummary1.getWallet().shutdownAutosaveAndWait();
+
+  }
+
+  private WalletSummary newWalletSummary(String seedPhrase, String password) {
+
+    SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
+    byte[] seed = seedGenerator.convertToSeed(Bip39SeedPhraseGenerator.split(seedPhrase));
+
+    Wallet wallet = new Wallet(networkParameters);
+    wallet.freshReceiveKey();
+
+    // In step with a new block chain
+    wallet.setLastBlockSeenHeight(0);
+
+    WalletSummary walletSummary = new WalletSummary(new WalletId(seed), wallet);
+    walletSummary.setPassword(password);
+
+    return walletSummary;
+  }
+
+}
@@ -0,0 +1,107 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.crypto.ChildNumber;
+import com.google.bitcoin.crypto.DeterministicKey;
+import com.google.bitcoin.crypto.HDKeyDerivation;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.Contact;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ContactIndexTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private static final String ALICE_ADDRESS = "1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty";
+
+  private static final String BOB_ADDRESS = "1KzTSfqjF2iKCduwz59nv2uqh1W2JsTxZH";
+
+  private ContactIndex testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new ContactIndex(NETWORK_PARAMETERS);
+  }
+
+  @Test
+  public void testAddressAndName() throws Exception {
+
+    Contact alice = newContact("Alice Capital", ALICE_ADDRESS);
+    Contact bob = newContact("Bob Capital", BOB_ADDRESS);
+
+    testObject.addAll(Arrays.asList(alice, bob));
+
+    assertThat(testObject.filterByAddress(ALICE_ADDRESS)).hasSize(1);
+    assertThat(testObject.filterByAddress(ALICE_ADDRESS).get(0)).isSameAs(alice);
+    assertThat(testObject.filterByName("bob capital")).hasSize(1);
+    assertThat(testObject.filterByName("bob capital").get(0)).isSameAs(bob);
+    assertThat(testObject.filterByName("bob")).isEmpty();
+
+    // An edited contact is indexed under its new details only
+    alice.setBitcoinAddress(BOB_ADDRESS);
+    alice.setName("Alice Lower");
+    testObject.addAll(Arrays.asList(alice));
+
+    assertThat(testObject.filterByAddress(ALICE_ADDRESS)).isEmpty();
+    assertThat(testObject.filterByAddress(BOB_ADDRESS)).containsOnly(alice, bob);
+    assertThat(testObject.filterByName("alice capital")).isEmpty();
+    assertThat(testObject.filterByName("ALICE LOWER")).hasSize(1);
+
+    testObject.removeAll(Arrays.asList(bob));
+
+    assertThat(testObject.filterByAddress(BOB_ADDRESS)).containsOnly(alice);
+    assertThat(testObject.filterByName("bob capital")).isEmpty();
+
+  }
+
+  @Test
+  public void testExtendedPublicKey() throws Exception {
+
+    DeterministicKey masterKey = HDKeyDerivation.createMasterPrivateKey(new byte[32]);
+    DeterministicKey accountKey = HDKeyDerivation.deriveChildKey(masterKey, ChildNumber.ZERO_HARDENED);
+    DeterministicKey externalChainKey = HDKeyDerivation.deriveChildKey(accountKey, ChildNumber.ZERO);
+
+    String firstAddress = addressAt(externalChainKey, 0);
+    String lastAddress = addressAt(externalChainKey, ContactIndex.EXTENDED_PUBLIC_KEY_WINDOW - 1);
+    String beyondWindowAddress = addressAt(externalChainKey, ContactIndex.EXTENDED_PUBLIC_KEY_WINDOW);
+
+    Contact carol = newContact("Carol", "");
+    carol.setExtendedPublicKey(accountKey.serializePubB58());
+
+    testObject.addAll(Lists.newArrayList(carol));
+
+    assertThat(testObject.filterByAddress(firstAddress)).containsOnly(carol);
+    assertThat(testObject.filterByAddress(lastAddress)).containsOnly(carol);
+    assertThat(testObject.filterByAddress(beyondWindowAddress)).isEmpty();
+
+    // An invalid key is not indexed
+    carol.setExtendedPublicKey("xpubNotValid");
+    testObject.addAll(Lists.newArrayList(carol));
+
+    assertThat(testObject.filterByAddress(firstAddress)).isEmpty();
+    assertThat(testObject.filterByName("carol")).containsOnly(carol);
+
+  }
+
+  private String addressAt(DeterministicKey chainKey, int index) {
+
+    return HDKeyDerivation.deriveChildKey(chainKey, new ChildNumber(index, false)).toAddress(NETWORK_PARAMETERS).toString();
+  }
+
+  private Contact newContact(String name, String bitcoinAddress) {
+
+    Contact contact = new Contact(UUID.randomUUID(), name);
+    contact.setBitcoinAddress(bitcoinAddress);
+
+    return contact;
+  }
+
+}
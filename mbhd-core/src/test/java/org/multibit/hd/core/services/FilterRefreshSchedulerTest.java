@@ -0,0 +1,118 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.PeerGroup;
+import com.google.bitcoin.core.Wallet;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.concurrent.SafeExecutors;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class FilterRefreshSchedulerTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private ListeningScheduledExecutorService executorService;
+
+  private Wallet wallet;
+
+  private FilterRefreshScheduler testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    executorService = SafeExecutors.newSingleThreadScheduledExecutor("test-filter");
+
+    wallet = new Wallet(NETWORK_PARAMETERS);
+    List<Wallet> wallets = Lists.newArrayList(wallet);
+
+    testObject = new FilterRefreshScheduler(
+      new PeerGroup(NETWORK_PARAMETERS),
+      Suppliers.ofInstance(wallets),
+      executorService,
+      100
+    );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testCalculateFalsePositiveRate() throws Exception {
+
+    assertThat(FilterRefreshScheduler.calculateFalsePositiveRate(0)).isEqualTo(FilterRefreshScheduler.SMALL_WALLET_FALSE_POSITIVE_RATE);
+    assertThat(FilterRefreshScheduler.calculateFalsePositiveRate(FilterRefreshScheduler.SMALL_WALLET_ELEMENT_COUNT)).isEqualTo(FilterRefreshScheduler.SMALL_WALLET_FALSE_POSITIVE_RATE);
+    assertThat(FilterRefreshScheduler.calculateFalsePositiveRate(FilterRefreshScheduler.SMALL_WALLET_ELEMENT_COUNT + 1)).isEqualTo(FilterRefreshScheduler.MEDIUM_WALLET_FALSE_POSITIVE_RATE);
+    assertThat(FilterRefreshScheduler.calculateFalsePositiveRate(FilterRefreshScheduler.LARGE_WALLET_ELEMENT_COUNT + 1)).isEqualTo(FilterRefreshScheduler.LARGE_WALLET_FALSE_POSITIVE_RATE);
+
+  }
+
+  @Test
+  public void testCoalesce() throws Exception {
+
+    ListenableFuture<Boolean> first = testObject.requestRefresh();
+    for (int i = 0; i < 4; i++) {
+      assertThat(testObject.requestRefresh()).isSameAs(first);
+    }
+
+    // The first filter is always sent
+    assertThat(first.get(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(testObject.getRequestCount()).isEqualTo(5);
+    assertThat(testObject.getCoalescedCount()).isEqualTo(4);
+    assertThat(testObject.getRefreshCount()).isEqualTo(1);
+    assertThat(testObject.getSentCount()).isEqualTo(1);
+    assertThat(testObject.getElementCount()).isEqualTo(wallet.getBloomFilterElementCount());
+    assertThat(testObject.getFilterSize()).isGreaterThan(0);
+    assertThat(testObject.getFalsePositiveRate()).isEqualTo(FilterRefreshScheduler.SMALL_WALLET_FALSE_POSITIVE_RATE);
+
+  }
+
+  @Test
+  public void testUnchangedFilterNotSent() throws Exception {
+
+    assertThat(testObject.requestRefresh().get(5, TimeUnit.SECONDS)).isTrue();
+
+    // Nothing has changed
+    assertThat(testObject.requestRefresh().get(5, TimeUnit.SECONDS)).isFalse();
+    assertThat(testObject.getRefreshCount()).isEqualTo(2);
+    assertThat(testObject.getSentCount()).isEqualTo(1);
+
+    // A new key changes the filter
+    wallet.importKey(new ECKey());
+    assertThat(testObject.requestRefresh().get(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(testObject.getSentCount()).isEqualTo(2);
+
+  }
+
+  @Test
+  public void testStop() throws Exception {
+
+    ListenableFuture<Boolean> pending = testObject.requestRefresh();
+
+    testObject.stop();
+
+    // The pending refresh never runs and later requests are ignored
+    assertThat(pending.isCancelled()).isTrue();
+    assertThat(testObject.requestRefresh().get(5, TimeUnit.SECONDS)).isFalse();
+
+    Thread.sleep(300);
+    assertThat(testObject.getRefreshCount()).isEqualTo(0);
+    assertThat(testObject.getRequestCount()).isEqualTo(1);
+  }
+
+}
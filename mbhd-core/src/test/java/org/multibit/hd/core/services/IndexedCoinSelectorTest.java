@@ -0,0 +1,115 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.bitcoin.testing.FakeTxBuilder;
+import com.google.bitcoin.utils.Threading;
+import com.google.bitcoin.wallet.CoinSelection;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.util.LinkedList;
+
+import static com.google.bitcoin.core.Coin.parseCoin;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class IndexedCoinSelectorTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private Wallet wallet;
+
+  private UnspentOutputIndex unspentOutputIndex;
+
+  @Before
+  public void setUp() throws Exception {
+
+    wallet = new Wallet(NETWORK_PARAMETERS);
+
+    unspentOutputIndex = new UnspentOutputIndex();
+    wallet.addEventListener(unspentOutputIndex.newWalletEventListener(), Threading.SAME_THREAD);
+
+    for (String value : new String[]{"0.1", "0.2", "0.3", "0.5", "1.0"}) {
+      receive(parseCoin(value));
+    }
+
+    unspentOutputIndex.update(wallet);
+  }
+
+  @Test
+  public void testIndex() throws Exception {
+
+    assertThat(unspentOutputIndex.size()).isEqualTo(5);
+    assertThat(unspentOutputIndex.getTotalValue()).isEqualTo(parseCoin("2.1"));
+    assertThat(unspentOutputIndex.getConfirmedLargestFirst()).isEmpty();
+    assertThat(unspentOutputIndex.getPendingLargestFirst().get(0).getValue()).isEqualTo(parseCoin("1.0"));
+
+    // Spend from the wallet and check the spent outputs and the change are reflected
+    Wallet.SendRequest sendRequest = Wallet.SendRequest.to(new ECKey().toAddress(NETWORK_PARAMETERS), parseCoin("0.6"));
+    sendRequest.fee = parseCoin("0.0001");
+    sendRequest.feePerKb = Coin.ZERO;
+    sendRequest.ensureMinRequiredFee = false;
+    sendRequest.coinSelector = new IndexedCoinSelector(unspentOutputIndex, IndexedCoinSelector.Strategy.LARGEST_FIRST);
+    wallet.completeTx(sendRequest);
+    wallet.commitTx(sendRequest.tx);
+
+    unspentOutputIndex.update(wallet);
+
+    assertThat(unspentOutputIndex.getTotalValue()).isEqualTo(parseCoin("1.4999"));
+
+  }
+
+  @Test
+  public void testBranchAndBound() throws Exception {
+
+    CoinSelection selection = select(IndexedCoinSelector.Strategy.BRANCH_AND_BOUND, parseCoin("0.6"));
+
+    // An exact match needs no change
+    assertThat(selection.valueGathered).isEqualTo(parseCoin("0.6"));
+    assertThat(selection.gathered).hasSize(2);
+
+    // No exact match so the largest is used
+    selection = select(IndexedCoinSelector.Strategy.BRANCH_AND_BOUND, parseCoin("0.65"));
+    assertThat(selection.valueGathered).isEqualTo(parseCoin("1.0"));
+
+  }
+
+  @Test
+  public void testLargestFirstAndConsolidate() throws Exception {
+
+    CoinSelection selection = select(IndexedCoinSelector.Strategy.LARGEST_FIRST, parseCoin("0.6"));
+    assertThat(selection.gathered).hasSize(1);
+    assertThat(selection.valueGathered).isEqualTo(parseCoin("1.0"));
+
+    selection = select(IndexedCoinSelector.Strategy.CONSOLIDATE, parseCoin("0.6"));
+    assertThat(selection.gathered).hasSize(3);
+    assertThat(selection.valueGathered).isEqualTo(parseCoin("0.6"));
+
+    // Emptying the wallet gathers everything
+    selection = select(IndexedCoinSelector.Strategy.LARGEST_FIRST, NetworkParameters.MAX_MONEY);
+    assertThat(selection.gathered).hasSize(5);
+    assertThat(selection.valueGathered).isEqualTo(parseCoin("2.1"));
+
+  }
+
+  private CoinSelection select(IndexedCoinSelector.Strategy strategy, Coin target) {
+
+    LinkedList<TransactionOutput> candidates = new LinkedList<>(unspentOutputIndex.getPendingLargestFirst());
+
+    return new IndexedCoinSelector(unspentOutputIndex, strategy).select(target, candidates);
+  }
+
+  private void receive(Coin value) throws Exception {
+
+    Transaction tx = FakeTxBuilder.createFakeTx(NETWORK_PARAMETERS, value, wallet.freshReceiveKey().toAddress(NETWORK_PARAMETERS));
+
+    // Pending transactions from self seen by peers can be spent
+    tx.getConfidence().setSource(TransactionConfidence.Source.SELF);
+    tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{1, 2, 3, 4})));
+    tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{10, 2, 3, 4})));
+
+    wallet.receivePending(tx, null);
+  }
+
+}
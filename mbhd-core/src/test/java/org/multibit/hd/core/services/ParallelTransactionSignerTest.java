@@ -0,0 +1,118 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.*;
+import com.google.bitcoin.params.MainNetParams;
+import com.google.bitcoin.script.Script;
+import com.google.bitcoin.testing.FakeTxBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
+import static com.google.bitcoin.core.Coin.parseCoin;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ParallelTransactionSignerTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = MainNetParams.get();
+
+  private static final String PASSWORD = "orinoco";
+
+  private Wallet wallet;
+
+  @Before
+  public void setUp() throws Exception {
+
+    wallet = new Wallet(NETWORK_PARAMETERS);
+  }
+
+  @Test
+  public void testSameAsWallet() throws Exception {
+
+    receive(ParallelTransactionSigner.PARALLEL_SIGNING_THRESHOLD + 5);
+
+    assertSameAsWallet(null);
+
+  }
+
+  @Test
+  public void testSameAsWallet_Encrypted() throws Exception {
+
+    receive(ParallelTransactionSigner.PARALLEL_SIGNING_THRESHOLD * 2);
+
+    wallet.encrypt(PASSWORD);
+
+    assertSameAsWallet(wallet.getKeyCrypter().deriveKey(PASSWORD));
+
+  }
+
+  @Test
+  public void testSmallTransaction() throws Exception {
+
+    receive(ParallelTransactionSigner.PARALLEL_SIGNING_THRESHOLD - 1);
+
+    Wallet.SendRequest sendRequest = newEmptyWalletRequest(null);
+
+    // Left to the wallet
+    assertThat(ParallelTransactionSigner.signInputs(wallet, sendRequest.tx, null)).isFalse();
+
+  }
+
+  private void assertSameAsWallet(KeyParameter aesKey) {
+
+    Wallet.SendRequest sendRequest = newEmptyWalletRequest(aesKey);
+
+    assertThat(ParallelTransactionSigner.signInputs(wallet, sendRequest.tx, aesKey)).isTrue();
+    byte[] parallelBytes = sendRequest.tx.bitcoinSerialize();
+
+    // Remove the signatures and let the wallet sign the same transaction
+    for (TransactionInput input : sendRequest.tx.getInputs()) {
+      input.setScriptSig(new Script(new byte[0]));
+    }
+    sendRequest.signInputs = true;
+    wallet.signTransaction(sendRequest);
+
+    assertThat(Arrays.equals(parallelBytes, sendRequest.tx.bitcoinSerialize())).isTrue();
+
+    // Every input spends its connected output
+    for (int i = 0; i < sendRequest.tx.getInputs().size(); i++) {
+      TransactionInput input = sendRequest.tx.getInput(i);
+      input.getScriptSig().correctlySpends(sendRequest.tx, i, input.getConnectedOutput().getScriptPubKey(), true);
+    }
+  }
+
+  private Wallet.SendRequest newEmptyWalletRequest(KeyParameter aesKey) {
+
+    Wallet.SendRequest sendRequest = Wallet.SendRequest.emptyWallet(new ECKey().toAddress(NETWORK_PARAMETERS));
+    sendRequest.aesKey = aesKey;
+    sendRequest.signInputs = false;
+
+    try {
+      wallet.completeTx(sendRequest);
+    } catch (InsufficientMoneyException e) {
+      throw new IllegalStateException(e);
+    }
+
+    return sendRequest;
+  }
+
+  private void receive(int count) throws Exception {
+
+    for (int i = 0; i < count; i++) {
+
+      // Alternate between fresh addresses and reused ones so that some keys sign more than one input
+      ECKey key = i % 2 == 0 ? wallet.freshReceiveKey() : wallet.currentReceiveKey();
+      Transaction tx = FakeTxBuilder.createFakeTx(NETWORK_PARAMETERS, parseCoin("0.01"), key.toAddress(NETWORK_PARAMETERS));
+
+      // Pending transactions from self seen by peers can be spent
+      tx.getConfidence().setSource(TransactionConfidence.Source.SELF);
+      tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{1, 2, 3, 4})));
+      tx.getConfidence().markBroadcastBy(new PeerAddress(InetAddress.getByAddress(new byte[]{10, 2, 3, 4})));
+
+      wallet.receivePending(tx, null);
+    }
+  }
+
+}
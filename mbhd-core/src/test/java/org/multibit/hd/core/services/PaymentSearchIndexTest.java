@@ -0,0 +1,111 @@
+package org.multibit.hd.core.services;
+
+import com.google.bitcoin.core.Coin;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentRequestData;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentSearchIndexTest {
+
+  private static final Comparator<PaymentData> NEWEST_FIRST = new Comparator<PaymentData>() {
+    @Override
+    public int compare(PaymentData o1, PaymentData o2) {
+      return -o1.getDate().compareTo(o2.getDate());
+    }
+  };
+
+  private PaymentSearchIndex testObject;
+
+  private PaymentRequestData rent;
+  private PaymentRequestData coffee;
+  private PaymentRequestData unlabelled;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new PaymentSearchIndex();
+
+    rent = newPaymentRequest("1AhN6rPdrMuKBGFDKR1k9A8SCLYaNgXhty", "Rent for March", 3);
+    coffee = newPaymentRequest("1KzTSfqjF2iKCduwz59nv2uqh1W2JsTxZH", "Coffee", 2);
+    // The address contains "rent" but the label does not
+    unlabelled = newPaymentRequest("1CurrentXXXXXXXXXXXXXXXXXXXXXXXXXX", "Lunch", 1);
+
+    testObject.update(Lists.<PaymentData>newArrayList(rent, coffee, unlabelled));
+  }
+
+  @Test
+  public void testSearch() throws Exception {
+
+    // Case insensitive anywhere in the text
+    assertThat(testObject.search("COFF", 10, NEWEST_FIRST)).containsOnly(coffee);
+    assertThat(testObject.search("march", 10, NEWEST_FIRST)).containsOnly(rent);
+
+    // Short queries are scanned
+    assertThat(testObject.search("ch", 10, NEWEST_FIRST)).containsOnly(rent, unlabelled);
+
+    // No trigram match
+    assertThat(testObject.search("zzz", 10, NEWEST_FIRST)).isEmpty();
+
+  }
+
+  @Test
+  public void testRankingAndCap() throws Exception {
+
+    // The label match ranks above the address match
+    List<PaymentData> results = testObject.search("rent", 10, NEWEST_FIRST);
+    assertThat(results).hasSize(2);
+    assertThat(results.get(0)).isSameAs(rent);
+    assertThat(results.get(1)).isSameAs(unlabelled);
+
+    assertThat(testObject.search("rent", 1, NEWEST_FIRST)).hasSize(1);
+
+  }
+
+  @Test
+  public void testIncrementalUpdate() throws Exception {
+
+    // Replace a payment with a relabelled instance and remove another
+    PaymentRequestData deposit = newPaymentRequest(rent.getAddress(), "Deposit", 3);
+    testObject.update(Lists.<PaymentData>newArrayList(deposit, unlabelled));
+
+    assertThat(testObject.size()).isEqualTo(2);
+    assertThat(testObject.search("march", 10, NEWEST_FIRST)).isEmpty();
+    assertThat(testObject.search("deposit", 10, NEWEST_FIRST)).containsOnly(deposit);
+    assertThat(testObject.search("coffee", 10, NEWEST_FIRST)).isEmpty();
+
+  }
+
+  @Test
+  public void testUnchangedInstanceNotReindexed() throws Exception {
+
+    // The same instance is assumed unchanged so an edit in place is not seen
+    rent.setLabel("Deposit");
+    testObject.update(Lists.<PaymentData>newArrayList(rent, coffee, unlabelled));
+
+    assertThat(testObject.size()).isEqualTo(3);
+    assertThat(testObject.search("march", 10, NEWEST_FIRST)).containsOnly(rent);
+    assertThat(testObject.search("deposit", 10, NEWEST_FIRST)).isEmpty();
+
+  }
+
+  private PaymentRequestData newPaymentRequest(String address, String label, int ageInDays) {
+
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress(address);
+    paymentRequestData.setLabel(label);
+    paymentRequestData.setNote("");
+    paymentRequestData.setAmountCoin(Coin.valueOf(ageInDays));
+    paymentRequestData.setDate(DateTime.now().minusDays(ageInDays));
+
+    return paymentRequestData;
+  }
+
+}
@@ -16,10 +16,12 @@ import org.multibit.hd.brit.seed_phrase.SeedPhraseGenerator;
 import org.multibit.hd.core.config.BitcoinNetwork;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.*;
+import org.multibit.hd.core.exceptions.PaymentsSaveException;
 import org.multibit.hd.core.managers.BackupManager;
 import org.multibit.hd.core.managers.InstallationManager;
 import org.multibit.hd.core.managers.WalletManager;
 import org.multibit.hd.core.managers.WalletManagerTest;
+import org.multibit.hd.core.store.PaymentsJournal;
 import org.multibit.hd.core.utils.Dates;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +54,8 @@ public class WalletServiceTest {
 
   private String firstAddress;
 
+  private File temporaryDirectory;
+
 
   @Before
   public void setUp() throws Exception {
@@ -60,7 +64,7 @@ public class WalletServiceTest {
     networkParameters = BitcoinNetwork.current().get();
 
     // Create a random temporary directory where the wallet directory will be written
-    File temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
+    temporaryDirectory = WalletManagerTest.makeRandomTemporaryApplicationDirectory();
 
     // Create a wallet from a seed
     SeedPhraseGenerator seedGenerator = new Bip39SeedPhraseGenerator();
@@ -87,7 +91,7 @@ public class WalletServiceTest {
 
     walletService = new WalletService(networkParameters);
 
-    walletService.initialise(temporaryDirectory, walletId);
+    walletService.initialise(temporaryDirectory, walletSummary);
   }
 
   @Test
@@ -127,6 +131,177 @@ public class WalletServiceTest {
     checkPaymentRequest(paymentRequestData1, newPaymentRequestDatas.iterator().next());
   }
 
+  @Test
+  public void testJournalledChanges() throws Exception {
+
+    PaymentRequestData paymentRequestData1 = new PaymentRequestData();
+    paymentRequestData1.setAddress("1abc");
+    paymentRequestData1.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData1.setDate(new DateTime());
+    paymentRequestData1.setLabel("label1");
+    paymentRequestData1.setNote("note1");
+
+    PaymentRequestData paymentRequestData2 = new PaymentRequestData();
+    paymentRequestData2.setAddress("1def");
+    paymentRequestData2.setAmountCoin(Coin.valueOf(500));
+    paymentRequestData2.setDate(new DateTime());
+    paymentRequestData2.setLabel("label2");
+    paymentRequestData2.setNote("note2");
+
+    FiatPayment fiatPayment2 = new FiatPayment();
+    fiatPayment2.setAmount(Optional.of(new BigDecimal("5.5")));
+    fiatPayment2.setCurrency(Optional.of(Currency.getInstance("USD")));
+    fiatPayment2.setRate(Optional.of("10.0"));
+    fiatPayment2.setExchangeName(Optional.of("Bitstamp"));
+    paymentRequestData2.setAmountFiat(fiatPayment2);
+
+    // Journal the changes without writing the backing store
+    walletService.addPaymentRequest(paymentRequestData1);
+    walletService.writePaymentRequest(paymentRequestData1);
+    walletService.addPaymentRequest(paymentRequestData2);
+    walletService.writePaymentRequest(paymentRequestData2);
+    walletService.deletePaymentRequest(paymentRequestData1);
+
+    // Read the payment requests back from the journal alone
+    WalletService reloadedWalletService = new WalletService(networkParameters);
+    reloadedWalletService.initialise(temporaryDirectory, walletSummary);
+
+    Collection<PaymentRequestData> newPaymentRequestDatas = reloadedWalletService.getPaymentRequests();
+    assertThat(newPaymentRequestDatas.size()).isEqualTo(1);
+    checkPaymentRequest(paymentRequestData2, newPaymentRequestDatas.iterator().next());
+
+    // Compact the journal into the backing store and read again
+    walletService.writePayments();
+
+    reloadedWalletService = new WalletService(networkParameters);
+    reloadedWalletService.initialise(temporaryDirectory, walletSummary);
+
+    assertThat(reloadedWalletService.getPaymentRequests().size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFailedCompactionAfterPasswordChange() throws Exception {
+
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress("1abc");
+    paymentRequestData.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData.setDate(new DateTime());
+    paymentRequestData.setLabel("label");
+    paymentRequestData.setNote("note");
+
+    // Journal a change under the original password
+    walletService.addPaymentRequest(paymentRequestData);
+    walletService.writePaymentRequest(paymentRequestData);
+
+    File paymentsDirectory = new File(WalletManager.getOrCreateWalletDirectory(temporaryDirectory, WalletManager.createWalletRoot(walletId)), WalletService.PAYMENTS_DIRECTORY_NAME);
+    File journalFile = new File(paymentsDirectory, WalletService.PAYMENTS_JOURNAL_NAME);
+    File rotatedFile = new File(journalFile.getAbsolutePath() + PaymentsJournal.ROTATED_SUFFIX);
+    assertThat(journalFile.exists()).isTrue();
+
+    // Block the temporary snapshot file so the write fails after the password has changed
+    File blockedFile = new File(paymentsDirectory, WalletService.PAYMENTS_DATABASE_NAME + ".tmp");
+    assertThat(blockedFile.mkdir()).isTrue();
+    walletSummary.setPassword(CHANGED_PASSWORD1);
+
+    try {
+      walletService.writePayments();
+    } catch (PaymentsSaveException e) {
+      // Expected
+    }
+
+    // The journal has not been rotated so it cannot be left behind with the old password
+    assertThat(journalFile.exists()).isTrue();
+    assertThat(rotatedFile.exists()).isFalse();
+
+    // Once the snapshot can be written the journal is compacted into it
+    assertThat(blockedFile.delete()).isTrue();
+    walletService.writePayments();
+
+    assertThat(journalFile.exists()).isFalse();
+    assertThat(rotatedFile.exists()).isFalse();
+
+    WalletService reloadedWalletService = new WalletService(networkParameters);
+    reloadedWalletService.initialise(temporaryDirectory, walletSummary);
+    assertThat(reloadedWalletService.getPaymentRequests().size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testChangePaymentsPassword() throws Exception {
+
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress("1abc");
+    paymentRequestData.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData.setDate(new DateTime());
+    paymentRequestData.setLabel("label");
+    paymentRequestData.setNote("note");
+
+    // Journal a change under the original password
+    walletService.addPaymentRequest(paymentRequestData);
+    walletService.writePaymentRequest(paymentRequestData);
+
+    File paymentsDirectory = new File(WalletManager.getOrCreateWalletDirectory(temporaryDirectory, WalletManager.createWalletRoot(walletId)), WalletService.PAYMENTS_DIRECTORY_NAME);
+    File journalFile = new File(paymentsDirectory, WalletService.PAYMENTS_JOURNAL_NAME);
+
+    // Block the temporary snapshot file so the change fails
+    File blockedFile = new File(paymentsDirectory, WalletService.PAYMENTS_DATABASE_NAME + ".tmp");
+    assertThat(blockedFile.mkdir()).isTrue();
+
+    try {
+      walletService.changePaymentsPassword(CHANGED_PASSWORD1);
+    } catch (PaymentsSaveException e) {
+      // Expected
+    }
+
+    // Appends still use the original password, matching the journal
+    assertThat(walletSummary.getPassword().toString()).isEqualTo(PASSWORD);
+    assertThat(journalFile.exists()).isTrue();
+
+    // Once the snapshot can be written the journal is compacted and the password switched
+    assertThat(blockedFile.delete()).isTrue();
+    walletService.changePaymentsPassword(CHANGED_PASSWORD1);
+
+    assertThat(walletSummary.getPassword().toString()).isEqualTo(CHANGED_PASSWORD1);
+    assertThat(journalFile.exists()).isFalse();
+
+    // A later append is readable with the new password alongside the snapshot
+    paymentRequestData.setNote("changed note");
+    walletService.writePaymentRequest(paymentRequestData);
+
+    WalletService reloadedWalletService = new WalletService(networkParameters);
+    reloadedWalletService.initialise(temporaryDirectory, walletSummary);
+    assertThat(reloadedWalletService.getPaymentRequests().size()).isEqualTo(1);
+    assertThat(reloadedWalletService.getPaymentRequests().iterator().next().getNote()).isEqualTo("changed note");
+  }
+
+  @Test
+  public void testPaymentDataSnapshotIsShared() throws Exception {
+
+    // Repeated calls without any changes share the same snapshot
+    List<PaymentData> firstSnapshot = walletService.getPaymentDataList();
+    long firstVersion = walletService.getPaymentDataVersion();
+
+    assertThat(walletService.getPaymentDataList()).isSameAs(firstSnapshot);
+    assertThat(walletService.getPaymentDataVersion()).isEqualTo(firstVersion);
+
+    // Adding an unfunded payment request creates a new snapshot
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress("1abc");
+    paymentRequestData.setAmountCoin(Coin.valueOf(245));
+    paymentRequestData.setDate(new DateTime());
+    paymentRequestData.setLabel("label");
+    paymentRequestData.setNote("note");
+    paymentRequestData.setAmountFiat(new FiatPayment());
+
+    walletService.addPaymentRequest(paymentRequestData);
+
+    assertThat(walletService.getPaymentDataVersion()).isGreaterThan(firstVersion);
+
+    List<PaymentData> secondSnapshot = walletService.getPaymentDataList();
+    assertThat(secondSnapshot).isNotSameAs(firstSnapshot);
+    assertThat(secondSnapshot.size()).isEqualTo(firstSnapshot.size() + 1);
+    assertThat(secondSnapshot.contains(paymentRequestData)).isTrue();
+  }
+
   private void checkPaymentRequest(PaymentRequestData paymentRequestData, PaymentRequestData other) {
     assertThat(other.getAddress()).isEqualTo(paymentRequestData.getAddress());
     assertThat(other.getLabel()).isEqualTo(paymentRequestData.getLabel());
@@ -0,0 +1,142 @@
+package org.multibit.hd.core.store;
+
+import com.google.bitcoin.core.Block;
+import com.google.bitcoin.core.ECKey;
+import com.google.bitcoin.core.NetworkParameters;
+import com.google.bitcoin.core.StoredBlock;
+import com.google.bitcoin.params.UnitTestParams;
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class BlockHeaderIndexTest {
+
+  private static final NetworkParameters NETWORK_PARAMETERS = UnitTestParams.get();
+
+  /**
+   * Ten minutes between blocks
+   */
+  private static final long BLOCK_INTERVAL_SECONDS = 600;
+
+  private File indexFile;
+
+  private BlockHeaderIndex testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    indexFile = File.createTempFile("mbhd", ".spvindex");
+    indexFile.deleteOnExit();
+
+    testObject = new BlockHeaderIndex(NETWORK_PARAMETERS, indexFile);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    testObject.close();
+  }
+
+  @Test
+  public void testFindLastBefore() throws Exception {
+
+    List<StoredBlock> chain = newChain(20);
+    for (StoredBlock block : chain) {
+      testObject.put(block);
+    }
+
+    assertThat(testObject.getBaseHeight()).isEqualTo(0);
+    assertThat(testObject.getTopHeight()).isEqualTo(19);
+
+    // Half way between blocks 10 and 11
+    long time = chain.get(10).getHeader().getTimeSeconds() + BLOCK_INTERVAL_SECONDS / 2;
+    StoredBlock found = testObject.findLastBefore(time).get();
+
+    assertThat(found.getHeight()).isEqualTo(10);
+    assertThat(found.getHeader().getHash()).isEqualTo(chain.get(10).getHeader().getHash());
+    assertThat(found.getChainWork()).isEqualTo(chain.get(10).getChainWork());
+
+    // Before the index starts
+    assertThat(testObject.findLastBefore(chain.get(0).getHeader().getTimeSeconds() - 1).isPresent()).isFalse();
+
+  }
+
+  @Test
+  public void testFindLastRetargetBefore() throws Exception {
+
+    List<StoredBlock> chain = newChain(20);
+    for (StoredBlock block : chain.subList(5, 20)) {
+      testObject.put(block);
+    }
+
+    // Block 17 is the last before the time but block 10 is the last retarget
+    long time = chain.get(17).getHeader().getTimeSeconds();
+    assertThat(testObject.findLastRetargetBefore(time, 10).get().getHeight()).isEqualTo(10);
+
+    // Block 8 is indexed but the retarget block before it is not
+    assertThat(testObject.findLastRetargetBefore(chain.get(8).getHeader().getTimeSeconds(), 10).isPresent()).isFalse();
+
+  }
+
+  @Test
+  public void testReorganisationTruncates() throws Exception {
+
+    List<StoredBlock> chain = newChain(10);
+    for (StoredBlock block : chain) {
+      testObject.put(block);
+    }
+
+    // Replacing block 5 makes everything above it stale
+    testObject.put(chain.get(5));
+
+    assertThat(testObject.getTopHeight()).isEqualTo(5);
+    assertThat(testObject.get(6).isPresent()).isFalse();
+    assertThat(testObject.get(5).get().getHeader().getHash()).isEqualTo(chain.get(5).getHeader().getHash());
+
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+
+    List<StoredBlock> chain = newChain(5);
+    for (StoredBlock block : chain) {
+      testObject.put(block);
+    }
+    testObject.close();
+
+    testObject = new BlockHeaderIndex(NETWORK_PARAMETERS, indexFile);
+
+    assertThat(testObject.getTopHeight()).isEqualTo(4);
+    assertThat(testObject.get(3).get().getHeader().getHash()).isEqualTo(chain.get(3).getHeader().getHash());
+
+  }
+
+  /**
+   * @param length The number of blocks including the genesis block
+   *
+   * @return A chain of stored blocks with increasing times
+   */
+  private List<StoredBlock> newChain(int length) throws Exception {
+
+    List<StoredBlock> chain = Lists.newArrayList();
+
+    StoredBlock previous = new StoredBlock(NETWORK_PARAMETERS.getGenesisBlock().cloneAsHeader(), NETWORK_PARAMETERS.getGenesisBlock().getWork(), 0);
+    chain.add(previous);
+
+    ECKey key = new ECKey();
+    for (int i = 1; i < length; i++) {
+      long time = previous.getHeader().getTimeSeconds() + BLOCK_INTERVAL_SECONDS;
+      Block next = previous.getHeader().createNextBlock(key.toAddress(NETWORK_PARAMETERS), time).cloneAsHeader();
+      previous = previous.build(next);
+      chain.add(previous);
+    }
+
+    return chain;
+  }
+
+}
@@ -0,0 +1,159 @@
+package org.multibit.hd.core.store;
+
+import com.google.bitcoin.core.Coin;
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import org.junit.Before;
+import org.junit.Test;
+import org.multibit.hd.core.dto.PaymentRequestData;
+import org.multibit.hd.core.exceptions.PaymentsLoadException;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.security.SecureRandom;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PaymentsJournalTest {
+
+  private File journalFile;
+
+  private KeyParameter aesKey;
+
+  private PaymentsJournal testObject;
+
+  private Map<String, PaymentRequestData> paymentRequestMap;
+
+  private Map<String, TransactionInfo> transactionInfoMap;
+
+  @Before
+  public void setUp() throws Exception {
+
+    File directory = com.google.common.io.Files.createTempDir();
+    directory.deleteOnExit();
+    journalFile = new File(directory, "payments.journal");
+
+    byte[] keyBytes = new byte[32];
+    new SecureRandom().nextBytes(keyBytes);
+    aesKey = new KeyParameter(keyBytes);
+
+    testObject = new PaymentsJournal(journalFile, new PaymentsProtobufSerializer());
+
+    paymentRequestMap = Maps.newHashMap();
+    transactionInfoMap = Maps.newHashMap();
+  }
+
+  @Test
+  public void testReplay() throws Exception {
+
+    testObject.appendPaymentRequest(newPaymentRequest("1abc", "Rent"), aesKey);
+    testObject.appendPaymentRequest(newPaymentRequest("1def", "Coffee"), aesKey);
+    testObject.appendTransactionInfo(newTransactionInfo("aa11", "Sent to Bob"), aesKey);
+
+    // A later change replaces an earlier one
+    testObject.appendPaymentRequest(newPaymentRequest("1abc", "Rent for March"), aesKey);
+    testObject.appendDeletePaymentRequest("1def", aesKey);
+
+    assertThat(testObject.getRecordCount()).isEqualTo(5);
+
+    int replayed = new PaymentsJournal(journalFile, new PaymentsProtobufSerializer()).replay(aesKey, paymentRequestMap, transactionInfoMap);
+
+    assertThat(replayed).isEqualTo(5);
+    assertThat(paymentRequestMap).hasSize(1);
+    assertThat(paymentRequestMap.get("1abc").getLabel()).isEqualTo("Rent for March");
+    assertThat(paymentRequestMap.get("1abc").getAmountCoin()).isEqualTo(Coin.valueOf(1000));
+    assertThat(transactionInfoMap).hasSize(1);
+    assertThat(transactionInfoMap.get("aa11").getNote()).isEqualTo("Sent to Bob");
+
+  }
+
+  @Test
+  public void testTornRecordIsDiscarded() throws Exception {
+
+    testObject.appendPaymentRequest(newPaymentRequest("1abc", "Rent"), aesKey);
+    testObject.appendPaymentRequest(newPaymentRequest("1def", "Coffee"), aesKey);
+
+    // Simulate a crash part way through the last append
+    long completeLength = journalFile.length();
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(journalFile, "rw")) {
+      randomAccessFile.setLength(completeLength - 5);
+    }
+
+    int replayed = testObject.replay(aesKey, paymentRequestMap, transactionInfoMap);
+
+    assertThat(replayed).isEqualTo(1);
+    assertThat(paymentRequestMap.keySet()).containsOnly("1abc");
+
+    // The journal is usable again after the torn record has been removed
+    testObject.appendDeletePaymentRequest("1abc", aesKey);
+    paymentRequestMap.clear();
+    assertThat(testObject.replay(aesKey, paymentRequestMap, transactionInfoMap)).isEqualTo(2);
+    assertThat(paymentRequestMap).isEmpty();
+
+  }
+
+  @Test(expected = PaymentsLoadException.class)
+  public void testWrongKeyIsRejected() throws Exception {
+
+    testObject.appendPaymentRequest(newPaymentRequest("1abc", "Rent"), aesKey);
+    testObject.appendPaymentRequest(newPaymentRequest("1def", "Coffee"), aesKey);
+
+    byte[] otherKeyBytes = new byte[32];
+    new SecureRandom().nextBytes(otherKeyBytes);
+
+    testObject.replay(new KeyParameter(otherKeyBytes), paymentRequestMap, transactionInfoMap);
+
+  }
+
+  @Test
+  public void testRotation() throws Exception {
+
+    testObject.appendPaymentRequest(newPaymentRequest("1abc", "Rent"), aesKey);
+
+    // Changes made during a compaction go to a new journal
+    testObject.rotate();
+    assertThat(testObject.getRecordCount()).isEqualTo(0);
+    testObject.appendPaymentRequest(newPaymentRequest("1def", "Coffee"), aesKey);
+
+    // An unfinished compaction replays both
+    assertThat(testObject.replay(aesKey, paymentRequestMap, transactionInfoMap)).isEqualTo(2);
+    assertThat(paymentRequestMap.keySet()).containsOnly("1abc", "1def");
+
+    // A second rotation keeps the unfinished records ahead of the new ones
+    testObject.rotate();
+    paymentRequestMap.clear();
+    assertThat(testObject.replay(aesKey, paymentRequestMap, transactionInfoMap)).isEqualTo(2);
+
+    // Once the snapshot is written the rotated records are no longer needed
+    testObject.completeRotation();
+    paymentRequestMap.clear();
+    assertThat(testObject.replay(aesKey, paymentRequestMap, transactionInfoMap)).isEqualTo(0);
+    assertThat(paymentRequestMap).isEmpty();
+
+  }
+
+  private PaymentRequestData newPaymentRequest(String address, String label) {
+
+    PaymentRequestData paymentRequestData = new PaymentRequestData();
+    paymentRequestData.setAddress(address);
+    paymentRequestData.setLabel(label);
+    paymentRequestData.setNote("");
+    paymentRequestData.setAmountCoin(Coin.valueOf(1000));
+
+    return paymentRequestData;
+  }
+
+  private TransactionInfo newTransactionInfo(String hash, String note) {
+
+    TransactionInfo transactionInfo = new TransactionInfo();
+    transactionInfo.setHash(hash);
+    transactionInfo.setNote(note);
+    transactionInfo.setClientFee(Optional.<Coin>absent());
+    transactionInfo.setMinerFee(Optional.<Coin>absent());
+
+    return transactionInfo;
+  }
+
+}
@@ -0,0 +1,85 @@
+package org.multibit.hd.core.store;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.multibit.hd.core.dto.Contact;
+import org.multibit.hd.core.exceptions.ContactsLoadException;
+import org.multibit.hd.core.protobuf.MBHDContactsProtos;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class ProtobufRecordIndexTest {
+
+  private final ContactsProtobufSerializer serializer = new ContactsProtobufSerializer();
+
+  @Test
+  public void testIndex() throws Exception {
+
+    byte[] buffer = writeContacts(newContact("Alice"), newContact("Bob"), newContact("Charles"));
+
+    ProtobufRecordIndex testObject = new ProtobufRecordIndex(buffer, MBHDContactsProtos.Contacts.CONTACT_FIELD_NUMBER);
+
+    assertThat(testObject.size()).isEqualTo(3);
+
+    Set<String> names = Sets.newHashSet();
+    for (int i = 0; i < testObject.size(); i++) {
+      names.add(testObject.parse(i, MBHDContactsProtos.Contact.PARSER).getName());
+    }
+    assertThat(names).containsOnly("Alice", "Bob", "Charles");
+
+    // An empty container has no records
+    assertThat(new ProtobufRecordIndex(new byte[0], MBHDContactsProtos.Contacts.CONTACT_FIELD_NUMBER).size()).isEqualTo(0);
+
+  }
+
+  @Test
+  public void testLazyDecoding() throws Exception {
+
+    Contact alice = newContact("Alice");
+    alice.setEmail("alice@example.org");
+    alice.setTags(Arrays.asList("Friend", "Work"));
+
+    List<Contact> testObject = serializer.readContacts(writeContacts(alice));
+
+    assertThat(testObject).hasSize(1);
+
+    Contact readContact = testObject.get(0);
+    assertThat(readContact).isEqualTo(alice);
+    assertThat(readContact.getName()).isEqualTo("Alice");
+    assertThat(readContact.getEmail().get()).isEqualTo("alice@example.org");
+    assertThat(readContact.getTags()).containsOnly("Friend", "Work");
+
+    // Decoded records are retained
+    assertThat(testObject.get(0)).isSameAs(readContact);
+
+  }
+
+  @Test(expected = ContactsLoadException.class)
+  public void testTruncatedBuffer() throws Exception {
+
+    byte[] buffer = writeContacts(newContact("Alice"), newContact("Bob"));
+
+    serializer.readContacts(Arrays.copyOf(buffer, buffer.length - 5));
+
+  }
+
+  private Contact newContact(String name) {
+
+    return new Contact(UUID.randomUUID(), name);
+  }
+
+  private byte[] writeContacts(Contact... contacts) throws Exception {
+
+    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+    serializer.writeContacts(Sets.newHashSet(contacts), byteArrayOutputStream);
+
+    return byteArrayOutputStream.toByteArray();
+  }
+
+}
@@ -2,6 +2,7 @@ package org.multibit.hd.ui;
 
 import com.google.common.base.Preconditions;
 import org.multibit.hd.core.config.Configurations;
+import org.multibit.hd.core.events.CoalescingEventDispatcher;
 import org.multibit.hd.core.events.CoreEvents;
 import org.multibit.hd.core.events.ShutdownEvent;
 import org.multibit.hd.core.managers.InstallationManager;
@@ -249,6 +250,12 @@ public class MultiBitHD {
     // Start the core services
     CoreServices.main(args);
 
+    // Keep high frequency network events off the Bitcoin network threads
+    CoreEvents.enableCoalescingDispatch(
+      CoalescingEventDispatcher.DEFAULT_WINDOW_MILLIS,
+      CoalescingEventDispatcher.DEFAULT_MAXIMUM_PENDING_TRANSACTIONS
+    );
+
     // Pre-loadContacts sound library
     Sounds.initialise();
 
@@ -280,7 +280,7 @@ public class MainController extends AbstractController implements
       });
 
       // Restart the Bitcoin network (may have switched parameters)
-      handleBitcoinNetwork();
+      handleBitcoinNetwork(true);
     }
 
   }
@@ -522,7 +522,7 @@ public class MainController extends AbstractController implements
     walletService.addTransactionInfo(transactionInfo);
     log.debug("Added transactionInfo {} to walletService {}", transactionInfo, walletService);
     try {
-      walletService.writePayments();
+      walletService.writeTransactionInfo(transactionInfo);
     } catch (PaymentsSaveException pse) {
       ExceptionHandler.handleThrowable(pse);
     }
@@ -681,11 +681,22 @@ public class MainController extends AbstractController implements
 
   /**
    * <p>Restart the Bitcoin network</p>
+   *
+   * @param forceRestart True if the network must be restarted (e.g. configuration change) rather than shared with the current wallet
    */
-  private void handleBitcoinNetwork() {
+  private void handleBitcoinNetwork(boolean forceRestart) {
 
     // Only start the network once
     if (bitcoinNetworkService.isPresent()) {
+
+      // Prefer sharing the running network with the newly opened wallet over a restart
+      Optional<WalletSummary> currentWalletSummary = WalletManager.INSTANCE.getCurrentWalletSummary();
+      if (!forceRestart
+        && currentWalletSummary.isPresent()
+        && bitcoinNetworkService.get().addWallet(currentWalletSummary.get())) {
+        return;
+      }
+
       bitcoinNetworkService.get().stopAndWait();
     }
 
@@ -856,7 +867,7 @@ public class MainController extends AbstractController implements
 
           // Lastly start the Bitcoin network
           log.debug("Starting Bitcoin network...");
-          handleBitcoinNetwork();
+          handleBitcoinNetwork(false);
 
         } catch (Exception e) {
           // TODO localise and put on UI
@@ -3,11 +3,16 @@ package org.multibit.hd.ui.views.components.auto_complete;
 import com.google.bitcoin.core.Address;
 import com.google.bitcoin.core.AddressFormatException;
 import com.google.bitcoin.core.NetworkParameters;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 import org.multibit.hd.core.dto.Contact;
 import org.multibit.hd.core.dto.Recipient;
 import org.multibit.hd.core.services.ContactService;
 
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
@@ -27,6 +32,11 @@ public class AutoCompleteFilters {
   private AutoCompleteFilters() {
   }
 
+  /**
+   * The maximum number of recipients offered in the popup
+   */
+  private static final int MAXIMUM_RECIPIENTS = 20;
+
   /**
    * @param contactService    The contact service to use for queries
    * @param networkParameters The network parameters
@@ -37,13 +47,21 @@ public class AutoCompleteFilters {
 
     return new AutoCompleteFilter<Recipient>() {
 
+      /**
+       * The payable contacts indexed by name, email and tags (built once per combo box)
+       */
+      private AutoCompleteIndex<Recipient> recipientIndex;
+
       @Override
       public Recipient[] create() {
 
         // Only require recipients that can be paid
         List<Contact> contacts = contactService.filterContactsByContent("*", true);
 
-        return populateRecipients(contacts);
+        List<Recipient> recipients = populateRecipients(contacts);
+        recipientIndex = newRecipientIndex(recipients);
+
+        return recipients.toArray(new Recipient[recipients.size()]);
 
       }
 
@@ -54,10 +72,13 @@ public class AutoCompleteFilters {
           return new Recipient[]{};
         }
 
-        // Only require recipients that can be paid
-        List<Contact> contacts = contactService.filterContactsByContent(fragment, true);
+        if (recipientIndex == null) {
+          create();
+        }
+
+        List<Recipient> recipients = recipientIndex.search(fragment);
 
-        return populateRecipients(contacts);
+        return recipients.toArray(new Recipient[recipients.size()]);
       }
 
       /**
@@ -65,11 +86,10 @@ public class AutoCompleteFilters {
        * @param contacts The contacts to add to the recipients
        * @return The recipients
        */
-      private Recipient[] populateRecipients(List<Contact> contacts) {
+      private List<Recipient> populateRecipients(List<Contact> contacts) {
 
-        Recipient[] recipients = new Recipient[contacts.size()];
+        List<Recipient> recipients = Lists.newArrayListWithCapacity(contacts.size());
 
-        int i = 0;
         for (Contact contact : contacts) {
           String address = null;
           try {
@@ -77,8 +97,7 @@ public class AutoCompleteFilters {
             Address bitcoinAddress = new Address(networkParameters, address);
             Recipient recipient = new Recipient(bitcoinAddress);
             recipient.setContact(contact);
-            recipients[i] = recipient;
-            i++;
+            recipients.add(recipient);
           } catch (AddressFormatException e) {
             throw new IllegalArgumentException("Recipients must have a valid Bitcoin address ('"+address+"'). Check contact filter: "+contact, e);
           }
@@ -91,4 +110,53 @@ public class AutoCompleteFilters {
 
   }
 
+  /**
+   * <p>Index recipients for auto-complete by contact name (and each word of it), email address and tags</p>
+   * <p>Bitcoin addresses and notes are not indexed, consistent with the Contact API content search, since a
+   * vanity address could be used to impersonate a contact</p>
+   *
+   * @param recipients The recipients with contacts
+   *
+   * @return The index with the recipients ranked by name
+   */
+  static AutoCompleteIndex<Recipient> newRecipientIndex(List<Recipient> recipients) {
+
+    List<Recipient> sortedRecipients = Lists.newArrayList(recipients);
+    Collections.sort(sortedRecipients, new Comparator<Recipient>() {
+      @Override
+      public int compare(Recipient o1, Recipient o2) {
+        return nameOf(o1).compareToIgnoreCase(nameOf(o2));
+      }
+    });
+
+    AutoCompleteIndex<Recipient> recipientIndex = new AutoCompleteIndex<>(MAXIMUM_RECIPIENTS);
+
+    for (Recipient recipient : sortedRecipients) {
+
+      List<String> keys = Lists.newArrayList();
+
+      if (recipient.getContact().isPresent()) {
+        Contact contact = recipient.getContact().get();
+
+        String name = Strings.nullToEmpty(contact.getName());
+        keys.add(name);
+        keys.addAll(Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings().splitToList(name));
+
+        keys.add(contact.getEmail().or(""));
+        if (contact.getTags() != null) {
+          keys.addAll(contact.getTags());
+        }
+      }
+
+      recipientIndex.add(recipient, keys);
+    }
+
+    return recipientIndex;
+  }
+
+  private static String nameOf(Recipient recipient) {
+
+    return recipient.getContact().isPresent() ? Strings.nullToEmpty(recipient.getContact().get().getName()) : "";
+  }
+
 }
@@ -0,0 +1,194 @@
+package org.multibit.hd.ui.views.components.auto_complete;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * <p>Index to provide the following to auto-complete filters:</p>
+ * <ul>
+ * <li>Case insensitive prefix matching of a fragment against the keys of each item</li>
+ * <li>The best matches only, in the order the items were added</li>
+ * <li>Incremental narrowing as the fragment grows one keystroke at a time</li>
+ * </ul>
+ * <p>The keys are held in a character trie where every node keeps the best items beneath it, so a lookup costs
+ * the length of the fragment plus the number of results regardless of the number of items. When the fragment
+ * extends the previous one the walk continues from where the previous one stopped.</p>
+ *
+ * @param <T> The item type
+ *
+ * @since 0.0.1
+ */
+public class AutoCompleteIndex<T> {
+
+  private final int maximumResults;
+
+  /**
+   * The items in rank order
+   */
+  private final List<T> items = Lists.newArrayList();
+
+  private final Node root = new Node();
+
+  /**
+   * The previous lower case fragment and the node it reached (null if no key had that prefix)
+   */
+  private String previousFragment = "";
+  private Node previousNode = root;
+
+  /**
+   * @param maximumResults The maximum number of items returned by a search
+   */
+  public AutoCompleteIndex(int maximumResults) {
+
+    Preconditions.checkArgument(maximumResults > 0, "'maximumResults' must be positive");
+
+    this.maximumResults = maximumResults;
+  }
+
+  /**
+   * <p>Add an item ranked below all the items added before it</p>
+   *
+   * @param item The item
+   * @param keys The keys that the item can be found by (e.g. a name, each word of the name and an email address)
+   */
+  public void add(T item, Collection<String> keys) {
+
+    Preconditions.checkNotNull(item, "'item' must be present");
+    Preconditions.checkNotNull(keys, "'keys' must be present");
+
+    int rank = items.size();
+    items.add(item);
+
+    root.addRank(rank, maximumResults);
+    for (String key : keys) {
+      if (key == null) {
+        continue;
+      }
+      Node node = root;
+      String lowerKey = key.trim().toLowerCase();
+      for (int i = 0; i < lowerKey.length(); i++) {
+        node = node.getOrCreateChild(lowerKey.charAt(i));
+        // Ranks arrive in ascending order so a repeat is always the last one added
+        node.addRank(rank, maximumResults);
+      }
+    }
+
+    // Any cached walk may now be stale
+    previousFragment = "";
+    previousNode = root;
+  }
+
+  /**
+   * @param fragment The entered text
+   *
+   * @return The best items with a key starting with the fragment, or the best items overall if the fragment is empty
+   */
+  public List<T> search(String fragment) {
+
+    Preconditions.checkNotNull(fragment, "'fragment' must be present");
+
+    String lowerFragment = fragment.trim().toLowerCase();
+
+    // Continue from the previous walk if the fragment has grown, otherwise start again
+    int start;
+    Node node;
+    if (lowerFragment.startsWith(previousFragment)) {
+      start = previousFragment.length();
+      node = previousNode;
+    } else {
+      start = 0;
+      node = root;
+    }
+
+    for (int i = start; i < lowerFragment.length() && node != null; i++) {
+      node = node.getChild(lowerFragment.charAt(i));
+    }
+
+    previousFragment = lowerFragment;
+    previousNode = node;
+
+    if (node == null) {
+      return Lists.newArrayList();
+    }
+
+    List<T> results = Lists.newArrayListWithCapacity(node.rankCount);
+    for (int i = 0; i < node.rankCount; i++) {
+      results.add(items.get(node.ranks[i]));
+    }
+
+    return results;
+  }
+
+  /**
+   * @return The number of items
+   */
+  public int size() {
+    return items.size();
+  }
+
+  /**
+   * A trie node with children sorted by character
+   */
+  private static class Node {
+
+    private char[] characters = new char[0];
+    private Node[] children = new Node[0];
+
+    /**
+     * The best ranks of the items with a key passing through this node in ascending order
+     */
+    private int[] ranks = new int[0];
+    private int rankCount = 0;
+
+    private Node getChild(char c) {
+
+      int index = Arrays.binarySearch(characters, c);
+
+      return index < 0 ? null : children[index];
+    }
+
+    private Node getOrCreateChild(char c) {
+
+      int index = Arrays.binarySearch(characters, c);
+      if (index >= 0) {
+        return children[index];
+      }
+
+      // Insert at the insertion point to keep the characters sorted
+      int insertion = -index - 1;
+      int length = characters.length;
+
+      char[] newCharacters = new char[length + 1];
+      Node[] newChildren = new Node[length + 1];
+      System.arraycopy(characters, 0, newCharacters, 0, insertion);
+      System.arraycopy(children, 0, newChildren, 0, insertion);
+      System.arraycopy(characters, insertion, newCharacters, insertion + 1, length - insertion);
+      System.arraycopy(children, insertion, newChildren, insertion + 1, length - insertion);
+
+      Node child = new Node();
+      newCharacters[insertion] = c;
+      newChildren[insertion] = child;
+
+      characters = newCharacters;
+      children = newChildren;
+
+      return child;
+    }
+
+    private void addRank(int rank, int maximumResults) {
+
+      if (rankCount == maximumResults || (rankCount > 0 && ranks[rankCount - 1] == rank)) {
+        return;
+      }
+      if (rankCount == ranks.length) {
+        ranks = Arrays.copyOf(ranks, Math.min(maximumResults, Math.max(2, rankCount * 2)));
+      }
+      ranks[rankCount++] = rank;
+    }
+  }
+
+}
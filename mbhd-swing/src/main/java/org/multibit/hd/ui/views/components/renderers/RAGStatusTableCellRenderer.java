@@ -1,6 +1,5 @@
 package org.multibit.hd.ui.views.components.renderers;
 
-import org.multibit.hd.core.dto.PaymentData;
 import org.multibit.hd.core.dto.PaymentStatus;
 import org.multibit.hd.ui.MultiBitUI;
 import org.multibit.hd.ui.views.components.LabelDecorator;
@@ -36,10 +35,8 @@ public class RAGStatusTableCellRenderer extends DefaultTableCellRenderer {
     // Get the RAG (which is in the model as a RAGStatus
     if (value instanceof PaymentStatus) {
 
-      java.util.List<PaymentData> paymentDatas = paymentTableModel.getPaymentData();
       int modelRow = table.convertRowIndexToModel(row);
-      PaymentData rowPaymentData = paymentDatas.get(modelRow);
-      LabelDecorator.applyPaymentStatusIconAndColor(rowPaymentData.getStatus(), label, rowPaymentData.isCoinBase(), MultiBitUI.SMALL_ICON_SIZE);
+      LabelDecorator.applyPaymentStatusIconAndColor((PaymentStatus) value, label, paymentTableModel.isCoinBase(modelRow), MultiBitUI.SMALL_ICON_SIZE);
     }
 
     if (isSelected) {
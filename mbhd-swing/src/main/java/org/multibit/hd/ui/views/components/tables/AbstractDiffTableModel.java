@@ -0,0 +1,221 @@
+package org.multibit.hd.ui.views.components.tables;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Abstract base class to provide the following to table models:</p>
+ * <ul>
+ * <li>Cell values computed lazily from the backing rows</li>
+ * <li>Updates applied as a diff between the old and new rows by stable ID</li>
+ * <li>Precise row inserted, updated and deleted events proportional to the change</li>
+ * </ul>
+ * <p>Firing a table data changed event discards the selection and makes the sorter and renderers start again, so
+ * a refresh of a large table with a single new row is as expensive as the first load. Instead the rows are matched
+ * by ID, a fingerprint of the displayed values identifies changed rows, and the backing rows are brought into line
+ * one contiguous range at a time. The event for a range is fired before the next range is applied so that each
+ * listener sees the model exactly as the event describes it.</p>
+ * <p>If the rows common to both lists have changed their relative order the model is reset in one step.</p>
+ *
+ * @param <T> The row type
+ *
+ * @since 0.0.1
+ */
+public abstract class AbstractDiffTableModel<T> extends AbstractTableModel {
+
+  private static final int UNCHANGED = 0;
+  private static final int INSERTED = 1;
+  private static final int UPDATED = 2;
+
+  /**
+   * The fingerprint of the displayed values of each row by ID
+   */
+  private final Map<Object, Object> fingerprints = Maps.newHashMap();
+
+  /**
+   * @param row The row
+   *
+   * @return The stable ID of the row (e.g. a transaction hash or UUID)
+   */
+  protected abstract Object getRowId(T row);
+
+  /**
+   * @param row The row
+   *
+   * @return An immutable copy of the values displayed for the row (compared with equals) so that a changed row can be detected
+   */
+  protected abstract Object getRowFingerprint(T row);
+
+  /**
+   * @param modelRow The model row index
+   *
+   * @return The row
+   */
+  protected abstract T getRow(int modelRow);
+
+  /**
+   * @param modelRow The model row index
+   *
+   * @return The stable ID of the row (override if the ID is held without the row)
+   */
+  protected Object getRowIdAt(int modelRow) {
+    return getRowId(getRow(modelRow));
+  }
+
+  /**
+   * @param modelRow The model row index for the new row
+   * @param row      The row to insert
+   */
+  protected abstract void insertRow(int modelRow, T row);
+
+  /**
+   * @param modelRow The model row index to remove
+   */
+  protected abstract void removeRow(int modelRow);
+
+  /**
+   * <p>Replace a row with a newer instance that has the same ID</p>
+   *
+   * @param modelRow The model row index
+   * @param row      The replacement row
+   */
+  protected abstract void replaceRow(int modelRow, T row);
+
+  /**
+   * @param rows The rows that replace all the existing rows
+   */
+  protected abstract void resetRows(List<T> rows);
+
+  /**
+   * <p>Bring the model into line with the given rows</p>
+   *
+   * @param newRows    The new rows in model order
+   * @param fireEvents True if table model events should be fired
+   */
+  protected void setRows(List<T> newRows, boolean fireEvents) {
+
+    Preconditions.checkNotNull(newRows, "'newRows' must be present");
+
+    int oldSize = getRowCount();
+
+    // Index the new rows by ID
+    Map<Object, Integer> newIndexes = Maps.newHashMapWithExpectedSize(newRows.size());
+    for (int i = 0; i < newRows.size(); i++) {
+      if (newIndexes.put(getRowId(newRows.get(i)), i) != null) {
+        // Duplicate IDs cannot be matched so start again
+        reset(newRows, fireEvents);
+        return;
+      }
+    }
+
+    // The surviving rows must keep their relative order for a diff to apply
+    int previousNewIndex = -1;
+    for (int row = 0; row < oldSize; row++) {
+      Integer newIndex = newIndexes.get(getRowIdAt(row));
+      if (newIndex != null) {
+        if (newIndex < previousNewIndex) {
+          reset(newRows, fireEvents);
+          return;
+        }
+        previousNewIndex = newIndex;
+      }
+    }
+
+    // Remove from the bottom up so that indexes remain valid, firing each contiguous range
+    int rangeEnd = -1;
+    for (int row = oldSize - 1; row >= 0; row--) {
+      Object id = getRowIdAt(row);
+      if (newIndexes.containsKey(id)) {
+        if (rangeEnd != -1) {
+          fireRowsDeleted(row + 1, rangeEnd, fireEvents);
+          rangeEnd = -1;
+        }
+        continue;
+      }
+      if (rangeEnd == -1) {
+        rangeEnd = row;
+      }
+      removeRow(row);
+      fingerprints.remove(id);
+    }
+    if (rangeEnd != -1) {
+      fireRowsDeleted(0, rangeEnd, fireEvents);
+    }
+
+    // Only surviving rows remain so insert and update from the top down
+    int rangeStart = -1;
+    int rangeChange = UNCHANGED;
+    for (int row = 0; row < newRows.size(); row++) {
+
+      T newRow = newRows.get(row);
+      Object id = getRowId(newRow);
+      Object fingerprint = getRowFingerprint(newRow);
+      boolean present = fingerprints.containsKey(id);
+      Object oldFingerprint = fingerprints.put(id, fingerprint);
+
+      final int change;
+      if (!present) {
+        change = INSERTED;
+      } else {
+        change = Objects.equal(oldFingerprint, fingerprint) ? UNCHANGED : UPDATED;
+      }
+
+      // A range ends when the kind of change differs from the one before (fired before this row is applied)
+      if (change != rangeChange) {
+        if (rangeChange != UNCHANGED) {
+          fireRowsChanged(rangeStart, row - 1, rangeChange, fireEvents);
+        }
+        rangeStart = row;
+        rangeChange = change;
+      }
+
+      if (change == INSERTED) {
+        insertRow(row, newRow);
+      } else {
+        replaceRow(row, newRow);
+      }
+    }
+    if (rangeChange != UNCHANGED) {
+      fireRowsChanged(rangeStart, newRows.size() - 1, rangeChange, fireEvents);
+    }
+  }
+
+  private void reset(List<T> newRows, boolean fireEvents) {
+
+    resetRows(newRows);
+
+    fingerprints.clear();
+    for (T newRow : newRows) {
+      fingerprints.put(getRowId(newRow), getRowFingerprint(newRow));
+    }
+
+    if (fireEvents) {
+      fireTableDataChanged();
+    }
+  }
+
+  private void fireRowsDeleted(int firstRow, int lastRow, boolean fireEvents) {
+
+    if (fireEvents) {
+      fireTableRowsDeleted(firstRow, lastRow);
+    }
+  }
+
+  private void fireRowsChanged(int firstRow, int lastRow, int change, boolean fireEvents) {
+
+    if (!fireEvents) {
+      return;
+    }
+    if (change == INSERTED) {
+      fireTableRowsInserted(firstRow, lastRow);
+    } else {
+      fireTableRowsUpdated(firstRow, lastRow);
+    }
+  }
+
+}
@@ -4,6 +4,8 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -18,21 +20,27 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
-import javax.swing.table.AbstractTableModel;
 import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>TableModel to provide the following to contact JTable:</p>
  * <ul>
  * <li>Adapts a list of contacts into a table model</li>
  * </ul>
+ * <p>Cell values are computed from the contacts when they are rendered and changes are applied as a diff by contact
+ * ID. Checkmarks follow the contact rather than the row.</p>
  *
  * @since 0.0.1
  *  
  */
-public class ContactTableModel extends AbstractTableModel {
+public class ContactTableModel extends AbstractDiffTableModel<Contact> {
 
   private static final Logger log = LoggerFactory.getLogger(ContactTableModel.class);
 
@@ -56,8 +64,27 @@ public class ContactTableModel extends AbstractTableModel {
     Languages.safeText(MessageKey.TAGS),
   };
 
-  private Object[][] data;
-  private List<Contact> contacts = Lists.newArrayList();
+  private final List<Contact> contacts = Lists.newArrayList();
+
+  /**
+   * The IDs of the contacts with a checkmark
+   */
+  private final Set<UUID> checkedIds = Sets.newHashSet();
+
+  /**
+   * A failed gravatar is retried after this time so a network outage does not last for the whole session
+   */
+  private static final long GRAVATAR_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  /**
+   * The gravatar for each email address, absent while it is being retrieved
+   */
+  private final Map<String, Optional<ImageIcon>> gravatars = Maps.newHashMap();
+
+  /**
+   * The time after which the gravatar for an email address that failed can be retrieved again
+   */
+  private final Map<String, Long> gravatarRetryTimes = Maps.newHashMap();
 
   public ContactTableModel(List<Contact> contacts) {
 
@@ -73,7 +100,7 @@ public class ContactTableModel extends AbstractTableModel {
   }
 
   public int getRowCount() {
-    return data.length;
+    return contacts.size();
   }
 
   public String getColumnName(int col) {
@@ -81,7 +108,26 @@ public class ContactTableModel extends AbstractTableModel {
   }
 
   public Object getValueAt(int row, int col) {
-    return data[row][col];
+
+    Contact contact = contacts.get(row);
+
+    switch (col) {
+      case CHECKBOX_COLUMN_INDEX:
+        return checkedIds.contains(contact.getId());
+      case GRAVATAR_COLUMN_INDEX:
+        Optional<ImageIcon> gravatar = gravatars.get(gravatarEmail(contact));
+        return gravatar == null ? null : gravatar.orNull();
+      case NAME_COLUMN_INDEX:
+        return contact.getName();
+      case EMAIL_COLUMN_INDEX:
+        return contact.getEmail().or("");
+      case ADDRESS_COLUMN_INDEX:
+        return contact.getBitcoinAddress().or("");
+      case TAG_COLUMN_INDEX:
+        return Joiner.on(" ").join(contact.getTags());
+      default:
+        return null;
+    }
   }
 
   /**
@@ -107,7 +153,17 @@ public class ContactTableModel extends AbstractTableModel {
    */
   public void setValueAt(Object value, int row, int col) {
 
-    data[row][col] = value;
+    if (col != CHECKBOX_COLUMN_INDEX) {
+      // Only the checkmarks are editable
+      return;
+    }
+
+    UUID id = contacts.get(row).getId();
+    if (Boolean.TRUE.equals(value)) {
+      checkedIds.add(id);
+    } else {
+      checkedIds.remove(id);
+    }
 
     // Keep repaints to a minimum
     fireTableCellUpdated(row, col);
@@ -166,11 +222,11 @@ public class ContactTableModel extends AbstractTableModel {
 
     List<Contact> results = Lists.newArrayList();
 
-    for (int row = 0; row < getRowCount(); row++) {
+    for (Contact contact : contacts) {
 
-      if (getValueAt(row, CHECKBOX_COLUMN_INDEX).equals(selected)) {
+      if (checkedIds.contains(contact.getId()) == selected) {
 
-        results.add(contacts.get(row));
+        results.add(contact);
 
       }
 
@@ -184,9 +240,10 @@ public class ContactTableModel extends AbstractTableModel {
    */
   public void removeContacts(List<Contact> list) {
 
-    contacts.removeAll(list);
+    List<Contact> remaining = Lists.newArrayList(contacts);
+    remaining.removeAll(list);
 
-    setContacts(contacts, true);
+    setContacts(remaining, true);
 
   }
 
@@ -194,85 +251,156 @@ public class ContactTableModel extends AbstractTableModel {
    * <p>Populate the table data from the current contacts</p>
    *
    * @param contacts             The contacts that will form the basis of the table model in the same order as presented
-   * @param fireTableDataChanged True if the table data changed Swing event should be fired
+   * @param fireTableDataChanged True if the Swing events for the changed rows should be fired
    */
   public void setContacts(Collection<Contact> contacts, boolean fireTableDataChanged) {
 
     log.debug("Set contacts, fireTableDataChanged='{}'", fireTableDataChanged);
 
-    this.contacts = Lists.newArrayList(contacts);
+    setRows(Lists.newArrayList(contacts), fireTableDataChanged);
 
-    if (data == null || contacts.size() != data.length) {
-      // Reset the model
-      data = new Object[contacts.size()][COLUMN_COUNT];
-    }
+  }
 
-    int row = 0;
-    for (Contact contact : contacts) {
+  @Override
+  protected Object getRowId(Contact row) {
+    return row.getId();
+  }
 
-      // Build row manually to allow for flexible column index reporting
-      final Object[] rowData = new Object[COLUMN_COUNT];
-      // Attempt to preserve the earlier checkboxes
-      rowData[CHECKBOX_COLUMN_INDEX] = data[row][CHECKBOX_COLUMN_INDEX] == null ? false: data[row][CHECKBOX_COLUMN_INDEX];
-      rowData[NAME_COLUMN_INDEX] = contact.getName();
-      rowData[EMAIL_COLUMN_INDEX] = contact.getEmail().or("");
-      rowData[ADDRESS_COLUMN_INDEX] = contact.getBitcoinAddress().or("");
-      rowData[TAG_COLUMN_INDEX] = Joiner.on(" ").join(contact.getTags());
-
-      // Ensure we download the contact image asynchronously
-      final ListenableFuture<Optional<BufferedImage>> imageFuture = Gravatars.retrieveGravatar(contact.getEmail().or("nobody@example.org"));
-      Futures.addCallback(imageFuture, new FutureCallback<Optional<BufferedImage>>() {
-
-        public void onSuccess(final Optional<BufferedImage> image) {
-
-          SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
-              if (image.isPresent()) {
-
-                final ImageIcon gravatar = ImageDecorator.toImageIcon(
-                  ImageDecorator.applyRoundedCorners(image.get(), MultiBitUI.IMAGE_CORNER_RADIUS)
-                );
-                rowData[GRAVATAR_COLUMN_INDEX] = gravatar;
-              } else {
-                // Update the UI to use the "no network" icon
-                rowData[GRAVATAR_COLUMN_INDEX] = Images.newNoNetworkContactImageIcon();
-              }
-
-              // Ensure all listeners update to the new situation
-              fireTableDataChanged();
-            }
-          });
-        }
+  @Override
+  protected Object getRowFingerprint(Contact row) {
 
-        public void onFailure(Throwable thrown) {
+    // Copy the tags so that a change made in place is still detected
+    List<String> tags = row.getTags() == null ? null : Lists.newArrayList(row.getTags());
 
-          SwingUtilities.invokeLater(new Runnable() {
-            @Override
-            public void run() {
+    return Arrays.<Object>asList(row.getName(), row.getEmail(), row.getBitcoinAddress(), tags);
+  }
 
-              // Update the UI to use the "no network" icon
-              rowData[GRAVATAR_COLUMN_INDEX] = Images.newNoNetworkContactImageIcon();
+  @Override
+  protected Contact getRow(int modelRow) {
+    return contacts.get(modelRow);
+  }
 
-              // Ensure all listeners update to the new situation
-              fireTableDataChanged();
-            }
-          });
-        }
-      });
+  @Override
+  protected void insertRow(int modelRow, Contact row) {
+    contacts.add(modelRow, row);
+    retrieveGravatar(row);
+  }
+
+  @Override
+  protected void removeRow(int modelRow) {
+    checkedIds.remove(contacts.remove(modelRow).getId());
+  }
 
-      data[row] = rowData;
+  @Override
+  protected void replaceRow(int modelRow, Contact row) {
+    contacts.set(modelRow, row);
+    retrieveGravatar(row);
+  }
+
+  @Override
+  protected void resetRows(List<Contact> rows) {
 
-      row++;
+    contacts.clear();
+    contacts.addAll(rows);
 
+    // Keep the checkmarks of contacts that remain
+    Set<UUID> ids = Sets.newHashSet();
+    for (Contact contact : rows) {
+      ids.add(contact.getId());
+      retrieveGravatar(contact);
     }
+    checkedIds.retainAll(ids);
+  }
 
-    // Update the table data now
-    if (fireTableDataChanged) {
-      fireTableDataChanged();
+  /**
+   * @param contact The contact
+   *
+   * @return The email address used to look up the gravatar
+   */
+  private String gravatarEmail(Contact contact) {
+    return contact.getEmail().or("nobody@example.org");
+  }
+
+  /**
+   * <p>Retrieve the gravatar for the contact if it has not already been requested (or it failed a while ago)</p>
+   *
+   * @param contact The contact
+   */
+  private void retrieveGravatar(Contact contact) {
+
+    final String email = gravatarEmail(contact);
+    if (gravatars.containsKey(email)) {
+      Long retryTime = gravatarRetryTimes.get(email);
+      if (retryTime == null || System.currentTimeMillis() < retryTime) {
+        return;
+      }
     }
+    gravatarRetryTimes.remove(email);
+    gravatars.put(email, Optional.<ImageIcon>absent());
+
+    // Ensure we download the contact image asynchronously
+    final ListenableFuture<Optional<BufferedImage>> imageFuture = Gravatars.retrieveGravatar(email);
+    Futures.addCallback(imageFuture, new FutureCallback<Optional<BufferedImage>>() {
+
+      public void onSuccess(final Optional<BufferedImage> image) {
+
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            if (image.isPresent()) {
+
+              final ImageIcon gravatar = ImageDecorator.toImageIcon(
+                ImageDecorator.applyRoundedCorners(image.get(), MultiBitUI.IMAGE_CORNER_RADIUS)
+              );
+              updateGravatar(email, gravatar);
+            } else {
+              failGravatar(email);
+            }
+          }
+        });
+      }
+
+      public void onFailure(Throwable thrown) {
 
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            failGravatar(email);
+          }
+        });
+      }
+    });
+
+  }
+
+  /**
+   * <p>Show the "no network" icon until the gravatar is retried</p>
+   *
+   * @param email The email address
+   */
+  private void failGravatar(String email) {
+
+    gravatarRetryTimes.put(email, System.currentTimeMillis() + GRAVATAR_RETRY_MILLIS);
+    updateGravatar(email, Images.newNoNetworkContactImageIcon());
+
+  }
+
+  /**
+   * <p>Repaint only the gravatar cells of the contacts sharing the email address</p>
+   *
+   * @param email    The email address
+   * @param gravatar The gravatar image
+   */
+  private void updateGravatar(String email, ImageIcon gravatar) {
+
+    gravatars.put(email, Optional.of(gravatar));
+
+    for (int row = 0; row < contacts.size(); row++) {
+      if (email.equals(gravatarEmail(contacts.get(row)))) {
+        fireTableCellUpdated(row, GRAVATAR_COLUMN_INDEX);
+      }
+    }
 
   }
 
-}
\ No newline at end of file
+}
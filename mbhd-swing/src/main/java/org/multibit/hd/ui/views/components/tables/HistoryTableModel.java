@@ -2,25 +2,30 @@ package org.multibit.hd.ui.views.components.tables;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.dto.HistoryEntry;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
 
-import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * <p>TableModel to provide the following to contact JTable:</p>
  * <ul>
  * <li>Adapts a list of history entries into a table model</li>
  * </ul>
+ * <p>Cell values are computed from the entries when they are rendered and changes are applied as a diff by history
+ * ID. Checkmarks follow the entry rather than the row.</p>
  *
  * @since 0.0.1
  *  
  */
-public class HistoryTableModel extends AbstractTableModel {
+public class HistoryTableModel extends AbstractDiffTableModel<HistoryEntry> {
 
   public static final int CHECKBOX_COLUMN_INDEX = 0;
   public static final int CREATED_COLUMN_INDEX = 1;
@@ -38,8 +43,12 @@ public class HistoryTableModel extends AbstractTableModel {
     Languages.safeText(MessageKey.NOTES),
   };
 
-  private Object[][] data;
-  private List<HistoryEntry> historyEntries = Lists.newArrayList();
+  private final List<HistoryEntry> historyEntries = Lists.newArrayList();
+
+  /**
+   * The IDs of the history entries with a checkmark
+   */
+  private final Set<UUID> checkedIds = Sets.newHashSet();
 
   public HistoryTableModel(List<HistoryEntry> historyEntries) {
 
@@ -54,7 +63,7 @@ public class HistoryTableModel extends AbstractTableModel {
   }
 
   public int getRowCount() {
-    return data.length;
+    return historyEntries.size();
   }
 
   public String getColumnName(int col) {
@@ -62,7 +71,21 @@ public class HistoryTableModel extends AbstractTableModel {
   }
 
   public Object getValueAt(int row, int col) {
-    return data[row][col];
+
+    HistoryEntry historyEntry = historyEntries.get(row);
+
+    switch (col) {
+      case CHECKBOX_COLUMN_INDEX:
+        return checkedIds.contains(historyEntry.getId());
+      case CREATED_COLUMN_INDEX:
+        return historyEntry.getCreated();
+      case DESCRIPTION_COLUMN_INDEX:
+        return historyEntry.getDescription();
+      case NOTES_COLUMN_INDEX:
+        return historyEntry.getNotes().or("");
+      default:
+        return null;
+    }
   }
 
   /**
@@ -87,7 +110,17 @@ public class HistoryTableModel extends AbstractTableModel {
    */
   public void setValueAt(Object value, int row, int col) {
 
-    data[row][col] = value;
+    if (col != CHECKBOX_COLUMN_INDEX) {
+      // Only the checkmarks are editable
+      return;
+    }
+
+    UUID id = historyEntries.get(row).getId();
+    if (Boolean.TRUE.equals(value)) {
+      checkedIds.add(id);
+    } else {
+      checkedIds.remove(id);
+    }
 
     // Keep repaints to a minimum
     fireTableCellUpdated(row, col);
@@ -143,11 +176,11 @@ public class HistoryTableModel extends AbstractTableModel {
 
     List<HistoryEntry> results = Lists.newArrayList();
 
-    for (int row = 0; row < getRowCount(); row++) {
+    for (HistoryEntry historyEntry : historyEntries) {
 
-      if (getValueAt(row, CHECKBOX_COLUMN_INDEX).equals(selected)) {
+      if (checkedIds.contains(historyEntry.getId()) == selected) {
 
-        results.add(historyEntries.get(row));
+        results.add(historyEntry);
 
       }
 
@@ -160,38 +193,56 @@ public class HistoryTableModel extends AbstractTableModel {
    * <p>Populate the table data from the current history entries</p>
    *
    * @param entries              The history entries that will form the basis of the table model in the same order as presented
-   * @param fireTableDataChanged True if the table data changed event should be fired
+   * @param fireTableDataChanged True if the events for the changed rows should be fired
    */
   public void setHistoryEntries(Collection<HistoryEntry> entries, boolean fireTableDataChanged) {
 
-    this.historyEntries = Lists.newArrayList(entries);
+    setRows(Lists.newArrayList(entries), fireTableDataChanged);
 
-    if (data == null || entries.size() != data.length) {
-      // Reset the model
-      data = new Object[entries.size()][COLUMN_COUNT];
-    }
+  }
 
-    int row = 0;
-    for (HistoryEntry historyEntry : entries) {
+  @Override
+  protected Object getRowId(HistoryEntry row) {
+    return row.getId();
+  }
 
-      // Build row manually to allow for flexible column index reporting
-      final Object[] rowData = new Object[COLUMN_COUNT];
-      // Attempt to preserve the earlier checkboxes
-      rowData[CHECKBOX_COLUMN_INDEX] = data[row][CHECKBOX_COLUMN_INDEX] == null ? false: data[row][CHECKBOX_COLUMN_INDEX];
-      rowData[CREATED_COLUMN_INDEX] = historyEntry.getCreated();
-      rowData[DESCRIPTION_COLUMN_INDEX] = historyEntry.getDescription();
-      rowData[NOTES_COLUMN_INDEX] = historyEntry.getNotes().or("");
+  @Override
+  protected Object getRowFingerprint(HistoryEntry row) {
+    return Arrays.<Object>asList(row.getCreated(), row.getDescription(), row.getNotes());
+  }
 
-      data[row] = rowData;
+  @Override
+  protected HistoryEntry getRow(int modelRow) {
+    return historyEntries.get(modelRow);
+  }
 
-      row++;
+  @Override
+  protected void insertRow(int modelRow, HistoryEntry row) {
+    historyEntries.add(modelRow, row);
+  }
 
-    }
+  @Override
+  protected void removeRow(int modelRow) {
+    checkedIds.remove(historyEntries.remove(modelRow).getId());
+  }
 
-    if (fireTableDataChanged) {
-      fireTableDataChanged();
-    }
+  @Override
+  protected void replaceRow(int modelRow, HistoryEntry row) {
+    historyEntries.set(modelRow, row);
+  }
 
+  @Override
+  protected void resetRows(List<HistoryEntry> rows) {
+
+    historyEntries.clear();
+    historyEntries.addAll(rows);
+
+    // Keep the checkmarks of entries that remain
+    Set<UUID> ids = Sets.newHashSet();
+    for (HistoryEntry historyEntry : rows) {
+      ids.add(historyEntry.getId());
+    }
+    checkedIds.retainAll(ids);
   }
 
-}
\ No newline at end of file
+}
@@ -1,28 +1,38 @@
 package org.multibit.hd.ui.views.components.tables;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.joda.time.DateTime;
 import org.multibit.hd.core.config.Configurations;
 import org.multibit.hd.core.dto.FiatPayment;
 import org.multibit.hd.core.dto.PaymentData;
+import org.multibit.hd.core.dto.PaymentDataColumns;
+import org.multibit.hd.core.dto.PaymentStatus;
 import org.multibit.hd.core.dto.RAGStatus;
 import org.multibit.hd.ui.languages.Languages;
 import org.multibit.hd.ui.languages.MessageKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 /**
  * <p>TableModel to provide the following to contact JTable:</p>
  * <ul>
  * <li>Adapts a list of payments into a table model</li>
  * </ul>
+ * <p>Cell values are read from compact columns when they are rendered rather than copied up front, and new payment
+ * data is applied as a diff by transaction ID or payment request address. The payments of the last update are kept
+ * by ID (shared with the wallet service rather than copied) so that a description, fiat amount or selection is a
+ * single map lookup on the EDT.</p>
  *
  * @since 0.0.1
  *  
  */
-public class PaymentTableModel extends AbstractTableModel {
+public class PaymentTableModel extends AbstractDiffTableModel<PaymentData> {
 
   public static final int DATE_COLUMN_INDEX = 0;
   public static final int STATUS_COLUMN_INDEX = 1;
@@ -42,10 +52,23 @@ public class PaymentTableModel extends AbstractTableModel {
           Languages.safeText(MessageKey.LOCAL_AMOUNT) + " " + Configurations.currentConfiguration.getBitcoin().getLocalCurrencySymbol()
   };
 
-  private Object[][] data;
+  /**
+   * The payments shown by ID as of the last update (only accessed on the EDT)
+   */
+  private final Map<String, PaymentData> paymentDataById = Maps.newHashMap();
 
-  private List<PaymentData> paymentData;
+  private final PaymentDataColumns columns = new PaymentDataColumns(
+    Lists.<PaymentData>newArrayList(),
+    new PaymentDataColumns.PaymentDataSource() {
+      @Override
+      public Optional<PaymentData> getPaymentData(String paymentId) {
+        return Optional.fromNullable(paymentDataById.get(paymentId));
+      }
+    });
 
+  /**
+   * @param paymentData The payments to show in the table
+   */
   public PaymentTableModel(List<PaymentData> paymentData) {
     setPaymentData(paymentData, false);
   }
@@ -53,33 +76,19 @@ public class PaymentTableModel extends AbstractTableModel {
   /**
    * Set the payment data into the table
    *
-   * @param paymentData The paymentData to show in the table
+   * @param paymentData          The paymentData to show in the table
+   * @param fireTableDataChanged True if the table model events for the changed rows should be fired
    */
   public void setPaymentData(List<PaymentData> paymentData, boolean fireTableDataChanged) {
 
-    this.paymentData = paymentData;
-
-    data = new Object[paymentData.size()][];
-
-    int row = 0;
-    for (PaymentData payment : paymentData) {
-
-      Object[] rowData = new Object[]{
-              payment.getDate(),
-              payment.getStatus(),
-              payment.getType(),
-              payment.getDescription(),
-              payment.getAmountCoin(),
-              payment.getAmountFiat()
-      };
+    // Fix the payments for rendering until the next update
+    paymentDataById.clear();
+    for (PaymentData row : paymentData) {
+      paymentDataById.put(PaymentDataColumns.getPaymentId(row), row);
+    }
 
-      data[row] = rowData;
+    setRows(paymentData, fireTableDataChanged);
 
-      row++;
-    }
-    if (fireTableDataChanged) {
-      fireTableDataChanged();
-    }
   }
 
   public int getColumnCount() {
@@ -87,7 +96,7 @@ public class PaymentTableModel extends AbstractTableModel {
   }
 
   public int getRowCount() {
-    return data.length;
+    return columns.size();
   }
 
   public String getColumnName(int col) {
@@ -95,17 +104,35 @@ public class PaymentTableModel extends AbstractTableModel {
   }
 
   public Object getValueAt(int row, int col) {
-    if (data.length == 0) {
+    if (row < 0 || row >= columns.size()) {
+      log.error("No payment at row = " + row + ", column = " + col);
       return "";
     }
-    try {
-      return data[row][col];
-    } catch (NullPointerException npe) {
-      log.error("NullPointerException reading row = " + row + ", column = " + col);
-      return "";
+    switch (col) {
+      case DATE_COLUMN_INDEX : return columns.getDate(row);
+      case STATUS_COLUMN_INDEX : return columns.getStatus(row);
+      case TYPE_COLUMN_INDEX : return columns.getType(row);
+      case DESCRIPTION_COLUMN_INDEX : return getDescription(row);
+      case AMOUNT_BTC_COLUMN_INDEX : return columns.getAmountCoin(row);
+      case AMOUNT_FIAT_COLUMN_INDEX : return getAmountFiat(row);
+      default: return "";
     }
   }
 
+  private String getDescription(int row) {
+
+    Optional<PaymentData> paymentData = columns.getPaymentData(row);
+
+    return paymentData.isPresent() ? paymentData.get().getDescription() : "";
+  }
+
+  private FiatPayment getAmountFiat(int row) {
+
+    Optional<PaymentData> paymentData = columns.getPaymentData(row);
+
+    return paymentData.isPresent() ? paymentData.get().getAmountFiat() : null;
+  }
+
   /**
    * JTable uses this method to determine the default renderer/
    * editor for each cell.  If we didn't implement this method,
@@ -131,8 +158,78 @@ public class PaymentTableModel extends AbstractTableModel {
     // No table updates allowed
   }
 
-  public List<PaymentData> getPaymentData() {
-    return paymentData;
+  /**
+   * @param modelRow The model row index
+   *
+   * @return The current payment shown in the row, absent if it no longer exists
+   */
+  public Optional<PaymentData> getPaymentData(int modelRow) {
+    return columns.getPaymentData(modelRow);
+  }
+
+  /**
+   * @param modelRow The model row index
+   *
+   * @return True if the payment shown in the row is a coinbase transaction
+   */
+  public boolean isCoinBase(int modelRow) {
+    return columns.isCoinBase(modelRow);
+  }
+
+  @Override
+  protected Object getRowId(PaymentData row) {
+    return PaymentDataColumns.getPaymentId(row);
+  }
+
+  @Override
+  protected Object getRowIdAt(int modelRow) {
+    return columns.getPaymentId(modelRow);
+  }
+
+  @Override
+  protected Object getRowFingerprint(PaymentData row) {
+
+    PaymentStatus status = row.getStatus();
+
+    return Arrays.<Object>asList(
+      row.getDate(),
+      status.getStatus(),
+      status.getDepth(),
+      row.isCoinBase(),
+      row.getType(),
+      row.getDescription(),
+      row.getAmountCoin(),
+      row.getAmountFiat()
+    );
+  }
+
+  @Override
+  protected PaymentData getRow(int modelRow) {
+    return columns.getPaymentData(modelRow).orNull();
+  }
+
+  @Override
+  protected void insertRow(int modelRow, PaymentData row) {
+    columns.insert(modelRow, row);
+  }
+
+  @Override
+  protected void removeRow(int modelRow) {
+    columns.remove(modelRow);
+  }
+
+  @Override
+  protected void replaceRow(int modelRow, PaymentData row) {
+    columns.set(modelRow, row);
+  }
+
+  @Override
+  protected void resetRows(List<PaymentData> rows) {
+
+    columns.clear();
+    for (PaymentData row : rows) {
+      columns.insert(columns.size(), row);
+    }
   }
 
 }
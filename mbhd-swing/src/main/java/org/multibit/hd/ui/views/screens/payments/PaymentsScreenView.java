@@ -1,5 +1,7 @@
 package org.multibit.hd.ui.views.screens.payments;
 
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.eventbus.Subscribe;
 import net.miginfocom.swing.MigLayout;
 import org.multibit.hd.core.dto.PaymentData;
@@ -61,6 +63,13 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
   // View components
   private ModelAndView<EnterSearchModel, EnterSearchView> enterSearchMaV;
 
+  /**
+   * The wallet service, payment data version and search query last shown in the table (only accessed on the EDT)
+   */
+  private WalletService shownWalletService = null;
+  private long shownPaymentDataVersion = -1;
+  private String shownQuery = null;
+
   /**
    * @param panelModel The model backing this panel view
    * @param screen     The screen to filter events from components
@@ -188,11 +197,28 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
             if (refreshData) {
               walletService.getPaymentDataList();
             }
+
+            // Skip the filter and the table diff if the table already shows this version with this query
+            // (read after the refresh so that a later change is picked up by the next update, and unknown
+            // without a refresh since the search then uses the last snapshot)
+            long paymentDataVersion = refreshData ? walletService.getPaymentDataVersion() : -1;
+            String query = enterSearchMaV.getModel().getValue();
+            if (refreshData
+              && walletService == shownWalletService
+              && paymentDataVersion == shownPaymentDataVersion
+              && Objects.equal(query, shownQuery)) {
+              return;
+            }
+
             // Check the search MaV model for a query and apply it
-            List<PaymentData> filteredPaymentDataList = walletService.filterPaymentsByContent(enterSearchMaV.getModel().getValue());
+            List<PaymentData> filteredPaymentDataList = walletService.filterPaymentsByContent(query);
 
             ((PaymentTableModel) paymentsTable.getModel()).setPaymentData(filteredPaymentDataList, true);
 
+            shownWalletService = walletService;
+            shownPaymentDataVersion = paymentDataVersion;
+            shownQuery = query;
+
             // Reselect the selected row if possible
             if (selectedTableRow != -1 && selectedTableRow < paymentsTable.getModel().getRowCount()) {
               paymentsTable.changeSelection(selectedTableRow, 0, false, false);
@@ -224,7 +250,12 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
           return;
         }
         int selectedModelRow = paymentsTable.convertRowIndexToModel(selectedTableRow);
-        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentData().get(selectedModelRow);
+        Optional<PaymentData> selectedPaymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentData(selectedModelRow);
+        if (!selectedPaymentData.isPresent()) {
+          // The payment has gone since the table was last updated
+          return;
+        }
+        PaymentData paymentData = selectedPaymentData.get();
         //log.debug("getDetailsAction : selectedTableRow = " + selectedTableRow + ", selectedModelRow = " + selectedModelRow + ", paymentData = " + paymentData.toString());
 
         PaymentsWizard wizard = Wizards.newPaymentsWizard(paymentData);
@@ -288,11 +319,11 @@ public class PaymentsScreenView extends AbstractScreenView<PaymentsScreenModel>
         int selectedModelRow = paymentsTable.convertRowIndexToModel(selectedTableRow);
         log.debug("getExportAction : selectedTableRow = " + selectedTableRow + ", selectedModelRow = " + selectedModelRow);
 
-        PaymentData paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentData().get(selectedModelRow);
+        Optional<PaymentData> paymentData = ((PaymentTableModel) paymentsTable.getModel()).getPaymentData(selectedModelRow);
 
-        if (paymentData instanceof PaymentRequestData) {
+        if (paymentData.isPresent() && paymentData.get() instanceof PaymentRequestData) {
           // We can delete this
-          CoreServices.getCurrentWalletService().deletePaymentRequest((PaymentRequestData) paymentData);
+          CoreServices.getCurrentWalletService().deletePaymentRequest((PaymentRequestData) paymentData.get());
           fireWalletDetailsChanged();
         }
       }
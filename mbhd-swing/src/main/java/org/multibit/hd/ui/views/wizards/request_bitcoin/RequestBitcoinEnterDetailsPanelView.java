@@ -219,7 +219,7 @@ public class RequestBitcoinEnterDetailsPanelView extends AbstractWizardPanelView
 
     walletService.addPaymentRequest(paymentRequestData);
     try {
-      walletService.writePayments();
+      walletService.writePaymentRequest(paymentRequestData);
     } catch (PaymentsSaveException pse) {
       ExceptionHandler.handleThrowable(pse);
     }
@@ -0,0 +1,82 @@
+package org.multibit.hd.ui.views.components.auto_complete;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AutoCompleteIndexTest {
+
+  private AutoCompleteIndex<String> testObject;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new AutoCompleteIndex<>(3);
+
+    testObject.add("Alice Capital", Arrays.asList("Alice Capital", "Alice", "Capital", "alice@example.org", "VIP"));
+    testObject.add("Alicia Lower", Arrays.asList("Alicia Lower", "Alicia", "Lower", "alicia@example.org"));
+    testObject.add("Bob Capital", Arrays.asList("Bob Capital", "Bob", "Capital", "VIP"));
+    testObject.add("Charles Capital", Arrays.asList("Charles Capital", "Charles", "Capital"));
+    testObject.add("Derek Capital", Arrays.asList("Derek Capital", "Derek", "Capital"));
+  }
+
+  @Test
+  public void testNarrowing() throws Exception {
+
+    List<String> results = testObject.search("A");
+    assertThat(results).hasSize(2);
+    assertThat(results.get(0)).isEqualTo("Alice Capital");
+    assertThat(results.get(1)).isEqualTo("Alicia Lower");
+
+    results = testObject.search("ali");
+    assertThat(results).hasSize(2);
+
+    results = testObject.search("alici");
+    assertThat(results).hasSize(1);
+    assertThat(results.get(0)).isEqualTo("Alicia Lower");
+
+    assertThat(testObject.search("alicix")).isEmpty();
+    assertThat(testObject.search("alicixyz")).isEmpty();
+
+    // Shrinking the fragment starts again
+    assertThat(testObject.search("al")).hasSize(2);
+
+  }
+
+  @Test
+  public void testMaximumResultsInRankOrder() throws Exception {
+
+    // Four contacts share the word but only the first three are returned
+    List<String> results = testObject.search("cap");
+    assertThat(results).hasSize(3);
+    assertThat(results.get(0)).isEqualTo("Alice Capital");
+    assertThat(results.get(1)).isEqualTo("Bob Capital");
+    assertThat(results.get(2)).isEqualTo("Charles Capital");
+
+    // Multiple keys of one item only count once
+    results = testObject.search("vip");
+    assertThat(results).hasSize(2);
+    assertThat(results.get(0)).isEqualTo("Alice Capital");
+
+  }
+
+  @Test
+  public void testFullNameAndEmail() throws Exception {
+
+    List<String> results = testObject.search("bob c");
+    assertThat(results).hasSize(1);
+    assertThat(results.get(0)).isEqualTo("Bob Capital");
+
+    results = testObject.search("alicia@");
+    assertThat(results).hasSize(1);
+    assertThat(results.get(0)).isEqualTo("Alicia Lower");
+
+    assertThat(testObject.size()).isEqualTo(5);
+
+  }
+
+}
@@ -0,0 +1,183 @@
+package org.multibit.hd.ui.views.components.tables;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AbstractDiffTableModelTest {
+
+  private TestTableModel testObject;
+
+  /**
+   * Each event as "type:firstRow-lastRow" with the row count seen by the listener
+   */
+  private List<String> events;
+
+  @Before
+  public void setUp() throws Exception {
+
+    testObject = new TestTableModel();
+    testObject.update(false, "a:1", "b:1", "c:1", "d:1", "e:1");
+
+    events = Lists.newArrayList();
+    testObject.addTableModelListener(new TableModelListener() {
+      @Override
+      public void tableChanged(TableModelEvent e) {
+        events.add(describe(e) + " rows=" + testObject.getRowCount());
+      }
+    });
+  }
+
+  @Test
+  public void testInsertUpdateDelete() throws Exception {
+
+    // Delete "b", update "d" and insert "x" after "e"
+    testObject.update(true, "a:1", "c:1", "d:2", "e:1", "x:1");
+
+    assertThat(events).hasSize(3);
+    assertThat(events.get(0)).isEqualTo("deleted:1-1 rows=4");
+    assertThat(events.get(1)).isEqualTo("updated:2-2 rows=4");
+    assertThat(events.get(2)).isEqualTo("inserted:4-4 rows=5");
+
+    assertThat(testObject.rows).isEqualTo(Arrays.asList("a:1", "c:1", "d:2", "e:1", "x:1"));
+
+  }
+
+  @Test
+  public void testContiguousRanges() throws Exception {
+
+    // Delete "a" to "c" and insert two rows at the top
+    testObject.update(true, "x:1", "y:1", "d:1", "e:1");
+
+    assertThat(events).hasSize(2);
+    assertThat(events.get(0)).isEqualTo("deleted:0-2 rows=2");
+    assertThat(events.get(1)).isEqualTo("inserted:0-1 rows=4");
+
+  }
+
+  @Test
+  public void testEventFiredBeforeNextRangeIsApplied() throws Exception {
+
+    // Update "a" then insert "x" straight after it
+    testObject.update(true, "a:2", "x:1", "b:1", "c:1", "d:1", "e:1");
+
+    // The update is seen before the insert changes the row count
+    assertThat(events).hasSize(2);
+    assertThat(events.get(0)).isEqualTo("updated:0-0 rows=5");
+    assertThat(events.get(1)).isEqualTo("inserted:1-1 rows=6");
+
+  }
+
+  @Test
+  public void testUnchanged() throws Exception {
+
+    testObject.update(true, "a:1", "b:1", "c:1", "d:1", "e:1");
+
+    assertThat(events).isEmpty();
+
+  }
+
+  @Test
+  public void testReorderResets() throws Exception {
+
+    testObject.update(true, "e:1", "d:1", "c:1", "b:1", "a:1");
+
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0)).isEqualTo("changed rows=5");
+
+    assertThat(testObject.rows).isEqualTo(Arrays.asList("e:1", "d:1", "c:1", "b:1", "a:1"));
+
+  }
+
+  private static String describe(TableModelEvent e) {
+
+    if (e.getLastRow() == Integer.MAX_VALUE) {
+      return "changed";
+    }
+
+    final String type;
+    switch (e.getType()) {
+      case TableModelEvent.INSERT:
+        type = "inserted";
+        break;
+      case TableModelEvent.DELETE:
+        type = "deleted";
+        break;
+      default:
+        type = "updated";
+    }
+
+    return type + ":" + e.getFirstRow() + "-" + e.getLastRow();
+  }
+
+  /**
+   * Rows are "id:version" strings
+   */
+  private static class TestTableModel extends AbstractDiffTableModel<String> {
+
+    private final List<String> rows = Lists.newArrayList();
+
+    private void update(boolean fireEvents, String... newRows) {
+      setRows(Arrays.asList(newRows), fireEvents);
+    }
+
+    @Override
+    protected Object getRowId(String row) {
+      return row.substring(0, row.indexOf(':'));
+    }
+
+    @Override
+    protected Object getRowFingerprint(String row) {
+      return row;
+    }
+
+    @Override
+    protected String getRow(int modelRow) {
+      return rows.get(modelRow);
+    }
+
+    @Override
+    protected void insertRow(int modelRow, String row) {
+      rows.add(modelRow, row);
+    }
+
+    @Override
+    protected void removeRow(int modelRow) {
+      rows.remove(modelRow);
+    }
+
+    @Override
+    protected void replaceRow(int modelRow, String row) {
+      rows.set(modelRow, row);
+    }
+
+    @Override
+    protected void resetRows(List<String> newRows) {
+      rows.clear();
+      rows.addAll(newRows);
+    }
+
+    @Override
+    public int getRowCount() {
+      return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+      return 1;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+      return rows.get(rowIndex);
+    }
+  }
+
+}